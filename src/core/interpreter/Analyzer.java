@@ -0,0 +1,17 @@
+package core.interpreter;
+/**
+ * Analyzer that examines a program given in the parse tree and records its
+ * findings in the tree.
+ * 
+ * @author Simeon Georgiev
+ */
+public interface Analyzer {
+
+	/**
+	 * Analyzes the program given in the parse tree.
+	 * 
+	 * @param p
+	 *            the parse tree representing the program to be analyzed
+	 */
+	void analyze(ParseTree p);
+}
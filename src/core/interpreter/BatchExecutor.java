@@ -0,0 +1,471 @@
+package core.interpreter;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Executes a program against many data files, on a fixed pool of threads. The
+ * program is parsed, optimized and analyzed once, and each data file is run by
+ * its own CoreExecutor, with its own identifiers and output buffer, walking
+ * the tree through its own view. The output of each run is kept in memory and
+ * written in the order of the data files, after the line "==> FILE <==", and
+ * the error the run failed with, if any, is then written to stderr, so what is
+ * written does not depend on how the runs were scheduled. A run that fails
+ * does not stop the others.
+ *
+ * With lanes, the data files are taken in groups of that many, and each group
+ * is run at once by a LaneExecutor, one data file in each lane. With time
+ * slices, the runs are submitted to a Scheduler instead of the pool, so that
+ * a run with a long loop does not keep a thread from the runs after it.
+ *
+ * The runs can be cancelled: those that are running fail at their next check,
+ * and the others fail at once, except for a group already running in lanes,
+ * which runs to its end.
+ *
+ * @author Simeon Georgiev
+ */
+public class BatchExecutor implements Executor, Cancellable {
+	// fields
+	/**
+	 * The number of runs, or groups of runs in lanes, started ahead of the one
+	 * being written, for each thread. It keeps the threads busy while bounding
+	 * the output held in memory.
+	 */
+	private static final int AHEAD = 4;
+
+	/**
+	 * The result of a run.
+	 *
+	 * @author Simeon Georgiev
+	 */
+	private static final class Result {
+		/**
+		 * The bytes written by the write statements.
+		 */
+		private byte[] output;
+
+		/**
+		 * The error the run failed with, or null if it did not fail.
+		 */
+		private String error;
+
+		/**
+		 * The cache of the effects of pure loops of the run, or null if they
+		 * are not memoized.
+		 */
+		private LoopMemoizer memo;
+
+		/**
+		 * The buffer the output is written to while the run is on a
+		 * scheduler.
+		 */
+		private ByteArrayOutputStream bytes;
+
+		/**
+		 * The task of the run on a scheduler, or null once it is done.
+		 */
+		private Scheduler.Task task;
+	}
+
+	/**
+	 * The names of the data files.
+	 */
+	private final List<String> filenames;
+
+	/**
+	 * Whether both sides of && and || are always evaluated.
+	 */
+	private final boolean eager;
+
+	/**
+	 * The number of threads that run the program.
+	 */
+	private final int threads;
+
+	/**
+	 * The capacity of the cache of the effects of pure loops of each run, or 0
+	 * if they are not memoized.
+	 */
+	private final int memo;
+
+	/**
+	 * The most integers read ahead of the read statements in each run, or 0.
+	 */
+	private final int readAhead;
+
+	/**
+	 * The number of data files run at once in the lanes of a LaneExecutor, or
+	 * 1 to run each with a CoreExecutor.
+	 */
+	private final int lanes;
+
+	/**
+	 * The length of a time slice in milliseconds, or 0 if the runs are not
+	 * run in time slices.
+	 */
+	private final long slice;
+
+	/**
+	 * The most iterations of loops each run takes, or 0.
+	 */
+	private long steps;
+
+	/**
+	 * The most milliseconds each run takes, or 0.
+	 */
+	private long millis;
+
+	/**
+	 * Whether the runs have been cancelled.
+	 */
+	private volatile boolean cancelled;
+
+	/**
+	 * The executors of the runs that are running on the pool.
+	 */
+	private final Set<CoreExecutor> executors = new HashSet<CoreExecutor>();
+
+	/**
+	 * The tasks of the runs that are on the scheduler.
+	 */
+	private final Set<Scheduler.Task> tasks = new HashSet<Scheduler.Task>();
+
+	// private methods
+	/**
+	 * Runs the program against a data file.
+	 *
+	 * @param p
+	 *            a view of the parse tree used by this run only
+	 * @param filename
+	 *            the name of the data file
+	 * @return the result of the run
+	 */
+	private Result run(ParseTree p, String filename) {
+		Result result = new Result();
+		if (this.memo > 0) {
+			result.memo = new LoopMemoizer(this.memo);
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			IntReader input = CoreExecutor.open(filename, this.readAhead);
+			CoreExecutor executor = new CoreExecutor(input, this.eager,
+					result.memo);
+			executor.limit(this.steps, this.millis);
+			synchronized (this) {
+				if (this.cancelled) {
+					executor.cancel(); // fails as it starts
+				}
+				this.executors.add(executor);
+			}
+			try {
+				executor.execute(p, new OutputBuffer(p, bytes));
+			} finally {
+				synchronized (this) {
+					this.executors.remove(executor);
+				}
+			}
+		} catch (FileNotFoundException e) {
+			result.error = "Input file not found.";
+		} catch (CoreExecutor.Failure e) {
+			result.error = e.getMessage();
+		}
+		result.output = bytes.toByteArray();
+		return result;
+	}
+
+	/**
+	 * Submits a run of the program against a data file to a scheduler.
+	 *
+	 * @param scheduler
+	 *            the scheduler
+	 * @param p
+	 *            a view of the parse tree used by this run only
+	 * @param filename
+	 *            the name of the data file
+	 * @return the result of the run, with its task, or with its error if it
+	 *         could not be submitted
+	 */
+	private Result submit(Scheduler scheduler, ParseTree p, String filename) {
+		Result result = new Result();
+		if (this.memo > 0) {
+			result.memo = new LoopMemoizer(this.memo);
+		}
+		try {
+			IntReader input = CoreExecutor.open(filename, this.readAhead);
+			CoreExecutor executor = new CoreExecutor(input, this.eager,
+					result.memo);
+			executor.limit(this.steps, this.millis);
+			result.bytes = new ByteArrayOutputStream();
+			result.task = scheduler.submit(p, executor, new OutputBuffer(p,
+					result.bytes));
+			synchronized (this) {
+				if (this.cancelled) {
+					result.task.cancel(); // fails when it gets a turn
+				}
+				this.tasks.add(result.task);
+			}
+		} catch (FileNotFoundException e) {
+			result.output = new byte[0];
+			result.error = "Input file not found.";
+		} catch (CoreExecutor.Failure e) {
+			result.output = new byte[0];
+			result.error = e.getMessage();
+		}
+		return result;
+	}
+
+	/**
+	 * Runs the program against each data file on a scheduler, in time slices,
+	 * and writes the results in the order of the data files. At most as many
+	 * runs per thread as without time slices are started ahead of the one
+	 * being written.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void executeSliced(ParseTree p) {
+		Scheduler scheduler = new Scheduler(this.threads, this.slice);
+		Queue<Result> running = new ArrayDeque<Result>();
+		int size = this.filenames.size();
+		int started = 0; // files whose run has been submitted
+		try {
+			for (int i = 0; i < size; i++) {
+				while (started < size && started < i + AHEAD * this.threads) {
+					running.add(submit(scheduler, p.view(),
+							this.filenames.get(started)));
+					started++;
+				}
+				Result result = running.remove();
+				if (result.task != null) {
+					result.error = result.task.await();
+					result.output = result.bytes.toByteArray();
+					synchronized (this) {
+						this.tasks.remove(result.task);
+					}
+					result.task = null;
+				}
+				write(this.filenames.get(i), result);
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	/**
+	 * Runs the program against a group of data files, one in each lane.
+	 *
+	 * @param p
+	 *            a view of the parse tree used by these runs only
+	 * @param group
+	 *            the names of the data files
+	 * @return the result of each run
+	 */
+	private Result[] runLanes(ParseTree p, List<String> group) {
+		Result[] results = new Result[group.size()];
+		List<IntReader> inputs = new ArrayList<IntReader>();
+		List<Integer> runs = new ArrayList<Integer>(); // the run of each lane
+		for (int k = 0; k < results.length; k++) {
+			results[k] = new Result();
+			results[k].output = new byte[0];
+			if (this.cancelled) { // lanes cannot be cancelled once started
+				results[k].error = "Execution cancelled.";
+				continue;
+			}
+			try {
+				inputs.add(CoreExecutor.open(group.get(k), this.readAhead));
+				runs.add(k);
+			} catch (FileNotFoundException e) {
+				results[k].error = "Input file not found.";
+			} catch (CoreExecutor.Failure e) {
+				results[k].error = e.getMessage();
+			}
+		}
+		if (inputs.isEmpty()) {
+			return results;
+		}
+		OutputBuffer[] outputs = new OutputBuffer[inputs.size()];
+		ByteArrayOutputStream[] bytes = new ByteArrayOutputStream[inputs
+				.size()];
+		for (int i = 0; i < outputs.length; i++) {
+			bytes[i] = new ByteArrayOutputStream();
+			outputs[i] = new OutputBuffer(p, bytes[i]);
+		}
+		LaneExecutor lanes = new LaneExecutor(
+				inputs.toArray(new IntReader[inputs.size()]), outputs,
+				this.eager);
+		lanes.execute(p);
+		for (int i = 0; i < outputs.length; i++) {
+			Result result = results[runs.get(i)];
+			result.output = bytes[i].toByteArray();
+			result.error = lanes.failure(i);
+		}
+		return results;
+	}
+
+	/**
+	 * Writes the result of a run.
+	 *
+	 * @param filename
+	 *            the name of the data file of the run
+	 * @param result
+	 *            the result of the run
+	 */
+	private static void write(String filename, Result result) {
+		System.out.println("==> " + filename + " <==");
+		System.out.write(result.output, 0, result.output.length);
+		System.out.flush(); // keep output ahead of the error
+		if (result.error != null) {
+			System.err.println(result.error);
+		} else if (result.memo != null) {
+			System.err.println("Loop memo: " + result.memo.hits() + " hits, "
+					+ result.memo.misses() + " misses, "
+					+ result.memo.evictions() + " evictions");
+		}
+	}
+
+	// package methods
+	/**
+	 * Limits each run, which then fails when it runs more iterations of loops
+	 * or for longer; see CoreExecutor.limit. Runs in lanes are not limited.
+	 *
+	 * @param steps
+	 *            the most iterations of loops each run takes, or 0 if they
+	 *            are not limited
+	 * @param millis
+	 *            the most milliseconds each run takes from when it starts, or
+	 *            0 if it is not limited
+	 */
+	void limit(long steps, long millis) {
+		this.steps = steps;
+		this.millis = millis;
+	}
+
+	// public methods
+	/**
+	 * Initializes the data files and the number of threads. Conditions are
+	 * evaluated with short-circuit.
+	 *
+	 * @param filenames
+	 *            the names of the data files, in the order their output is
+	 *            written
+	 * @param threads
+	 *            the number of threads that run the program
+	 */
+	public BatchExecutor(List<String> filenames, int threads) {
+		this(filenames, false, threads, 0, 0, 1, 0);
+	}
+
+	/**
+	 * Initializes the data files, the number of threads and the options of
+	 * each run.
+	 *
+	 * @param filenames
+	 *            the names of the data files, in the order their output is
+	 *            written
+	 * @param eager
+	 *            whether both sides of && and || are always evaluated
+	 * @param threads
+	 *            the number of threads that run the program
+	 * @param memo
+	 *            the capacity of the cache in which each run memoizes the
+	 *            effects of the loops numbered by the pure-loop analysis, or 0
+	 *            to run every loop
+	 * @param readAhead
+	 *            the most integers each run reads ahead of its read statements
+	 *            on a background thread, or 0 to read them when they are
+	 *            needed
+	 * @param lanes
+	 *            the number of data files run at once in the lanes of a
+	 *            LaneExecutor, or 1 to run each with a CoreExecutor; loops are
+	 *            not memoized in lanes
+	 * @param slice
+	 *            the length in milliseconds of the time slices the runs are
+	 *            run in on a Scheduler, or 0 to run each on a thread until it
+	 *            is done; runs are not run in lanes in time slices
+	 */
+	BatchExecutor(List<String> filenames, boolean eager, int threads,
+			int memo, int readAhead, int lanes, long slice) {
+		assert 1 <= lanes && lanes <= LaneExecutor.MAX_LANES
+				: "Lanes out of range.";
+		assert lanes == 1 || slice == 0 : "Lanes are not run in time slices.";
+		this.filenames = filenames;
+		this.eager = eager;
+		this.threads = threads;
+		this.memo = memo;
+		this.readAhead = readAhead;
+		this.lanes = lanes;
+		this.slice = slice;
+	}
+
+	@Override
+	public void execute(ParseTree p) {
+		assert p.currNT() == 1 : "Expecting <prog>";
+		System.out.flush(); // anything printed before goes first
+		if (this.slice > 0) {
+			executeSliced(p);
+			return;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+		Queue<Future<Result[]>> running = new ArrayDeque<Future<Result[]>>();
+		int size = this.filenames.size();
+		int started = 0; // files whose run has started
+		try {
+			for (int i = 0; i < size; i += this.lanes) {
+				while (started < size
+						&& started < i + AHEAD * this.threads * this.lanes) {
+					final ParseTree view = p.view(); // own cursor
+					final List<String> group = this.filenames.subList(started,
+							Math.min(started + this.lanes, size));
+					running.add(pool.submit(new Callable<Result[]>() {
+						@Override
+						public Result[] call() {
+							if (BatchExecutor.this.lanes > 1) {
+								return runLanes(view, group);
+							}
+							return new Result[] { run(view, group.get(0)) };
+						}
+					}));
+					started += group.size();
+				}
+				Result[] results = running.remove().get();
+				for (int k = 0; k < results.length; k++) {
+					write(this.filenames.get(i + k), results[k]);
+				}
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause()); // not a Core error
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Cancels the runs. Those that are running fail at their next check, and
+	 * those that have not started fail as they start, except for the runs of
+	 * a group that is running in lanes.
+	 */
+	@Override
+	public synchronized void cancel() {
+		this.cancelled = true;
+		for (CoreExecutor executor : this.executors) {
+			executor.cancel();
+		}
+		for (Scheduler.Task task : this.tasks) {
+			task.cancel();
+		}
+	}
+}
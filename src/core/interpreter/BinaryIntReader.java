@@ -0,0 +1,218 @@
+package core.interpreter;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads integers from a binary data file, which holds them as packed 32-bit
+ * two's-complement integers after a header of 16 bytes:
+ * - bytes 0 to 3: the ASCII characters CDAT;
+ * - byte 4: the version of the format, 1;
+ * - byte 5: the byte order of the rest of the file, 'B' for big-endian or 'L'
+ * for little-endian;
+ * - bytes 6 and 7: 0;
+ * - bytes 8 to 15: the number of integers, as a 64-bit integer.
+ *
+ * The integers are memory-mapped, up to 1 GB at a time, and each one is read
+ * from the mapping with no parsing at all. DataConverter writes such files
+ * from text data files.
+ *
+ * @author Simeon Georgiev
+ */
+public class BinaryIntReader implements IntReader {
+	// fields
+	/**
+	 * The number of bytes before the first integer.
+	 */
+	static final int HEADER_SIZE = 16;
+
+	/**
+	 * The version of the format.
+	 */
+	static final int VERSION = 1;
+
+	/**
+	 * The first four bytes of a binary data file.
+	 */
+	private static final byte[] MAGIC = { 'C', 'D', 'A', 'T' };
+
+	/**
+	 * The most bytes mapped at a time.
+	 */
+	private static final long WINDOW_SIZE = 1L << 30;
+
+	/**
+	 * The data file.
+	 */
+	private final RandomAccessFile file;
+
+	/**
+	 * The byte order of the integers.
+	 */
+	private final ByteOrder order;
+
+	/**
+	 * The position in the file of the first integer not mapped yet.
+	 */
+	private long next = HEADER_SIZE;
+
+	/**
+	 * The number of integers not mapped yet.
+	 */
+	private long unmapped;
+
+	/**
+	 * The integers mapped, positioned at the next one to read.
+	 */
+	private IntBuffer window = IntBuffer.allocate(0);
+
+	// private methods
+	/**
+	 * Closes the file, which is not a valid binary data file.
+	 *
+	 * @return the failure to throw
+	 */
+	private CoreExecutor.Failure invalid() {
+		close();
+		return new CoreExecutor.Failure(
+				"Input file is not a valid binary data file.");
+	}
+
+	/**
+	 * Maps the next integers of the file. An error mapping the file is taken
+	 * as the end of the input.
+	 */
+	private void map() {
+		long size = Math.min(WINDOW_SIZE, 4 * this.unmapped);
+		try {
+			ByteBuffer bytes = this.file.getChannel().map(
+					FileChannel.MapMode.READ_ONLY, this.next, size);
+			this.window = bytes.order(this.order).asIntBuffer();
+		} catch (IOException e) {
+			this.unmapped = 0;
+			return;
+		}
+		this.next += size;
+		this.unmapped -= size / 4;
+	}
+
+	// package methods
+	/**
+	 * Returns whether a file starts like a binary data file. A file that
+	 * cannot be read is not one.
+	 *
+	 * @param filename
+	 *            the name of the file
+	 * @return true if the file starts with the magic bytes
+	 */
+	static boolean isBinary(String filename) {
+		byte[] start = new byte[MAGIC.length];
+		int n = 0;
+		try {
+			InputStream in = new FileInputStream(filename);
+			try {
+				while (n < start.length) {
+					int read = in.read(start, n, start.length - n);
+					if (read < 0) {
+						break;
+					}
+					n += read;
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (i >= n || start[i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the header of a binary data file.
+	 *
+	 * @param order
+	 *            the byte order of the integers
+	 * @param count
+	 *            the number of integers
+	 * @return the header, positioned at its start
+	 */
+	static ByteBuffer header(ByteOrder order, long count) {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(order);
+		header.put(MAGIC);
+		header.put((byte) VERSION);
+		header.put((byte) (order == ByteOrder.BIG_ENDIAN ? 'B' : 'L'));
+		header.putShort((short) 0);
+		header.putLong(count);
+		header.flip();
+		return header;
+	}
+
+	// public methods
+	/**
+	 * Opens a binary data file, and checks its header. A file whose header is
+	 * not valid, or that is shorter than the header says, is reported as not
+	 * valid.
+	 *
+	 * @param filename
+	 *            the name of the data file
+	 * @throws FileNotFoundException
+	 *             if the file cannot be opened
+	 * @throws CoreExecutor.Failure
+	 *             if the file is not valid
+	 */
+	public BinaryIntReader(String filename) throws FileNotFoundException {
+		this.file = new RandomAccessFile(filename, "r");
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		long length = 0;
+		try {
+			this.file.readFully(header.array());
+			length = this.file.length();
+		} catch (IOException e) {
+			throw invalid();
+		}
+		byte orderByte = header.get(5);
+		this.order = orderByte == 'B' ? ByteOrder.BIG_ENDIAN
+				: ByteOrder.LITTLE_ENDIAN;
+		this.unmapped = header.order(this.order).getLong(8);
+		if (!header(this.order, this.unmapped).equals(header) // also the order
+				|| this.unmapped < 0
+				|| this.unmapped > (length - HEADER_SIZE) / 4) {
+			throw invalid();
+		}
+	}
+
+	@Override
+	public int nextInt() {
+		if (!this.window.hasRemaining()) {
+			if (this.unmapped == 0) {
+				throw new NoSuchElementException();
+			}
+			map();
+			if (!this.window.hasRemaining()) { // could not be mapped
+				throw new NoSuchElementException();
+			}
+		}
+		return this.window.get();
+	}
+
+	@Override
+	public void close() {
+		try {
+			this.file.close();
+		} catch (IOException e) {
+			// nothing left to read
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package core.interpreter;
+/**
+ * Execution that can be stopped from another thread before it is over, such
+ * as the run of a client that has gone away.
+ * 
+ * @author Simeon Georgiev
+ */
+interface Cancellable {
+
+	/**
+	 * Cancels the execution, which then fails with "Execution cancelled." as
+	 * soon as it checks. It may be called from any thread, and before or after
+	 * the execution is over.
+	 */
+	void cancel();
+}
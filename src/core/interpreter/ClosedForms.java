@@ -0,0 +1,141 @@
+package core.interpreter;
+
+/**
+ * Arithmetic for executing induction loops in closed form. Identifiers are
+ * Java ints, so every value is computed modulo 2^32, exactly as stepping
+ * through the iterations would compute it.
+ *
+ * @author Simeon Georgiev
+ */
+final class ClosedForms {
+
+	/**
+	 * No instances.
+	 */
+	private ClosedForms() {
+	}
+
+	/**
+	 * Returns the number of iterations of a loop whose condition compares an
+	 * induction variable with a bound that does not change.
+	 *
+	 * @param start
+	 *            the value of the induction variable on entry
+	 * @param step
+	 *            the value added to the induction variable by each iteration
+	 * @param c
+	 *            the alternative of the comp op node, with the induction
+	 *            variable on the left
+	 * @param bound
+	 *            the value the induction variable is compared with
+	 * @return the number of iterations, or -1 if the loop never terminates or
+	 *         the induction variable wraps around before it does
+	 */
+	static long tripCount(int start, int step, int c, int bound) {
+		long n;
+		switch (c) {
+		case 1: // !=
+			return start == bound ? 0 : solve(bound - start, step);
+		case 2: // ==
+			return start != bound ? 0 : step != 0 ? 1 : -1;
+		case 3: // <
+			if (start >= bound) {
+				return 0;
+			}
+			if (step <= 0) {
+				return -1;
+			}
+			n = ((long) bound - start + step - 1) / step;
+			return start + n * step <= Integer.MAX_VALUE ? n : -1;
+		case 4: // >
+			if (start <= bound) {
+				return 0;
+			}
+			if (step >= 0) {
+				return -1;
+			}
+			n = ((long) start - bound - step - 1) / -(long) step;
+			return start + n * step >= Integer.MIN_VALUE ? n : -1;
+		case 5: // <=
+			if (start > bound) {
+				return 0;
+			}
+			if (step <= 0) {
+				return -1;
+			}
+			n = ((long) bound - start) / step + 1;
+			return start + n * step <= Integer.MAX_VALUE ? n : -1;
+		case 6: // >=
+			if (start < bound) {
+				return 0;
+			}
+			if (step >= 0) {
+				return -1;
+			}
+			n = ((long) start - bound) / -(long) step + 1;
+			return start + n * step >= Integer.MIN_VALUE ? n : -1;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns the smallest positive k such that k * step == diff modulo 2^32.
+	 *
+	 * @requires diff != 0
+	 * @param diff
+	 *            the distance to cover
+	 * @param step
+	 *            the distance covered by each iteration
+	 * @return k, or -1 if there is none
+	 */
+	private static long solve(int diff, int step) {
+		if (step == 0) {
+			return -1;
+		}
+		int t = Integer.numberOfTrailingZeros(step);
+		if (Integer.numberOfTrailingZeros(diff) < t) {
+			return -1;
+		}
+		int odd = step >> t;
+		int inverse = odd; // Newton's iteration doubles the correct bits
+		for (int i = 0; i < 5; i++) {
+			inverse *= 2 - odd * inverse;
+		}
+		long mask = (1L << (32 - t)) - 1;
+		return Integer.toUnsignedLong((diff >> t) * inverse) & mask;
+	}
+
+	/**
+	 * Returns the value of an induction variable after a number of
+	 * iterations.
+	 *
+	 * @param start
+	 *            the value on entry
+	 * @param step
+	 *            the value added by each iteration
+	 * @param n
+	 *            the number of iterations
+	 * @return start + n * step, modulo 2^32
+	 */
+	static int advance(int start, int step, long n) {
+		return (int) (start + n * step);
+	}
+
+	/**
+	 * Returns the sum of the values of an expression over a number of
+	 * iterations, where the expression is affine in induction variables.
+	 *
+	 * @param first
+	 *            the value in the first iteration
+	 * @param second
+	 *            the value in the second iteration
+	 * @param n
+	 *            the number of iterations
+	 * @return the sum modulo 2^32
+	 */
+	static int sum(int first, int second, long n) {
+		long pairs = n % 2 == 0 ? n / 2 * (n - 1) : n * ((n - 1) / 2);
+		return (int) (n * first + (long) (second - first) * pairs);
+	}
+}
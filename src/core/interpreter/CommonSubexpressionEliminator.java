@@ -0,0 +1,475 @@
+package core.interpreter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Common subexpression elimination for the Core language, by local value
+ * numbering. A region is a statement sequence, together with the conditions of
+ * the if statements in it; the statements nested in if and while statements
+ * are regions of their own. Each expression evaluated in a region is numbered
+ * by its text, and keeps its number until an identifier it uses is assigned.
+ * An expression that is evaluated again while it has a number is replaced by
+ * the identifier that holds its value: the identifier it was assigned to, if
+ * that has not been assigned since, or else a temporary assigned in front of
+ * the statement where the expression is first evaluated.
+ *
+ * Only expressions whose identifiers are always initialized are numbered, so
+ * that evaluating them earlier or not at all never changes whether the program
+ * stops.
+ *
+ * @author Simeon Georgiev
+ */
+public class CommonSubexpressionEliminator implements Optimizer {
+	// fields
+	/**
+	 * The prefix of the names of the temporaries.
+	 */
+	private static final String TEMP = "T";
+
+	/**
+	 * Whether the region is being rewritten. The region is walked twice in
+	 * the same order: first to number the expressions, then to replace them.
+	 */
+	private boolean rewrite;
+
+	/**
+	 * The number of expressions visited so far in the current walk.
+	 */
+	private int visited;
+
+	/**
+	 * The numbers of the expressions evaluated in the region that are still
+	 * valid, indexed by their text.
+	 */
+	private Map<String, Integer> numbers;
+
+	/**
+	 * The slots of the identifiers used by the expression with each number.
+	 */
+	private List<BitSet> uses;
+
+	/**
+	 * The slot of the identifier that holds the value of the expression with
+	 * each number, or -1 if there is none.
+	 */
+	private List<Integer> holders;
+
+	/**
+	 * The numbers that need a temporary, because the expression is evaluated
+	 * again when no identifier holds its value.
+	 */
+	private BitSet needsTemp;
+
+	/**
+	 * The names of the temporaries, indexed by number.
+	 */
+	private Map<Integer, String> temps;
+
+	/**
+	 * The number of each expression visited, in the order visited.
+	 */
+	private List<Integer> visits;
+
+	/**
+	 * The holder of the value of each expression visited, at the time it is
+	 * visited.
+	 */
+	private List<Integer> visitHolders;
+
+	/**
+	 * The expressions visited that are the first with their number.
+	 */
+	private BitSet firsts;
+
+	/**
+	 * The temporaries to assign in front of the current statement.
+	 */
+	private List<String> tempNames;
+
+	/**
+	 * The handles of the detached expressions assigned to the temporaries.
+	 */
+	private List<Integer> tempExps;
+
+	// private methods
+	/**
+	 * Eliminates common subexpressions in a region and in the regions nested
+	 * in it.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 */
+	private void processRegion(ParseTree p) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		this.numbers = new HashMap<String, Integer>();
+		this.uses = new ArrayList<BitSet>();
+		this.holders = new ArrayList<Integer>();
+		this.needsTemp = new BitSet();
+		this.temps = new HashMap<Integer, String>();
+		this.visits = new ArrayList<Integer>();
+		this.visitHolders = new ArrayList<Integer>();
+		this.firsts = new BitSet();
+		this.tempNames = new ArrayList<String>();
+		this.tempExps = new ArrayList<Integer>();
+
+		this.rewrite = false;
+		this.visited = 0;
+		walkStmtSeq(p);
+		if (this.visits.size() > this.uses.size()) {
+			this.rewrite = true; // some expression is evaluated again
+			this.visited = 0;
+			walkStmtSeq(p);
+		}
+		processNested(p);
+	}
+
+	/**
+	 * Processes the regions nested in the statements of a statement sequence.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 */
+	private void processNested(ParseTree p) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		p.goDown(1); // stmt
+		int alt = p.currAlt();
+		p.goDown(1);
+		if (alt == 2) { // if
+			p.goDown(2); // then stmt seq
+			processRegion(p);
+			p.goUp();
+			if (p.currAlt() == 2) {
+				p.goDown(3); // else stmt seq
+				processRegion(p);
+				p.goUp();
+			}
+		} else if (alt == 3) { // loop
+			p.goDown(2); // stmt seq
+			processRegion(p);
+			p.goUp();
+		}
+		p.goUp();
+		p.goUp();
+
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			processNested(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Walks the statements of a region. When rewriting, the temporaries of
+	 * each statement are assigned in front of it, so the statement moves down
+	 * the sequence.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 */
+	private void walkStmtSeq(ParseTree p) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		p.goDown(1); // stmt
+		walkStmt(p);
+		p.goUp();
+
+		int depth = 0;
+		for (int i = 0; i < this.tempNames.size(); i++) {
+			ParseTrees.insertAssign(p, this.tempNames.get(i),
+					this.tempExps.get(i));
+			p.goDown(2); // stmt seq
+			depth++;
+		}
+		this.tempNames.clear();
+		this.tempExps.clear();
+
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			walkStmtSeq(p);
+			p.goUp();
+		}
+		for (int i = 0; i < depth; i++) {
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Walks a statement of a region. Only the expressions of assign
+	 * statements and the conditions of if statements are in the region; the
+	 * identifiers assigned by the other statements invalidate the numbers of
+	 * the expressions that use them.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt node
+	 */
+	private void walkStmt(ParseTree p) {
+		assert p.currNT() == 6 : "Expecting <stmt>";
+		int alt = p.currAlt();
+		if (alt == 1) { // assign
+			p.goDown(1); // assign
+			p.goDown(2); // exp
+			int number = visitExp(p);
+			p.goUp();
+			p.goDown(1); // id
+			int slot = p.currIdSlot();
+			p.goUp();
+			p.goUp();
+			if (!this.rewrite) {
+				kill(slot);
+				if (number >= 0 && this.numbers.containsValue(number)
+						&& !this.uses.get(number).get(slot)
+						&& this.holders.get(number) < 0) {
+					this.holders.set(number, slot); // holds the value
+				}
+			}
+			return;
+		}
+
+		if (alt == 2) { // if
+			p.goDown(1); // if
+			p.goDown(1); // cond
+			visitCond(p);
+			p.goUp();
+			p.goUp();
+		}
+		if (!this.rewrite && alt != 5) {
+			BitSet assigned = new BitSet();
+			ParseTrees.addStmtAssigned(p, assigned);
+			for (int i = assigned.nextSetBit(0); i >= 0; i = assigned
+					.nextSetBit(i + 1)) {
+				kill(i);
+			}
+		}
+	}
+
+	/**
+	 * Visits the expressions in a condition.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a cond node
+	 */
+	private void visitCond(ParseTree p) {
+		assert p.currNT() == 12 : "Expecting <cond>";
+		p.goDown(1); // comp or cond
+		if (p.currNT() == 13) {
+			p.goDown(1); // op
+			visitOp(p);
+			p.goUp();
+			p.goDown(3); // op
+			visitOp(p);
+			p.goUp();
+		} else {
+			visitCond(p);
+		}
+		p.goUp();
+
+		if (p.currAlt() > 2) { // && or ||
+			p.goDown(2); // second cond
+			visitCond(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Visits an expression. An expression with a single factor is the same
+	 * expression as the factor.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an exp node
+	 * @return the number of the expression, or -1 if it has none
+	 */
+	private int visitExp(ParseTree p) {
+		assert p.currNT() == 14 : "Expecting <exp>";
+		if (p.currAlt() != 1) {
+			return visitCompound(p);
+		}
+		p.goDown(1); // fac
+		int number = visitFac(p);
+		p.goUp();
+		return number;
+	}
+
+	/**
+	 * Visits a factor. A factor with a single operand is the same expression
+	 * as the operand.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a fac node
+	 * @return the number of the factor, or -1 if it has none
+	 */
+	private int visitFac(ParseTree p) {
+		assert p.currNT() == 15 : "Expecting <fac>";
+		if (p.currAlt() == 2) {
+			return visitCompound(p);
+		}
+		p.goDown(1); // op
+		int number = visitOp(p);
+		p.goUp();
+		return number;
+	}
+
+	/**
+	 * Visits an operand. An operand in parentheses is the same expression as
+	 * the one inside them; if that is replaced by an identifier, so are the
+	 * parentheses.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an op node
+	 * @return the number of the operand, or -1 if it has none
+	 */
+	private int visitOp(ParseTree p) {
+		assert p.currNT() == 16 : "Expecting <op>";
+		if (p.currAlt() != 3) {
+			return -1;
+		}
+		p.goDown(1); // exp
+		int number = visitExp(p);
+		String name = null;
+		if (this.rewrite && number >= 0 && p.currAlt() == 1) {
+			p.goDown(1); // fac
+			if (p.currAlt() == 1) {
+				p.goDown(1); // op
+				if (p.currAlt() == 2) {
+					p.goDown(1); // id
+					name = p.currIdName();
+					p.goUp();
+				}
+				p.goUp();
+			}
+			p.goUp();
+		}
+		p.goUp();
+		if (name != null) { // (id)
+			ParseTrees.setId(p, name);
+		}
+		return number;
+	}
+
+	/**
+	 * Visits an expression with more than one factor, or a factor with more
+	 * than one operand. When numbering, the expression gets the number of an
+	 * earlier expression with the same text, or a new number. When
+	 * rewriting, an expression that is not the first with its number is
+	 * replaced by the identifier that holds its value, and the first is
+	 * replaced by a temporary if the number needs one.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an exp or fac node
+	 * @return the number of the expression, or -1 if it has none
+	 */
+	private int visitCompound(ParseTree p) {
+		boolean exp = p.currNT() == 14;
+		if (!(exp ? ParseTrees.expSafe(p) : ParseTrees.facSafe(p))) {
+			visitParts(p);
+			return -1;
+		}
+		int visit = this.visited;
+		this.visited++;
+
+		if (this.rewrite) {
+			int number = this.visits.get(visit);
+			if (!this.firsts.get(visit)) { // evaluated before
+				String name = this.temps.get(number);
+				if (name == null) {
+					name = p.idName(this.visitHolders.get(visit));
+				}
+				ParseTrees.setId(p, name);
+				return number;
+			}
+			visitParts(p);
+			if (this.needsTemp.get(number)) {
+				String name = p.declTemp(TEMP);
+				this.temps.put(number, name);
+				this.tempNames.add(name);
+				this.tempExps.add(ParseTrees.extractExp(p, name));
+			}
+			return number;
+		}
+
+		String key = exp ? ParseTrees.expKey(p) : ParseTrees.facKey(p);
+		Integer number = this.numbers.get(key);
+		if (number != null) { // evaluated before
+			int holder = this.holders.get(number);
+			if (holder < 0) {
+				this.needsTemp.set(number);
+			}
+			this.visits.add(number);
+			this.visitHolders.add(holder);
+			return number;
+		}
+
+		number = this.uses.size();
+		BitSet slots = new BitSet();
+		if (exp) {
+			ParseTrees.addExpUses(p, slots);
+		} else {
+			ParseTrees.addFacUses(p, slots);
+		}
+		this.uses.add(slots);
+		this.holders.add(-1);
+		this.numbers.put(key, number);
+		this.visits.add(number);
+		this.visitHolders.add(-1);
+		this.firsts.set(visit);
+		visitParts(p);
+		return number;
+	}
+
+	/**
+	 * Visits the parts of an expression with more than one factor, or of a
+	 * factor with more than one operand.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an exp or fac node
+	 */
+	private void visitParts(ParseTree p) {
+		if (p.currNT() == 14) {
+			p.goDown(1); // fac
+			visitFac(p);
+			p.goUp();
+			p.goDown(2); // exp
+			visitExp(p);
+			p.goUp();
+		} else {
+			p.goDown(1); // op
+			visitOp(p);
+			p.goUp();
+			p.goDown(2); // fac
+			visitFac(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Invalidates the numbers of the expressions that use an identifier that
+	 * is assigned, and the identifier as a holder.
+	 *
+	 * @param slot
+	 *            the slot of the assigned identifier
+	 */
+	private void kill(int slot) {
+		Iterator<Integer> it = this.numbers.values().iterator();
+		while (it.hasNext()) {
+			int number = it.next();
+			if (this.uses.get(number).get(slot)) {
+				it.remove();
+			} else if (this.holders.get(number) == slot) {
+				this.holders.set(number, -1);
+			}
+		}
+	}
+
+	// public method
+	@Override
+	public void optimize(ParseTree p) {
+		assert p.currNT() == 1 : "Expecting <prog>";
+		new DefiniteAssignmentAnalyzer(false).analyze(p);
+
+		p.goDown(2); // stmt seq
+		processRegion(p);
+		p.goUp();
+	}
+}
@@ -0,0 +1,445 @@
+package core.interpreter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import core.interpreter.ControlFlowGraph.Cond;
+import core.interpreter.ControlFlowGraph.Expr;
+import core.interpreter.ControlFlowGraph.Node;
+import core.interpreter.ControlFlowGraph.Stmt;
+import core.interpreter.ControlFlowGraph.Value;
+
+/**
+ * Sparse conditional constant propagation on the SSA control-flow graph. Every
+ * value starts out unknown, and is lowered to a constant or to varying as the
+ * statements that can be reached are evaluated. A branch is only evaluated if
+ * its condition can take it, and a phi value only meets the arguments of the
+ * edges that can be taken, so a constant that flows around a loop, or only
+ * through the branch that is taken, is still found. The values read and the
+ * values on entry are varying.
+ *
+ * The uses of constant values are then replaced by integers, expressions of
+ * integers are folded, an if statement whose condition is made of integers is
+ * replaced by the branch it takes, and a while statement whose condition is
+ * made of integers and whose body is never entered is removed, unless that
+ * would empty a sequence that needs a statement. An if statement whose
+ * branches are both emptied is removed if its condition cannot fail. A use of a
+ * constant value is always initialized, since the value is defined on every
+ * path that can be taken to it.
+ *
+ * @author Simeon Georgiev
+ */
+public class ConditionalConstantPropagator implements SsaPass {
+	// fields
+	/**
+	 * The state of a value that is not known yet.
+	 */
+	private static final long TOP = Long.MAX_VALUE;
+
+	/**
+	 * The state of a value that is not constant.
+	 */
+	private static final long VARYING = Long.MIN_VALUE;
+
+	/**
+	 * The state of each value reached: an integer or VARYING.
+	 */
+	private final Map<Value, Long> states = new HashMap<Value, Long>();
+
+	/**
+	 * The while statements whose body is entered.
+	 */
+	private final Set<Node> entered = new HashSet<Node>();
+
+	/**
+	 * The number of times a state was lowered.
+	 */
+	private int lowered;
+
+	/**
+	 * The values replaced by the values that reach them, when an if or while
+	 * statement is removed.
+	 */
+	private final Map<Value, Value> replaced = new HashMap<Value, Value>();
+
+	/**
+	 * The values that may be uninitialized when they are used.
+	 */
+	private Set<Value> undefined;
+
+	/**
+	 * Whether the graph was changed.
+	 */
+	private boolean changed;
+
+	// private methods
+	/**
+	 * Returns the meet of two states.
+	 *
+	 * @param s
+	 *            a state
+	 * @param t
+	 *            a state
+	 * @return the lowest state above neither
+	 */
+	private static long meet(long s, long t) {
+		if (s == TOP) {
+			return t;
+		}
+		return t == TOP || s == t ? s : VARYING;
+	}
+
+	/**
+	 * Returns the state of a value.
+	 *
+	 * @param value
+	 *            the value
+	 * @return its state
+	 */
+	private long state(Value value) {
+		Long s = this.states.get(value);
+		return s == null ? TOP : s;
+	}
+
+	/**
+	 * Lowers the state of a value to its meet with another state.
+	 *
+	 * @param value
+	 *            the value
+	 * @param s
+	 *            the state
+	 */
+	private void lower(Value value, long s) {
+		long old = state(value);
+		long t = meet(old, s);
+		if (t != old) {
+			this.states.put(value, t);
+			this.lowered++;
+		}
+	}
+
+	/**
+	 * Evaluates the nodes of a sequence that can be reached.
+	 *
+	 * @param nodes
+	 *            the nodes
+	 */
+	private void visitNodes(List<Node> nodes) {
+		for (Node node : nodes) {
+			if (node.kind == Node.BLOCK) {
+				for (Stmt stmt : node.stmts) {
+					if (stmt.kind == Stmt.ASSIGN) {
+						Value value = stmt.values.get(0);
+						lower(value, evalExp(value.exp));
+					} else if (stmt.kind == Stmt.READ) {
+						for (Value value : stmt.values) {
+							lower(value, VARYING);
+						}
+					}
+				}
+			} else if (node.kind == Node.IF) {
+				long c = evalCond(node.cond);
+				boolean taken = c != 0; // unknown conditions are varying
+				boolean notTaken = c != 1;
+				if (taken) {
+					visitNodes(node.first);
+				}
+				if (notTaken) {
+					visitNodes(node.second);
+				}
+				for (Value phi : node.phis) {
+					lower(phi, meet(taken ? state(phi.args[0]) : TOP,
+							notTaken ? state(phi.args[1]) : TOP));
+				}
+			} else {
+				// a back edge found taken on an earlier visit stays taken, so
+				// an inner loop is not run twice each time its outer loop is
+				boolean back = this.entered.contains(node);
+				boolean again = true;
+				while (again) { // until no state is lowered
+					int before = this.lowered;
+					boolean wasBack = back;
+					for (Value phi : node.phis) {
+						lower(phi, meet(state(phi.args[0]),
+								back ? state(phi.args[1]) : TOP));
+					}
+					if (evalCond(node.cond) != 0) {
+						visitNodes(node.first);
+						back = true;
+					}
+					again = this.lowered != before || back != wasBack;
+				}
+				if (back) {
+					this.entered.add(node);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Evaluates a condition.
+	 *
+	 * @param cond
+	 *            the condition
+	 * @return 1 if it is true, 0 if it is false, VARYING otherwise
+	 */
+	private long evalCond(Cond cond) {
+		if (cond.kind == Cond.COMP) {
+			long l = evalExp(cond.left);
+			long r = evalExp(cond.right);
+			if (l == TOP || r == TOP || l == VARYING || r == VARYING) {
+				return VARYING;
+			}
+			return ParseTrees.compare((int) l, cond.op, (int) r) ? 1 : 0;
+		}
+		long first = evalCond(cond.first);
+		if (cond.kind == Cond.NOT) {
+			return first == VARYING ? VARYING : 1 - first;
+		}
+		long second = evalCond(cond.second);
+		long absorbing = cond.kind == Cond.AND ? 0 : 1;
+		if (first == absorbing || second == absorbing) {
+			return absorbing;
+		}
+		return first == VARYING || second == VARYING ? VARYING : first;
+	}
+
+	/**
+	 * Evaluates an expression.
+	 *
+	 * @param e
+	 *            the expression
+	 * @return an integer, TOP or VARYING
+	 */
+	private long evalExp(Expr e) {
+		if (e.kind == Expr.CONST) {
+			return e.val;
+		} else if (e.kind == Expr.USE) {
+			return state(e.value);
+		}
+		long l = evalExp(e.left);
+		long r = evalExp(e.right);
+		if (l == VARYING || r == VARYING) {
+			return VARYING;
+		} else if (l == TOP || r == TOP) {
+			return TOP;
+		}
+		return apply(e.kind, (int) l, (int) r);
+	}
+
+	/**
+	 * Applies an arithmetic operator to two integers.
+	 *
+	 * @param kind
+	 *            PLUS, MINUS or TIMES
+	 * @param l
+	 *            the first integer
+	 * @param r
+	 *            the second integer
+	 * @return the result, which wraps around on overflow
+	 */
+	private static int apply(int kind, int l, int r) {
+		if (kind == Expr.PLUS) {
+			return l + r;
+		}
+		return kind == Expr.MINUS ? l - r : l * r;
+	}
+
+	/**
+	 * Returns whether an expression always evaluates without error.
+	 *
+	 * @param e
+	 *            the expression
+	 * @return true if it uses no value that may be uninitialized
+	 */
+	private boolean expSafe(Expr e) {
+		if (e.kind == Expr.USE) {
+			return !this.undefined.contains(e.value);
+		}
+		return e.kind == Expr.CONST || expSafe(e.left) && expSafe(e.right);
+	}
+
+	/**
+	 * Returns whether a condition always evaluates without error.
+	 *
+	 * @param cond
+	 *            the condition
+	 * @return true if it uses no value that may be uninitialized
+	 */
+	private boolean condSafe(Cond cond) {
+		if (cond.kind == Cond.COMP) {
+			return expSafe(cond.left) && expSafe(cond.right);
+		}
+		return condSafe(cond.first)
+				&& (cond.second == null || condSafe(cond.second));
+	}
+
+	/**
+	 * Replaces the uses of constant values in a sequence of nodes, and removes
+	 * the branches that are never taken and the if statements whose branches
+	 * are both emptied and whose condition cannot fail. The body of a while
+	 * statement and the program must not be empty, and neither may the then
+	 * branch of a kept if statement without else branch, so when the last
+	 * node of such a sequence would be removed and leave it empty, it is kept
+	 * as it is.
+	 *
+	 * @param nodes
+	 *            the nodes
+	 * @param mayEmpty
+	 *            whether the sequence may be emptied
+	 */
+	private void transformNodes(List<Node> nodes, boolean mayEmpty) {
+		List<Node> result = new ArrayList<Node>();
+		for (int i = 0; i < nodes.size(); i++) {
+			Node node = nodes.get(i);
+			if (node.kind == Node.BLOCK) {
+				for (Stmt stmt : node.stmts) {
+					if (stmt.kind == Stmt.ASSIGN) {
+						Value value = stmt.values.get(0);
+						value.exp = fold(value.exp);
+					}
+				}
+				result.add(node);
+				continue;
+			}
+			boolean keep = !mayEmpty && result.isEmpty()
+					&& i == nodes.size() - 1; // the last chance for a statement
+			foldCond(node.cond);
+			Boolean c = constCond(node.cond);
+			if (node.kind == Node.LOOP) {
+				transformNodes(node.first, false);
+				if (c != null && !c && !this.entered.contains(node) && !keep) {
+					for (Value phi : node.phis) {
+						this.replaced.put(phi, phi.args[0]);
+					}
+					this.changed = true;
+				} else {
+					result.add(node);
+				}
+			} else if (c != null) {
+				List<Node> taken = c ? node.first : node.second;
+				transformNodes(taken, !keep);
+				transformNodes(c ? node.second : node.first, !c || !keep
+						|| !taken.isEmpty());
+				if (taken.isEmpty() && keep) {
+					result.add(node); // without else branch, kept as it is
+					continue;
+				}
+				result.addAll(taken);
+				for (Value phi : node.phis) {
+					this.replaced.put(phi, phi.args[c ? 0 : 1]);
+				}
+				this.changed = true;
+			} else {
+				boolean safe = condSafe(node.cond);
+				transformNodes(node.second, true);
+				transformNodes(node.first, !node.second.isEmpty() || safe
+						&& !keep);
+				if (node.first.isEmpty() && node.second.isEmpty()) {
+					for (Value phi : node.phis) {
+						this.replaced.put(phi, phi.args[0]);
+					}
+					this.changed = true;
+				} else {
+					result.add(node);
+				}
+			}
+		}
+		nodes.clear();
+		nodes.addAll(result);
+	}
+
+	/**
+	 * Replaces the uses of constant values in a condition by integers, and
+	 * folds its expressions.
+	 *
+	 * @param cond
+	 *            the condition
+	 */
+	private void foldCond(Cond cond) {
+		if (cond.kind == Cond.COMP) {
+			cond.left = fold(cond.left);
+			cond.right = fold(cond.right);
+		} else {
+			foldCond(cond.first);
+			if (cond.second != null) {
+				foldCond(cond.second);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the uses of constant values in an expression by integers, and
+	 * folds the operations on integers, unless the result cannot be written.
+	 *
+	 * @param e
+	 *            the expression
+	 * @return the folded expression
+	 */
+	private Expr fold(Expr e) {
+		if (e.kind == Expr.USE) {
+			long s = state(e.value);
+			if (s != TOP && s != VARYING && ParseTrees.writable((int) s)) {
+				this.changed = true;
+				return Expr.constant((int) s);
+			}
+		} else if (e.kind != Expr.CONST) {
+			e.left = fold(e.left);
+			e.right = fold(e.right);
+			if (e.left.kind == Expr.CONST && e.right.kind == Expr.CONST) {
+				int val = apply(e.kind, e.left.val, e.right.val);
+				if (ParseTrees.writable(val)) {
+					this.changed = true;
+					return Expr.constant(val);
+				}
+			}
+		}
+		return e;
+	}
+
+	/**
+	 * Returns the value of a condition made of integers only.
+	 *
+	 * @param cond
+	 *            the condition
+	 * @return the value, or null if the condition uses a value
+	 */
+	private static Boolean constCond(Cond cond) {
+		if (cond.kind == Cond.COMP) {
+			if (cond.left.kind != Expr.CONST || cond.right.kind != Expr.CONST) {
+				return null;
+			}
+			return ParseTrees.compare(cond.left.val, cond.op, cond.right.val);
+		}
+		Boolean first = constCond(cond.first);
+		if (first == null || cond.kind == Cond.NOT) {
+			return first == null ? null : !first;
+		}
+		Boolean second = constCond(cond.second);
+		if (second == null) {
+			return null;
+		}
+		return cond.kind == Cond.AND ? first && second : first || second;
+	}
+
+	// public methods
+	@Override
+	public boolean run(ControlFlowGraph g, PassManager pm) {
+		for (Value value : g.undef) {
+			this.states.put(value, VARYING);
+		}
+		this.undefined = pm.undefinedValues(g);
+		visitNodes(g.nodes);
+		transformNodes(g.nodes, false);
+		g.substitute(this.replaced);
+		boolean result = this.changed;
+		this.states.clear();
+		this.entered.clear();
+		this.replaced.clear();
+		this.changed = false;
+		return result;
+	}
+}
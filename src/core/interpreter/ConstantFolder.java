@@ -0,0 +1,516 @@
+package core.interpreter;
+/**
+ * Constant folding and algebraic simplification for the Core language.
+ * Subexpressions and comparisons over integers are replaced by their values,
+ * and the identities x * 1, x + 0, x - 0, x * 0, x - x and !!c are applied.
+ * Identifiers that are assigned exactly once, to an integer, are replaced by
+ * that integer wherever they are known to be initialized. Since the program
+ * stops when an uninitialized identifier is used, a subexpression is only
+ * dropped if every identifier it uses is known to be initialized.
+ *
+ * @author Simeon Georgiev
+ */
+public class ConstantFolder implements Optimizer {
+	// fields
+	/**
+	 * The number of statements that assign each identifier, indexed by slot.
+	 */
+	private int[] defs;
+
+	/**
+	 * The value of each identifier that is assigned exactly once, to an
+	 * integer, indexed by slot; null for the other identifiers.
+	 */
+	private Integer[] constants;
+
+	/**
+	 * Whether the last pass over the program changed it.
+	 */
+	private boolean changed;
+
+	// private methods
+	/**
+	 * Counts the statements that assign each identifier in a statement
+	 * sequence.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void countStmtSeq(ParseTree p) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		p.goDown(1); // stmt
+		int alt = p.currAlt();
+		p.goDown(1);
+		switch (alt) {
+		case 1: // assign
+			p.goDown(1); // id
+			this.defs[p.currIdSlot()]++;
+			p.goUp();
+			break;
+		case 2: // if
+			p.goDown(2);
+			countStmtSeq(p);
+			p.goUp();
+			if (p.currAlt() == 2) {
+				p.goDown(3);
+				countStmtSeq(p);
+				p.goUp();
+			}
+			break;
+		case 3: // loop
+			p.goDown(2);
+			countStmtSeq(p);
+			p.goUp();
+			break;
+		case 4: // read
+			p.goDown(1); // id list
+			countIdList(p);
+			p.goUp();
+			break;
+		}
+		p.goUp();
+		p.goUp();
+
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			countStmtSeq(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Counts the identifiers assigned by a read statement.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void countIdList(ParseTree p) {
+		assert p.currNT() == 5 : "Expecting <id list>";
+		p.goDown(1); // id
+		this.defs[p.currIdSlot()]++;
+		p.goUp();
+		if (p.currAlt() == 2) {
+			p.goDown(2); // id list
+			countIdList(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Folds a statement sequence.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void foldStmtSeq(ParseTree p) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		p.goDown(1); // stmt
+		foldStmt(p);
+		p.goUp();
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			foldStmtSeq(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Folds a statement.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void foldStmt(ParseTree p) {
+		assert p.currNT() == 6 : "Expecting <stmt>";
+		int alt = p.currAlt();
+		p.goDown(1);
+		switch (alt) {
+		case 1:
+			foldAssign(p);
+			break;
+		case 2: // if
+			p.goDown(1); // cond
+			foldCond(p);
+			p.goUp();
+			p.goDown(2); // stmt seq
+			foldStmtSeq(p);
+			p.goUp();
+			if (p.currAlt() == 2) {
+				p.goDown(3); // stmt seq
+				foldStmtSeq(p);
+				p.goUp();
+			}
+			break;
+		case 3: // loop
+			p.goDown(1); // cond
+			foldCond(p);
+			p.goUp();
+			p.goDown(2); // stmt seq
+			foldStmtSeq(p);
+			p.goUp();
+			break;
+		}
+		p.goUp();
+	}
+
+	/**
+	 * Folds an assign statement, and records the value of the identifier if it
+	 * is assigned only here, to an integer.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void foldAssign(ParseTree p) {
+		assert p.currNT() == 7 : "Expecting <assign>";
+		p.goDown(2); // exp
+		Integer val = foldExp(p);
+		p.goUp();
+
+		p.goDown(1); // id
+		int slot = p.currIdSlot();
+		p.goUp();
+		if (val != null && this.defs[slot] == 1) {
+			this.constants[slot] = val;
+		}
+	}
+
+	/**
+	 * Folds a condition.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @return the value of the condition, or null if it is not constant
+	 */
+	private Boolean foldCond(ParseTree p) {
+		assert p.currNT() == 12 : "Expecting <cond>";
+		Boolean val = null;
+		switch (p.currAlt()) {
+		case 1:
+			p.goDown(1); // comp
+			val = foldComp(p);
+			boolean literal = compLiteral(p);
+			p.goUp();
+			if (val != null && !literal) {
+				ParseTrees.setConstCond(p, val);
+				this.changed = true;
+			}
+			break;
+		case 2: // !
+			p.goDown(1); // cond
+			Boolean inner = foldCond(p);
+			int innerAlt = p.currAlt();
+			p.goUp();
+			if (inner != null) {
+				val = !inner;
+				ParseTrees.setConstCond(p, val);
+				this.changed = true;
+			} else if (innerAlt == 2) { // !!c is c
+				p.goDown(1);
+				int handle = p.detachBranch(1);
+				p.goUp();
+				p.deleteBranch(1);
+				p.graft(handle);
+				this.changed = true;
+			}
+			break;
+		default: // && or ||
+			boolean and = p.currAlt() == 3;
+			p.goDown(1); // first cond
+			Boolean left = foldCond(p);
+			boolean leftSafe = ParseTrees.condSafe(p);
+			p.goUp();
+			p.goDown(2); // second cond
+			Boolean right = foldCond(p);
+			boolean rightSafe = ParseTrees.condSafe(p);
+			p.goUp();
+
+			if (left != null && right != null) {
+				val = and ? left && right : left || right;
+				ParseTrees.setConstCond(p, val);
+				this.changed = true;
+			} else if (left != null && left == and) { // decided by right
+				keepCond(p, 2);
+				val = right;
+			} else if (right != null && right == and) { // decided by left
+				keepCond(p, 1);
+				val = left;
+			} else if (left != null && rightSafe || right != null && leftSafe) {
+				val = !and; // decided by the constant side
+				ParseTrees.setConstCond(p, val);
+				this.changed = true;
+			}
+			break;
+		}
+		return val;
+	}
+
+	/**
+	 * Replaces an && or || condition with one of its sides.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a cond node
+	 * @param no
+	 *            the index of the side that is kept
+	 */
+	private void keepCond(ParseTree p, int no) {
+		int handle = p.detachBranch(no);
+		p.deleteBranch(3 - no);
+		p.graft(handle);
+		this.changed = true;
+	}
+
+	/**
+	 * Folds a comparison. Comparing an operand with itself is decided without
+	 * evaluating it, if it always evaluates without error.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @return the value of the comparison, or null if it is not constant
+	 */
+	private Boolean foldComp(ParseTree p) {
+		assert p.currNT() == 13 : "Expecting <comp>";
+		p.goDown(1); // op
+		Integer op1 = foldOp(p);
+		String key1 = ParseTrees.opKey(p);
+		boolean safe = ParseTrees.opSafe(p);
+		p.goUp();
+
+		p.goDown(3); // op
+		Integer op2 = foldOp(p);
+		String key2 = ParseTrees.opKey(p);
+		p.goUp();
+
+		p.goDown(2); // comp op
+		int c = p.currAlt();
+		p.goUp();
+
+		if (op1 != null && op2 != null) {
+			return ParseTrees.compare(op1, c, op2);
+		}
+		if (safe && key1.equals(key2)) { // same operand on both sides
+			return ParseTrees.compare(0, c, 0);
+		}
+		return null;
+	}
+
+	/**
+	 * Returns whether both operands of a comparison are integers.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a comp node
+	 * @return true if both operands are integers
+	 */
+	private static boolean compLiteral(ParseTree p) {
+		p.goDown(1); // op
+		boolean literal = p.currAlt() == 1;
+		p.goUp();
+		p.goDown(3); // op
+		literal = literal && p.currAlt() == 1;
+		p.goUp();
+		return literal;
+	}
+
+	/**
+	 * Folds an expression.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @return the value of the expression, or null if it is not constant
+	 */
+	private Integer foldExp(ParseTree p) {
+		assert p.currNT() == 14 : "Expecting <exp>";
+		p.goDown(1); // fac
+		Integer fac = foldFac(p);
+		String facKey = ParseTrees.facKey(p);
+		boolean facSafe = ParseTrees.facSafe(p);
+		p.goUp();
+
+		if (p.currAlt() == 1) {
+			return fac;
+		}
+		boolean plus = p.currAlt() == 2;
+		p.goDown(2); // exp
+		Integer exp = foldExp(p);
+		boolean single = p.currAlt() == 1;
+		String expKey = ParseTrees.expKey(p);
+		p.goUp();
+
+		Integer val = null;
+		if (fac != null && exp != null) {
+			val = plus ? fac + exp : fac - exp;
+		} else if (!plus && single && facSafe && facKey.equals(expKey)) {
+			val = 0; // x - x
+		} else if (exp != null && exp == 0) { // x + 0, x - 0
+			p.deleteBranch(2);
+			p.setAlt(1);
+			this.changed = true;
+			return fac;
+		} else if (plus && fac != null && fac == 0) { // 0 + x
+			int handle = p.detachBranch(2);
+			p.deleteBranch(1);
+			p.graft(handle);
+			this.changed = true;
+			return exp;
+		}
+		if (val != null) {
+			replaceExp(p, val);
+		}
+		return val;
+	}
+
+	/**
+	 * Folds a factor.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @return the value of the factor, or null if it is not constant
+	 */
+	private Integer foldFac(ParseTree p) {
+		assert p.currNT() == 15 : "Expecting <fac>";
+		p.goDown(1); // op
+		Integer op = foldOp(p);
+		boolean opSafe = ParseTrees.opSafe(p);
+		p.goUp();
+
+		if (p.currAlt() == 1) {
+			return op;
+		}
+		p.goDown(2); // fac
+		Integer fac = foldFac(p);
+		boolean facSafe = ParseTrees.facSafe(p);
+		p.goUp();
+
+		Integer val = null;
+		if (op != null && fac != null) {
+			val = op * fac;
+		} else if (op != null && op == 0 && facSafe || fac != null
+				&& fac == 0 && opSafe) { // x * 0, 0 * x
+			val = 0;
+		} else if (fac != null && fac == 1) { // x * 1
+			p.deleteBranch(2);
+			p.setAlt(1);
+			this.changed = true;
+			return op;
+		} else if (op != null && op == 1) { // 1 * x
+			int handle = p.detachBranch(2);
+			p.deleteBranch(1);
+			p.graft(handle);
+			this.changed = true;
+			return fac;
+		}
+		if (val != null && ParseTrees.writable(val)) {
+			ParseTrees.setConstFac(p, val);
+			this.changed = true;
+		}
+		return val;
+	}
+
+	/**
+	 * Folds an operand. Identifiers with a known value are replaced by it, and
+	 * parentheses around a single operand are removed.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @return the value of the operand, or null if it is not constant
+	 */
+	private Integer foldOp(ParseTree p) {
+		assert p.currNT() == 16 : "Expecting <op>";
+		Integer val = null;
+		switch (p.currAlt()) {
+		case 1: // int
+			p.goDown(1);
+			val = p.currInt();
+			p.goUp();
+			break;
+		case 2: // id
+			p.goDown(1);
+			if (!p.currIdChecked()) { // known to be initialized
+				val = this.constants[p.currIdSlot()];
+			}
+			p.goUp();
+			if (val != null && ParseTrees.writable(val)) {
+				ParseTrees.setConstOp(p, val);
+				this.changed = true;
+			}
+			break;
+		case 3: // exp
+			p.goDown(1);
+			val = foldExp(p);
+			boolean single = val == null && p.currAlt() == 1;
+			if (single) {
+				p.goDown(1); // fac
+				single = p.currAlt() == 1;
+				p.goUp();
+			}
+			p.goUp();
+			if (val != null) {
+				replaceOp(p, val);
+			} else if (single) { // (x) is x
+				p.goDown(1);
+				p.goDown(1);
+				int handle = p.detachBranch(1);
+				p.goUp();
+				p.goUp();
+				p.deleteBranch(1);
+				p.graft(handle);
+				this.changed = true;
+			}
+			break;
+		}
+		return val;
+	}
+
+	/**
+	 * Replaces an expression with its value, unless it is already written as
+	 * that value or the value cannot be written.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an exp node
+	 * @param val
+	 *            the value of the expression
+	 */
+	private void replaceExp(ParseTree p, int val) {
+		if (ParseTrees.writable(val)
+				&& !ParseTrees.expKey(p).equals(ParseTrees.constKey(val))) {
+			ParseTrees.setConstExp(p, val);
+			this.changed = true;
+		}
+	}
+
+	/**
+	 * Replaces an operand with its value, unless it is already written as that
+	 * value or the value cannot be written.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an op node
+	 * @param val
+	 *            the value of the operand
+	 */
+	private void replaceOp(ParseTree p, int val) {
+		if (ParseTrees.writable(val)) {
+			String key = val >= 0 ? ParseTrees.constKey(val) : "("
+					+ ParseTrees.constKey(val) + ")";
+			if (!ParseTrees.opKey(p).equals(key)) {
+				ParseTrees.setConstOp(p, val);
+				this.changed = true;
+			}
+		}
+	}
+
+	// public method
+	@Override
+	public void optimize(ParseTree p) {
+		assert p.currNT() == 1 : "Expecting <prog>";
+		new DefiniteAssignmentAnalyzer(false).analyze(p);
+		this.defs = new int[p.idCount()];
+		this.constants = new Integer[p.idCount()];
+
+		p.goDown(2); // stmt seq
+		countStmtSeq(p);
+		do { // until there is nothing left to fold or propagate
+			this.changed = false;
+			foldStmtSeq(p);
+		} while (this.changed);
+		p.goUp();
+	}
+}
@@ -0,0 +1,507 @@
+package core.interpreter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Control-flow graph of a Core program in static single assignment (SSA)
+ * form. Every assignment of an identifier defines a new value, and every use
+ * refers to the one value that reaches it. Where the paths of an if statement
+ * join, and at the condition of a while statement, a phi value selects between
+ * the values that reach it.
+ *
+ * The graph keeps the structure of the program: it is a sequence of nodes,
+ * each a basic block of assign, read and write statements, an if statement or
+ * a while statement, whose branches and body are sequences of nodes again.
+ * The edges are implied by this structure: a block falls through to the next
+ * node, an if statement branches to its then and else sequences, which join
+ * after it, and a while statement branches from its condition to its body,
+ * which goes back to the condition, or to the next node. The values of an
+ * identifier never overlap, so the graph can be lowered back to a parse tree
+ * by dropping the phi values.
+ *
+ * @author Simeon Georgiev
+ */
+public class ControlFlowGraph {
+
+	/**
+	 * A value of an identifier: the value on entry to the program, a phi
+	 * value, or the value assigned by an assign or read statement.
+	 */
+	static final class Value {
+		/**
+		 * The value of an identifier on entry, which is uninitialized.
+		 */
+		static final int UNDEF = 0;
+
+		/**
+		 * A phi value. At an if statement, its arguments are the values at the
+		 * end of the then and else branches; at a while statement, the values
+		 * on entry and at the end of the body.
+		 */
+		static final int PHI = 1;
+
+		/**
+		 * The value of the expression of an assign statement.
+		 */
+		static final int ASSIGN = 2;
+
+		/**
+		 * A value read from the input.
+		 */
+		static final int READ = 3;
+
+		/**
+		 * UNDEF, PHI, ASSIGN or READ.
+		 */
+		final int kind;
+
+		/**
+		 * The slot of the identifier.
+		 */
+		final int var;
+
+		/**
+		 * The number of the value among the values of the identifier.
+		 */
+		final int version;
+
+		/**
+		 * The expression of an assign statement.
+		 */
+		Expr exp;
+
+		/**
+		 * The two arguments of a phi value.
+		 */
+		final Value[] args;
+
+		/**
+		 * Creates a value.
+		 *
+		 * @param kind
+		 *            UNDEF, PHI, ASSIGN or READ
+		 * @param var
+		 *            the slot of the identifier
+		 * @param version
+		 *            the number of the value among the values of the
+		 *            identifier
+		 */
+		Value(int kind, int var, int version) {
+			this.kind = kind;
+			this.var = var;
+			this.version = version;
+			this.args = kind == PHI ? new Value[2] : null;
+		}
+	}
+
+	/**
+	 * An expression: an integer, the use of a value, or a sum, difference or
+	 * product.
+	 */
+	static final class Expr {
+		/**
+		 * An integer.
+		 */
+		static final int CONST = 0;
+
+		/**
+		 * The use of a value.
+		 */
+		static final int USE = 1;
+
+		/**
+		 * left + right.
+		 */
+		static final int PLUS = 2;
+
+		/**
+		 * left - right.
+		 */
+		static final int MINUS = 3;
+
+		/**
+		 * left * right.
+		 */
+		static final int TIMES = 4;
+
+		/**
+		 * CONST, USE, PLUS, MINUS or TIMES.
+		 */
+		int kind;
+
+		/**
+		 * The integer of a CONST expression.
+		 */
+		int val;
+
+		/**
+		 * The value used by a USE expression.
+		 */
+		Value value;
+
+		/**
+		 * The operands of a PLUS, MINUS or TIMES expression.
+		 */
+		Expr left, right;
+
+		/**
+		 * Creates an integer.
+		 *
+		 * @param val
+		 *            the integer
+		 * @return the expression
+		 */
+		static Expr constant(int val) {
+			Expr e = new Expr();
+			e.kind = CONST;
+			e.val = val;
+			return e;
+		}
+
+		/**
+		 * Creates the use of a value.
+		 *
+		 * @param value
+		 *            the value
+		 * @return the expression
+		 */
+		static Expr use(Value value) {
+			Expr e = new Expr();
+			e.kind = USE;
+			e.value = value;
+			return e;
+		}
+
+		/**
+		 * Creates a sum, difference or product.
+		 *
+		 * @param kind
+		 *            PLUS, MINUS or TIMES
+		 * @param left
+		 *            the left operand
+		 * @param right
+		 *            the right operand
+		 * @return the expression
+		 */
+		static Expr binary(int kind, Expr left, Expr right) {
+			Expr e = new Expr();
+			e.kind = kind;
+			e.left = left;
+			e.right = right;
+			return e;
+		}
+	}
+
+	/**
+	 * A condition: a comparison, a negation, or a conjunction or disjunction.
+	 * The second side of && and || is skipped when the first decides the
+	 * value.
+	 */
+	static final class Cond {
+		/**
+		 * A comparison of two expressions.
+		 */
+		static final int COMP = 1;
+
+		/**
+		 * !first.
+		 */
+		static final int NOT = 2;
+
+		/**
+		 * [first && second].
+		 */
+		static final int AND = 3;
+
+		/**
+		 * [first || second].
+		 */
+		static final int OR = 4;
+
+		/**
+		 * COMP, NOT, AND or OR, the alternatives of the cond node.
+		 */
+		int kind;
+
+		/**
+		 * The comparison operator of a comparison, as the alternative of the
+		 * comp op node.
+		 */
+		int op;
+
+		/**
+		 * The expressions compared.
+		 */
+		Expr left, right;
+
+		/**
+		 * The conditions of a negation, conjunction or disjunction.
+		 */
+		Cond first, second;
+	}
+
+	/**
+	 * An assign, read or write statement.
+	 */
+	static final class Stmt {
+		/**
+		 * An assign statement, whose value is the only value.
+		 */
+		static final int ASSIGN = 1;
+
+		/**
+		 * A read statement, whose values are the values read, in order.
+		 */
+		static final int READ = 4;
+
+		/**
+		 * A write statement, whose values are the values written, in order.
+		 */
+		static final int WRITE = 5;
+
+		/**
+		 * ASSIGN, READ or WRITE, the alternatives of the stmt node.
+		 */
+		final int kind;
+
+		/**
+		 * The values defined or written.
+		 */
+		final List<Value> values = new ArrayList<Value>();
+
+		/**
+		 * Creates a statement without values.
+		 *
+		 * @param kind
+		 *            ASSIGN, READ or WRITE
+		 */
+		Stmt(int kind) {
+			this.kind = kind;
+		}
+	}
+
+	/**
+	 * A node of the graph: a basic block, an if statement or a while
+	 * statement.
+	 */
+	static final class Node {
+		/**
+		 * A basic block of assign, read and write statements.
+		 */
+		static final int BLOCK = 1;
+
+		/**
+		 * An if statement, whose phi values are at the join.
+		 */
+		static final int IF = 2;
+
+		/**
+		 * A while statement, whose phi values are at the condition.
+		 */
+		static final int LOOP = 3;
+
+		/**
+		 * BLOCK, IF or LOOP.
+		 */
+		final int kind;
+
+		/**
+		 * The statements of a block.
+		 */
+		final List<Stmt> stmts = new ArrayList<Stmt>();
+
+		/**
+		 * The condition of an if or while statement.
+		 */
+		Cond cond;
+
+		/**
+		 * The then branch of an if statement, or the body of a while
+		 * statement.
+		 */
+		final List<Node> first = new ArrayList<Node>();
+
+		/**
+		 * The else branch of an if statement, empty if there is none.
+		 */
+		final List<Node> second = new ArrayList<Node>();
+
+		/**
+		 * The phi values of an if or while statement.
+		 */
+		final List<Value> phis = new ArrayList<Value>();
+
+		/**
+		 * Creates a node.
+		 *
+		 * @param kind
+		 *            BLOCK, IF or LOOP
+		 */
+		Node(int kind) {
+			this.kind = kind;
+		}
+	}
+
+	// fields
+	/**
+	 * The names of the identifiers, indexed by slot.
+	 */
+	final String[] names;
+
+	/**
+	 * The values of the identifiers on entry, indexed by slot.
+	 */
+	final Value[] undef;
+
+	/**
+	 * The nodes of the program.
+	 */
+	final List<Node> nodes = new ArrayList<Node>();
+
+	/**
+	 * The number of values of each identifier, indexed by slot.
+	 */
+	private final int[] versions;
+
+	// package methods
+	/**
+	 * Creates a graph without nodes.
+	 *
+	 * @param names
+	 *            the names of the identifiers, indexed by slot
+	 */
+	ControlFlowGraph(String[] names) {
+		this.names = names;
+		this.versions = new int[names.length];
+		this.undef = new Value[names.length];
+		for (int i = 0; i < names.length; i++) {
+			this.undef[i] = newValue(Value.UNDEF, i);
+		}
+	}
+
+	/**
+	 * Creates a new value of an identifier.
+	 *
+	 * @param kind
+	 *            UNDEF, PHI, ASSIGN or READ
+	 * @param var
+	 *            the slot of the identifier
+	 * @return the value
+	 */
+	Value newValue(int kind, int var) {
+		return new Value(kind, var, this.versions[var]++);
+	}
+
+	/**
+	 * Returns the name of a value, the name of its identifier followed by its
+	 * number.
+	 *
+	 * @param value
+	 *            the value
+	 * @return the name
+	 */
+	String valueName(Value value) {
+		return this.names[value.var] + "." + value.version;
+	}
+
+	/**
+	 * Replaces the uses of some values by other values, everywhere in the
+	 * graph.
+	 *
+	 * @param replaced
+	 *            the values that replace each value
+	 */
+	void substitute(Map<Value, Value> replaced) {
+		if (!replaced.isEmpty()) {
+			substitute(this.nodes, replaced);
+		}
+	}
+
+	// private methods
+	/**
+	 * Replaces the uses of some values in a sequence of nodes.
+	 *
+	 * @param nodes
+	 *            the nodes
+	 * @param replaced
+	 *            the values that replace each value
+	 */
+	private static void substitute(List<Node> nodes,
+			Map<Value, Value> replaced) {
+		for (Node node : nodes) {
+			for (Stmt stmt : node.stmts) {
+				if (stmt.kind == Stmt.WRITE) {
+					for (int i = 0; i < stmt.values.size(); i++) {
+						stmt.values.set(i,
+								resolve(stmt.values.get(i), replaced));
+					}
+				} else if (stmt.kind == Stmt.ASSIGN) {
+					substitute(stmt.values.get(0).exp, replaced);
+				}
+			}
+			if (node.cond != null) {
+				substitute(node.cond, replaced);
+			}
+			for (Value phi : node.phis) {
+				phi.args[0] = resolve(phi.args[0], replaced);
+				phi.args[1] = resolve(phi.args[1], replaced);
+			}
+			substitute(node.first, replaced);
+			substitute(node.second, replaced);
+		}
+	}
+
+	/**
+	 * Replaces the uses of some values in a condition.
+	 *
+	 * @param cond
+	 *            the condition
+	 * @param replaced
+	 *            the values that replace each value
+	 */
+	private static void substitute(Cond cond, Map<Value, Value> replaced) {
+		if (cond.kind == Cond.COMP) {
+			substitute(cond.left, replaced);
+			substitute(cond.right, replaced);
+		} else {
+			substitute(cond.first, replaced);
+			if (cond.second != null) {
+				substitute(cond.second, replaced);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the uses of some values in an expression.
+	 *
+	 * @param exp
+	 *            the expression
+	 * @param replaced
+	 *            the values that replace each value
+	 */
+	private static void substitute(Expr exp, Map<Value, Value> replaced) {
+		if (exp.kind == Expr.USE) {
+			exp.value = resolve(exp.value, replaced);
+		} else if (exp.kind != Expr.CONST) {
+			substitute(exp.left, replaced);
+			substitute(exp.right, replaced);
+		}
+	}
+
+	/**
+	 * Returns the value that finally replaces a value.
+	 *
+	 * @param value
+	 *            the value
+	 * @param replaced
+	 *            the values that replace each value
+	 * @return the value, or the value that replaces it
+	 */
+	private static Value resolve(Value value, Map<Value, Value> replaced) {
+		while (replaced.containsKey(value)) {
+			value = replaced.get(value);
+		}
+		return value;
+	}
+}
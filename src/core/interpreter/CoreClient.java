@@ -0,0 +1,68 @@
+package core.interpreter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * Runs the Core interpreter on a CoreDaemon. It takes the arguments of
+ * CoreInterpreter, sends them to the daemon with the current directory, and
+ * writes what the run wrote to stdout and stderr to its own, so that it can be
+ * used in place of CoreInterpreter without starting a new JVM for the
+ * interpreter.
+ *
+ * @author Simeon Georgiev
+ */
+public final class CoreClient {
+	// public methods
+	/**
+	 * Runs the Core interpreter on the daemon.
+	 *
+	 * @param args
+	 *            optionally -port=N, the port of the daemon (by default 7654),
+	 *            followed by the arguments of CoreInterpreter
+	 */
+	public static void main(String[] args) {
+		int port = CoreDaemon.PORT;
+		int i = 0;
+		if (args.length > 0 && args[0].startsWith("-port=")) {
+			try {
+				port = Integer.parseInt(args[0].substring("-port=".length()));
+			} catch (NumberFormatException e) {
+				port = 0;
+			}
+			if (port <= 0) {
+				System.err.println("Expecting a positive number in " + args[0]);
+				System.exit(0);
+			}
+			i++;
+		}
+
+		Socket socket = null;
+		try {
+			socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		} catch (IOException e) {
+			System.err.println("Daemon not running.");
+			System.exit(0);
+		}
+		try {
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(socket.getOutputStream()));
+			out.writeUTF(System.getProperty("user.dir"));
+			out.writeInt(args.length - i);
+			for (; i < args.length; i++) {
+				out.writeUTF(args[i]);
+			}
+			out.flush();
+			OutputRecorder.copy(new DataInputStream(new BufferedInputStream(
+					socket.getInputStream())));
+			socket.close();
+		} catch (IOException e) {
+			System.err.println("Connection to the daemon lost.");
+			System.exit(0);
+		}
+	}
+}
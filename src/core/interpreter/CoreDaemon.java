@@ -0,0 +1,542 @@
+package core.interpreter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Serves CoreInterpreter runs to CoreClient over a socket on the loopback
+ * address, so that a run does not pay for starting a JVM and compiling the
+ * interpreter again. Each connection is served on its own thread by a
+ * DaemonWorker process, which is kept running between requests with its
+ * classes loaded and compiled and its ProgramCache of compiled programs. A
+ * worker runs in the directory of the client, so that file names are
+ * resolved as the client would resolve them, and serves the requests of that
+ * directory only; there are at most as many workers as given, and an idle
+ * worker of another directory is stopped to make room for a new one.
+ *
+ * A request is the directory of the client and the arguments of the run, and
+ * the reply is the frames of what the run wrote to stdout and stderr, ended by
+ * a 0. A worker that exits after a run, as the interpreter does when it
+ * reports an error, is started again for the next request. A worker that dies
+ * before replying is started again and the request is run once more, unless
+ * part of the reply was sent. The run of a client that closes its socket
+ * before the reply is over is cancelled, and the worker serves the next
+ * request; a worker whose run is not over a second later is killed.
+ *
+ * @author Simeon Georgiev
+ */
+public final class CoreDaemon {
+	// fields
+	/**
+	 * The port the daemon listens on unless given another.
+	 */
+	static final int PORT = 7654;
+
+	/**
+	 * A worker process.
+	 *
+	 * @author Simeon Georgiev
+	 */
+	private static final class Worker {
+		/**
+		 * The directory the process runs in.
+		 */
+		private final String directory;
+
+		/**
+		 * The process, or null if it is not running.
+		 */
+		private Process process;
+
+		/**
+		 * The stream the requests are written to.
+		 */
+		private DataOutputStream to;
+
+		/**
+		 * The stream the replies are read from.
+		 */
+		private DataInputStream from;
+
+		/**
+		 * Whether the worker is serving a request.
+		 */
+		private boolean serving;
+
+		/**
+		 * Whether the client of the request it is serving has gone.
+		 */
+		private boolean abandoned;
+
+		/**
+		 * The number of requests the worker has been given, which tells the
+		 * thread watching the client of a request whether it is still the one
+		 * served.
+		 */
+		private long request;
+
+		/**
+		 * Creates a worker that is not running.
+		 *
+		 * @param directory
+		 *            the directory the process runs in
+		 */
+		private Worker(String directory) {
+			this.directory = directory;
+		}
+	}
+
+	/**
+	 * The milliseconds a worker is given to end a cancelled run before it is
+	 * killed.
+	 */
+	private static final long GRACE = 1000;
+
+	/**
+	 * The command that starts a worker process.
+	 */
+	private final List<String> command = new ArrayList<String>();
+
+	/**
+	 * The most workers.
+	 */
+	private final int max;
+
+	/**
+	 * A permit for each worker, taken while it serves a request.
+	 */
+	private final Semaphore permits;
+
+	/**
+	 * The workers that are not serving a request, by directory.
+	 */
+	private final Map<String, Queue<Worker>> idle =
+			new HashMap<String, Queue<Worker>>();
+
+	/**
+	 * The number of workers that are not serving a request.
+	 */
+	private int idleCount;
+
+	/**
+	 * The number of workers.
+	 */
+	private int count;
+
+	// private methods
+	/**
+	 * Creates a daemon.
+	 *
+	 * @param workers
+	 *            the most workers
+	 * @param cache
+	 *            the most compiled programs each worker keeps
+	 */
+	private CoreDaemon(int workers, int cache) {
+		this.command.add(System.getProperty("java.home") + File.separator
+				+ "bin" + File.separator + "java");
+		if (CoreDaemon.class.desiredAssertionStatus()) {
+			this.command.add("-ea");
+		}
+		this.command.add("-cp");
+		StringBuilder path = new StringBuilder();
+		for (String entry : System.getProperty("java.class.path").split(
+				File.pathSeparator)) { // workers run in other directories
+			if (path.length() > 0) {
+				path.append(File.pathSeparator);
+			}
+			path.append(new File(entry).getAbsolutePath());
+		}
+		this.command.add(path.toString());
+		this.command.add(DaemonWorker.class.getName());
+		this.command.add(Integer.toString(cache));
+		this.max = workers;
+		this.permits = new Semaphore(workers);
+	}
+
+	/**
+	 * Takes a worker for a directory: an idle one of the directory, or a new
+	 * one, stopping an idle one of another directory if there are already the
+	 * most workers.
+	 *
+	 * @param directory
+	 *            the directory
+	 * @return the worker
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for a permit
+	 */
+	private Worker take(String directory) throws InterruptedException {
+		this.permits.acquire();
+		Worker stopped = null;
+		Worker worker;
+		synchronized (this) {
+			Queue<Worker> workers = this.idle.get(directory);
+			if (workers != null && !workers.isEmpty()) {
+				this.idleCount--;
+				return workers.remove();
+			}
+			if (this.count == this.max) { // one of them is idle
+				for (Queue<Worker> other : this.idle.values()) {
+					if (!other.isEmpty()) {
+						stopped = other.remove();
+						this.idleCount--;
+						this.count--;
+						break;
+					}
+				}
+			}
+			worker = new Worker(directory);
+			this.count++;
+		}
+		if (stopped != null) {
+			stop(stopped);
+		}
+		return worker;
+	}
+
+	/**
+	 * Gives back a worker that has served a request.
+	 *
+	 * @param worker
+	 *            the worker
+	 */
+	private void give(Worker worker) {
+		synchronized (this) {
+			Queue<Worker> workers = this.idle.get(worker.directory);
+			if (workers == null) {
+				workers = new ArrayDeque<Worker>();
+				this.idle.put(worker.directory, workers);
+			}
+			workers.add(worker);
+			this.idleCount++;
+		}
+		this.permits.release();
+	}
+
+	/**
+	 * Starts the process of a worker.
+	 *
+	 * @param worker
+	 *            the worker, not running
+	 * @throws IOException
+	 *             if the process cannot be started
+	 */
+	private void start(Worker worker) throws IOException {
+		ProcessBuilder builder = new ProcessBuilder(this.command);
+		builder.directory(new File(worker.directory));
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		worker.process = builder.start();
+		worker.to = new DataOutputStream(new BufferedOutputStream(
+				worker.process.getOutputStream()));
+		worker.from = new DataInputStream(new BufferedInputStream(
+				worker.process.getInputStream()));
+	}
+
+	/**
+	 * Stops the process of a worker, if it is running, by closing its stdin,
+	 * and waits for it to exit.
+	 *
+	 * @param worker
+	 *            the worker
+	 */
+	private static void stop(Worker worker) {
+		if (worker.process == null) {
+			return;
+		}
+		try {
+			worker.to.close(); // no more requests
+		} catch (IOException e) {
+			// it has already exited
+		}
+		try {
+			worker.process.waitFor();
+		} catch (InterruptedException e) {
+			worker.process.destroy();
+		}
+		synchronized (worker) { // read by the thread watching the client
+			worker.process = null;
+		}
+	}
+
+	/**
+	 * Runs a request on a worker and sends the reply to the client.
+	 *
+	 * @param worker
+	 *            the worker
+	 * @param args
+	 *            the arguments of the run
+	 * @param client
+	 *            the stream to the client
+	 */
+	private void serve(Worker worker, String[] args, DataOutputStream client) {
+		byte[] buffer = new byte[1 << 16];
+		boolean sent = false; // whether part of the reply was sent
+		boolean gone = false; // whether the client has closed its socket
+		String error = null; // reported after the frames sent, if any
+		for (int attempt = 1;; attempt++) {
+			try {
+				synchronized (worker) { // not while a cancel is written
+					if (worker.abandoned) {
+						error = "Run stopped, the client is gone.";
+						break;
+					}
+					if (worker.process == null) {
+						start(worker);
+					}
+					worker.to.writeInt(args.length);
+					for (String arg : args) {
+						worker.to.writeUTF(arg);
+					}
+					worker.to.flush();
+				}
+
+				for (int stream = worker.from.readByte(); stream != 0;
+						stream = worker.from.readByte()) {
+					int len = worker.from.readInt();
+					try {
+						if (!gone) {
+							client.writeByte(stream);
+							client.writeInt(len);
+						}
+					} catch (IOException e) {
+						gone = true;
+					}
+					sent = true;
+					while (len > 0) { // read it all even if the client is gone
+						int n = Math.min(len, buffer.length);
+						worker.from.readFully(buffer, 0, n);
+						try {
+							if (!gone) {
+								client.write(buffer, 0, n);
+							}
+						} catch (IOException e) {
+							gone = true;
+						}
+						len -= n;
+					}
+				}
+				if (worker.from.readBoolean()) { // the process is exiting
+					stop(worker);
+				}
+				break;
+			} catch (IOException e) { // the process died
+				if (worker.process != null) {
+					worker.process.destroy();
+					stop(worker);
+				}
+				synchronized (worker) {
+					if (worker.abandoned) {
+						error = "Run stopped, the client is gone.";
+						break;
+					}
+				}
+				if (sent || attempt == 2) {
+					error = "Worker crashed.";
+					break;
+				}
+			}
+		}
+		try {
+			if (error != null && !gone) { // never an empty success
+				byte[] message = (error + System.lineSeparator()).getBytes();
+				client.writeByte(OutputRecorder.ERR);
+				client.writeInt(message.length);
+				client.write(message);
+			}
+			client.writeByte(0); // no more frames
+			client.flush();
+		} catch (IOException e) {
+			// the client is gone
+		}
+	}
+
+	/**
+	 * Starts a thread that waits for the client of a request to close its
+	 * socket, and then cancels the run if the worker is still serving that
+	 * request, as the interpreter would be stopped if it were run without the
+	 * daemon. A run that is not over after the grace period, such as one still
+	 * compiling its program, is stopped by killing the process of the worker.
+	 * The thread outlives the request until the socket is closed, by which
+	 * time the worker may serve another request, which it leaves alone.
+	 *
+	 * @param worker
+	 *            the worker serving the request
+	 * @param request
+	 *            the number of the request given to the worker
+	 * @param in
+	 *            the stream from the client, with the request read
+	 */
+	private static void watch(final Worker worker, final long request,
+			final DataInputStream in) {
+		Thread watcher = new Thread() {
+			@Override
+			public void run() {
+				try {
+					in.read(); // the client sends nothing more
+				} catch (IOException e) {
+					// the socket is closed
+				}
+				Process process;
+				synchronized (worker) {
+					if (!worker.serving || worker.request != request) {
+						return; // the request is over
+					}
+					worker.abandoned = true;
+					process = worker.process;
+					if (process == null) {
+						return; // not started; it will not be
+					}
+					try {
+						worker.to.writeInt(DaemonWorker.CANCEL);
+						worker.to.flush();
+					} catch (IOException e) {
+						process.destroy(); // it is exiting anyway
+						return;
+					}
+				}
+				try {
+					Thread.sleep(GRACE);
+				} catch (InterruptedException e) {
+					// kill it now
+				}
+				synchronized (worker) {
+					if (worker.serving && worker.request == request
+							&& worker.process == process) {
+						process.destroy(); // the run was not cancelled
+					}
+				}
+			}
+		};
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	/**
+	 * Reads a request from a connection, serves it and closes the connection.
+	 *
+	 * @param socket
+	 *            the connection
+	 */
+	private void handle(Socket socket) {
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					socket.getInputStream()));
+			DataOutputStream client = new DataOutputStream(
+					new BufferedOutputStream(socket.getOutputStream()));
+			String directory = in.readUTF();
+			String[] args = new String[in.readInt()];
+			for (int k = 0; k < args.length; k++) {
+				args[k] = in.readUTF();
+			}
+			Worker worker = take(directory);
+			long request;
+			synchronized (worker) {
+				worker.serving = true;
+				worker.abandoned = false;
+				request = ++worker.request;
+			}
+			watch(worker, request, in);
+			try {
+				serve(worker, args, client);
+			} finally {
+				synchronized (worker) {
+					worker.serving = false;
+				}
+				give(worker);
+			}
+		} catch (IOException e) {
+			// the client is gone
+		} catch (InterruptedException e) {
+			// the daemon is stopping
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+	}
+
+	// public methods
+	/**
+	 * Listens for runs from CoreClient until the process is killed.
+	 *
+	 * @param args
+	 *            zero or more options: -port=N - listen on port N of the
+	 *            loopback address (by default 7654); -workers=N - run at most
+	 *            N worker processes (by default one per processor); -cache=N -
+	 *            keep the N (by default 64) most recently used compiled
+	 *            programs in each worker.
+	 */
+	public static void main(String[] args) {
+		int port = PORT;
+		int workers = Runtime.getRuntime().availableProcessors();
+		int cache = 64;
+		for (String arg : args) {
+			int value = 0;
+			String name = arg.indexOf('=') < 0 ? arg : arg.substring(0,
+					arg.indexOf('=') + 1);
+			if (!name.equals("-port=") && !name.equals("-workers=")
+					&& !name.equals("-cache=")) {
+				System.err.println("Unknown option " + arg);
+				System.exit(0);
+			}
+			try {
+				value = Integer.parseInt(arg.substring(name.length()));
+			} catch (NumberFormatException e) {
+				value = 0;
+			}
+			if (value <= 0) {
+				System.err.println("Expecting a positive number in " + arg);
+				System.exit(0);
+			}
+			if (name.equals("-port=")) {
+				port = value;
+			} else if (name.equals("-workers=")) {
+				workers = value;
+			} else {
+				cache = value;
+			}
+		}
+
+		final CoreDaemon daemon = new CoreDaemon(workers, cache);
+		ServerSocket server = null;
+		try {
+			server = new ServerSocket(port, 50,
+					InetAddress.getLoopbackAddress());
+		} catch (IOException e) {
+			System.err.println("Port " + port + " cannot be used.");
+			System.exit(0);
+		}
+		System.err.println("Listening on port " + port);
+		ExecutorService threads = Executors.newCachedThreadPool();
+		for (;;) {
+			try {
+				final Socket socket = server.accept();
+				threads.execute(new Runnable() {
+					@Override
+					public void run() {
+						daemon.handle(socket);
+					}
+				});
+			} catch (IOException e) {
+				// a connection that failed; keep listening
+			}
+		}
+	}
+}
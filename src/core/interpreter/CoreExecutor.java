@@ -1,18 +1,24 @@
 package core.interpreter;
-import java.io.File;
 import java.io.FileNotFoundException;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.InputMismatchException;
-import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.Scanner;
 
 /**
- * Executor for the Core language.
+ * Executor for the Core language. The parse tree is walked with an explicit
+ * continuation stack rather than by recursion, so that a run takes a bounded
+ * native stack whatever the length and nesting depth of the program. This
+ * does not raise the size of the programs that can be run, as the parser and
+ * the passes over the tree before the executor still recurse. Since the state
+ * of a run is all on that stack, a run can stop at the back edge of a while
+ * loop and be resumed later, possibly on another thread, which is how a
+ * Scheduler runs it in time slices; the loop iterations it takes may be
+ * limited as well as the time it runs for.
  * 
  * @author Simeon Georgiev
  */
-public class CoreExecutor implements Executor {
+public class CoreExecutor implements Executor, Cancellable {
 	// fields
 	/**
 	 * Enumeration containing the six comparison operators.
@@ -24,262 +30,1065 @@ public class CoreExecutor implements Executor {
 	}
 
 	/**
-	 * Scanner used to read the input file.
+	 * Thrown when the program fails at run time, with the message reported to
+	 * stderr. The output written before it has been flushed.
+	 * 
+	 * @author Simeon Georgiev
+	 */
+	static final class Failure extends RuntimeException {
+		/**
+		 * Version of the serialized form.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Creates a failure.
+		 * 
+		 * @param message
+		 *            the message reported to stderr
+		 */
+		Failure(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * Continuation pushed when the run yields at the back edge of a loop, above
+	 * the continuation of its body.
+	 */
+	private static final int YIELD = -1;
+
+	/**
+	 * Continuation of the node the run started at: the run is over.
+	 */
+	private static final int DONE = 0;
+
+	/**
+	 * Continuation of a stmt seq node after one of its statements, above the
+	 * number of stmt seq nodes descended past the first.
+	 */
+	private static final int SEQ_STMT = 1;
+
+	/**
+	 * Continuation of a stmt node after the cond of its if statement.
+	 */
+	private static final int IF_COND = 2;
+
+	/**
+	 * Continuation of a stmt node after a branch of its if statement.
 	 */
-	private Scanner scan;
+	private static final int IF_BRANCH = 3;
+
+	/**
+	 * Continuation of a stmt node after the cond of its while statement.
+	 */
+	private static final int LOOP_COND = 4;
+
+	/**
+	 * Continuation of a stmt node after the body of its while statement.
+	 */
+	private static final int LOOP_BODY = 5;
+
+	/**
+	 * Continuation of a cond node after the cond it negates.
+	 */
+	private static final int COND_NOT = 6;
+
+	/**
+	 * Continuation of a cond node after the first cond of && or ||.
+	 */
+	private static final int COND_FIRST = 7;
+
+	/**
+	 * Continuation of a cond node after the second cond of && or ||, above
+	 * the value of the first.
+	 */
+	private static final int COND_SECOND = 8;
+
+	/**
+	 * Continuation of an exp node after its fac.
+	 */
+	private static final int EXP_FAC = 9;
+
+	/**
+	 * Continuation of an exp node after the exp it adds, above the value of
+	 * its fac.
+	 */
+	private static final int EXP_PLUS = 10;
+
+	/**
+	 * Continuation of an exp node after the exp it subtracts, above the value
+	 * of its fac.
+	 */
+	private static final int EXP_MINUS = 11;
+
+	/**
+	 * Continuation of a fac node after its op.
+	 */
+	private static final int FAC_OP = 12;
+
+	/**
+	 * Continuation of a fac node after the fac it multiplies, above the value
+	 * of its op.
+	 */
+	private static final int FAC_TIMES = 13;
+
+	/**
+	 * Continuation of an op node after its parenthesized exp.
+	 */
+	private static final int OP_EXP = 14;
+
+	/**
+	 * The number of parenthesized expressions nested in each other that are
+	 * evaluated by recursion. Deeper ones are run on the continuation stack.
+	 */
+	private static final int MAX_NESTING = 64;
+
+	/**
+	 * The most loop iterations between checks of the limits and time slice of
+	 * the run.
+	 */
+	private static final int CHECK = 1024;
+
+	/**
+	 * Reader used to read the input file.
+	 */
+	private IntReader input;
+
+	/**
+	 * Buffer the write statements write to, flushed before an error is
+	 * reported and when execution ends.
+	 */
+	private OutputBuffer output;
+
+	/**
+	 * The values of the identifiers in the program, indexed by slot.
+	 */
+	private int[] frame;
+
+	/**
+	 * The slots of the identifiers that have been assigned a value.
+	 */
+	private BitSet initialized;
+
+	/**
+	 * Whether both sides of && and || are always evaluated.
+	 */
+	private boolean eager;
+
+	/**
+	 * The cache of the effects of pure loops, or null if they are not
+	 * memoized.
+	 */
+	private LoopMemoizer memo;
+
+	/**
+	 * The continuation stack: the codes of the work left in the nodes that
+	 * have been descended into, each above the values it needs.
+	 */
+	private int[] stack = new int[64];
+
+	/**
+	 * Number of entries on the continuation stack.
+	 */
+	private int top;
+
+	/**
+	 * The value of the node last run: an integer for an exp, fac or op node,
+	 * 1 or 0 for a cond node.
+	 */
+	private int acc;
+
+	/**
+	 * The number of parenthesized expressions being evaluated by recursion.
+	 */
+	private int nesting;
+
+	/**
+	 * The back edges of loops left to take before the next check.
+	 */
+	private int tick;
+
+	/**
+	 * The back edges of loops between the last check and the next.
+	 */
+	private int interval;
+
+	/**
+	 * The back edges of loops taken up to the last check.
+	 */
+	private long steps;
+
+	/**
+	 * The most back edges of loops the run may take.
+	 */
+	private long maxSteps = Long.MAX_VALUE;
+
+	/**
+	 * The most nanoseconds the run may take, or 0 if it is not limited.
+	 */
+	private long maxNanos;
+
+	/**
+	 * The value of System.nanoTime when the run must end, if it is limited.
+	 */
+	private long deadline;
+
+	/**
+	 * Whether the run yields when its time slice ends.
+	 */
+	private boolean sliced;
+
+	/**
+	 * The value of System.nanoTime when the time slice ends, if it is sliced.
+	 */
+	private long sliceEnd;
+
+	/**
+	 * Whether the run has been entered.
+	 */
+	private boolean entered;
+
+	/**
+	 * Whether the run yielded at the end of its time slice.
+	 */
+	private boolean yielded;
+
+	/**
+	 * Whether the run has been cancelled from another thread.
+	 */
+	private volatile boolean cancelled;
 
 	// private methods
 	/**
-	 * Executes a statement sequence.
+	 * Flushes the output written so far and fails with a message.
+	 * 
+	 * @param message
+	 *            the message reported to stderr
+	 */
+	private void fail(String message) {
+		this.output.flush(); // keep output ahead of the error
+		throw new Failure(message);
+	}
+
+	/**
+	 * Sets the number of back edges to take before the next check, so that the
+	 * check comes at the first back edge past the step limit if it is nearer.
+	 */
+	private void resetTick() {
+		long left = this.maxSteps - this.steps;
+		this.interval = left < CHECK ? (int) left + 1 : CHECK;
+		this.tick = this.interval;
+	}
+
+	/**
+	 * Checks the limits of the run and the end of its time slice, every
+	 * interval back edges of loops.
+	 * 
+	 * @return true if the time slice has ended and the run should yield
+	 */
+	private boolean checkpoint() {
+		this.steps += this.interval;
+		if (this.cancelled) {
+			fail("Execution cancelled.");
+		}
+		if (this.steps > this.maxSteps) {
+			fail("Step limit exceeded.");
+		}
+		boolean yield = false;
+		if (this.maxNanos > 0 || this.sliced) {
+			long now = System.nanoTime();
+			if (this.maxNanos > 0 && now - this.deadline >= 0) {
+				fail("Time limit exceeded.");
+			}
+			yield = this.sliced && now - this.sliceEnd >= 0;
+		}
+		resetTick();
+		return yield;
+	}
+
+	/**
+	 * Pushes a code or a value on the continuation stack.
+	 * 
+	 * @param value
+	 *            the code or value
+	 */
+	private void push(int value) {
+		if (this.top == this.stack.length) {
+			this.stack = Arrays.copyOf(this.stack, 2 * this.top);
+		}
+		this.stack[this.top++] = value;
+	}
+
+	/**
+	 * Runs the node at the cursor, which is a stmt seq, cond, exp, fac or op
+	 * node. When a node needs a child to be run first, the work left in it is
+	 * pushed on the continuation stack and the cursor goes down to the child;
+	 * when the child is done, the code is popped and the work resumed. A child
+	 * that is done as soon as it is entered, such as an assign statement or a
+	 * comparison, is not dispatched through the stack. The native stack does
+	 * not grow with the program, since the methods called from here never call
+	 * each other in a cycle, and expressions are only evaluated by recursion
+	 * up to MAX_NESTING parentheses deep.
 	 * 
 	 * @param p
-	 *            the parse tree that represents the program
+	 *            the parse tree, with the cursor at the node to run
+	 * @return the value of the node: an integer for an exp, fac or op node,
+	 *         1 or 0 for a cond node, 0 for a stmt seq node
 	 */
-	private void execStmtSeq(ParseTree p) {
+	private int run(ParseTree p) {
+		push(DONE);
+		this.acc = 0;
+		return loop(p, true);
+	}
+
+	/**
+	 * Runs the nodes on the continuation stack until the run is over or
+	 * yields.
+	 * 
+	 * @param p
+	 *            the parse tree, with the cursor at the node to run, or at the
+	 *            child that is done for the code on top of the stack
+	 * @param down
+	 *            whether the cursor is at a node to run
+	 * @return the value of the node the run started at, or 0 if it yielded
+	 */
+	private int loop(ParseTree p, boolean down) {
+		for (;;) {
+			if (down) {
+				down = enter(p);
+			} else {
+				int code = this.stack[--this.top];
+				if (code <= DONE) {
+					this.yielded = code == YIELD;
+					return this.acc;
+				}
+				down = resume(p, code);
+			}
+		}
+	}
+
+	/**
+	 * Starts running the node at the cursor.
+	 * 
+	 * @param p
+	 *            the parse tree, with the cursor at the node to run
+	 * @return true if the cursor went down to a child to run first, false if
+	 *         the node is done and its value is in acc
+	 */
+	private boolean enter(ParseTree p) {
+		switch (p.currNT()) {
+		case 3: // stmt seq
+			push(0); // no stmt seq descended past this one
+			return execSeq(p);
+		case 12:
+			return enterCond(p);
+		case 14: // exp
+			push(EXP_FAC);
+			p.goDown(1); // fac
+			return true;
+		case 15: // fac
+			push(FAC_OP);
+			p.goDown(1); // op
+			return true;
+		default:
+			assert p.currNT() == 16 : "Expecting <op>";
+			if (p.currAlt() == 3) {
+				push(OP_EXP);
+				p.goDown(1); // exp
+				return true;
+			}
+			this.acc = evalOp(p);
+			return false;
+		}
+	}
+
+	/**
+	 * Executes the statements of a sequence, from the one at the cursor, until
+	 * one needs a child to be run first.
+	 * 
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node, and the
+	 *            number of stmt seq nodes descended past the first on top of
+	 *            the stack
+	 * @return true if the cursor went down to a node to run first, false if
+	 *         the sequence is done and the cursor back at its first stmt seq
+	 *         node
+	 */
+	private boolean execSeq(ParseTree p) {
 		assert p.currNT() == 3 : "Expecting <stmt seq>";
-		p.goDown(1); // stmt
-		execStmt(p);
+		for (;;) {
+			push(SEQ_STMT);
+			p.goDown(1); // stmt
+			if (enterStmt(p)) {
+				return true;
+			}
+			this.top--;
+			p.goUp();
+			if (p.currAlt() != 2) { // no more statements
+				break;
+			}
+			this.stack[this.top - 1]++;
+			p.goDown(2); // stmt seq
+		}
+		for (int n = this.stack[--this.top]; n > 0; n--) {
+			p.goUp(); // back to the first stmt seq
+		}
+		return false;
+	}
+
+	/**
+	 * Starts executing a statement. The body of an if or while statement is
+	 * only run once its condition is done, by resume.
+	 * 
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt node
+	 * @return true if the cursor went down to a node to run first, false if
+	 *         the statement is done
+	 */
+	private boolean enterStmt(ParseTree p) {
+		assert p.currNT() == 6 : "Expecting <stmt>";
+		int code = p.currSuperinstruction();
+		if (code != 0) {
+			execSuperinstruction(p, code);
+			return false;
+		}
+		switch (p.currAlt()) { // determine alternative
+		case 1:
+			p.goDown(1);
+			execAssign(p);
+			p.goUp();
+			return false;
+		case 2:
+			push(IF_COND);
+			p.goDown(1); // if
+			p.goDown(1); // cond
+			return true;
+		case 3:
+			p.goDown(1); // loop
+			if (p.currClosedForm() && execClosedForm(p)) {
+				p.goUp();
+				return false; // all iterations done at once
+			}
+			if (this.memo != null && p.currPureLoop() != 0
+					&& this.memo.restore(p, this.frame, this.initialized)) {
+				p.goUp();
+				return false; // same entry state as an earlier run
+			}
+			push(LOOP_COND);
+			p.goDown(1); // cond
+			return true;
+		case 4:
+			p.goDown(1);
+			execInput(p);
+			p.goUp();
+			return false;
+		default:
+			p.goDown(1);
+			execOutput(p);
+			p.goUp();
+			return false;
+		}
+	}
+
+	/**
+	 * Runs the branch of an if statement chosen by its condition.
+	 * 
+	 * @param p
+	 *            the parse tree, with the cursor at an if node, and the value
+	 *            of its condition in acc
+	 * @return true if the cursor went down to a node to run first, false if
+	 *         the statement is done and the cursor back at its stmt node
+	 */
+	private boolean execBranch(ParseTree p) {
+		assert p.currNT() == 8 : "Expecting <if>";
+		int no = this.acc != 0 ? 2 : p.currAlt() == 2 ? 3 : 0; // else clause
+		if (no != 0) {
+			push(IF_BRANCH);
+			p.goDown(no); // stmt seq
+			push(0);
+			if (execSeq(p)) {
+				return true;
+			}
+			this.top--;
+			p.goUp();
+		}
+		p.goUp();
+		return false;
+	}
+
+	/**
+	 * Runs the iterations of a while statement.
+	 * 
+	 * @param p
+	 *            the parse tree, with the cursor at a loop node
+	 * @param evaluated
+	 *            whether the condition was just evaluated, with its value in
+	 *            acc
+	 * @return true if the cursor went down to a node to run first, false if
+	 *         the statement is done and the cursor back at its stmt node
+	 */
+	private boolean execLoop(ParseTree p, boolean evaluated) {
+		assert p.currNT() == 9 : "Expecting <loop>";
+		for (;;) {
+			if (!evaluated) { // back edge
+				if (--this.tick == 0 && checkpoint()) {
+					this.tick++; // taken again when resumed
+					push(LOOP_BODY);
+					p.goDown(2); // stmt seq, as if the body were just done
+					push(YIELD);
+					return false;
+				}
+				push(LOOP_COND);
+				p.goDown(1); // cond
+				if (enterCond(p)) {
+					return true;
+				}
+				this.top--;
+				p.goUp();
+			}
+			evaluated = false;
+			if (this.acc == 0) {
+				if (this.memo != null && p.currPureLoop() != 0) {
+					this.memo.store(p, this.frame, this.initialized);
+				}
+				p.goUp();
+				return false;
+			}
+			push(LOOP_BODY);
+			p.goDown(2); // stmt seq
+			push(0);
+			if (execSeq(p)) {
+				return true;
+			}
+			this.top--;
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Starts evaluating a condition.
+	 * 
+	 * @param p
+	 *            the parse tree, with the cursor at a cond node
+	 * @return true if the cursor went down to a node to run first, false if
+	 *         the condition is done and its value is in acc
+	 */
+	private boolean enterCond(ParseTree p) {
+		assert p.currNT() == 12 : "Expecting <cond>";
+		int code = p.currSuperinstruction();
+		if (code != 0) {
+			this.acc = evalSuperinstruction(p, code) ? 1 : 0;
+			return false;
+		}
+		switch (p.currAlt()) {
+		case 1:
+			p.goDown(1); // comp
+			this.acc = evalComp(p) ? 1 : 0; // get comparison
+			p.goUp();
+			return false;
+		case 2:
+			push(COND_NOT);
+			p.goDown(1); // cond
+			return true;
+		default:
+			push(COND_FIRST);
+			p.goDown(1); // first cond
+			return true;
+		}
+	}
+
+	/**
+	 * Resumes the work left in a node after one of its children is done.
+	 * 
+	 * @param p
+	 *            the parse tree, with the cursor at the child that is done
+	 * @param code
+	 *            the continuation popped from the stack
+	 * @return true if the cursor went down to another node to run, false if
+	 *         the node is done and its value is in acc
+	 */
+	private boolean resume(ParseTree p, int code) {
+		p.goUp();
+		switch (code) {
+		case SEQ_STMT:
+			if (p.currAlt() == 2) { // more statements
+				this.stack[this.top - 1]++;
+				p.goDown(2); // stmt seq
+				return execSeq(p);
+			}
+			for (int n = this.stack[--this.top]; n > 0; n--) {
+				p.goUp(); // back to the first stmt seq
+			}
+			return false;
+		case IF_COND:
+			return execBranch(p);
+		case IF_BRANCH:
+			p.goUp();
+			return false;
+		case LOOP_COND:
+			return execLoop(p, true);
+		case LOOP_BODY:
+			return execLoop(p, false);
+		case COND_NOT:
+			this.acc = 1 - this.acc; // take the not
+			return false;
+		case COND_FIRST:
+			if (!this.eager && (this.acc == 0) == (p.currAlt() == 3)) {
+				return false; // decided by the first cond
+			}
+			push(this.acc);
+			push(COND_SECOND);
+			p.goDown(2); // second cond
+			return true;
+		case COND_SECOND:
+			int first = this.stack[--this.top];
+			this.acc = p.currAlt() == 3 ? first & this.acc : first | this.acc;
+			return false;
+		case EXP_FAC:
+			if (p.currAlt() == 1) {
+				return false;
+			}
+			push(this.acc);
+			push(p.currAlt() == 2 ? EXP_PLUS : EXP_MINUS);
+			p.goDown(2); // exp
+			return true;
+		case EXP_PLUS:
+			this.acc = this.stack[--this.top] + this.acc;
+			return false;
+		case EXP_MINUS:
+			this.acc = this.stack[--this.top] - this.acc;
+			return false;
+		case FAC_OP:
+			if (p.currAlt() == 1) {
+				return false;
+			}
+			push(this.acc);
+			push(FAC_TIMES);
+			p.goDown(2); // fac
+			return true;
+		case FAC_TIMES:
+			this.acc = this.stack[--this.top] * this.acc;
+			return false;
+		default: // OP_EXP
+			return false;
+		}
+	}
+
+	/**
+	 * Executes the superinstruction of an assign statement, without descending
+	 * to the nodes below it.
+	 * 
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt node
+	 * @param code
+	 *            the code of the superinstruction
+	 */
+	private void execSuperinstruction(ParseTree p, int code) {
+		int[] frame = this.frame;
+		int x = p.currSuperOperand(1);
+		int a = p.currSuperOperand(2);
+		int b = p.currSuperOperand(3);
+		switch (code) {
+		case SuperinstructionSelector.SET_CONST:
+			frame[x] = a;
+			break;
+		case SuperinstructionSelector.SET_VAR:
+			frame[x] = frame[a];
+			break;
+		case SuperinstructionSelector.ADD_CONST:
+			frame[x] = frame[a] + b;
+			break;
+		case SuperinstructionSelector.ADD_VAR:
+			frame[x] = frame[a] + frame[b];
+			break;
+		case SuperinstructionSelector.SUB_VAR:
+			frame[x] = frame[a] - frame[b];
+			break;
+		case SuperinstructionSelector.MUL_CONST:
+			frame[x] = frame[a] * b;
+			break;
+		case SuperinstructionSelector.MUL_VAR:
+			frame[x] = frame[a] * frame[b];
+			break;
+		}
+		this.initialized.set(x);
+	}
+
+	/**
+	 * Evaluates the superinstruction of a condition, without descending to
+	 * the nodes below it.
+	 * 
+	 * @param p
+	 *            the parse tree, with the cursor at a cond node
+	 * @param code
+	 *            the code of the superinstruction
+	 * @return true if the condition is true, false otherwise
+	 */
+	private boolean evalSuperinstruction(ParseTree p, int code) {
+		int a = this.frame[p.currSuperOperand(1)];
+		int b = p.currSuperOperand(2);
+		if (code >= SuperinstructionSelector.CMP_VAR) {
+			b = this.frame[b];
+			code -= SuperinstructionSelector.CMP_VAR
+					- SuperinstructionSelector.CMP_CONST;
+		}
+		switch (code - SuperinstructionSelector.CMP_CONST + 1) {
+		case 1:
+			return a != b;
+		case 2:
+			return a == b;
+		case 3:
+			return a < b;
+		case 4:
+			return a > b;
+		case 5:
+			return a <= b;
+		default:
+			return a >= b;
+		}
+	}
+
+	/**
+	 * Executes an induction loop in closed form: computes the number of
+	 * iterations from the current values, then sets every identifier assigned
+	 * in the loop to the value it would have after the last iteration.
+	 * 
+	 * @param p
+	 *            the parse tree, with the cursor at a loop node marked by the
+	 *            induction-variable analysis
+	 * @return true if the loop was executed, false if it must be stepped
+	 *         through instead because an identifier it uses is not
+	 *         initialized, it never terminates, or its induction variable
+	 *         wraps around
+	 */
+	private boolean execClosedForm(ParseTree p) {
+		assert p.currNT() == 9 : "Expecting <loop>";
+		BitSet assigned = new BitSet();
+		BitSet used = new BitSet();
+		p.goDown(1); // cond
+		ParseTrees.addCondUses(p, used);
+		p.goUp();
+		p.goDown(2); // stmt seq
+		ParseTrees.addAssigned(p, assigned);
+		ParseTrees.addUses(p, used);
+		p.goUp();
+		used.andNot(this.initialized);
+		if (!used.isEmpty()) {
+			return false; // report the error where it occurs
+		}
+
+		int[] steps = new int[this.frame.length];
+		int[] positions = new int[this.frame.length];
+		Arrays.fill(positions, -1); // not an induction variable
+		p.goDown(2); // stmt seq
+		findSteps(p, assigned, steps, positions);
 		p.goUp();
+
+		p.goDown(1); // cond
+		p.goDown(1); // comp
+		p.goDown(2); // comp op
+		int c = p.currAlt();
+		p.goUp();
+		int side = 3; // side of the induction variable
+		p.goDown(1); // op
 		if (p.currAlt() == 2) {
+			p.goDown(1); // id
+			if (positions[p.currIdSlot()] >= 0) {
+				side = 1;
+			}
+			p.goUp();
+		}
+		p.goUp();
+		p.goDown(side); // op
+		p.goDown(1); // id
+		int slot = p.currIdSlot();
+		p.goUp();
+		p.goUp();
+		p.goDown(4 - side); // op
+		int bound = evalOp(p);
+		p.goUp();
+		p.goUp();
+		p.goUp();
+		if (side == 3 && c > 2) {
+			c = c % 2 == 1 ? c + 1 : c - 1; // mirror < and >, <= and >=
+		}
+
+		long n = ClosedForms.tripCount(this.frame[slot], steps[slot], c,
+				bound);
+		if (n < 0) {
+			return false;
+		}
+		if (n > 0) {
+			int[] start = this.frame.clone();
 			p.goDown(2); // stmt seq
-			execStmtSeq(p);
+			sumSteps(p, start, steps, positions, n);
 			p.goUp();
+			for (int i = 0; i < positions.length; i++) {
+				if (positions[i] >= 0) {
+					this.frame[i] = ClosedForms.advance(start[i], steps[i], n);
+				}
+			}
 		}
+		return true;
 	}
 
 	/**
-	 * Evaluates a list of identifiers and returns this list.
+	 * Evaluates the steps of the induction variables of a loop body: the
+	 * statements whose expression e does not use any identifier assigned in
+	 * the loop.
 	 * 
 	 * @param p
-	 *            the parse tree that represents the program
-	 * @return the list of identifiers
+	 *            the parse tree, with the cursor at the stmt seq node of the
+	 *            body
+	 * @param assigned
+	 *            the slots of the identifiers assigned in the loop
+	 * @param steps
+	 *            receives the value added to each induction variable by an
+	 *            iteration, indexed by slot
+	 * @param positions
+	 *            receives the position of the statement that steps each
+	 *            induction variable, indexed by slot
 	 */
-	private ArrayList<String> evalIdList(ParseTree p) {
-		assert p.currNT() == 5 : "Expecting <id list>";
-		ArrayList<String> list = new ArrayList<String>();
-
-		p.goDown(1); // id
-		list.add(p.currIdName()); // add id to list
-		p.goUp();
-
-		ArrayList<String> rest = null;
-		if (p.currAlt() == 2) { // more ids
-			p.goDown(2); // id list
-			rest = evalIdList(p);
+	private void findSteps(ParseTree p, BitSet assigned, int[] steps,
+			int[] positions) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		int index = 0; // position of the statement in the body
+		for (;;) {
+			p.goDown(1); // stmt
+			p.goDown(1); // assign
+			BitSet uses = new BitSet();
+			int form = ParseTrees.stepForm(p);
+			p.goDown(2); // exp
+			if (form == ParseTrees.ADD_TO) {
+				p.goDown(1); // fac
+				ParseTrees.addFacUses(p, uses);
+			} else {
+				p.goDown(2); // exp
+				ParseTrees.addExpUses(p, uses);
+			}
+			p.goUp();
 			p.goUp();
-			list.addAll(rest); // add rest after the one id
+			if (!uses.intersects(assigned)) {
+				p.goDown(1); // id
+				int slot = p.currIdSlot();
+				p.goUp();
+				steps[slot] = evalStep(p);
+				positions[slot] = index;
+			}
+			p.goUp();
+			p.goUp();
+
+			if (p.currAlt() != 2) {
+				break;
+			}
+			p.goDown(2); // stmt seq
+			index++;
+		}
+		for (; index > 0; index--) {
+			p.goUp(); // back to the first stmt seq
 		}
-		return list;
 	}
 
 	/**
-	 * Executes a statement.
+	 * Adds to each accumulator of a loop body the sum of its steps over all
+	 * iterations. A step is affine in the induction variables, so the sum only
+	 * depends on its values in the first two iterations.
 	 * 
 	 * @param p
-	 *            the parse tree that represents the program
+	 *            the parse tree, with the cursor at the stmt seq node of the
+	 *            body
+	 * @param start
+	 *            the values of the identifiers on entry to the loop, indexed
+	 *            by slot
+	 * @param steps
+	 *            the value added to each induction variable by an iteration,
+	 *            indexed by slot
+	 * @param positions
+	 *            the position of the statement that steps each induction
+	 *            variable, or -1 for other identifiers, indexed by slot
+	 * @param n
+	 *            the number of iterations
 	 */
-	private void execStmt(ParseTree p) {
-		assert p.currNT() == 6 : "Expecting <stmt>";
-		switch (p.currAlt()) { // determine alternative
-		case 1:
-			p.goDown(1);
-			execAssign(p);
-			p.goUp();
-			break;
-		case 2:
-			p.goDown(1);
-			execIf(p);
-			p.goUp();
-			break;
-		case 3:
-			p.goDown(1);
-			execLoop(p);
+	private void sumSteps(ParseTree p, int[] start, int[] steps,
+			int[] positions, long n) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		int index = 0; // position of the statement in the body
+		for (;;) {
+			p.goDown(1); // stmt
+			p.goDown(1); // assign
+			p.goDown(1); // id
+			int slot = p.currIdSlot();
 			p.goUp();
-			break;
-		case 4:
-			p.goDown(1);
-			execInput(p);
+			if (positions[slot] < 0) { // accumulator
+				for (int i = 0; i < positions.length; i++) {
+					if (positions[i] >= 0) { // value when the stmt is reached
+						this.frame[i] = positions[i] < index ? start[i]
+								+ steps[i] : start[i];
+					}
+				}
+				int first = evalStep(p);
+				for (int i = 0; i < positions.length; i++) {
+					if (positions[i] >= 0) { // one iteration later
+						this.frame[i] += steps[i];
+					}
+				}
+				int second = evalStep(p);
+				for (int i = 0; i < positions.length; i++) {
+					if (positions[i] >= 0) {
+						this.frame[i] = start[i];
+					}
+				}
+				this.frame[slot] += ClosedForms.sum(first, second, n);
+			}
 			p.goUp();
-			break;
-		case 5:
-			p.goDown(1);
-			execOutput(p);
 			p.goUp();
-			break;
+
+			if (p.currAlt() != 2) {
+				break;
+			}
+			p.goDown(2); // stmt seq
+			index++;
+		}
+		for (; index > 0; index--) {
+			p.goUp(); // back to the first stmt seq
 		}
 	}
 
 	/**
-	 * Executes an assign statement.
+	 * Evaluates the value a step adds to its identifier: e for X = X + e and
+	 * X = e + X, and -e for X = X - e.
 	 * 
 	 * @param p
-	 *            the parse tree that represents the program
+	 *            the parse tree, with the cursor at an assign node
+	 * @return the value added
 	 */
-	private void execAssign(ParseTree p) {
+	private int evalStep(ParseTree p) {
 		assert p.currNT() == 7 : "Expecting <assign>";
+		int form = ParseTrees.stepForm(p);
+		int step;
 		p.goDown(2); // exp
-		int val = evalExp(p); // get expression
+		if (form == ParseTrees.ADD_TO) {
+			p.goDown(1); // fac
+			step = evalFac(p);
+		} else {
+			p.goDown(2); // exp
+			step = form == ParseTrees.SUBTRACT ? -evalExp(p) : evalExp(p);
+		}
 		p.goUp();
-
-		p.goDown(1); // id
-		p.setIdVal(val); // assign value to current id
 		p.goUp();
+		return step;
 	}
 
 	/**
-	 * Executes a if statement.
+	 * Executes an input statement. Reads integers from a file using a reader.
 	 * 
 	 * @param p
 	 *            the parse tree that represents the program
 	 */
-	private void execIf(ParseTree p) {
-		assert p.currNT() == 8 : "Expecting <if>";
-		p.goDown(1); // cond
-		boolean cond = evalCond(p); // evaluate condition
+	private void execInput(ParseTree p) {
+		assert p.currNT() == 10 : "Expecting <input>";
+		p.goDown(1); // id list
+		readIdList(p); // read values into ids
 		p.goUp();
-
-		if (cond) {
-			p.goDown(2); // stmt seq
-			execStmtSeq(p);
-			p.goUp();
-		} else { // else clause, only exec'd if alt is 2
-			if (p.currAlt() == 2) {
-				p.goDown(3); // stmt seq
-				execStmtSeq(p);
-				p.goUp();
-			}
-		}
 	}
 
 	/**
-	 * Executes a while statement.
+	 * Reads a value for each identifier in a list of identifiers.
 	 * 
 	 * @param p
 	 *            the parse tree that represents the program
 	 */
-	private void execLoop(ParseTree p) {
-		assert p.currNT() == 9 : "Expecting <loop>";
-		p.goDown(1); // cond
-		boolean cond = evalCond(p); // get condition
-		p.goUp();
-
-		while (cond) {
-			p.goDown(2);
-			execStmtSeq(p);
+	private void readIdList(ParseTree p) {
+		assert p.currNT() == 5 : "Expecting <id list>";
+		int depth = 0; // id lists descended past the first
+		for (;;) {
+			p.goDown(1); // id
+			int slot = p.currIdSlot();
 			p.goUp();
 
-			p.goDown(1); // cond
-			cond = evalCond(p); // get cond again
+			try {
+				this.frame[slot] = this.input.nextInt(); // get value
+				this.initialized.set(slot);
+			} catch (InputMismatchException e) {
+				fail("Input is not an integer.");
+			} catch (NoSuchElementException e) {
+				fail("Input is empty.");
+			}
+
+			if (p.currAlt() != 2) { // no more ids
+				break;
+			}
+			p.goDown(2); // id list
+			depth++;
+		}
+		for (; depth > 0; depth--) {
 			p.goUp();
 		}
 	}
 
 	/**
-	 * Executes an input statement. Reads integers from a file using a scanner.
+	 * Executes an output statement. Outputs to stdout.
 	 * 
 	 * @param p
 	 *            the parse tree that represents the program
 	 */
-	private void execInput(ParseTree p) {
-		assert p.currNT() == 10 : "Expecting <input>";
+	private void execOutput(ParseTree p) {
+		assert p.currNT() == 11 : "Expecting <output>";
 		p.goDown(1); // id list
-		ArrayList<String> list = evalIdList(p); // get ids
+		writeIdList(p); // write values of ids
 		p.goUp();
-
-		Iterator<String> iter = list.iterator(); // get iterator
-		try {
-			while (iter.hasNext()) {
-				String id = iter.next(); // get id
-				int val = this.scan.nextInt(); // get value
-				p.setIdVal(id, val);
-			}
-		} catch (InputMismatchException e) {
-			System.err.println("Input is not an integer.");
-			System.exit(0);
-		} catch (NoSuchElementException e) {
-			System.err.println("Input is empty.");
-			System.exit(0);
-		}
 	}
 
 	/**
-	 * Executes an output statement. Outputs to stdout.
+	 * Writes the value of each identifier in a list of identifiers.
 	 * 
 	 * @param p
 	 *            the parse tree that represents the program
 	 */
-	private void execOutput(ParseTree p) {
-		assert p.currNT() == 11 : "Expecting <output>";
-		p.goDown(1); // id list
-		ArrayList<String> list = evalIdList(p); // get ids
-		p.goUp();
+	private void writeIdList(ParseTree p) {
+		assert p.currNT() == 5 : "Expecting <id list>";
+		int depth = 0; // id lists descended past the first
+		for (;;) {
+			p.goDown(1); // id
+			int slot = p.currIdSlot();
+			boolean checked = p.currIdChecked();
+			p.goUp();
 
-		Iterator<String> iter = list.iterator();
-		while (iter.hasNext()) {
-			String name = iter.next(); // get id
-			if (p.getIdVal(name) == null) {
-				try {
-					throw new RuntimeException("Uninitialized variable " + name);
-				} catch (RuntimeException e) {
-					System.err.println(e.getMessage());
-					System.exit(0);
-				}
+			if (checked && !this.initialized.get(slot)) {
+				fail("Uninitialized variable " + p.idName(slot));
+			}
+			this.output.write(slot, this.frame[slot]);
 
+			if (p.currAlt() != 2) { // no more ids
+				break;
 			}
-			System.out.println(name + " = " + p.getIdVal(name));
+			p.goDown(2); // id list
+			depth++;
+		}
+		for (; depth > 0; depth--) {
+			p.goUp();
 		}
 	}
 
 	/**
-	 * Evaluates a condition.
+	 * Executes an assign statement.
 	 * 
 	 * @param p
 	 *            the parse tree that represents the program
-	 * @return true if the condition is true, false otherwise
 	 */
-	private boolean evalCond(ParseTree p) {
-		assert p.currNT() == 12 : "Expecting <cond>";
-		boolean cond = false;
-
-		switch (p.currAlt()) {
-		case 1:
-			p.goDown(1); // comp
-			cond = evalComp(p); // get comparison
-			p.goUp();
-			break;
-		case 2:
-			p.goDown(1); // cond
-			cond = !evalCond(p); // take the not
-			p.goUp();
-			break;
-		case 3:
-			boolean b1 = false;
-			p.goDown(1); // first cond
-			b1 = evalCond(p);
-			p.goUp();
-
-			boolean b2 = false;
-			p.goDown(2); // second cond
-			b2 = evalCond(p);
-			p.goUp();
-
-			cond = b1 && b2;
-			break;
-		case 4:
-			boolean c1 = false;
-			p.goDown(1); // first cond
-			c1 = evalCond(p);
-			p.goUp();
+	private void execAssign(ParseTree p) {
+		assert p.currNT() == 7 : "Expecting <assign>";
+		p.goDown(2); // exp
+		int val = evalExp(p); // get expression
+		p.goUp();
 
-			boolean c2 = false;
-			p.goDown(2); // second cond
-			c2 = evalCond(p);
-			p.goUp();
+		p.goDown(1); // id
+		int slot = p.currIdSlot();
+		p.goUp();
 
-			cond = c1 || c2;
-			break;
-		}
-		return cond;
+		this.frame[slot] = val; // assign value to id
+		this.initialized.set(slot);
 	}
 
 	/**
@@ -329,7 +1138,10 @@ public class CoreExecutor implements Executor {
 	}
 
 	/**
-	 * Evaluates an expression.
+	 * Evaluates an expression. The exps added or subtracted in turn are
+	 * evaluated in a loop rather than by recursion, so that a long sum does
+	 * not grow the native stack: after each -, the terms that follow change
+	 * sign.
 	 * 
 	 * @param p
 	 *            the parse tree that represents the program
@@ -338,25 +1150,32 @@ public class CoreExecutor implements Executor {
 	private int evalExp(ParseTree p) {
 		assert p.currNT() == 14 : "Expecting <exp>";
 		int exp = 0;
-
-		p.goDown(1); // fac
-		exp = evalFac(p);
-		p.goUp();
-
-		if (p.currAlt() == 2) { // +
-			p.goDown(2); // exp
-			exp = exp + evalExp(p);
+		boolean minus = false; // whether the next fac is subtracted
+		int depth = 0; // exps descended past the first
+		for (;;) {
+			p.goDown(1); // fac
+			int fac = evalFac(p);
 			p.goUp();
-		} else if (p.currAlt() == 3) { // -
+			exp = minus ? exp - fac : exp + fac;
+
+			int alt = p.currAlt();
+			if (alt == 1) {
+				break;
+			} else if (alt == 3) { // -
+				minus = !minus;
+			}
 			p.goDown(2); // exp
-			exp = exp - evalExp(p);
+			depth++;
+		}
+		for (; depth > 0; depth--) {
 			p.goUp();
 		}
 		return exp;
 	}
 
 	/**
-	 * Evaluates a factor.
+	 * Evaluates a factor. The facs multiplied in turn are evaluated in a loop
+	 * rather than by recursion.
 	 * 
 	 * @param p
 	 *            the parse tree that represents the program
@@ -368,16 +1187,23 @@ public class CoreExecutor implements Executor {
 		int fop = evalOp(p);
 		p.goUp();
 
-		if (p.currAlt() == 2) {
+		int depth = 0; // facs descended past the first
+		while (p.currAlt() == 2) {
 			p.goDown(2); // fac
-			fop = fop * evalFac(p);
+			depth++;
+			p.goDown(1); // op
+			fop = fop * evalOp(p);
+			p.goUp();
+		}
+		for (; depth > 0; depth--) {
 			p.goUp();
 		}
 		return fop;
 	}
 
 	/**
-	 * Evaluates an operand.
+	 * Evaluates an operand. A parenthesized expression nested more than
+	 * MAX_NESTING deep is run on the continuation stack.
 	 * 
 	 * @param p
 	 *            the parse tree that represents the program
@@ -395,21 +1221,24 @@ public class CoreExecutor implements Executor {
 			break;
 		case 2: // id
 			p.goDown(1); // id
-			if (p.currIdVal() == null) {
-				try {
-					throw new RuntimeException("Uninitialized variable "
-							+ p.currIdName());
-				} catch (RuntimeException e) {
-					System.err.println(e.getMessage());
-					System.exit(0);
-				}
-			}
-			op = p.currIdVal();
+			int slot = p.currIdSlot();
+			boolean checked = p.currIdChecked();
 			p.goUp();
+
+			if (checked && !this.initialized.get(slot)) {
+				fail("Uninitialized variable " + p.idName(slot));
+			}
+			op = this.frame[slot];
 			break;
 		case 3: // exp
 			p.goDown(1); // exp
-			op = evalExp(p);
+			if (this.nesting < MAX_NESTING) {
+				this.nesting++;
+				op = evalExp(p);
+				this.nesting--;
+			} else {
+				op = run(p); // expressions have no loops to yield at
+			}
 			p.goUp();
 			break;
 		}
@@ -443,33 +1272,229 @@ public class CoreExecutor implements Executor {
 		}
 	}
 
+	// package methods
+	/**
+	 * Opens the reader of a data file, which is read as a binary data file if
+	 * it starts with the header of one and as a text file otherwise.
+	 * 
+	 * @param filename
+	 *            the name of the data file
+	 * @param readAhead
+	 *            the most integers read ahead on a background thread, or 0 to
+	 *            read them when they are needed
+	 * @return the reader
+	 * @throws FileNotFoundException
+	 *             if the file cannot be opened
+	 * @throws Failure
+	 *             if the file is not a valid binary data file
+	 */
+	static IntReader open(String filename, int readAhead)
+			throws FileNotFoundException {
+		IntReader reader;
+		if (BinaryIntReader.isBinary(filename)) {
+			reader = new BinaryIntReader(filename);
+		} else {
+			reader = new TextIntReader(filename);
+		}
+		if (readAhead > 0) {
+			reader = new ReadAheadIntReader(reader, readAhead);
+		}
+		return reader;
+	}
+
+	/**
+	 * Limits the run, which then fails at the back edge of a loop, after the
+	 * iteration that takes it past the most iterations of loops, or once it
+	 * has run for longer. The iterations of a loop run in closed form or
+	 * restored from the memo are not counted. Limits are checked every 1024
+	 * back edges at most, so the time limit may be passed by that many
+	 * iterations.
+	 * 
+	 * @param steps
+	 *            the most iterations of loops, or 0 if they are not limited
+	 * @param millis
+	 *            the most milliseconds the run takes from when it starts, or
+	 *            0 if it is not limited
+	 */
+	void limit(long steps, long millis) {
+		this.maxSteps = steps > 0 ? steps : Long.MAX_VALUE;
+		this.maxNanos = millis * 1000000;
+	}
+
+	/**
+	 * Prepares to execute the program, writing its output to a buffer. The
+	 * program is then run by proceed.
+	 * 
+	 * @param p
+	 *            the parse tree that represents the program, used by this run
+	 *            only until it is over
+	 * @param output
+	 *            the buffer the write statements write to, flushed when
+	 *            execution ends
+	 */
+	void start(ParseTree p, OutputBuffer output) {
+		assert p.currNT() == 1 : "Expecting <prog>";
+		// no need to execute declarations; all ids are already in parse tree
+		this.frame = new int[p.idCount()];
+		this.initialized = new BitSet(p.idCount());
+		this.output = output;
+		if (this.maxNanos > 0) {
+			this.deadline = System.nanoTime() + this.maxNanos;
+		}
+		resetTick();
+
+		p.goDown(2); // stmt seq
+		push(DONE);
+		this.acc = 0;
+	}
+
+	/**
+	 * Runs the program started by start, until it is over or, if there is a
+	 * time slice, until the slice ends at the back edge of a loop. The reader
+	 * is closed when execution ends, even if the program fails.
+	 * 
+	 * @param p
+	 *            the parse tree given to start, left as the last call left it
+	 * @param slice
+	 *            the nanoseconds to run for before yielding, or 0 to run until
+	 *            the program is over
+	 * @return true if the program is over, false if it yielded
+	 * @throws Failure
+	 *             if the program fails at run time
+	 */
+	boolean proceed(ParseTree p, long slice) {
+		this.sliced = slice > 0;
+		if (this.sliced) {
+			this.sliceEnd = System.nanoTime() + slice;
+		}
+		this.yielded = false;
+		try {
+			if (this.cancelled) {
+				fail("Execution cancelled.");
+			}
+			boolean down = !this.entered; // at the stmt seq the first time
+			this.entered = true;
+			loop(p, down);
+		} finally {
+			if (!this.yielded) {
+				this.output.flush(); // write out the rest of the output
+				if (this.input != null) {
+					this.input.close(); // close reader after done using it
+				}
+			}
+		}
+		if (this.yielded) {
+			return false;
+		}
+		p.goUp();
+		return true;
+	}
+
+	/**
+	 * Executes the program, writing its output to a buffer. The reader is
+	 * closed when execution ends, even if the program fails.
+	 * 
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @param output
+	 *            the buffer the write statements write to, flushed when
+	 *            execution ends
+	 * @throws Failure
+	 *             if the program fails at run time
+	 */
+	void execute(ParseTree p, OutputBuffer output) {
+		start(p, output);
+		proceed(p, 0);
+	}
+
 	// public methods
 	/**
-	 * Initializes the file and scanner fields.
+	 * Initializes the file and reader fields. Conditions are evaluated with
+	 * short-circuit.
 	 * 
 	 * @param filename
 	 *            the name of the file the Core program reads from.
 	 */
 	public CoreExecutor(String filename) {
-		try { // open scanner
-			this.scan = new Scanner(new File(filename));
+		this(filename, false);
+	}
+
+	/**
+	 * Initializes the file and reader fields.
+	 * 
+	 * @param filename
+	 *            the name of the file the Core program reads from.
+	 * @param eager
+	 *            whether both sides of && and || are always evaluated, so
+	 *            that a use of an uninitialized identifier is reported even on
+	 *            the side that does not decide the condition
+	 */
+	public CoreExecutor(String filename, boolean eager) {
+		this(filename, eager, null, 0);
+	}
+
+	/**
+	 * Initializes the file and reader fields.
+	 * 
+	 * @param filename
+	 *            the name of the file the Core program reads from.
+	 * @param eager
+	 *            whether both sides of && and || are always evaluated
+	 * @param memo
+	 *            the cache in which the effects of the loops numbered by the
+	 *            pure-loop analysis are memoized, or null to run every loop
+	 * @param readAhead
+	 *            the most integers read ahead of the read statements on a
+	 *            background thread, or 0 to read them when they are needed
+	 */
+	CoreExecutor(String filename, boolean eager, LoopMemoizer memo,
+			int readAhead) {
+		this.eager = eager;
+		this.memo = memo;
+		try { // open reader
+			this.input = open(filename, readAhead);
 		} catch (FileNotFoundException e) {
 			System.err.println("Input file not found.");
 			System.exit(0);
+		} catch (Failure e) {
+			System.err.println(e.getMessage());
+			System.exit(0);
 		}
 	}
 
+	/**
+	 * Initializes the reader field with a reader that is already open.
+	 * 
+	 * @param input
+	 *            the reader of the data file the Core program reads from
+	 * @param eager
+	 *            whether both sides of && and || are always evaluated
+	 * @param memo
+	 *            the cache in which the effects of the loops numbered by the
+	 *            pure-loop analysis are memoized, or null to run every loop
+	 */
+	CoreExecutor(IntReader input, boolean eager, LoopMemoizer memo) {
+		this.input = input;
+		this.eager = eager;
+		this.memo = memo;
+	}
+
 	@Override
 	public void execute(ParseTree p) {
-		assert p.currNT() == 1 : "Expecting <prog>";
-		// no need to execute declarations; all ids are already in parse tree
-
-		p.goDown(2); // stmt seq
-		execStmtSeq(p);
-		p.goUp();
-
-		if (this.scan != null) {
-			this.scan.close(); // close scanner after done using it
+		try {
+			execute(p, new OutputBuffer(p, System.out));
+		} catch (Failure e) {
+			System.err.println(e.getMessage());
+			System.exit(0);
 		}
 	}
+
+	/**
+	 * Cancels the run, which fails at the next check of its limits, or at
+	 * once if it has not started or is waiting for its next time slice.
+	 */
+	@Override
+	public void cancel() {
+		this.cancelled = true;
+	}
 }
@@ -1,4 +1,7 @@
 package core.interpreter;
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+
 /**
  * Interpreter for the Core language.
  * 
@@ -9,20 +12,363 @@ public final class CoreInterpreter {
 	/**
 	 * Takes a file containing the source code for a Core program, parses it,
 	 * creating a parse tree representation of the program, then if no syntax
-	 * errors are found pretty-prints the program, then executes the code.
+	 * errors are found optimizes the program if asked to, pretty-prints it,
+	 * then analyzes and executes the code.
 	 * 
 	 * @param args
-	 *            args[0] - the name of the file containing the source code for
-	 *            a Core program; args[1] - the name of the data file from which
-	 *            the Core program reads;
+	 *            zero or more options, followed by the name of the file
+	 *            containing the source code for a Core program and the name of
+	 *            the data file from which the Core program reads, or with
+	 *            -batch the names of any number of data files. The options
+	 *            are: -fold - fold constants before printing the program;
+	 *            -dce - remove dead branches and unreachable code; -unswitch
+	 *            - move loop-invariant if statements out of while loops;
+	 *            -licm - move loop-invariant code out of while loops; -unroll
+	 *            - unroll loops that step a counter; -cse - reuse
+	 *            the values of expressions evaluated more than once; -dse -
+	 *            propagate copies and remove assignments whose value is never
+	 *            used; -iv -
+	 *            run loops that only step induction variables and
+	 *            accumulators in closed form; -passes=NAMES - run the named
+	 *            passes, separated by commas, on the SSA form of the program
+	 *            (see PassManager); -wide - compute with integers of any
+	 *            size instead of wrapping around at 32 bits, which cannot be
+	 *            combined with the optimizations; -eager - evaluate both sides
+	 *            of && and || as in earlier versions, instead of skipping the
+	 *            second when the first decides the condition, so that uses of
+	 *            uninitialized identifiers on that side are reported; -memo
+	 *            or -memo=N - memoize the effect of the loops that read and
+	 *            write nothing, keeping the N (by default 1024) most recently
+	 *            used entries, and report the hits and misses to stderr;
+	 *            -specialize=FILE - specialize the program for the integers
+	 *            in FILE, which are the first integers of its input, so that
+	 *            the printed program only reads the rest of the input from
+	 *            the data file; -readahead or -readahead=N - read up to N (by
+	 *            default 65536) integers of the data file ahead on a
+	 *            background thread, so that reading overlaps with execution;
+	 *            -batch or -batch=N - run the program against each data file
+	 *            on N threads (by default one per processor), writing the
+	 *            output of each after the line "==> FILE <==" in the order of
+	 *            the files, which cannot be combined with -wide; -lanes or
+	 *            -lanes=N - with -batch, run N (by default 8, at most 64) data
+	 *            files at once in the lanes of one executor, which cannot be
+	 *            combined with -memo; -steps=N - fail a run once its loops
+	 *            have run more than N iterations; -timeout=MS -
+	 *            fail a run that takes longer than MS milliseconds; -slice or
+	 *            -slice=MS - with -batch, run the runs in time slices of MS (by
+	 *            default 10) milliseconds on a scheduler, so that a long run
+	 *            does not hold up the others. -steps, -timeout and -slice
+	 *            cannot be combined with -wide or -lanes.
 	 */
 	public static void main(String[] args) {
-		assert args.length == 2 : "The interpreter takes two parameters.";
+		run(args, null, null);
+	}
+
+	/**
+	 * Runs the interpreter as main does. If there is a cache, a program
+	 * compiled before with the same options is taken from it, and what was
+	 * written while it was compiled is written again, instead of compiling it
+	 * again; a program compiled with -specialize is not kept.
+	 * 
+	 * @param args
+	 *            the arguments of main
+	 * @param programs
+	 *            the cache of compiled programs, or null
+	 * @param worker
+	 *            the daemon worker the run is served by, which cancels it if
+	 *            its client goes away, or null
+	 */
+	static void run(String[] args, ProgramCache programs, DaemonWorker worker) {
+		boolean fold = false;
+		boolean dce = false;
+		boolean unswitch = false;
+		boolean licm = false;
+		boolean unroll = false;
+		boolean cse = false;
+		boolean dse = false;
+		boolean iv = false;
+		String passes = null;
+		boolean wide = false;
+		boolean eager = false;
+		int memo = 0;
+		String known = null;
+		int readAhead = 0;
+		int batch = 0;
+		int lanes = 1;
+		long steps = 0;
+		long timeout = 0;
+		long slice = 0;
+		int i = 0;
+		while (i < args.length && args[i].startsWith("-")) { // options
+			if (args[i].equals("-fold")) {
+				fold = true;
+			} else if (args[i].equals("-dce")) {
+				dce = true;
+			} else if (args[i].equals("-unswitch")) {
+				unswitch = true;
+			} else if (args[i].equals("-licm")) {
+				licm = true;
+			} else if (args[i].equals("-unroll")) {
+				unroll = true;
+			} else if (args[i].equals("-cse")) {
+				cse = true;
+			} else if (args[i].equals("-dse")) {
+				dse = true;
+			} else if (args[i].equals("-iv")) {
+				iv = true;
+			} else if (args[i].startsWith("-passes=")) {
+				passes = args[i].substring("-passes=".length());
+			} else if (args[i].equals("-wide")) {
+				wide = true;
+			} else if (args[i].equals("-eager")) {
+				eager = true;
+			} else if (args[i].equals("-memo")) {
+				memo = 1024;
+			} else if (args[i].startsWith("-memo=")) {
+				try {
+					memo = Integer.parseInt(args[i].substring("-memo="
+							.length()));
+				} catch (NumberFormatException e) {
+					memo = 0;
+				}
+				if (memo <= 0) {
+					System.err.println("Expecting a positive size in "
+							+ args[i]);
+					System.exit(0);
+				}
+			} else if (args[i].equals("-readahead")) {
+				readAhead = 65536;
+			} else if (args[i].startsWith("-readahead=")) {
+				try {
+					readAhead = Integer.parseInt(args[i].substring("-readahead="
+							.length()));
+				} catch (NumberFormatException e) {
+					readAhead = 0;
+				}
+				if (readAhead <= 0) {
+					System.err.println("Expecting a positive size in "
+							+ args[i]);
+					System.exit(0);
+				}
+			} else if (args[i].equals("-batch")) {
+				batch = Runtime.getRuntime().availableProcessors();
+			} else if (args[i].startsWith("-batch=")) {
+				try {
+					batch = Integer.parseInt(args[i].substring("-batch="
+							.length()));
+				} catch (NumberFormatException e) {
+					batch = 0;
+				}
+				if (batch <= 0) {
+					System.err.println("Expecting a positive number of threads"
+							+ " in " + args[i]);
+					System.exit(0);
+				}
+			} else if (args[i].equals("-lanes")) {
+				lanes = 8;
+			} else if (args[i].startsWith("-lanes=")) {
+				try {
+					lanes = Integer.parseInt(args[i].substring("-lanes="
+							.length()));
+				} catch (NumberFormatException e) {
+					lanes = 0;
+				}
+				if (lanes <= 0 || lanes > LaneExecutor.MAX_LANES) {
+					System.err.println("Expecting between 1 and "
+							+ LaneExecutor.MAX_LANES + " lanes in " + args[i]);
+					System.exit(0);
+				}
+			} else if (args[i].startsWith("-steps=")) {
+				try {
+					steps = Long.parseLong(args[i].substring("-steps="
+							.length()));
+				} catch (NumberFormatException e) {
+					steps = 0;
+				}
+				if (steps <= 0) {
+					System.err.println("Expecting a positive number of steps"
+							+ " in " + args[i]);
+					System.exit(0);
+				}
+			} else if (args[i].startsWith("-timeout=")) {
+				try {
+					timeout = Long.parseLong(args[i].substring("-timeout="
+							.length()));
+				} catch (NumberFormatException e) {
+					timeout = 0;
+				}
+				if (timeout <= 0) {
+					System.err.println("Expecting a positive number of"
+							+ " milliseconds in " + args[i]);
+					System.exit(0);
+				}
+			} else if (args[i].equals("-slice")) {
+				slice = 10;
+			} else if (args[i].startsWith("-slice=")) {
+				try {
+					slice = Long.parseLong(args[i].substring("-slice="
+							.length()));
+				} catch (NumberFormatException e) {
+					slice = 0;
+				}
+				if (slice <= 0) {
+					System.err.println("Expecting a positive number of"
+							+ " milliseconds in " + args[i]);
+					System.exit(0);
+				}
+			} else if (args[i].startsWith("-specialize=")) {
+				known = args[i].substring("-specialize=".length());
+			} else {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(0);
+			}
+			i++;
+		}
+		assert args.length - i == 2 || batch > 0 && args.length - i > 2
+				: "The interpreter takes two or more parameters.";
+		if (wide
+				&& (fold || dce || unswitch || licm || unroll || cse || dse
+						|| iv || passes != null || known != null)) {
+			// the optimizations fold and compare values as 32-bit integers
+			System.err.println("Option -wide cannot be combined with"
+					+ " optimizations");
+			System.exit(0);
+		}
+		if (wide && memo > 0) {
+			System.err.println("Option -wide cannot be combined with -memo");
+			System.exit(0);
+		}
+		if (wide && readAhead > 0) {
+			System.err.println("Option -wide cannot be combined with"
+					+ " -readahead");
+			System.exit(0);
+		}
+		if (wide && batch > 0) {
+			System.err.println("Option -wide cannot be combined with -batch");
+			System.exit(0);
+		}
+		if (lanes > 1 && batch == 0) {
+			System.err.println("Option -lanes can only be used with -batch");
+			System.exit(0);
+		}
+		if (lanes > 1 && memo > 0) {
+			System.err.println("Option -lanes cannot be combined with -memo");
+			System.exit(0);
+		}
+		if (slice > 0 && batch == 0) {
+			System.err.println("Option -slice can only be used with -batch");
+			System.exit(0);
+		}
+		if ((wide || lanes > 1) && (steps > 0 || timeout > 0 || slice > 0)) {
+			// only the core executor counts steps and yields
+			System.err.println("Options -steps, -timeout and -slice cannot be "
+					+ "combined with " + (wide ? "-wide" : "-lanes"));
+			System.exit(0);
+		}
+
+		String key = null;
+		if (programs != null && known == null) { // keyed by source and options
+			key = ProgramCache.key(args[i], Arrays.asList(args).subList(0, i));
+		}
+		ProgramCache.Entry entry = key == null ? null : programs.get(key);
+		ParseTree p;
+		if (entry != null) {
+			p = entry.replay(); // as if it had been compiled again
+		} else {
+			OutputRecorder prelude = null;
+			if (key != null) { // record the printed program and messages
+				prelude = new OutputRecorder(System.out, System.err);
+				prelude.install();
+			}
+			p = new CoreParseTree(); // create parse tree
 
-		ParseTree p = new CoreParseTree(); // create parse tree
+			new CoreParser(args[i], wide).parse(p); // pass source file and tree
+			if (known != null) {
+				new PartialEvaluator(known, eager).optimize(p); // known input
+			}
+			if (fold) {
+				new ConstantFolder().optimize(p); // pass tree
+			}
+			if (dce) {
+				new DeadCodeEliminator().optimize(p);
+			}
+			if (unswitch) {
+				new LoopUnswitcher().optimize(p);
+			}
+			if (licm) {
+				new LoopInvariantHoister().optimize(p);
+			}
+			if (unroll) {
+				new LoopUnroller().optimize(p);
+			}
+			if (cse) {
+				new CommonSubexpressionEliminator().optimize(p);
+			}
+			if (dse) {
+				new DeadStoreEliminator().optimize(p);
+			}
+			if (passes != null) {
+				new PassManager(passes).optimize(p);
+			}
+			new CorePrinter().print(p); // pass tree
+			new DefiniteAssignmentAnalyzer().analyze(p); // mark checked ids
+			if (wide) {
+				new RangeAnalyzer().analyze(p); // mark bounded expressions
+			} else {
+				if (iv) {
+					new InductionVariableAnalyzer().analyze(p); // closed forms
+				}
+				new SuperinstructionSelector().analyze(p); // fuse common shapes
+				if (memo > 0) {
+					new PureLoopAnalyzer().analyze(p); // loops without I/O
+				}
+			}
+			if (prelude != null) {
+				prelude.uninstall();
+				programs.put(key,
+						new ProgramCache.Entry(p, prelude.toByteArray()));
+				p = p.view(); // keep the cursor of the cached tree at the root
+			}
+		}
 
-		new CoreParser(args[0]).parse(p); // pass source file and tree
-		new CorePrinter().print(p); // pass tree
-		new CoreExecutor(args[1]).execute(p); // pass tree and data file
+		if (wide) {
+			new WideExecutor(args[i + 1], eager).execute(p);
+			return;
+		}
+		if (batch > 0) { // parse once, run against every data file
+			BatchExecutor executor = new BatchExecutor(Arrays.asList(args)
+					.subList(i + 1, args.length), eager, batch, memo, readAhead,
+					lanes, slice);
+			executor.limit(steps, timeout);
+			if (worker != null) {
+				worker.started(executor);
+			}
+			executor.execute(p);
+			return;
+		}
+		LoopMemoizer cache = null;
+		if (memo > 0) {
+			cache = new LoopMemoizer(memo);
+		}
+		try { // a failure ends the run, not the process, as in a worker
+			CoreExecutor executor = new CoreExecutor(CoreExecutor.open(
+					args[i + 1], readAhead), eager, cache);
+			executor.limit(steps, timeout);
+			if (worker != null) {
+				worker.started(executor);
+			}
+			executor.execute(p, new OutputBuffer(p, System.out));
+		} catch (FileNotFoundException e) {
+			System.err.println("Input file not found.");
+			return;
+		} catch (CoreExecutor.Failure e) {
+			System.err.println(e.getMessage());
+			return;
+		}
+		if (cache != null) {
+			System.err.println("Loop memo: " + cache.hits() + " hits, "
+					+ cache.misses() + " misses, " + cache.evictions()
+					+ " evictions");
+		}
 	}
 }
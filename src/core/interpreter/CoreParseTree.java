@@ -1,7 +1,9 @@
 package core.interpreter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Stack;
 
 /**
  * Parse Tree representing a Core program.
@@ -14,57 +16,105 @@ public class CoreParseTree implements ParseTree {
 	 * A two-dimensional array representing the parse tree. Each row has five
 	 * indices: The first index is the value of the current non-terminal, the
 	 * second is the alternative in the production rule that is used, and the
-	 * next tree are the row numbers of the children nodes. There can be at most
-	 * 1000 rows.
+	 * next tree are the row numbers of the children nodes. Initially 1000 rows;
+	 * the number of rows is doubled whenever they are all full.
 	 */
 	private int[][] arrRep = new int[5][1000];
 
 	/**
 	 * Cursor that keeps track of the current position in the array-tree.
-	 * Initially 0, it points to the first node (row). Cannot be greater than
-	 * 999.
+	 * Initially 0, it points to the first node (row).
 	 */
 	private int cursor;
 
 	/**
 	 * Keeps track of the parents of nodes as the tree is descended. When goDown
-	 * is called, the parent is added to the stack. When goUp is called, the
-	 * most cursor goes back to the most recent parent, and that parent is
-	 * removed from the stack.
+	 * is called, the parent is pushed onto the stack. When goUp is called, the
+	 * cursor goes back to the most recent parent, and that parent is popped
+	 * from the stack. A primitive array is used so that descending the tree
+	 * does not box row numbers.
 	 */
-	private Stack<Integer> parents = new Stack<Integer>();
+	private int[] parents = new int[1000];
 
 	/**
-	 * A map of row number to value containing all the integer tokens in the
-	 * Core program.
+	 * Number of parents currently on the parents stack.
 	 */
-	private Map<Integer, Integer> ints = new HashMap<Integer, Integer>();
+	private int depth;
 
 	/**
-	 * A map containing all the identifiers in the Core program (may contain
-	 * duplicates) and their positions. The positions of the identifier node are
-	 * mapped to the identifier names. Used during printing.
+	 * The values of all the integer tokens in the Core program, indexed by the
+	 * row number of their integer node.
 	 */
-	private Map<Integer, String> idNames = new HashMap<Integer, String>();
+	private long[] ints = new long[1000];
 
 	/**
-	 * A map containing all the unique identifiers and their values. Identifier
-	 * names are mapped to integers that are their values. Used during
-	 * execution, and the values are null until then.
+	 * The slots of all the identifiers in the Core program (may contain
+	 * duplicates), indexed by the row number of their identifier node.
+	 */
+	private int[] slots = new int[1000];
+
+	/**
+	 * The identifier nodes that do not need to be checked for initialization
+	 * during execution, indexed by row number.
+	 */
+	private boolean[] unchecked = new boolean[1000];
+
+	/**
+	 * The loop nodes that can be executed in closed form, indexed by row
+	 * number.
+	 */
+	private boolean[] closed = new boolean[1000];
+
+	/**
+	 * The numbers of the pure loop nodes, indexed by row number, 0 for the
+	 * other nodes.
+	 */
+	private int[] pures = new int[1000];
+
+	/**
+	 * The exp and comp nodes that can be evaluated without checking for
+	 * overflow, indexed by row number.
+	 */
+	private boolean[] bounded = new boolean[1000];
+
+	/**
+	 * The codes of the superinstructions of stmt and cond nodes, indexed by
+	 * row number, 0 for none.
+	 */
+	private int[] supers = new int[1000];
+
+	/**
+	 * The three operands of the superinstruction of each node, at indices 3 *
+	 * row to 3 * row + 2.
+	 */
+	private int[] superOperands = new int[3000];
+
+	/**
+	 * A map containing all the unique identifiers and their slots. Identifier
+	 * names are mapped to the slot assigned to them when they were declared.
+	 * Used during parsing to resolve identifier nodes.
 	 */
 	private Map<String, Integer> ids = new HashMap<String, Integer>();
 
+	/**
+	 * The names of all the unique identifiers, indexed by slot. Used during
+	 * printing and to report errors.
+	 */
+	private List<String> names = new ArrayList<String>();
+
 	// private method
 	/**
 	 * Finds the next empty row the array-tree. Iterates through the rows from
-	 * the current position to row 999, and finds the index of the first empty
-	 * row.
+	 * the current position to the last row, then from row 0 to the current
+	 * position, and finds the index of the first empty row. If all rows are
+	 * full, the number of rows is doubled.
 	 * 
-	 * @return The index of the first empty row in arrRep, -1 if all rows are
-	 *         full.
+	 * @return The index of the first empty row in arrRep.
 	 */
 	private int getNewRow() {
-		for (int i = this.cursor; i < 1000; i++) {
+		int size = this.arrRep[0].length;
+		for (int j = 0; j < size; j++) {
+			int i = (this.cursor + j) % size;
 			// check if empty
 			if (this.arrRep[0][i] == 0 && this.arrRep[1][i] == 0
 					&& this.arrRep[2][i] == 0 && this.arrRep[3][i] == 0
@@ -72,7 +122,103 @@ public class CoreParseTree implements ParseTree {
 				return i;
 			}
 		}
-		return -1;
+		grow();
+		return size;
+	}
+
+	/**
+	 * Doubles the number of rows of the array-tree and of the arrays indexed by
+	 * row number.
+	 */
+	private void grow() {
+		int size = 2 * this.arrRep[0].length;
+		for (int i = 0; i < 5; i++) {
+			this.arrRep[i] = Arrays.copyOf(this.arrRep[i], size);
+		}
+		this.parents = Arrays.copyOf(this.parents, size);
+		this.ints = Arrays.copyOf(this.ints, size);
+		this.slots = Arrays.copyOf(this.slots, size);
+		this.unchecked = Arrays.copyOf(this.unchecked, size);
+		this.closed = Arrays.copyOf(this.closed, size);
+		this.pures = Arrays.copyOf(this.pures, size);
+		this.bounded = Arrays.copyOf(this.bounded, size);
+		this.supers = Arrays.copyOf(this.supers, size);
+		this.superOperands = Arrays.copyOf(this.superOperands, 3 * size);
+	}
+
+	/**
+	 * Copies the given row and all the rows of its descendants into empty
+	 * rows.
+	 * 
+	 * @param row
+	 *            the row at the root of the subtree to be copied
+	 * @return the row at the root of the copy
+	 */
+	private int copyRows(int row) {
+		int copy = this.getNewRow();
+		this.arrRep[0][copy] = this.arrRep[0][row];
+		this.arrRep[1][copy] = this.arrRep[1][row];
+		this.ints[copy] = this.ints[row];
+		this.slots[copy] = this.slots[row];
+		this.unchecked[copy] = this.unchecked[row];
+		this.closed[copy] = this.closed[row];
+		this.pures[copy] = this.pures[row];
+		this.bounded[copy] = this.bounded[row];
+		this.supers[copy] = this.supers[row];
+		System.arraycopy(this.superOperands, 3 * row, this.superOperands,
+				3 * copy, 3);
+		for (int i = 2; i < 5; i++) {
+			if (this.arrRep[i][row] != 0) { // row 0 is never a child
+				int child = copyRows(this.arrRep[i][row]);
+				this.arrRep[i][copy] = child;
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * Creates a new child of the given row, with the given non-terminal and
+	 * alternative.
+	 * 
+	 * @param row
+	 *            the parent row
+	 * @param no
+	 *            the number of the branch
+	 * @param nt
+	 *            the non-terminal of the child
+	 * @param alt
+	 *            the alternative of the child
+	 * @return the row of the child
+	 */
+	private int newChild(int row, int no, int nt, int alt) {
+		int child = this.getNewRow();
+		this.arrRep[0][child] = nt;
+		this.arrRep[1][child] = alt;
+		this.arrRep[no + 1][row] = child;
+		return child;
+	}
+
+	/**
+	 * Empties the given row and all the rows of its descendants, so that they
+	 * can be reused.
+	 * 
+	 * @param row
+	 *            the row at the root of the subtree to be emptied
+	 */
+	private void freeRows(int row) {
+		for (int i = 2; i < 5; i++) {
+			if (this.arrRep[i][row] != 0) { // row 0 is never a child
+				freeRows(this.arrRep[i][row]);
+			}
+		}
+		for (int i = 0; i < 5; i++) {
+			this.arrRep[i][row] = 0;
+		}
+		this.unchecked[row] = false;
+		this.closed[row] = false;
+		this.pures[row] = 0;
+		this.bounded[row] = false;
+		this.supers[row] = 0;
 	}
 
 	// public methods
@@ -91,18 +237,90 @@ public class CoreParseTree implements ParseTree {
 	@Override
 	public void createBranch(int no) {
 		int newRow = this.getNewRow(); // get empty row
-		assert newRow != -1 : "Parse Tree is out of memory."; // check if full
 		this.arrRep[0][newRow] = -1; // mark as non-empty to avoid errors
 		this.arrRep[no + 1][this.cursor] = newRow;
 	}
 
+	@Override
+	public void deleteBranch(int no) {
+		int row = this.arrRep[no + 1][this.cursor];
+		assert row != 0 : "No branch to delete.";
+		this.arrRep[no + 1][this.cursor] = 0;
+		freeRows(row);
+	}
+
+	@Override
+	public int detachBranch(int no) {
+		int row = this.arrRep[no + 1][this.cursor];
+		assert row != 0 : "No branch to detach.";
+		this.arrRep[no + 1][this.cursor] = 0;
+		return row;
+	}
+
+	@Override
+	public void attachBranch(int no, int handle) {
+		assert this.arrRep[no + 1][this.cursor] == 0 : "Branch exists.";
+		this.arrRep[no + 1][this.cursor] = handle;
+	}
+
+	@Override
+	public void graft(int handle) {
+		assert this.arrRep[2][this.cursor] == 0
+				&& this.arrRep[3][this.cursor] == 0
+				&& this.arrRep[4][this.cursor] == 0 : "Node has children.";
+		for (int i = 0; i < 5; i++) { // take over the root
+			this.arrRep[i][this.cursor] = this.arrRep[i][handle];
+			this.arrRep[i][handle] = 0;
+		}
+		this.ints[this.cursor] = this.ints[handle];
+		this.slots[this.cursor] = this.slots[handle];
+		this.unchecked[this.cursor] = this.unchecked[handle];
+		this.unchecked[handle] = false;
+		this.closed[this.cursor] = this.closed[handle];
+		this.closed[handle] = false;
+		this.pures[this.cursor] = this.pures[handle];
+		this.pures[handle] = 0;
+		this.bounded[this.cursor] = this.bounded[handle];
+		this.bounded[handle] = false;
+		this.supers[this.cursor] = this.supers[handle];
+		this.supers[handle] = 0;
+		System.arraycopy(this.superOperands, 3 * handle, this.superOperands,
+				3 * this.cursor, 3);
+	}
+
+	@Override
+	public int copyBranch(int no) {
+		int row = this.arrRep[no + 1][this.cursor];
+		assert row != 0 : "No branch to copy.";
+		return copyRows(row);
+	}
+
+	@Override
+	public ParseTree view() {
+		CoreParseTree view = new CoreParseTree();
+		view.arrRep = this.arrRep; // share everything but the cursor
+		view.ints = this.ints;
+		view.slots = this.slots;
+		view.unchecked = this.unchecked;
+		view.closed = this.closed;
+		view.pures = this.pures;
+		view.bounded = this.bounded;
+		view.supers = this.supers;
+		view.superOperands = this.superOperands;
+		view.ids = this.ids;
+		view.names = this.names;
+		view.parents = new int[this.parents.length]; // as deep as the rows
+		return view;
+	}
+
 	@Override
 	public boolean declId(String name) {
 		assert this.arrRep[0][this.cursor] == 18 : "Expecting <id> node.";
-		this.idNames.put(this.cursor, name); // add name
 
 		if (!this.ids.containsKey(name)) { // check for duplicates
-			this.ids.put(name, null);
+			this.ids.put(name, this.names.size()); // next free slot
+			this.names.add(name);
+			this.slots[this.cursor] = this.ids.get(name);
 			return true;
 		} else { // id not added; return error
 			return false;
@@ -110,38 +328,87 @@ public class CoreParseTree implements ParseTree {
 	}
 
 	@Override
-	public void setIdVal(int num) {
-		assert this.arrRep[0][this.cursor] == 18 : "Expecting <id> node.";
-		assert this.idNames.get(this.cursor) != null : "Null name id idNames rep.";
-		this.ids.put(this.idNames.get(this.cursor), num);
-	}
+	public String declTemp(String prefix) {
+		int n = 1;
+		while (this.ids.containsKey(prefix + n)) {
+			n++;
+		}
+		String name = prefix + n;
 
-	@Override
-	public void setIdVal(String name, int val) {
-		assert this.ids.containsKey(name) : "Name not in ids.";
-		this.ids.put(name, val);		
-	}
+		int row = this.arrRep[2][0]; // decl seq of the program
+		while (this.arrRep[1][row] == 2) { // find the last declaration
+			row = this.arrRep[3][row];
+		}
+		this.arrRep[1][row] = 2;
+		row = newChild(row, 2, 2, 1); // decl seq
+		row = newChild(row, 1, 4, 1); // decl
+		row = newChild(row, 1, 5, 1); // id list
+		row = newChild(row, 1, 18, 0); // id
 
-	@Override
-	public Integer getIdVal(String name) {
-		return this.ids.get(name);
+		this.ids.put(name, this.names.size()); // next free slot
+		this.names.add(name);
+		this.slots[row] = this.ids.get(name);
+		return name;
 	}
 
 	@Override
 	public boolean setIdName(String name) {
 		assert this.arrRep[0][this.cursor] == 18 : "Expecting <id> node.";
 		if (this.ids.containsKey(name)) {
-			this.idNames.put(this.cursor, name);
+			this.slots[this.cursor] = this.ids.get(name);
 			return true;
 		} else { // undeclared variable encountered
 			return false;
 		}
 	}
 
+	@Override
+	public void setIdChecked(boolean checked) {
+		assert this.arrRep[0][this.cursor] == 18 : "Expecting <id> node.";
+		this.unchecked[this.cursor] = !checked;
+	}
+
+	@Override
+	public void setClosedForm(boolean closed) {
+		assert this.arrRep[0][this.cursor] == 9 : "Expecting <loop> node.";
+		this.closed[this.cursor] = closed;
+	}
+
+	@Override
+	public void setPureLoop(int number) {
+		assert this.arrRep[0][this.cursor] == 9 : "Expecting <loop> node.";
+		this.pures[this.cursor] = number;
+	}
+
+	@Override
+	public void setSuperinstruction(int code, int a, int b, int c) {
+		assert this.arrRep[0][this.cursor] == 6
+				|| this.arrRep[0][this.cursor] == 12
+				: "Expecting <stmt> or <cond> node.";
+		this.supers[this.cursor] = code;
+		this.superOperands[3 * this.cursor] = a;
+		this.superOperands[3 * this.cursor + 1] = b;
+		this.superOperands[3 * this.cursor + 2] = c;
+	}
+
 	@Override
 	public void setInt(int num) {
 		assert this.arrRep[0][this.cursor] == 20 : "Expecting <int> node.";
-		this.ints.put(this.cursor, num);
+		this.ints[this.cursor] = num;
+	}
+
+	@Override
+	public void setLong(long num) {
+		assert this.arrRep[0][this.cursor] == 20 : "Expecting <int> node.";
+		this.ints[this.cursor] = num;
+	}
+
+	@Override
+	public void setBounded(boolean bounded) {
+		assert this.arrRep[0][this.cursor] == 13
+				|| this.arrRep[0][this.cursor] == 14
+				: "Expecting <comp> or <exp> node.";
+		this.bounded[this.cursor] = bounded;
 	}
 
 	@Override
@@ -156,34 +423,90 @@ public class CoreParseTree implements ParseTree {
 
 	@Override
 	public void goDown(int no) {
-		this.parents.push(this.cursor);
-		this.cursor = this.arrRep[no + 1][this.parents.peek()];
+		this.parents[this.depth] = this.cursor;
+		this.depth++;
+		this.cursor = this.arrRep[no + 1][this.cursor];
 	}
 
 	@Override
 	public void goUp() {
-		assert !this.parents.isEmpty() : "Empty parents stack";
-		this.cursor = this.parents.pop();
+		assert this.depth > 0 : "Empty parents stack";
+		this.depth--;
+		this.cursor = this.parents[this.depth];
+	}
+
+	@Override
+	public int currIdSlot() {
+		assert this.arrRep[0][this.cursor] == 18 : "Expecting <id> node.";
+		return this.slots[this.cursor];
 	}
 
 	@Override
-	public Integer currIdVal() {
+	public boolean currIdChecked() {
 		assert this.arrRep[0][this.cursor] == 18 : "Expecting <id> node.";
-		assert this.idNames.get(this.cursor) != null : "Null name in idNames rep.";
-		return this.ids.get(this.idNames.get(this.cursor));
+		return !this.unchecked[this.cursor];
+	}
+
+	@Override
+	public boolean currClosedForm() {
+		assert this.arrRep[0][this.cursor] == 9 : "Expecting <loop> node.";
+		return this.closed[this.cursor];
+	}
+
+	@Override
+	public int currPureLoop() {
+		assert this.arrRep[0][this.cursor] == 9 : "Expecting <loop> node.";
+		return this.pures[this.cursor];
+	}
+
+	@Override
+	public int currSuperinstruction() {
+		assert this.arrRep[0][this.cursor] == 6
+				|| this.arrRep[0][this.cursor] == 12
+				: "Expecting <stmt> or <cond> node.";
+		return this.supers[this.cursor];
+	}
+
+	@Override
+	public int currSuperOperand(int no) {
+		assert 1 <= no && no <= 3 : "Operand out of range.";
+		return this.superOperands[3 * this.cursor + no - 1];
 	}
 
 	@Override
 	public String currIdName() {
 		assert this.arrRep[0][this.cursor] == 18 : "Expecting <id> node.";
-		assert this.idNames.get(this.cursor) != null : "Null idname in idNames rep.";
-		return this.idNames.get(this.cursor);
+		return this.names.get(this.slots[this.cursor]);
 	}
 
 	@Override
 	public int currInt() {
 		assert this.arrRep[0][this.cursor] == 20 : "Expecting <int> node.";
-		assert this.ints.get(this.cursor) != null : "Null int in ints rep.";
-		return this.ints.get(this.cursor);
+		return (int) this.ints[this.cursor];
+	}
+
+	@Override
+	public long currLong() {
+		assert this.arrRep[0][this.cursor] == 20 : "Expecting <int> node.";
+		return this.ints[this.cursor];
+	}
+
+	@Override
+	public boolean currBounded() {
+		assert this.arrRep[0][this.cursor] == 13
+				|| this.arrRep[0][this.cursor] == 14
+				: "Expecting <comp> or <exp> node.";
+		return this.bounded[this.cursor];
+	}
+
+	@Override
+	public int idCount() {
+		return this.names.size();
+	}
+
+	@Override
+	public String idName(int slot) {
+		assert 0 <= slot && slot < this.names.size() : "Slot out of range.";
+		return this.names.get(slot);
 	}
 }
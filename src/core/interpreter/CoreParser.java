@@ -14,6 +14,11 @@ public class CoreParser implements Parser {
 	 */
 	private Lexer t;
 
+	/**
+	 * Whether integers up to 64 bits are accepted.
+	 */
+	private boolean wide;
+
 	// private methods
 	/**
 	 * Parses a declaration sequence.
@@ -639,7 +644,11 @@ public class CoreParser implements Parser {
 			p.createBranch(1);
 			p.goDown(1);
 			p.setNT(20); // int terminal
-			p.setInt(t.intVal());
+			if (!wide && t.intVal() < 0) { // more than 31 bits
+				throw new ParseException("Integer too large: " + t.longVal(),
+						-1);
+			}
+			p.setLong(t.longVal());
 			p.goUp();
 			p.setAlt(1);
 			break;
@@ -722,7 +731,22 @@ public class CoreParser implements Parser {
 	 *            program
 	 */
 	public CoreParser(String filename) {
+		this(filename, false);
+	}
+
+	/**
+	 * Initializes the global tokenizer used for parsing, accepting integers up
+	 * to 64 bits if wide.
+	 * 
+	 * @param filename
+	 *            the name of the file containing the source code for a Core
+	 *            program
+	 * @param wide
+	 *            whether integers that do not fit in an int are accepted
+	 */
+	public CoreParser(String filename, boolean wide) {
 		t = new Tokenizer(filename); // initialize tokenizer
+		this.wide = wide;
 	}
 
 	@Override
@@ -383,7 +383,7 @@ public class CorePrinter implements Printer {
 		switch (p.currAlt()) {
 		case 1:
 			p.goDown(1);
-			System.out.print(p.currInt());
+			System.out.print(p.currLong());
 			p.goUp();
 			break;
 		case 2:
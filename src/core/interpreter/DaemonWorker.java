@@ -0,0 +1,214 @@
+package core.interpreter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Worker process of the CoreDaemon. It reads requests from stdin, each the
+ * arguments of a CoreInterpreter run, runs each as CoreInterpreter does, and
+ * writes what the run wrote to stdout and stderr to its own stdout as the
+ * frames of an OutputRecorder, followed by a 0 and whether the process is
+ * exiting. The programs it compiles are kept in a ProgramCache, so a request
+ * for a program compiled before skips the compiling.
+ *
+ * The daemon writes CANCEL in place of a request when the client of the run
+ * goes away. Stdin is read on a thread of its own, so the run is cancelled
+ * while it runs; it then fails with "Execution cancelled." and the process
+ * serves the next request. A CANCEL read after the run is over does nothing.
+ *
+ * A program that fails at run time, or a data file that cannot be read, ends
+ * the run only, and the process serves the next request with its cache. The
+ * interpreter still ends the process when it reports an error in the options
+ * or the program; the frames of the run are then sent as the process exits,
+ * and marked as the last.
+ *
+ * @author Simeon Georgiev
+ */
+public final class DaemonWorker {
+	// fields
+	/**
+	 * Written by the daemon in place of the number of arguments of a request,
+	 * to cancel the run of the last request.
+	 */
+	static final int CANCEL = -1;
+
+	/**
+	 * Put in the queue of requests when stdin is closed.
+	 */
+	private static final String[] END = new String[0];
+
+	/**
+	 * The stream the frames are written to.
+	 */
+	private final DataOutputStream out;
+
+	/**
+	 * Records what the runs write to System.out and System.err.
+	 */
+	private final OutputRecorder recorder = new OutputRecorder(null, null);
+
+	/**
+	 * Whether a request is being run and its frames have not been sent.
+	 */
+	private boolean pending;
+
+	/**
+	 * The requests read from stdin and not run yet.
+	 */
+	private final BlockingQueue<String[]> requests =
+			new LinkedBlockingQueue<String[]>();
+
+	/**
+	 * The execution of the last request, once it has started, or null.
+	 */
+	private Cancellable running;
+
+	/**
+	 * Whether the last request has been cancelled.
+	 */
+	private boolean cancelled;
+
+	// private methods
+	/**
+	 * Creates a worker.
+	 *
+	 * @param out
+	 *            the stream the frames are written to
+	 */
+	private DaemonWorker(DataOutputStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Sends the frames of the request being run.
+	 *
+	 * @param last
+	 *            whether the process is exiting
+	 * @throws IOException
+	 *             if the frames cannot be sent
+	 */
+	private void send(boolean last) throws IOException {
+		this.out.write(this.recorder.toByteArray());
+		this.out.writeByte(0); // no more frames
+		this.out.writeBoolean(last);
+		this.out.flush();
+		this.recorder.reset();
+		this.pending = false;
+	}
+
+	/**
+	 * Reads the requests from stdin until it is closed, and cancels the run of
+	 * the last one when CANCEL is read.
+	 *
+	 * @param in
+	 *            the stream from the daemon
+	 */
+	private void receive(DataInputStream in) {
+		try {
+			for (;;) {
+				int argc = in.readInt();
+				if (argc == CANCEL) {
+					cancel();
+					continue;
+				}
+				String[] request = new String[argc];
+				for (int k = 0; k < request.length; k++) {
+					request[k] = in.readUTF();
+				}
+				synchronized (this) { // a new last request
+					this.running = null;
+					this.cancelled = false;
+				}
+				this.requests.add(request);
+			}
+		} catch (IOException e) {
+			this.requests.add(END); // no more requests
+		}
+	}
+
+	/**
+	 * Cancels the run of the last request, now if it has started, or as it
+	 * starts.
+	 */
+	private synchronized void cancel() {
+		this.cancelled = true;
+		if (this.running != null) {
+			this.running.cancel();
+		}
+	}
+
+	// package methods
+	/**
+	 * Records that the run of the last request has started, and cancels it if
+	 * the request has been cancelled.
+	 *
+	 * @param execution
+	 *            the execution of the run
+	 */
+	synchronized void started(Cancellable execution) {
+		this.running = execution;
+		if (this.cancelled) {
+			execution.cancel();
+		}
+	}
+
+	// public methods
+	/**
+	 * Runs the requests read from stdin until it is closed.
+	 *
+	 * @param args
+	 *            the most compiled programs kept
+	 */
+	public static void main(String[] args) {
+		ProgramCache programs = new ProgramCache(Integer.parseInt(args[0]));
+		final DaemonWorker worker = new DaemonWorker(new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(
+						FileDescriptor.out))));
+		worker.recorder.install(); // keep stdout for the frames
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				if (worker.pending) { // the run ended the process
+					try {
+						worker.send(true);
+					} catch (IOException e) {
+						// the daemon is gone
+					}
+				}
+			}
+		});
+
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(
+				System.in));
+		Thread receiver = new Thread() {
+			@Override
+			public void run() {
+				worker.receive(in);
+			}
+		};
+		receiver.setDaemon(true);
+		receiver.start();
+		try {
+			for (;;) {
+				String[] request = worker.requests.take();
+				if (request == END) {
+					break; // no more requests
+				}
+				worker.pending = true;
+				CoreInterpreter.run(request, programs, worker);
+				System.out.flush();
+				worker.send(false);
+			}
+		} catch (IOException e) {
+			// the daemon is gone
+		} catch (InterruptedException e) {
+			// not interrupted
+		}
+	}
+}
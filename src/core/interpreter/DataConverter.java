@@ -0,0 +1,110 @@
+package core.interpreter;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
+
+/**
+ * Converts a text data file into a binary data file (see BinaryIntReader),
+ * which the executor reads without parsing.
+ * 
+ * @author Simeon Georgiev
+ */
+public final class DataConverter {
+
+	/**
+	 * The number of bytes written to the binary file at a time.
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Writes the bytes of a buffer to a file.
+	 * 
+	 * @param out
+	 *            the file
+	 * @param buffer
+	 *            the buffer, flipped
+	 * @param position
+	 *            the position in the file of the first byte
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	private static void write(FileChannel out, ByteBuffer buffer, long position)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			position += out.write(buffer, position);
+		}
+	}
+
+	/**
+	 * Reads the integers of a text data file, and writes them to a binary data
+	 * file.
+	 * 
+	 * @param args
+	 *            an optional option, followed by the name of the text data
+	 *            file and the name of the binary data file to write. The
+	 *            options are: -big - write the integers big-endian; -little -
+	 *            write them little-endian. By default they are written in the
+	 *            byte order of the machine, which is the fastest to read.
+	 */
+	public static void main(String[] args) {
+		ByteOrder order = ByteOrder.nativeOrder();
+		int i = 0;
+		while (i < args.length && args[i].startsWith("-")) { // options
+			if (args[i].equals("-big")) {
+				order = ByteOrder.BIG_ENDIAN;
+			} else if (args[i].equals("-little")) {
+				order = ByteOrder.LITTLE_ENDIAN;
+			} else {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(0);
+			}
+			i++;
+		}
+		assert args.length - i == 2 : "The converter takes two parameters.";
+
+		IntReader in = null;
+		try {
+			in = new TextIntReader(args[i]);
+		} catch (FileNotFoundException e) {
+			System.err.println("Input file not found.");
+			System.exit(0);
+		}
+		try {
+			FileChannel out = new FileOutputStream(args[i + 1]).getChannel();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(
+					order);
+			long position = BinaryIntReader.HEADER_SIZE; // header goes last
+			long count = 0;
+			try {
+				for (;;) { // until the end of the input
+					int val = in.nextInt();
+					if (!buffer.hasRemaining()) {
+						buffer.flip();
+						write(out, buffer, position);
+						position += BUFFER_SIZE;
+						buffer.clear();
+					}
+					buffer.putInt(val);
+					count++;
+				}
+			} catch (InputMismatchException e) {
+				System.err.println("Input is not an integer.");
+				System.exit(0);
+			} catch (NoSuchElementException e) {
+				in.close();
+			}
+			buffer.flip();
+			write(out, buffer, position);
+			write(out, BinaryIntReader.header(order, count), 0);
+			out.close();
+		} catch (IOException e) {
+			System.err.println("Output file cannot be written.");
+			System.exit(0);
+		}
+	}
+}
@@ -0,0 +1,294 @@
+package core.interpreter;
+import java.util.BitSet;
+
+/**
+ * Dead branch and unreachable code elimination for the Core language. The
+ * values of identifiers assigned integers are tracked through the program, so
+ * that conditions can be decided from the code before them. An if statement
+ * whose condition is known is replaced by the branch that is taken, and a
+ * while statement whose condition is false on entry is removed. A while
+ * statement whose condition is true on entry and does not use any identifier
+ * assigned in its body never terminates; it is reported before execution, and
+ * the statements after it are removed.
+ *
+ * @author Simeon Georgiev
+ */
+public class DeadCodeEliminator implements Optimizer {
+	// fields
+	/**
+	 * The statement is kept.
+	 */
+	private static final int KEEP = 0;
+
+	/**
+	 * The statement is removed.
+	 */
+	private static final int REMOVE = 1;
+
+	/**
+	 * The statement is replaced by the statements of the branch of the if
+	 * statement given in the branch field.
+	 */
+	private static final int SPLICE = 2;
+
+	/**
+	 * The values of the identifiers at the current point of the program,
+	 * indexed by slot; null for the identifiers whose value is not known.
+	 */
+	private Integer[] known;
+
+	/**
+	 * Whether execution never continues past the last statement processed.
+	 */
+	private boolean diverges;
+
+	/**
+	 * The index of the branch of the if statement that replaces it, set when a
+	 * statement is to be spliced.
+	 */
+	private int branch;
+
+	// private methods
+	/**
+	 * Eliminates dead code in a statement sequence. If every statement in the
+	 * sequence is removed and the sequence may be empty, the last statement is
+	 * left in place for the caller to remove the whole sequence.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @param mayEmpty
+	 *            whether the caller can remove the whole sequence
+	 * @return true if the whole sequence should be removed
+	 */
+	private boolean elimStmtSeq(ParseTree p, boolean mayEmpty) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		int action = REMOVE;
+		while (action != KEEP) { // until the first statement is kept
+			p.goDown(1); // stmt
+			action = elimStmt(p);
+			p.goUp();
+
+			if (action == SPLICE) {
+				p.goDown(1); // stmt
+				p.goDown(1); // if
+				int handle = p.detachBranch(this.branch);
+				p.goUp();
+				p.goUp();
+				ParseTrees.splice(p, handle);
+			} else if (action == REMOVE) {
+				if (p.currAlt() == 2) { // next statement takes its place
+					int handle = p.detachBranch(2);
+					p.deleteBranch(1);
+					p.graft(handle);
+				} else { // last statement
+					return mayEmpty;
+				}
+			}
+		}
+
+		if (p.currAlt() == 2) {
+			if (this.diverges) { // rest is unreachable
+				p.deleteBranch(2);
+				p.setAlt(1);
+			} else {
+				p.goDown(2); // stmt seq
+				boolean empty = elimStmtSeq(p, true);
+				p.goUp();
+				if (empty) {
+					p.deleteBranch(2);
+					p.setAlt(1);
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Eliminates dead code in a statement, and decides what happens to it.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @return KEEP, REMOVE or SPLICE
+	 */
+	private int elimStmt(ParseTree p) {
+		assert p.currNT() == 6 : "Expecting <stmt>";
+		this.diverges = false;
+		int alt = p.currAlt();
+		int action = KEEP;
+		p.goDown(1);
+		switch (alt) {
+		case 1: // assign
+			p.goDown(2); // exp
+			Integer val = ParseTrees.expValue(p, this.known);
+			p.goUp();
+			p.goDown(1); // id
+			this.known[p.currIdSlot()] = val;
+			p.goUp();
+			break;
+		case 2:
+			action = elimIf(p);
+			break;
+		case 3:
+			action = elimLoop(p);
+			break;
+		case 4: // read
+			p.goDown(1); // id list
+			BitSet read = new BitSet();
+			ParseTrees.addIdList(p, read);
+			p.goUp();
+			forget(read);
+			break;
+		}
+		p.goUp();
+		return action;
+	}
+
+	/**
+	 * Eliminates dead code in an if statement. If the condition is known, the
+	 * if statement is replaced by the branch that is taken. Otherwise, an empty
+	 * then branch is replaced by the else branch with the condition negated,
+	 * and an empty else branch is removed.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @return KEEP, REMOVE or SPLICE
+	 */
+	private int elimIf(ParseTree p) {
+		assert p.currNT() == 8 : "Expecting <if>";
+		p.goDown(1); // cond
+		Boolean cond = ParseTrees.condValue(p, this.known);
+		boolean safe = ParseTrees.condSafe(p);
+		p.goUp();
+
+		if (cond != null) { // only one branch is ever taken
+			this.branch = cond ? 2 : 3;
+			return cond || p.currAlt() == 2 ? SPLICE : REMOVE;
+		}
+
+		Integer[] in = this.known.clone();
+		Integer[] elseKnown = in;
+		boolean elseDiverges = false;
+		if (p.currAlt() == 2) {
+			p.goDown(3); // else stmt seq
+			boolean empty = elimStmtSeq(p, true);
+			p.goUp();
+			elseKnown = this.known;
+			elseDiverges = this.diverges;
+			if (empty) {
+				p.deleteBranch(3);
+				p.setAlt(1);
+			}
+		}
+
+		this.known = in.clone();
+		p.goDown(2); // then stmt seq
+		boolean empty = elimStmtSeq(p, p.currAlt() == 2 || safe);
+		p.goUp();
+		boolean thenDiverges = this.diverges;
+
+		if (empty) {
+			this.known = elseKnown;
+			if (p.currAlt() == 1) { // both branches empty
+				return REMOVE;
+			}
+			ParseTrees.negate(p);
+			this.diverges = elseDiverges;
+			return KEEP;
+		}
+
+		if (p.currAlt() == 1) { // no else branch
+			elseKnown = in;
+			elseDiverges = false;
+		}
+		if (thenDiverges) {
+			this.known = elseKnown;
+		} else if (!elseDiverges) {
+			merge(elseKnown);
+		}
+		this.diverges = thenDiverges && elseDiverges;
+		return KEEP;
+	}
+
+	/**
+	 * Eliminates dead code in a while statement. The identifiers assigned in
+	 * the body are not known in the condition and the body, except on entry.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @return KEEP or REMOVE
+	 */
+	private int elimLoop(ParseTree p) {
+		assert p.currNT() == 9 : "Expecting <loop>";
+		p.goDown(1); // cond
+		Boolean entry = ParseTrees.condValue(p, this.known);
+		p.goUp();
+		if (entry != null && !entry) { // body never executes
+			return REMOVE;
+		}
+
+		BitSet assigned = new BitSet();
+		p.goDown(2); // stmt seq
+		ParseTrees.addAssigned(p, assigned);
+		p.goUp();
+		forget(assigned);
+
+		BitSet uses = new BitSet();
+		p.goDown(1); // cond
+		ParseTrees.addCondUses(p, uses);
+		boolean infinite = entry != null && !uses.intersects(assigned);
+		if (infinite) {
+			System.err.println("Loop never terminates: while "
+					+ ParseTrees.condKey(p));
+		}
+		p.goUp();
+
+		Integer[] in = this.known.clone();
+		p.goDown(2); // stmt seq
+		elimStmtSeq(p, false);
+		p.goUp();
+		boolean bodyDiverges = this.diverges;
+		this.known = in;
+
+		this.diverges = infinite || entry != null && bodyDiverges;
+		return KEEP;
+	}
+
+	/**
+	 * Forgets the values of the given identifiers.
+	 *
+	 * @param slots
+	 *            the slots of the identifiers
+	 */
+	private void forget(BitSet slots) {
+		for (int i = slots.nextSetBit(0); i >= 0; i = slots.nextSetBit(i + 1)) {
+			this.known[i] = null;
+		}
+	}
+
+	/**
+	 * Keeps only the values that are the same in the current state and the
+	 * given state, where two paths of the program join.
+	 *
+	 * @param other
+	 *            the values of the identifiers on the other path
+	 */
+	private void merge(Integer[] other) {
+		for (int i = 0; i < this.known.length; i++) {
+			if (this.known[i] != null && !this.known[i].equals(other[i])) {
+				this.known[i] = null;
+			}
+		}
+	}
+
+	// public method
+	@Override
+	public void optimize(ParseTree p) {
+		assert p.currNT() == 1 : "Expecting <prog>";
+		new DefiniteAssignmentAnalyzer(false).analyze(p);
+		this.known = new Integer[p.idCount()];
+
+		p.goDown(2); // stmt seq
+		elimStmtSeq(p, false);
+		p.goUp();
+	}
+}
@@ -0,0 +1,568 @@
+package core.interpreter;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Copy propagation and dead-store elimination for the Core language. After a
+ * copy X = Y, the uses of X are replaced by Y until X or Y is assigned again,
+ * so that X is often no longer needed. Then an assign statement X = e is
+ * removed if X is not live after it: no path from it reaches a use of X, or a
+ * write statement listing X, before X is assigned again. Assign statements
+ * X = X are removed as well. The two steps are repeated until nothing changes.
+ *
+ * Only assign statements whose expression always evaluates without error
+ * are removed, so that the program stops at the same uses of uninitialized
+ * identifiers. Read statements are never removed, since they consume input,
+ * and write statements keep the identifiers they list.
+ *
+ * @author Simeon Georgiev
+ */
+public class DeadStoreEliminator implements Optimizer {
+	// fields
+	/**
+	 * The identifier each identifier holds a copy of at the current point of
+	 * the program, indexed by slot; -1 for the identifiers that do not hold a
+	 * copy.
+	 */
+	private int[] copies;
+
+	/**
+	 * Whether the parse tree was changed by the last pass.
+	 */
+	private boolean changed;
+
+	// private methods: copy propagation
+	/**
+	 * Propagates copies in a statement sequence.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void propagateStmtSeq(ParseTree p) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		p.goDown(1); // stmt
+		propagateStmt(p);
+		p.goUp();
+
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			propagateStmtSeq(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Propagates copies in a statement.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void propagateStmt(ParseTree p) {
+		assert p.currNT() == 6 : "Expecting <stmt>";
+		int alt = p.currAlt();
+		p.goDown(1);
+		switch (alt) {
+		case 1: // assign
+			p.goDown(2); // exp
+			propagateExp(p);
+			int source = copySource(p);
+			p.goUp();
+			p.goDown(1); // id
+			int slot = p.currIdSlot();
+			p.goUp();
+			kill(slot);
+			if (source != slot) {
+				this.copies[slot] = source;
+			}
+			break;
+		case 2: // if
+			p.goDown(1); // cond
+			propagateCond(p);
+			p.goUp();
+			int[] in = this.copies.clone();
+			p.goDown(2); // then stmt seq
+			propagateStmtSeq(p);
+			p.goUp();
+			int[] thenCopies = this.copies;
+			this.copies = in;
+			if (p.currAlt() == 2) {
+				p.goDown(3); // else stmt seq
+				propagateStmtSeq(p);
+				p.goUp();
+			}
+			merge(thenCopies);
+			break;
+		case 3: // loop
+			BitSet assigned = new BitSet();
+			p.goDown(2); // stmt seq
+			ParseTrees.addAssigned(p, assigned);
+			p.goUp();
+			for (int i = assigned.nextSetBit(0); i >= 0; i = assigned
+					.nextSetBit(i + 1)) {
+				kill(i); // may change in any iteration
+			}
+			int[] entry = this.copies.clone();
+			p.goDown(1); // cond
+			propagateCond(p);
+			p.goUp();
+			p.goDown(2); // stmt seq
+			propagateStmtSeq(p);
+			p.goUp();
+			this.copies = entry; // body may not execute
+			break;
+		case 4: // read
+			BitSet read = new BitSet();
+			p.goDown(1); // id list
+			ParseTrees.addIdList(p, read);
+			p.goUp();
+			for (int i = read.nextSetBit(0); i >= 0; i = read
+					.nextSetBit(i + 1)) {
+				kill(i);
+			}
+			break;
+		}
+		p.goUp();
+	}
+
+	/**
+	 * Propagates copies in a condition.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a cond node
+	 */
+	private void propagateCond(ParseTree p) {
+		assert p.currNT() == 12 : "Expecting <cond>";
+		p.goDown(1); // comp or cond
+		if (p.currNT() == 13) {
+			p.goDown(1); // op
+			propagateOp(p);
+			p.goUp();
+			p.goDown(3); // op
+			propagateOp(p);
+			p.goUp();
+		} else {
+			propagateCond(p);
+		}
+		p.goUp();
+
+		if (p.currAlt() > 2) { // && or ||
+			p.goDown(2); // second cond
+			propagateCond(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Propagates copies in an expression.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an exp node
+	 */
+	private void propagateExp(ParseTree p) {
+		assert p.currNT() == 14 : "Expecting <exp>";
+		p.goDown(1); // fac
+		propagateFac(p);
+		p.goUp();
+
+		if (p.currAlt() != 1) {
+			p.goDown(2); // exp
+			propagateExp(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Propagates copies in a factor.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a fac node
+	 */
+	private void propagateFac(ParseTree p) {
+		assert p.currNT() == 15 : "Expecting <fac>";
+		p.goDown(1); // op
+		propagateOp(p);
+		p.goUp();
+
+		if (p.currAlt() == 2) {
+			p.goDown(2); // fac
+			propagateFac(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Propagates copies in an operand. An identifier that holds a copy is
+	 * replaced by the identifier it is a copy of.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an op node
+	 */
+	private void propagateOp(ParseTree p) {
+		assert p.currNT() == 16 : "Expecting <op>";
+		int alt = p.currAlt();
+		p.goDown(1);
+		if (alt == 2) { // id
+			int source = this.copies[p.currIdSlot()];
+			if (source >= 0) {
+				p.setIdName(p.idName(source));
+				p.setIdChecked(true); // until analyzed again
+				this.changed = true;
+			}
+		} else if (alt == 3) { // exp
+			propagateExp(p);
+		}
+		p.goUp();
+	}
+
+	/**
+	 * Returns the identifier an expression is a copy of.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an exp node
+	 * @return the slot of the identifier, or -1 if the expression is not a
+	 *         single identifier
+	 */
+	private static int copySource(ParseTree p) {
+		int slot = -1;
+		if (p.currAlt() == 1) {
+			p.goDown(1); // fac
+			if (p.currAlt() == 1) {
+				p.goDown(1); // op
+				if (p.currAlt() == 2) {
+					p.goDown(1); // id
+					slot = p.currIdSlot();
+					p.goUp();
+				}
+				p.goUp();
+			}
+			p.goUp();
+		}
+		return slot;
+	}
+
+	/**
+	 * Forgets the copies held by an identifier and the copies of it.
+	 *
+	 * @param slot
+	 *            the slot of the assigned identifier
+	 */
+	private void kill(int slot) {
+		this.copies[slot] = -1;
+		for (int i = 0; i < this.copies.length; i++) {
+			if (this.copies[i] == slot) {
+				this.copies[i] = -1;
+			}
+		}
+	}
+
+	/**
+	 * Keeps only the copies that hold in both the current state and the given
+	 * state, where two paths of the program join.
+	 *
+	 * @param other
+	 *            the copies on the other path
+	 */
+	private void merge(int[] other) {
+		for (int i = 0; i < this.copies.length; i++) {
+			if (this.copies[i] != other[i]) {
+				this.copies[i] = -1;
+			}
+		}
+	}
+
+	// private methods: dead-store elimination
+	/**
+	 * Removes the dead stores in a statement sequence, last statement first.
+	 * If every statement in the sequence is removed and the sequence may be
+	 * empty, the first statement is left in place for the caller to remove
+	 * the whole sequence.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @param live
+	 *            the identifiers live after the sequence; on return, the
+	 *            identifiers live before it
+	 * @param mayEmpty
+	 *            whether the caller can remove the whole sequence
+	 * @return true if the whole sequence should be removed
+	 */
+	private boolean elimStmtSeq(ParseTree p, BitSet live, boolean mayEmpty) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			boolean empty = elimStmtSeq(p, live, true);
+			p.goUp();
+			if (empty) {
+				p.deleteBranch(2);
+				p.setAlt(1);
+			}
+		}
+
+		boolean removable = p.currAlt() == 2 || mayEmpty;
+		p.goDown(1); // stmt
+		boolean remove = elimStmt(p, live, removable);
+		p.goUp();
+		if (!remove) {
+			return false;
+		}
+		this.changed = true;
+		if (p.currAlt() == 1) {
+			return true;
+		}
+		int rest = p.detachBranch(2); // next statement takes its place
+		p.deleteBranch(1);
+		p.graft(rest);
+		return false;
+	}
+
+	/**
+	 * Removes the dead stores in a statement, and decides whether the
+	 * statement itself is removed. The live identifiers are only updated if
+	 * it is kept.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @param live
+	 *            the identifiers live after the statement; on return, the
+	 *            identifiers live before it
+	 * @param removable
+	 *            whether the statement can be removed
+	 * @return true if the statement should be removed
+	 */
+	private boolean elimStmt(ParseTree p, BitSet live, boolean removable) {
+		assert p.currNT() == 6 : "Expecting <stmt>";
+		int alt = p.currAlt();
+		boolean remove = false;
+		p.goDown(1);
+		switch (alt) {
+		case 1: // assign
+			p.goDown(1); // id
+			int slot = p.currIdSlot();
+			p.goUp();
+			p.goDown(2); // exp
+			boolean dead = !live.get(slot) || copySource(p) == slot;
+			remove = removable && dead && ParseTrees.expSafe(p);
+			if (!remove) {
+				live.clear(slot);
+				ParseTrees.addExpUses(p, live);
+			}
+			p.goUp();
+			break;
+		case 2:
+			remove = elimIf(p, live, removable);
+			break;
+		case 3:
+			elimLoop(p, live);
+			break;
+		default:
+			addLiveIn(p, alt, live);
+			break;
+		}
+		p.goUp();
+		return remove;
+	}
+
+	/**
+	 * Removes the dead stores in an if statement. An empty then branch is
+	 * replaced by the else branch with the condition negated, and an empty
+	 * else branch is removed.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @param live
+	 *            the identifiers live after the statement; on return, the
+	 *            identifiers live before it
+	 * @param removable
+	 *            whether the statement can be removed
+	 * @return true if both branches are empty and the statement should be
+	 *         removed
+	 */
+	private boolean elimIf(ParseTree p, BitSet live, boolean removable) {
+		assert p.currNT() == 8 : "Expecting <if>";
+		p.goDown(1); // cond
+		boolean safe = ParseTrees.condSafe(p);
+		p.goUp();
+
+		BitSet elseLive = (BitSet) live.clone();
+		if (p.currAlt() == 2) {
+			p.goDown(3); // else stmt seq
+			boolean empty = elimStmtSeq(p, elseLive, true);
+			p.goUp();
+			if (empty) {
+				p.deleteBranch(3);
+				p.setAlt(1);
+				elseLive = (BitSet) live.clone();
+			}
+		}
+
+		BitSet thenLive = (BitSet) live.clone();
+		boolean hasElse = p.currAlt() == 2; // read before going down
+		p.goDown(2); // then stmt seq
+		boolean empty = elimStmtSeq(p, thenLive, hasElse || safe && removable);
+		p.goUp();
+		if (empty) {
+			if (p.currAlt() == 1) { // both branches empty
+				return true;
+			}
+			ParseTrees.negate(p);
+			thenLive = (BitSet) live.clone(); // the condition may be false
+		}
+
+		live.clear();
+		live.or(thenLive);
+		live.or(elseLive);
+		p.goDown(1); // cond
+		ParseTrees.addCondUses(p, live);
+		p.goUp();
+		return false;
+	}
+
+	/**
+	 * Removes the dead stores in the body of a while statement. The
+	 * identifiers live at the condition are found first, in one pass over the
+	 * body.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @param live
+	 *            the identifiers live after the statement; on return, the
+	 *            identifiers live before it
+	 */
+	private void elimLoop(ParseTree p, BitSet live) {
+		assert p.currNT() == 9 : "Expecting <loop>";
+		BitSet header = loopLive(p, live);
+		p.goDown(2); // stmt seq
+		elimStmtSeq(p, (BitSet) header.clone(), false);
+		p.goUp();
+		live.clear();
+		live.or(header);
+	}
+
+	/**
+	 * Returns the identifiers live at the condition of a while statement:
+	 * those live after it, those the condition uses, and those the body uses
+	 * before it assigns them. Going round the body again only adds the
+	 * identifiers live at the condition that the body may not assign, which
+	 * are already there, so one pass is enough.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a loop node
+	 * @param live
+	 *            the identifiers live after the statement
+	 * @return the identifiers live each time the condition is evaluated
+	 */
+	private static BitSet loopLive(ParseTree p, BitSet live) {
+		BitSet header = (BitSet) live.clone();
+		p.goDown(1); // cond
+		ParseTrees.addCondUses(p, header);
+		p.goUp();
+		BitSet body = new BitSet(); // used before assigned
+		p.goDown(2); // stmt seq
+		addLiveIn(p, body);
+		p.goUp();
+		header.or(body);
+		return header;
+	}
+
+	/**
+	 * Turns the identifiers live after a statement sequence into those live
+	 * before it, without changing the sequence.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @param live
+	 *            the identifiers live after the sequence; on return, the
+	 *            identifiers live before it
+	 */
+	private static void addLiveIn(ParseTree p, BitSet live) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			addLiveIn(p, live);
+			p.goUp();
+		}
+		p.goDown(1); // stmt
+		int alt = p.currAlt();
+		p.goDown(1);
+		addLiveIn(p, alt, live);
+		p.goUp();
+		p.goUp();
+	}
+
+	/**
+	 * Turns the identifiers live after a statement into those live before it,
+	 * without changing the statement.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at the child of a stmt node
+	 * @param alt
+	 *            the alternative of the stmt node
+	 * @param live
+	 *            the identifiers live after the statement; on return, the
+	 *            identifiers live before it
+	 */
+	private static void addLiveIn(ParseTree p, int alt, BitSet live) {
+		switch (alt) {
+		case 1: // assign
+			p.goDown(1); // id
+			live.clear(p.currIdSlot());
+			p.goUp();
+			p.goDown(2); // exp
+			ParseTrees.addExpUses(p, live);
+			p.goUp();
+			break;
+		case 2: // if
+			BitSet elseLive = (BitSet) live.clone();
+			if (p.currAlt() == 2) {
+				p.goDown(3); // else stmt seq
+				addLiveIn(p, elseLive);
+				p.goUp();
+			}
+			p.goDown(2); // then stmt seq
+			addLiveIn(p, live);
+			p.goUp();
+			live.or(elseLive);
+			p.goDown(1); // cond
+			ParseTrees.addCondUses(p, live);
+			p.goUp();
+			break;
+		case 3: // loop
+			BitSet header = loopLive(p, live);
+			live.clear();
+			live.or(header);
+			break;
+		case 4: // read
+			BitSet read = new BitSet();
+			p.goDown(1); // id list
+			ParseTrees.addIdList(p, read);
+			p.goUp();
+			live.andNot(read);
+			break;
+		case 5: // write
+			p.goDown(1); // id list
+			ParseTrees.addIdList(p, live);
+			p.goUp();
+			break;
+		}
+	}
+
+	// public method
+	@Override
+	public void optimize(ParseTree p) {
+		assert p.currNT() == 1 : "Expecting <prog>";
+		this.copies = new int[p.idCount()];
+
+		do { // until there is nothing left to propagate or remove
+			this.changed = false;
+			Arrays.fill(this.copies, -1);
+			p.goDown(2); // stmt seq
+			propagateStmtSeq(p);
+			p.goUp();
+
+			new DefiniteAssignmentAnalyzer(false).analyze(p);
+			p.goDown(2); // stmt seq
+			elimStmtSeq(p, new BitSet(), false); // nothing live at the end
+			p.goUp();
+		} while (this.changed);
+	}
+}
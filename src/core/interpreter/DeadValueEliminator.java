@@ -0,0 +1,317 @@
+package core.interpreter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import core.interpreter.ControlFlowGraph.Cond;
+import core.interpreter.ControlFlowGraph.Expr;
+import core.interpreter.ControlFlowGraph.Node;
+import core.interpreter.ControlFlowGraph.Stmt;
+import core.interpreter.ControlFlowGraph.Value;
+
+/**
+ * Dead code elimination on the SSA control-flow graph. A value is live if it
+ * is written, used in the condition of an if or while statement, or used by a
+ * live value; every other assign statement is removed, and so are the phi
+ * values that are not live. An if statement whose branches are both emptied
+ * is removed as well, which may leave more values dead, so the pass is
+ * repeated until nothing is removed.
+ *
+ * An assign statement whose expression uses a value that may be uninitialized
+ * is kept, with the values it uses, so that the program stops at the same uses
+ * of uninitialized identifiers, and so is an if statement whose condition
+ * uses one. Read statements are never removed, since they consume input.
+ *
+ * @author Simeon Georgiev
+ */
+public class DeadValueEliminator implements SsaPass {
+	// fields
+	/**
+	 * The values that may be uninitialized.
+	 */
+	private Set<Value> undefined;
+
+	/**
+	 * The live values.
+	 */
+	private final Set<Value> live = new HashSet<Value>();
+
+	/**
+	 * The live values whose arguments or uses are not marked yet.
+	 */
+	private final List<Value> work = new ArrayList<Value>();
+
+	/**
+	 * The phi values of the if statements removed, replaced by the value
+	 * before the statement, which both their arguments are.
+	 */
+	private final Map<Value, Value> replaced = new HashMap<Value, Value>();
+
+	/**
+	 * Whether a statement was removed by the last sweep.
+	 */
+	private boolean changed;
+
+	// private methods: marking
+	/**
+	 * Marks the values that must be kept in a sequence of nodes.
+	 *
+	 * @param nodes
+	 *            the nodes
+	 */
+	private void markNodes(List<Node> nodes) {
+		for (Node node : nodes) {
+			for (Stmt stmt : node.stmts) {
+				if (stmt.kind == Stmt.WRITE) {
+					for (Value value : stmt.values) {
+						mark(value);
+					}
+				} else if (stmt.kind == Stmt.ASSIGN
+						&& !expSafe(stmt.values.get(0).exp)) {
+					mark(stmt.values.get(0));
+				}
+			}
+			if (node.cond != null) {
+				markCond(node.cond);
+			}
+			markNodes(node.first);
+			markNodes(node.second);
+		}
+	}
+
+	/**
+	 * Marks the values used by a condition.
+	 *
+	 * @param cond
+	 *            the condition
+	 */
+	private void markCond(Cond cond) {
+		if (cond.kind == Cond.COMP) {
+			markExp(cond.left);
+			markExp(cond.right);
+		} else {
+			markCond(cond.first);
+			if (cond.second != null) {
+				markCond(cond.second);
+			}
+		}
+	}
+
+	/**
+	 * Marks the values used by an expression.
+	 *
+	 * @param e
+	 *            the expression
+	 */
+	private void markExp(Expr e) {
+		if (e.kind == Expr.USE) {
+			mark(e.value);
+		} else if (e.kind != Expr.CONST) {
+			markExp(e.left);
+			markExp(e.right);
+		}
+	}
+
+	/**
+	 * Marks a value live.
+	 *
+	 * @param value
+	 *            the value
+	 */
+	private void mark(Value value) {
+		if (this.live.add(value)) {
+			this.work.add(value);
+		}
+	}
+
+	/**
+	 * Marks the values that the live values are computed from.
+	 */
+	private void propagate() {
+		while (!this.work.isEmpty()) {
+			Value value = this.work.remove(this.work.size() - 1);
+			if (value.kind == Value.ASSIGN) {
+				markExp(value.exp);
+			} else if (value.kind == Value.PHI) {
+				mark(value.args[0]);
+				mark(value.args[1]);
+			}
+		}
+	}
+
+	/**
+	 * Returns whether an expression always evaluates without error.
+	 *
+	 * @param e
+	 *            the expression
+	 * @return true if it uses no value that may be uninitialized
+	 */
+	private boolean expSafe(Expr e) {
+		if (e.kind == Expr.USE) {
+			return !this.undefined.contains(e.value);
+		}
+		return e.kind == Expr.CONST || expSafe(e.left) && expSafe(e.right);
+	}
+
+	/**
+	 * Returns whether a condition always evaluates without error.
+	 *
+	 * @param cond
+	 *            the condition
+	 * @return true if it uses no value that may be uninitialized
+	 */
+	private boolean condSafe(Cond cond) {
+		if (cond.kind == Cond.COMP) {
+			return expSafe(cond.left) && expSafe(cond.right);
+		}
+		return condSafe(cond.first)
+				&& (cond.second == null || condSafe(cond.second));
+	}
+
+	// private methods: sweeping
+	/**
+	 * Returns whether a statement of a sequence of nodes is kept by the sweep.
+	 *
+	 * @param nodes
+	 *            the nodes
+	 * @return true if a read or write statement, a live assign statement, a
+	 *         while statement, or an if statement that is kept is found
+	 */
+	private boolean keepsStmt(List<Node> nodes) {
+		for (Node node : nodes) {
+			if (node.kind == Node.LOOP || node.kind == Node.IF
+					&& (keepsStmt(node.first) || keepsStmt(node.second)
+							|| !condSafe(node.cond))) {
+				return true;
+			}
+			for (Stmt stmt : node.stmts) {
+				if (stmt.kind != Stmt.ASSIGN
+						|| this.live.contains(stmt.values.get(0))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Finds the sequences that the sweep would empty although the grammar
+	 * requires a statement, and keeps their last statement by marking its
+	 * value live. The body of a while statement and the program must not be
+	 * empty, and neither may the then branch of a kept if statement without
+	 * else branch.
+	 *
+	 * @param nodes
+	 *            the nodes
+	 * @param mayEmpty
+	 *            whether the sequence may be emptied
+	 * @return true if a value was marked
+	 */
+	private boolean keepNonEmpty(List<Node> nodes, boolean mayEmpty) {
+		boolean marked = false;
+		for (Node node : nodes) {
+			if (node.kind == Node.IF) {
+				marked |= keepNonEmpty(node.second, true);
+				marked |= keepNonEmpty(node.first, keepsStmt(node.second)
+						|| condSafe(node.cond));
+			} else if (node.kind == Node.LOOP) {
+				marked |= keepNonEmpty(node.first, false);
+			}
+		}
+		if (mayEmpty || nodes.isEmpty() || keepsStmt(nodes)) {
+			return marked; // nothing to keep in an empty sequence
+		}
+		Node last = nodes.get(nodes.size() - 1);
+		while (last.kind == Node.IF) { // removed, keep in a branch
+			List<Node> branch = last.first.isEmpty() ? last.second : last.first;
+			last = branch.get(branch.size() - 1);
+		}
+		mark(last.stmts.get(last.stmts.size() - 1).values.get(0));
+		return true;
+	}
+
+	/**
+	 * Removes the assign statements whose value is not live from a sequence
+	 * of nodes, and the if statements whose branches are both emptied.
+	 *
+	 * @param nodes
+	 *            the nodes
+	 */
+	private void sweepNodes(List<Node> nodes) {
+		List<Node> result = new ArrayList<Node>();
+		for (Node node : nodes) {
+			if (node.kind == Node.BLOCK) {
+				List<Stmt> kept = new ArrayList<Stmt>();
+				for (Stmt stmt : node.stmts) {
+					if (stmt.kind != Stmt.ASSIGN
+							|| this.live.contains(stmt.values.get(0))) {
+						kept.add(stmt);
+					}
+				}
+				this.changed |= kept.size() < node.stmts.size();
+				node.stmts.clear();
+				node.stmts.addAll(kept);
+				if (!kept.isEmpty()) {
+					result.add(node);
+				}
+				continue;
+			}
+			sweepNodes(node.first);
+			sweepNodes(node.second);
+			sweepPhis(node);
+			if (node.kind == Node.IF && node.first.isEmpty()
+					&& node.second.isEmpty()) {
+				assert condSafe(node.cond) : "Expecting a safe condition";
+				for (Value phi : node.phis) {
+					this.replaced.put(phi, phi.args[0]);
+				}
+				this.changed = true;
+			} else {
+				result.add(node);
+			}
+		}
+		nodes.clear();
+		nodes.addAll(result);
+	}
+
+	/**
+	 * Removes the phi values of an if or while statement that are not live.
+	 *
+	 * @param node
+	 *            the if or loop node
+	 */
+	private void sweepPhis(Node node) {
+		List<Value> kept = new ArrayList<Value>();
+		for (Value phi : node.phis) {
+			if (this.live.contains(phi)) {
+				kept.add(phi);
+			}
+		}
+		node.phis.clear();
+		node.phis.addAll(kept);
+	}
+
+	// public methods
+	@Override
+	public boolean run(ControlFlowGraph g, PassManager pm) {
+		this.undefined = pm.undefinedValues(g);
+		boolean result = false;
+		do { // until nothing is removed
+			this.changed = false;
+			this.live.clear();
+			markNodes(g.nodes);
+			propagate();
+			while (keepNonEmpty(g.nodes, false)) {
+				propagate();
+			}
+			sweepNodes(g.nodes);
+			g.substitute(this.replaced);
+			this.replaced.clear();
+			result |= this.changed;
+		} while (this.changed);
+		return result;
+	}
+}
@@ -0,0 +1,482 @@
+package core.interpreter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Definite-assignment analysis for the Core language. Classifies every use of
+ * an identifier as always initialized, never initialized, or maybe
+ * initialized. Uses that are always initialized are marked in the parse tree
+ * so that the executor does not check them. Uses that are never initialized
+ * are reported before execution; like maybe initialized uses, they keep their
+ * check, since they are only an error if they are reached.
+ *
+ * @author Simeon Georgiev
+ */
+public class DefiniteAssignmentAnalyzer implements Analyzer {
+	// fields
+	/**
+	 * The slots of the identifiers that are assigned on every path to the
+	 * current point of the program.
+	 */
+	private BitSet assigned;
+
+	/**
+	 * The slots of the identifiers that are assigned on at least one path to
+	 * the current point of the program.
+	 */
+	private BitSet possibly;
+
+	/**
+	 * The slots of the identifiers that have already been reported as never
+	 * initialized.
+	 */
+	private BitSet reported;
+
+	/**
+	 * Whether uses that are never initialized are reported.
+	 */
+	private boolean report;
+
+	/**
+	 * The slots of the identifiers that occur in each while statement,
+	 * including nested ones, in the order the while statements are reached.
+	 */
+	private final List<BitSet> loopSlots = new ArrayList<BitSet>();
+
+	/**
+	 * The number of while statements reached so far.
+	 */
+	private int loops;
+
+	// private methods
+	/**
+	 * Adds the slots of the identifiers that occur in a statement sequence to
+	 * a set, and finds those of each while statement in it, in one pass over
+	 * the sequence.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @param slots
+	 *            the set of slots
+	 */
+	private void collectStmtSeq(ParseTree p, BitSet slots) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		p.goDown(1); // stmt
+		collectStmt(p, slots);
+		p.goUp();
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			collectStmtSeq(p, slots);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Adds the slots of the identifiers that occur in a statement to a set.
+	 * The slots of a while statement are found from those of its body, and
+	 * kept for the analysis.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @param slots
+	 *            the set of slots
+	 */
+	private void collectStmt(ParseTree p, BitSet slots) {
+		assert p.currNT() == 6 : "Expecting <stmt>";
+		int alt = p.currAlt(); // determine alternative
+		p.goDown(1);
+		switch (alt) {
+		case 1:
+			p.goDown(1); // id
+			slots.set(p.currIdSlot());
+			p.goUp();
+			p.goDown(2); // exp
+			ParseTrees.addExpUses(p, slots);
+			p.goUp();
+			break;
+		case 2:
+			p.goDown(1); // cond
+			ParseTrees.addCondUses(p, slots);
+			p.goUp();
+			p.goDown(2); // then stmt seq
+			collectStmtSeq(p, slots);
+			p.goUp();
+			if (p.currAlt() == 2) {
+				p.goDown(3); // else stmt seq
+				collectStmtSeq(p, slots);
+				p.goUp();
+			}
+			break;
+		case 3:
+			BitSet loop = new BitSet();
+			this.loopSlots.add(loop); // reached before the nested ones
+			p.goDown(1); // cond
+			ParseTrees.addCondUses(p, loop);
+			p.goUp();
+			p.goDown(2); // stmt seq
+			collectStmtSeq(p, loop);
+			p.goUp();
+			slots.or(loop);
+			break;
+		default: // read or write
+			p.goDown(1); // id list
+			ParseTrees.addIdList(p, slots);
+			p.goUp();
+			break;
+		}
+		p.goUp();
+	}
+
+	/**
+	 * Analyzes a statement sequence.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void analyzeStmtSeq(ParseTree p) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		p.goDown(1); // stmt
+		analyzeStmt(p);
+		p.goUp();
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			analyzeStmtSeq(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Analyzes a statement.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void analyzeStmt(ParseTree p) {
+		assert p.currNT() == 6 : "Expecting <stmt>";
+		int alt = p.currAlt(); // determine alternative
+		p.goDown(1);
+		switch (alt) {
+		case 1:
+			analyzeAssign(p);
+			break;
+		case 2:
+			analyzeIf(p);
+			break;
+		case 3:
+			analyzeLoop(p);
+			break;
+		case 4:
+			p.goDown(1); // id list
+			defineIdList(p);
+			p.goUp();
+			break;
+		case 5:
+			p.goDown(1); // id list
+			useIdList(p);
+			p.goUp();
+			break;
+		}
+		p.goUp();
+	}
+
+	/**
+	 * Analyzes an assign statement. The expression is evaluated before the
+	 * identifier is assigned.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void analyzeAssign(ParseTree p) {
+		assert p.currNT() == 7 : "Expecting <assign>";
+		p.goDown(2); // exp
+		analyzeExp(p);
+		p.goUp();
+
+		p.goDown(1); // id
+		define(p.currIdSlot());
+		p.goUp();
+	}
+
+	/**
+	 * Analyzes an if statement. An identifier is assigned after the if
+	 * statement on every path if it is assigned in both branches.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void analyzeIf(ParseTree p) {
+		assert p.currNT() == 8 : "Expecting <if>";
+		p.goDown(1); // cond
+		analyzeCond(p);
+		p.goUp();
+
+		BitSet inAssigned = (BitSet) this.assigned.clone();
+		BitSet inPossibly = (BitSet) this.possibly.clone();
+
+		p.goDown(2); // then stmt seq
+		analyzeStmtSeq(p);
+		p.goUp();
+
+		BitSet thenAssigned = this.assigned;
+		BitSet thenPossibly = this.possibly;
+		this.assigned = inAssigned;
+		this.possibly = inPossibly;
+
+		if (p.currAlt() == 2) {
+			p.goDown(3); // else stmt seq
+			analyzeStmtSeq(p);
+			p.goUp();
+		}
+
+		this.assigned.and(thenAssigned); // merge
+		this.possibly.or(thenPossibly);
+	}
+
+	/**
+	 * Analyzes a while statement. Since the body may not execute, only the
+	 * identifiers assigned before the loop or in its condition are assigned on
+	 * every path after it. Every identifier that occurs in the loop is
+	 * assigned once the loop has been passed through, by its assignment or by
+	 * a use that execution continues past, so the identifiers possibly
+	 * assigned at the loop header are those possibly assigned before it and
+	 * those that occur in it, which were collected before the analysis.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void analyzeLoop(ParseTree p) {
+		assert p.currNT() == 9 : "Expecting <loop>";
+		BitSet header = (BitSet) this.possibly.clone();
+		header.or(this.loopSlots.get(this.loops)); // also around the loop
+		this.loops++;
+		this.possibly = header;
+
+		p.goDown(1); // cond
+		analyzeCond(p);
+		p.goUp();
+		BitSet exit = (BitSet) this.assigned.clone(); // cond ran at least once
+
+		p.goDown(2); // stmt seq
+		analyzeStmtSeq(p);
+		p.goUp();
+
+		this.assigned = exit;
+		this.possibly = header;
+	}
+
+	/**
+	 * Analyzes a list of identifiers that are assigned by a read statement.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void defineIdList(ParseTree p) {
+		assert p.currNT() == 5 : "Expecting <id list>";
+		p.goDown(1); // id
+		define(p.currIdSlot());
+		p.goUp();
+
+		if (p.currAlt() == 2) {
+			p.goDown(2); // id list
+			defineIdList(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Analyzes a list of identifiers that are used by a write statement.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void useIdList(ParseTree p) {
+		assert p.currNT() == 5 : "Expecting <id list>";
+		p.goDown(1); // id
+		use(p);
+		p.goUp();
+
+		if (p.currAlt() == 2) {
+			p.goDown(2); // id list
+			useIdList(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Analyzes a condition. The second condition of && and || is skipped when
+	 * the first decides the value, so the identifiers it uses are only assigned
+	 * on every path within it. Executors that evaluate both sides anyway are
+	 * only checked more than needed.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void analyzeCond(ParseTree p) {
+		assert p.currNT() == 12 : "Expecting <cond>";
+		switch (p.currAlt()) {
+		case 1:
+			p.goDown(1); // comp
+			analyzeComp(p);
+			p.goUp();
+			break;
+		case 2:
+			p.goDown(1); // cond
+			analyzeCond(p);
+			p.goUp();
+			break;
+		default: // && or ||
+			p.goDown(1); // first cond
+			analyzeCond(p);
+			p.goUp();
+			BitSet first = (BitSet) this.assigned.clone();
+
+			p.goDown(2); // second cond
+			analyzeCond(p);
+			p.goUp();
+			this.assigned = first; // the second cond may be skipped
+			break;
+		}
+	}
+
+	/**
+	 * Analyzes a comparison.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void analyzeComp(ParseTree p) {
+		assert p.currNT() == 13 : "Expecting <comp>";
+		p.goDown(1); // op
+		analyzeOp(p);
+		p.goUp();
+
+		p.goDown(3); // op
+		analyzeOp(p);
+		p.goUp();
+	}
+
+	/**
+	 * Analyzes an expression.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void analyzeExp(ParseTree p) {
+		assert p.currNT() == 14 : "Expecting <exp>";
+		p.goDown(1); // fac
+		analyzeFac(p);
+		p.goUp();
+
+		if (p.currAlt() != 1) { // + or -
+			p.goDown(2); // exp
+			analyzeExp(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Analyzes a factor.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void analyzeFac(ParseTree p) {
+		assert p.currNT() == 15 : "Expecting <fac>";
+		p.goDown(1); // op
+		analyzeOp(p);
+		p.goUp();
+
+		if (p.currAlt() == 2) { // *
+			p.goDown(2); // fac
+			analyzeFac(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Analyzes an operand.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void analyzeOp(ParseTree p) {
+		assert p.currNT() == 16 : "Expecting <op>";
+		if (p.currAlt() == 2) { // id
+			p.goDown(1);
+			use(p);
+			p.goUp();
+		} else if (p.currAlt() == 3) { // exp
+			p.goDown(1);
+			analyzeExp(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Records that the identifier in the given slot is assigned.
+	 *
+	 * @param slot
+	 *            the slot of the identifier
+	 */
+	private void define(int slot) {
+		this.assigned.set(slot);
+		this.possibly.set(slot);
+	}
+
+	/**
+	 * Classifies a use of the current identifier node. Execution only
+	 * continues past a use if the identifier was initialized, so the
+	 * identifier is assigned after it.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program, with the cursor
+	 *            at an id node
+	 */
+	private void use(ParseTree p) {
+		assert p.currNT() == 18 : "Expecting <id>";
+		int slot = p.currIdSlot();
+		p.setIdChecked(!this.assigned.get(slot));
+		if (this.report && !this.possibly.get(slot)
+				&& !this.reported.get(slot)) {
+			System.err.println("Variable " + p.idName(slot)
+					+ " is used before it is initialized");
+			this.reported.set(slot);
+		}
+		define(slot);
+	}
+
+	// public methods
+	/**
+	 * Creates an analyzer that reports uses that are never initialized.
+	 */
+	public DefiniteAssignmentAnalyzer() {
+		this(true);
+	}
+
+	/**
+	 * Creates an analyzer. Optimizers use an analyzer that does not report, to
+	 * find out which uses are always initialized.
+	 * 
+	 * @param report
+	 *            whether uses that are never initialized are reported
+	 */
+	public DefiniteAssignmentAnalyzer(boolean report) {
+		this.report = report;
+	}
+
+	@Override
+	public void analyze(ParseTree p) {
+		assert p.currNT() == 1 : "Expecting <prog>";
+		this.assigned = new BitSet(p.idCount());
+		this.possibly = new BitSet(p.idCount());
+		this.reported = new BitSet(p.idCount());
+		this.loopSlots.clear();
+		this.loops = 0;
+
+		p.goDown(2); // stmt seq
+		collectStmtSeq(p, new BitSet(p.idCount()));
+		analyzeStmtSeq(p);
+		p.goUp();
+	}
+}
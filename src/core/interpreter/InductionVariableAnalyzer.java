@@ -0,0 +1,284 @@
+package core.interpreter;
+import java.util.BitSet;
+
+/**
+ * Induction-variable analysis for the Core language. Marks the while
+ * statements that the executor can run in closed form: loops whose body only
+ * contains assign statements, each assigning a different identifier, of the
+ * form X = X + e, X = X - e or X = e + X. If e does not use any identifier
+ * assigned in the loop, X is an induction variable; otherwise X is an
+ * accumulator, and e must be affine in the induction variables: it may not use
+ * accumulators, or multiply two expressions that use induction variables. The
+ * condition must compare an induction variable with an operand that does not
+ * use any identifier assigned in the loop.
+ *
+ * @author Simeon Georgiev
+ */
+public class InductionVariableAnalyzer implements Analyzer {
+	// fields
+	/**
+	 * The slots of the identifiers assigned in the loop being analyzed.
+	 */
+	private BitSet assigned;
+
+	/**
+	 * The slots of the induction variables of the loop being analyzed.
+	 */
+	private BitSet inductions;
+
+	// private methods
+	/**
+	 * Analyzes the while statements in a statement sequence.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void analyzeStmtSeq(ParseTree p) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		p.goDown(1); // stmt
+		int alt = p.currAlt();
+		p.goDown(1);
+		if (alt == 2) { // if
+			p.goDown(2); // then stmt seq
+			analyzeStmtSeq(p);
+			p.goUp();
+			if (p.currAlt() == 2) {
+				p.goDown(3); // else stmt seq
+				analyzeStmtSeq(p);
+				p.goUp();
+			}
+		} else if (alt == 3) { // loop
+			p.goDown(2); // stmt seq
+			analyzeStmtSeq(p);
+			p.goUp();
+			p.setClosedForm(inductionLoop(p));
+		}
+		p.goUp();
+		p.goUp();
+
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			analyzeStmtSeq(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Returns whether a while statement has the shape of an induction loop.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a loop node
+	 * @return true if the loop can be executed in closed form
+	 */
+	private boolean inductionLoop(ParseTree p) {
+		assert p.currNT() == 9 : "Expecting <loop>";
+		this.assigned = new BitSet();
+		this.inductions = new BitSet();
+		p.goDown(2); // stmt seq
+		boolean steps = findSteps(p) && checkAccumulators(p);
+		p.goUp();
+		if (!steps) {
+			return false;
+		}
+
+		p.goDown(1); // cond
+		boolean comp = p.currAlt() == 1;
+		if (comp) {
+			p.goDown(1); // comp
+			BitSet left = new BitSet();
+			p.goDown(1); // op
+			ParseTrees.addOpUses(p, left);
+			boolean leftId = p.currAlt() == 2;
+			p.goUp();
+			BitSet right = new BitSet();
+			p.goDown(3); // op
+			ParseTrees.addOpUses(p, right);
+			boolean rightId = p.currAlt() == 2;
+			p.goUp();
+			p.goUp();
+			comp = leftId && this.inductions.intersects(left)
+					&& !this.assigned.intersects(right) || rightId
+					&& this.inductions.intersects(right)
+					&& !this.assigned.intersects(left);
+		}
+		p.goUp();
+		return comp;
+	}
+
+	/**
+	 * Finds the induction variables of a loop body, and checks that every
+	 * statement is a step of a different identifier.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @return true if the body has the shape of an induction loop
+	 */
+	private boolean findSteps(ParseTree p) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		p.goDown(1); // stmt
+		boolean step = p.currAlt() == 1;
+		if (step) {
+			p.goDown(1); // assign
+			p.goDown(1); // id
+			int slot = p.currIdSlot();
+			p.goUp();
+			step = ParseTrees.stepForm(p) != ParseTrees.NO_STEP
+					&& !this.assigned.get(slot);
+			this.assigned.set(slot);
+			p.goUp();
+		}
+		p.goUp();
+		if (!step) {
+			return false;
+		}
+
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			step = findSteps(p);
+			p.goUp();
+		}
+		if (step) { // all identifiers assigned in the loop are known
+			p.goDown(1); // stmt
+			p.goDown(1); // assign
+			BitSet uses = stepUses(p);
+			if (!uses.intersects(this.assigned)) {
+				p.goDown(1); // id
+				this.inductions.set(p.currIdSlot());
+				p.goUp();
+			}
+			p.goUp();
+			p.goUp();
+		}
+		return step;
+	}
+
+	/**
+	 * Checks that the steps of the accumulators of a loop body are affine in
+	 * the induction variables.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @return true if every accumulator can be summed in closed form
+	 */
+	private boolean checkAccumulators(ParseTree p) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		p.goDown(1); // stmt
+		p.goDown(1); // assign
+		p.goDown(1); // id
+		int slot = p.currIdSlot();
+		p.goUp();
+		boolean affine = true;
+		if (!this.inductions.get(slot)) {
+			BitSet uses = stepUses(p);
+			uses.andNot(this.inductions);
+			affine = !uses.intersects(this.assigned);
+			if (affine) {
+				int form = ParseTrees.stepForm(p);
+				p.goDown(2); // exp
+				if (form == ParseTrees.ADD_TO) {
+					p.goDown(1); // fac
+					affine = facDegree(p) <= 1;
+				} else {
+					p.goDown(2); // exp
+					affine = expDegree(p) <= 1;
+				}
+				p.goUp();
+				p.goUp();
+			}
+		}
+		p.goUp();
+		p.goUp();
+
+		if (affine && p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			affine = checkAccumulators(p);
+			p.goUp();
+		}
+		return affine;
+	}
+
+	/**
+	 * Returns the identifiers used by the expression e of a step.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an assign node
+	 * @return the slots of the identifiers
+	 */
+	private static BitSet stepUses(ParseTree p) {
+		BitSet uses = new BitSet();
+		int form = ParseTrees.stepForm(p);
+		p.goDown(2); // exp
+		if (form == ParseTrees.ADD_TO) {
+			p.goDown(1); // fac
+			ParseTrees.addFacUses(p, uses);
+		} else {
+			p.goDown(2); // exp
+			ParseTrees.addExpUses(p, uses);
+		}
+		p.goUp();
+		p.goUp();
+		return uses;
+	}
+
+	/**
+	 * Returns the degree of an expression as a polynomial in the induction
+	 * variables, or 2 if it is more than 1.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an exp node
+	 * @return the degree, at most 2
+	 */
+	private int expDegree(ParseTree p) {
+		assert p.currNT() == 14 : "Expecting <exp>";
+		p.goDown(1); // fac
+		int degree = facDegree(p);
+		p.goUp();
+		if (p.currAlt() != 1) {
+			p.goDown(2); // exp
+			degree = Math.max(degree, expDegree(p));
+			p.goUp();
+		}
+		return degree;
+	}
+
+	/**
+	 * Returns the degree of a factor as a polynomial in the induction
+	 * variables, or 2 if it is more than 1.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a fac node
+	 * @return the degree, at most 2
+	 */
+	private int facDegree(ParseTree p) {
+		assert p.currNT() == 15 : "Expecting <fac>";
+		int degree;
+		p.goDown(1); // op
+		if (p.currAlt() == 2) { // id
+			p.goDown(1);
+			degree = this.inductions.get(p.currIdSlot()) ? 1 : 0;
+			p.goUp();
+		} else if (p.currAlt() == 3) { // exp
+			p.goDown(1);
+			degree = expDegree(p);
+			p.goUp();
+		} else {
+			degree = 0;
+		}
+		p.goUp();
+		if (p.currAlt() == 2) { // *
+			p.goDown(2); // fac
+			degree = Math.min(2, degree + facDegree(p));
+			p.goUp();
+		}
+		return degree;
+	}
+
+	// public method
+	@Override
+	public void analyze(ParseTree p) {
+		assert p.currNT() == 1 : "Expecting <prog>";
+		p.goDown(2); // stmt seq
+		analyzeStmtSeq(p);
+		p.goUp();
+	}
+}
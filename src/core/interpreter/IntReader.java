@@ -0,0 +1,24 @@
+package core.interpreter;
+/**
+ * Source of the integers that read statements take from the data file.
+ * 
+ * @author Simeon Georgiev
+ */
+public interface IntReader {
+
+	/**
+	 * Reads the next integer.
+	 * 
+	 * @return the integer
+	 * @throws java.util.InputMismatchException
+	 *             if the next input is not an integer that fits in an int
+	 * @throws java.util.NoSuchElementException
+	 *             if there is no more input
+	 */
+	int nextInt();
+
+	/**
+	 * Closes the data file.
+	 */
+	void close();
+}
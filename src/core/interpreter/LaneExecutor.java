@@ -0,0 +1,655 @@
+package core.interpreter;
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
+
+/**
+ * Executes a program over several data files at once, one in each lane. Each
+ * identifier holds an array with its value in every lane, and each statement
+ * is run for every lane in a mask at once, with a loop over the lanes that the
+ * JIT compiler can turn into vector instructions. An if statement runs each
+ * branch with the lanes whose condition chose it, and a while statement runs
+ * its body with the lanes whose condition is still true, until there are
+ * none. Each lane reads from its own reader and writes to its own buffer, and
+ * a lane that fails stops while the others go on, so each lane reads, writes
+ * and fails exactly as a CoreExecutor on its data file would.
+ *
+ * Masks are longs with a bit per lane, so there are at most 64 lanes.
+ * Superinstructions, closed forms and memoized loops are not used, and the
+ * tree is walked by recursion.
+ *
+ * @author Simeon Georgiev
+ */
+final class LaneExecutor implements Executor {
+	// fields
+	/**
+	 * The most lanes, one per bit of a mask.
+	 */
+	static final int MAX_LANES = 64;
+
+	/**
+	 * The number of lanes.
+	 */
+	private final int lanes;
+
+	/**
+	 * The mask of all the lanes.
+	 */
+	private final long all;
+
+	/**
+	 * The reader of each lane.
+	 */
+	private final IntReader[] inputs;
+
+	/**
+	 * The buffer each lane writes to.
+	 */
+	private final OutputBuffer[] outputs;
+
+	/**
+	 * Whether both sides of && and || are always evaluated.
+	 */
+	private final boolean eager;
+
+	/**
+	 * The error each lane failed with, or null while it has not failed.
+	 */
+	private final String[] failures;
+
+	/**
+	 * The lanes that have not failed.
+	 */
+	private long alive;
+
+	/**
+	 * The values of the identifiers in each lane, indexed by slot and lane.
+	 */
+	private int[][] frame;
+
+	/**
+	 * The lanes in which each identifier has been assigned a value, indexed
+	 * by slot.
+	 */
+	private long[] initialized;
+
+	/**
+	 * The arrays that hold the values of the operands being evaluated, one
+	 * per level of nesting, allocated as they are first needed.
+	 */
+	private int[][] temps = new int[16][];
+
+	/**
+	 * The number of temps in use.
+	 */
+	private int used;
+
+	// private methods
+	/**
+	 * Stops a lane with an error, unless it has already failed.
+	 *
+	 * @param lane
+	 *            the lane
+	 * @param message
+	 *            the message reported for the lane
+	 */
+	private void fail(int lane, String message) {
+		if ((this.alive & (1L << lane)) != 0) {
+			this.alive &= ~(1L << lane);
+			this.failures[lane] = message;
+		}
+	}
+
+	/**
+	 * Takes an array for the values of an operand.
+	 *
+	 * @return an array with an element per lane
+	 */
+	private int[] temp() {
+		if (this.used == this.temps.length) {
+			int[][] grown = new int[2 * this.used][];
+			System.arraycopy(this.temps, 0, grown, 0, this.used);
+			this.temps = grown;
+		}
+		if (this.temps[this.used] == null) {
+			this.temps[this.used] = new int[this.lanes];
+		}
+		return this.temps[this.used++];
+	}
+
+	/**
+	 * Gives back the array taken last.
+	 */
+	private void release() {
+		this.used--;
+	}
+
+	/**
+	 * Executes a statement sequence.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @param mask
+	 *            the lanes that run it
+	 */
+	private void execSeq(ParseTree p, long mask) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		int depth = 0; // stmt seqs descended past the first
+		for (;;) {
+			mask &= this.alive;
+			if (mask == 0) { // every lane failed
+				break;
+			}
+			p.goDown(1); // stmt
+			execStmt(p, mask);
+			p.goUp();
+
+			if (p.currAlt() != 2) { // no more statements
+				break;
+			}
+			p.goDown(2); // stmt seq
+			depth++;
+		}
+		for (; depth > 0; depth--) {
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Executes a statement.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt node
+	 * @param mask
+	 *            the lanes that run it
+	 */
+	private void execStmt(ParseTree p, long mask) {
+		assert p.currNT() == 6 : "Expecting <stmt>";
+		p.goDown(1);
+		switch (p.currNT()) {
+		case 7:
+			execAssign(p, mask);
+			break;
+		case 8:
+			execIf(p, mask);
+			break;
+		case 9:
+			execLoop(p, mask);
+			break;
+		case 10:
+			p.goDown(1); // id list
+			readIdList(p, mask);
+			p.goUp();
+			break;
+		default:
+			p.goDown(1); // id list
+			writeIdList(p, mask);
+			p.goUp();
+			break;
+		}
+		p.goUp();
+	}
+
+	/**
+	 * Executes an assign statement.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an assign node
+	 * @param mask
+	 *            the lanes that run it
+	 */
+	private void execAssign(ParseTree p, long mask) {
+		assert p.currNT() == 7 : "Expecting <assign>";
+		int[] val = temp();
+		p.goDown(2); // exp
+		evalExp(p, mask, val);
+		p.goUp();
+
+		p.goDown(1); // id
+		int slot = p.currIdSlot();
+		p.goUp();
+
+		mask &= this.alive; // not the lanes that failed in the exp
+		int[] x = this.frame[slot];
+		if (mask == this.all) {
+			System.arraycopy(val, 0, x, 0, this.lanes);
+		} else {
+			for (int i = 0; i < this.lanes; i++) {
+				x[i] = (mask & (1L << i)) != 0 ? val[i] : x[i];
+			}
+		}
+		this.initialized[slot] |= mask;
+		release();
+	}
+
+	/**
+	 * Executes an if statement, each branch with the lanes that take it.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an if node
+	 * @param mask
+	 *            the lanes that run it
+	 */
+	private void execIf(ParseTree p, long mask) {
+		assert p.currNT() == 8 : "Expecting <if>";
+		p.goDown(1); // cond
+		long taken = evalCond(p, mask);
+		p.goUp();
+
+		if ((taken & this.alive) != 0) {
+			p.goDown(2); // then stmt seq
+			execSeq(p, taken);
+			p.goUp();
+		}
+		long other = mask & ~taken & this.alive;
+		if (p.currAlt() == 2 && other != 0) {
+			p.goDown(3); // else stmt seq
+			execSeq(p, other);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Executes a while statement, until its condition is false in every lane
+	 * that runs it.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a loop node
+	 * @param mask
+	 *            the lanes that run it
+	 */
+	private void execLoop(ParseTree p, long mask) {
+		assert p.currNT() == 9 : "Expecting <loop>";
+		for (;;) {
+			p.goDown(1); // cond
+			mask = evalCond(p, mask & this.alive) & this.alive;
+			p.goUp();
+			if (mask == 0) { // every lane left the loop
+				break;
+			}
+			p.goDown(2); // stmt seq
+			execSeq(p, mask);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Reads a value for each identifier in a list of identifiers, in each
+	 * lane.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an id list node
+	 * @param mask
+	 *            the lanes that run it
+	 */
+	private void readIdList(ParseTree p, long mask) {
+		assert p.currNT() == 5 : "Expecting <id list>";
+		int depth = 0; // id lists descended past the first
+		for (;;) {
+			p.goDown(1); // id
+			int slot = p.currIdSlot();
+			p.goUp();
+
+			mask &= this.alive;
+			int[] x = this.frame[slot];
+			for (int i = 0; i < this.lanes; i++) {
+				if ((mask & (1L << i)) != 0) {
+					try {
+						x[i] = this.inputs[i].nextInt(); // get value
+					} catch (InputMismatchException e) {
+						fail(i, "Input is not an integer.");
+					} catch (NoSuchElementException e) {
+						fail(i, "Input is empty.");
+					}
+				}
+			}
+			this.initialized[slot] |= mask & this.alive;
+
+			if (p.currAlt() != 2) { // no more ids
+				break;
+			}
+			p.goDown(2); // id list
+			depth++;
+		}
+		for (; depth > 0; depth--) {
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Writes the value of each identifier in a list of identifiers, in each
+	 * lane.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an id list node
+	 * @param mask
+	 *            the lanes that run it
+	 */
+	private void writeIdList(ParseTree p, long mask) {
+		assert p.currNT() == 5 : "Expecting <id list>";
+		int depth = 0; // id lists descended past the first
+		for (;;) {
+			p.goDown(1); // id
+			int slot = p.currIdSlot();
+			boolean checked = p.currIdChecked();
+			p.goUp();
+
+			if (checked) {
+				check(p, slot, mask);
+			}
+			mask &= this.alive;
+			int[] x = this.frame[slot];
+			for (int i = 0; i < this.lanes; i++) {
+				if ((mask & (1L << i)) != 0) {
+					this.outputs[i].write(slot, x[i]);
+				}
+			}
+
+			if (p.currAlt() != 2) { // no more ids
+				break;
+			}
+			p.goDown(2); // id list
+			depth++;
+		}
+		for (; depth > 0; depth--) {
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Fails the lanes in which an identifier is used before it is
+	 * initialized.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @param slot
+	 *            the slot of the identifier
+	 * @param mask
+	 *            the lanes that use it
+	 */
+	private void check(ParseTree p, int slot, long mask) {
+		long bad = mask & this.alive & ~this.initialized[slot];
+		for (int i = 0; bad != 0; i++, bad >>>= 1) {
+			if ((bad & 1) != 0) {
+				fail(i, "Uninitialized variable " + p.idName(slot));
+			}
+		}
+	}
+
+	/**
+	 * Evaluates a condition in each lane.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a cond node
+	 * @param mask
+	 *            the lanes that evaluate it
+	 * @return the lanes in the mask in which it is true
+	 */
+	private long evalCond(ParseTree p, long mask) {
+		assert p.currNT() == 12 : "Expecting <cond>";
+		long result;
+		switch (p.currAlt()) {
+		case 1:
+			p.goDown(1); // comp
+			result = evalComp(p, mask);
+			p.goUp();
+			break;
+		case 2:
+			p.goDown(1); // cond
+			result = ~evalCond(p, mask); // take the not
+			p.goUp();
+			break;
+		case 3: // the second cond only where the first is true
+			p.goDown(1); // first cond
+			long first = evalCond(p, mask);
+			p.goUp();
+			p.goDown(2); // second cond
+			result = first & evalCond(p, this.eager ? mask : first);
+			p.goUp();
+			break;
+		default: // the second cond only where the first is false
+			p.goDown(1); // first cond
+			first = evalCond(p, mask);
+			p.goUp();
+			p.goDown(2); // second cond
+			result = first | evalCond(p, this.eager ? mask : mask & ~first);
+			p.goUp();
+			break;
+		}
+		return result & mask;
+	}
+
+	/**
+	 * Evaluates a comparison in each lane.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a comp node
+	 * @param mask
+	 *            the lanes that evaluate it
+	 * @return the lanes in the mask in which it is true
+	 */
+	private long evalComp(ParseTree p, long mask) {
+		assert p.currNT() == 13 : "Expecting <comp>";
+		int[] a = temp();
+		p.goDown(1); // op
+		evalOp(p, mask, a);
+		p.goUp();
+
+		p.goDown(2); // comp op
+		int c = p.currAlt();
+		p.goUp();
+
+		int[] b = temp();
+		p.goDown(3); // op
+		evalOp(p, mask, b);
+		p.goUp();
+
+		long result = 0;
+		for (int i = 0; i < this.lanes; i++) {
+			boolean comp;
+			switch (c) { // determine operation
+			case 1:
+				comp = a[i] != b[i];
+				break;
+			case 2:
+				comp = a[i] == b[i];
+				break;
+			case 3:
+				comp = a[i] < b[i];
+				break;
+			case 4:
+				comp = a[i] > b[i];
+				break;
+			case 5:
+				comp = a[i] <= b[i];
+				break;
+			default:
+				comp = a[i] >= b[i];
+				break;
+			}
+			if (comp) {
+				result |= 1L << i;
+			}
+		}
+		release();
+		release();
+		return result & mask;
+	}
+
+	/**
+	 * Evaluates an expression in each lane. The exps added or subtracted in
+	 * turn are evaluated in a loop: after each -, the terms that follow change
+	 * sign.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an exp node
+	 * @param mask
+	 *            the lanes that evaluate it
+	 * @param exp
+	 *            the array the value in each lane is put in
+	 */
+	private void evalExp(ParseTree p, long mask, int[] exp) {
+		assert p.currNT() == 14 : "Expecting <exp>";
+		p.goDown(1); // fac
+		evalFac(p, mask, exp);
+		p.goUp();
+
+		int[] fac = temp();
+		boolean minus = false; // whether the next fac is subtracted
+		int depth = 0; // exps descended past the first
+		while (p.currAlt() != 1) {
+			if (p.currAlt() == 3) { // -
+				minus = !minus;
+			}
+			p.goDown(2); // exp
+			depth++;
+			p.goDown(1); // fac
+			evalFac(p, mask, fac);
+			p.goUp();
+			if (minus) {
+				for (int i = 0; i < this.lanes; i++) {
+					exp[i] -= fac[i];
+				}
+			} else {
+				for (int i = 0; i < this.lanes; i++) {
+					exp[i] += fac[i];
+				}
+			}
+		}
+		for (; depth > 0; depth--) {
+			p.goUp();
+		}
+		release();
+	}
+
+	/**
+	 * Evaluates a factor in each lane.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a fac node
+	 * @param mask
+	 *            the lanes that evaluate it
+	 * @param fac
+	 *            the array the value in each lane is put in
+	 */
+	private void evalFac(ParseTree p, long mask, int[] fac) {
+		assert p.currNT() == 15 : "Expecting <fac>";
+		p.goDown(1); // op
+		evalOp(p, mask, fac);
+		p.goUp();
+
+		if (p.currAlt() == 1) {
+			return;
+		}
+		int[] op = temp();
+		int depth = 0; // facs descended past the first
+		while (p.currAlt() == 2) {
+			p.goDown(2); // fac
+			depth++;
+			p.goDown(1); // op
+			evalOp(p, mask, op);
+			p.goUp();
+			for (int i = 0; i < this.lanes; i++) {
+				fac[i] *= op[i];
+			}
+		}
+		for (; depth > 0; depth--) {
+			p.goUp();
+		}
+		release();
+	}
+
+	/**
+	 * Evaluates an operand in each lane.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an op node
+	 * @param mask
+	 *            the lanes that evaluate it
+	 * @param op
+	 *            the array the value in each lane is put in
+	 */
+	private void evalOp(ParseTree p, long mask, int[] op) {
+		assert p.currNT() == 16 : "Expecting <op>";
+		switch (p.currAlt()) {
+		case 1: // int
+			p.goDown(1); // int
+			int val = p.currInt();
+			p.goUp();
+			for (int i = 0; i < this.lanes; i++) {
+				op[i] = val;
+			}
+			break;
+		case 2: // id
+			p.goDown(1); // id
+			int slot = p.currIdSlot();
+			boolean checked = p.currIdChecked();
+			p.goUp();
+
+			if (checked) {
+				check(p, slot, mask);
+			}
+			System.arraycopy(this.frame[slot], 0, op, 0, this.lanes);
+			break;
+		default: // exp
+			p.goDown(1); // exp
+			evalExp(p, mask, op);
+			p.goUp();
+			break;
+		}
+	}
+
+	// package methods
+	/**
+	 * Creates an executor with a lane for each reader.
+	 *
+	 * @requires 1 <= inputs.length <= MAX_LANES
+	 * @param inputs
+	 *            the reader of each lane
+	 * @param outputs
+	 *            the buffer each lane writes to, flushed when execution ends
+	 * @param eager
+	 *            whether both sides of && and || are always evaluated
+	 */
+	LaneExecutor(IntReader[] inputs, OutputBuffer[] outputs, boolean eager) {
+		assert 1 <= inputs.length && inputs.length <= MAX_LANES
+				: "Lanes out of range.";
+		this.lanes = inputs.length;
+		this.all = this.lanes == MAX_LANES ? -1L : (1L << this.lanes) - 1;
+		this.inputs = inputs;
+		this.outputs = outputs;
+		this.eager = eager;
+		this.failures = new String[this.lanes];
+	}
+
+	/**
+	 * Returns the error a lane failed with.
+	 *
+	 * @param lane
+	 *            the lane
+	 * @return the message reported for the lane, or null if it did not fail
+	 */
+	String failure(int lane) {
+		return this.failures[lane];
+	}
+
+	// public methods
+	@Override
+	public void execute(ParseTree p) {
+		assert p.currNT() == 1 : "Expecting <prog>";
+		// no need to execute declarations; all ids are already in parse tree
+		this.frame = new int[p.idCount()][this.lanes];
+		this.initialized = new long[p.idCount()];
+		this.alive = this.all;
+
+		p.goDown(2); // stmt seq
+		try {
+			execSeq(p, this.all);
+		} finally {
+			for (int i = 0; i < this.lanes; i++) {
+				this.outputs[i].flush(); // write out the rest of the output
+				this.inputs[i].close(); // close readers after done using them
+			}
+		}
+		p.goUp();
+	}
+}
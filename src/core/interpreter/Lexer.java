@@ -27,12 +27,21 @@ public interface Lexer {
 	void skipToken();
 
 	/**
-	 * Returns the value of the current token if it is an integer, -1 otherwise.
+	 * Returns the value of the current token if it is an integer that fits in
+	 * an int, -1 otherwise.
 	 * 
 	 * @return the value of the current integer token
 	 */
 	int intVal();
 
+	/**
+	 * Returns the value of the current token if it is an integer, -1 otherwise.
+	 * Integers have at most 64 bits.
+	 * 
+	 * @return the value of the current integer token
+	 */
+	long longVal();
+
 	/**
 	 * Returns the name of the current token if it is an identifier, null
 	 * otherwise.
@@ -0,0 +1,676 @@
+package core.interpreter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loop-invariant code motion for the Core language. An expression in a while
+ * statement is invariant if it uses no identifier that is assigned or read in
+ * the loop. Invariant expressions are computed once into temporaries before
+ * the loop, and invariant assign statements at the top level of the body are
+ * moved in front of the loop, behind an if statement with the loop condition.
+ * Inner loops are processed before the loops around them.
+ *
+ * Only expressions whose identifiers are assigned on every path to the loop
+ * are moved, so that evaluating them early never fails. Read and write
+ * statements are never moved.
+ *
+ * @author Simeon Georgiev
+ */
+public class LoopInvariantHoister implements Optimizer {
+	// fields
+	/**
+	 * The prefix of the names of the temporaries.
+	 */
+	private static final String TEMP = "T";
+
+	/**
+	 * The slots of the identifiers that are assigned on every path to the
+	 * current point of the program.
+	 */
+	private BitSet defined;
+
+	/**
+	 * The slots of the identifiers that are assigned on every path to the
+	 * loop being processed.
+	 */
+	private BitSet entry;
+
+	/**
+	 * The slots of the identifiers that are assigned or read in the loop being
+	 * processed.
+	 */
+	private BitSet assigned;
+
+	/**
+	 * The temporaries of the loop being processed, indexed by the text of the
+	 * expression they hold.
+	 */
+	private Map<String, String> temps;
+
+	/**
+	 * The slots of the identifiers that are assigned by more than one
+	 * statement at the top level of the body of the loop being processed.
+	 */
+	private BitSet reassigned;
+
+	/**
+	 * The names of the temporaries of the loop being processed, in the order
+	 * they are assigned before the loop.
+	 */
+	private List<String> tempNames;
+
+	/**
+	 * The handles of the detached expressions assigned to the temporaries.
+	 */
+	private List<Integer> tempExps;
+
+	// private methods
+	/**
+	 * Moves the invariant code out of the while statements in a statement
+	 * sequence.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void processStmtSeq(ParseTree p) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		p.goDown(1); // stmt
+		int alt = p.currAlt();
+		p.goUp();
+
+		int depth = 0;
+		if (alt == 3) { // loop
+			depth = processLoop(p);
+		} else {
+			p.goDown(1); // stmt
+			processStmt(p);
+			p.goUp();
+		}
+
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			processStmtSeq(p);
+			p.goUp();
+		}
+		for (int i = 0; i < depth; i++) {
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Processes a statement that is not a while statement.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void processStmt(ParseTree p) {
+		assert p.currNT() == 6 : "Expecting <stmt>";
+		int alt = p.currAlt();
+		p.goDown(1);
+		switch (alt) {
+		case 1: // assign
+			p.goDown(1); // id
+			this.defined.set(p.currIdSlot());
+			p.goUp();
+			break;
+		case 2: // if
+			BitSet in = (BitSet) this.defined.clone();
+			p.goDown(2); // then stmt seq
+			processStmtSeq(p);
+			p.goUp();
+			BitSet thenDefined = this.defined;
+			this.defined = in;
+			if (p.currAlt() == 2) {
+				p.goDown(3); // else stmt seq
+				processStmtSeq(p);
+				p.goUp();
+			}
+			this.defined.and(thenDefined); // merge
+			break;
+		case 4: // read
+			p.goDown(1); // id list
+			ParseTrees.addIdList(p, this.defined);
+			p.goUp();
+			break;
+		}
+		p.goUp();
+	}
+
+	/**
+	 * Moves the invariant code out of the while statement that is the first
+	 * statement of the current sequence. Invariant assign statements are moved
+	 * first; then the temporaries are assigned right in front of the loop, so
+	 * the loop moves down the sequence it is in.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @return the number of stmt seq nodes between the current node and the
+	 *         one whose first statement is the loop, or 0 if the loop was
+	 *         moved into an if statement
+	 */
+	private int processLoop(ParseTree p) {
+		BitSet in = (BitSet) this.defined.clone();
+		p.goDown(1); // stmt
+		p.goDown(1); // loop
+		p.goDown(2); // stmt seq
+		processStmtSeq(p); // inner loops first
+		p.goUp();
+		this.entry = (BitSet) in.clone();
+		findAssigned(p);
+		p.goUp();
+		p.goUp();
+		this.defined = in; // body may not execute
+
+		int moved = hoistAssigns(p);
+		int depth = 0;
+		if (moved > 0) { // loop is last in the then branch of the if
+			p.goDown(1); // stmt
+			p.goDown(1); // if
+			p.goDown(2); // stmt seq
+			for (int i = 0; i < moved; i++) {
+				p.goDown(2); // stmt seq
+			}
+			depth = moved + 3;
+		}
+
+		this.temps = new HashMap<String, String>();
+		this.tempNames = new ArrayList<String>();
+		this.tempExps = new ArrayList<Integer>();
+		p.goDown(1); // stmt
+		p.goDown(1); // loop
+		findAssigned(p); // without the moved statements
+		p.goDown(1); // cond
+		hoistCond(p);
+		p.goUp();
+		p.goDown(2); // stmt seq
+		hoistStmtSeq(p);
+		p.goUp();
+		p.goUp();
+		p.goUp();
+
+		for (int i = 0; i < this.tempNames.size(); i++) {
+			ParseTrees.insertAssign(p, this.tempNames.get(i),
+					this.tempExps.get(i));
+			p.goDown(2); // stmt seq
+			depth++;
+		}
+		if (moved == 0) {
+			return depth;
+		}
+		for (int i = 0; i < depth; i++) {
+			p.goUp();
+		}
+		return 0;
+	}
+
+	/**
+	 * Finds the identifiers assigned or read in a while statement.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a loop node
+	 */
+	private void findAssigned(ParseTree p) {
+		assert p.currNT() == 9 : "Expecting <loop>";
+		this.assigned = new BitSet();
+		p.goDown(2); // stmt seq
+		ParseTrees.addAssigned(p, this.assigned);
+		p.goUp();
+	}
+
+	/**
+	 * Replaces the invariant expressions in a statement sequence by
+	 * temporaries.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void hoistStmtSeq(ParseTree p) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		p.goDown(1); // stmt
+		int alt = p.currAlt();
+		p.goDown(1);
+		switch (alt) {
+		case 1: // assign
+			p.goDown(2); // exp
+			hoistExp(p);
+			p.goUp();
+			break;
+		case 2: // if
+			p.goDown(1); // cond
+			hoistCond(p);
+			p.goUp();
+			p.goDown(2);
+			hoistStmtSeq(p);
+			p.goUp();
+			if (p.currAlt() == 2) {
+				p.goDown(3);
+				hoistStmtSeq(p);
+				p.goUp();
+			}
+			break;
+		case 3: // loop
+			p.goDown(1); // cond
+			hoistCond(p);
+			p.goUp();
+			p.goDown(2);
+			hoistStmtSeq(p);
+			p.goUp();
+			break;
+		}
+		p.goUp();
+		p.goUp();
+
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			hoistStmtSeq(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Replaces the invariant expressions in a condition by temporaries.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void hoistCond(ParseTree p) {
+		assert p.currNT() == 12 : "Expecting <cond>";
+		p.goDown(1); // comp or cond
+		if (p.currNT() == 13) {
+			p.goDown(1); // op
+			hoistOp(p);
+			p.goUp();
+			p.goDown(3); // op
+			hoistOp(p);
+			p.goUp();
+		} else {
+			hoistCond(p);
+		}
+		p.goUp();
+
+		if (p.currAlt() > 2) { // && or ||
+			p.goDown(2); // second cond
+			hoistCond(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Replaces the current expression by a temporary if it is invariant, or
+	 * else the invariant expressions in it.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void hoistExp(ParseTree p) {
+		assert p.currNT() == 14 : "Expecting <exp>";
+		BitSet uses = new BitSet();
+		ParseTrees.addExpUses(p, uses);
+		if (!expTrivial(p) && invariant(uses)) {
+			hoist(p, ParseTrees.expKey(p));
+			return;
+		}
+
+		p.goDown(1); // fac
+		hoistFac(p);
+		p.goUp();
+		if (p.currAlt() != 1) {
+			p.goDown(2); // exp
+			hoistExp(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Replaces the current factor by a temporary if it is invariant, or else
+	 * the invariant expressions in it.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void hoistFac(ParseTree p) {
+		assert p.currNT() == 15 : "Expecting <fac>";
+		BitSet uses = new BitSet();
+		ParseTrees.addFacUses(p, uses);
+		if (!facTrivial(p) && invariant(uses)) {
+			hoist(p, ParseTrees.facKey(p));
+			return;
+		}
+
+		p.goDown(1); // op
+		hoistOp(p);
+		p.goUp();
+		if (p.currAlt() == 2) {
+			p.goDown(2); // fac
+			hoistFac(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Replaces the current operand by a temporary if it is an invariant
+	 * expression in parentheses, or else the invariant expressions in it.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void hoistOp(ParseTree p) {
+		assert p.currNT() == 16 : "Expecting <op>";
+		if (p.currAlt() != 3) {
+			return;
+		}
+		p.goDown(1); // exp
+		BitSet uses = new BitSet();
+		ParseTrees.addExpUses(p, uses);
+		boolean hoistable = !expTrivial(p) && invariant(uses);
+		String key = ParseTrees.expKey(p);
+		if (!hoistable) {
+			hoistExp(p);
+		}
+		p.goUp();
+		if (hoistable) {
+			hoist(p, key);
+		}
+	}
+
+	/**
+	 * Replaces the current expression, factor or operand by the temporary
+	 * that holds its value, making a new temporary if there is none yet.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an exp, fac or op node
+	 * @param key
+	 *            the text of the expression
+	 */
+	private void hoist(ParseTree p, String key) {
+		String name = this.temps.get(key);
+		if (name != null) {
+			ParseTrees.setId(p, name);
+		} else {
+			name = p.declTemp(TEMP);
+			this.temps.put(key, name);
+			this.tempNames.add(name);
+			this.tempExps.add(ParseTrees.extractExp(p, name));
+		}
+	}
+
+	/**
+	 * Returns whether the identifiers used by an expression are never
+	 * assigned in the loop, and are assigned on every path to the loop.
+	 *
+	 * @param uses
+	 *            the slots of the identifiers used by the expression
+	 * @return true if the expression can be computed before the loop
+	 */
+	private boolean invariant(BitSet uses) {
+		if (uses.intersects(this.assigned)) {
+			return false;
+		}
+		BitSet undefined = (BitSet) uses.clone();
+		undefined.andNot(this.entry);
+		return undefined.isEmpty();
+	}
+
+	/**
+	 * Moves the invariant assign statements at the top level of the body of
+	 * the while statement that is the first statement of the current
+	 * sequence. An assign statement X = e is moved if e is invariant, X is
+	 * assigned nowhere else in the loop, and X is not used by the condition or
+	 * by the statements before it. The moved statements and the loop are put
+	 * in an if statement with the loop condition, so that they are only
+	 * executed if the loop is entered.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @return the number of statements moved
+	 */
+	private int hoistAssigns(ParseTree p) {
+		p.goDown(1); // stmt
+		p.goDown(1); // loop
+		BitSet used = new BitSet();
+		p.goDown(1); // cond
+		ParseTrees.addCondUses(p, used);
+		p.goUp();
+
+		this.reassigned = new BitSet();
+		BitSet hoisted = new BitSet();
+		p.goDown(2); // stmt seq
+		findReassigned(p, new BitSet());
+		findAssigns(p, 0, used, hoisted);
+		p.goUp();
+		if (hoisted.isEmpty()) {
+			p.goUp();
+			p.goUp();
+			return 0;
+		}
+
+		List<Integer> stmts = new ArrayList<Integer>();
+		p.goDown(2); // stmt seq
+		if (detachStmts(p, 0, hoisted, stmts)) { // keep a statement
+			p.attachBranch(1, stmts.remove(stmts.size() - 1));
+		}
+		p.goUp();
+		if (stmts.isEmpty()) { // the only statement stays in the loop
+			p.goUp();
+			p.goUp();
+			return 0;
+		}
+		int cond = p.copyBranch(1);
+		p.goUp();
+		p.goUp();
+		guard(p, cond, stmts);
+		return stmts.size() - 1; // without the loop
+	}
+
+	/**
+	 * Finds the identifiers assigned by more than one statement of a statement
+	 * sequence.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @param seen
+	 *            the slots of the identifiers assigned by the statements
+	 *            before the sequence
+	 */
+	private void findReassigned(ParseTree p, BitSet seen) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		BitSet stmtAssigned = new BitSet();
+		p.goDown(1); // stmt
+		ParseTrees.addStmtAssigned(p, stmtAssigned);
+		p.goUp();
+		BitSet again = (BitSet) seen.clone();
+		again.and(stmtAssigned);
+		this.reassigned.or(again);
+		seen.or(stmtAssigned);
+
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			findReassigned(p, seen);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Finds the invariant assign statements in a statement sequence that can
+	 * be moved in front of the loop.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @param index
+	 *            the index of the first statement of the sequence
+	 * @param used
+	 *            the slots of the identifiers used by the condition and the
+	 *            statements before the sequence
+	 * @param hoisted
+	 *            the indices of the statements to move
+	 */
+	private void findAssigns(ParseTree p, int index, BitSet used,
+			BitSet hoisted) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		p.goDown(1); // stmt
+		if (p.currAlt() == 1) { // assign
+			p.goDown(1); // assign
+			p.goDown(1); // id
+			int slot = p.currIdSlot();
+			p.goUp();
+			BitSet uses = new BitSet();
+			p.goDown(2); // exp
+			ParseTrees.addExpUses(p, uses);
+			p.goUp();
+			p.goUp();
+			if (!used.get(slot) && invariant(uses)
+					&& !this.reassigned.get(slot)) {
+				hoisted.set(index);
+				this.entry.set(slot); // assigned in front of the loop
+			}
+		}
+		ParseTrees.addStmtUses(p, used);
+		p.goUp();
+
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			findAssigns(p, index + 1, used, hoisted);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Detaches the statements with the given indices from a statement
+	 * sequence. If every statement is detached, the first node of the
+	 * sequence is left in place without a statement.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @param index
+	 *            the index of the first statement of the sequence
+	 * @param hoisted
+	 *            the indices of the statements to detach
+	 * @param stmts
+	 *            the handles of the detached statements, in order
+	 * @return true if the whole sequence was detached
+	 */
+	private static boolean detachStmts(ParseTree p, int index, BitSet hoisted,
+			List<Integer> stmts) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		boolean detached = hoisted.get(index);
+		if (detached) {
+			stmts.add(p.detachBranch(1));
+		}
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			boolean empty = detachStmts(p, index + 1, hoisted, stmts);
+			p.goUp();
+			if (empty) {
+				p.deleteBranch(2);
+				p.setAlt(1);
+			}
+		}
+		if (!detached) {
+			return false;
+		}
+		if (p.currAlt() == 1) {
+			return true;
+		}
+		int rest = p.detachBranch(2);
+		p.graft(rest);
+		return false;
+	}
+
+	/**
+	 * Replaces the while statement that is the first statement of the current
+	 * sequence by an if statement with the loop condition, whose then branch
+	 * is the given statements followed by the loop.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @param cond
+	 *            the handle of a copy of the loop condition
+	 * @param stmts
+	 *            the handles of the statements
+	 */
+	private static void guard(ParseTree p, int cond, List<Integer> stmts) {
+		stmts.add(p.detachBranch(1)); // the loop goes last
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(6); // stmt
+		p.setAlt(2);
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(8); // if
+		p.setAlt(1);
+		p.attachBranch(1, cond);
+		p.createBranch(2);
+		p.goDown(2);
+		for (int i = 0; i < stmts.size(); i++) {
+			p.setNT(3); // stmt seq
+			p.attachBranch(1, stmts.get(i));
+			if (i < stmts.size() - 1) {
+				p.setAlt(2);
+				p.createBranch(2);
+				p.goDown(2);
+			} else {
+				p.setAlt(1);
+			}
+		}
+		for (int i = 0; i < stmts.size(); i++) {
+			p.goUp();
+		}
+		p.goUp();
+		p.goUp();
+	}
+
+	/**
+	 * Returns whether an expression is a single integer or identifier,
+	 * possibly in parentheses.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an exp node
+	 * @return true if there is nothing to compute
+	 */
+	private static boolean expTrivial(ParseTree p) {
+		if (p.currAlt() != 1) {
+			return false;
+		}
+		p.goDown(1); // fac
+		boolean trivial = facTrivial(p);
+		p.goUp();
+		return trivial;
+	}
+
+	/**
+	 * Returns whether a factor is a single integer or identifier, possibly in
+	 * parentheses.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a fac node
+	 * @return true if there is nothing to compute
+	 */
+	private static boolean facTrivial(ParseTree p) {
+		if (p.currAlt() == 2) {
+			return false;
+		}
+		p.goDown(1); // op
+		boolean trivial = true;
+		if (p.currAlt() == 3) {
+			p.goDown(1); // exp
+			trivial = expTrivial(p);
+			p.goUp();
+		}
+		p.goUp();
+		return trivial;
+	}
+
+	// public method
+	@Override
+	public void optimize(ParseTree p) {
+		assert p.currNT() == 1 : "Expecting <prog>";
+		this.defined = new BitSet(p.idCount());
+
+		p.goDown(2); // stmt seq
+		processStmtSeq(p);
+		p.goUp();
+	}
+}
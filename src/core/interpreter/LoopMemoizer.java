@@ -0,0 +1,267 @@
+package core.interpreter;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memoizes the effect of the pure loops numbered by the pure-loop analysis.
+ * Since a pure loop reads and writes nothing, the values it leaves in the
+ * identifiers it assigns only depend on the values of the identifiers it uses
+ * or assigns on entry, and on which of them are initialized. These are the key
+ * of an entry, and the values and initialization of the identifiers it assigns
+ * on exit are the result. Entries are kept in least-recently-used order, and
+ * the least recently used one is evicted when there are more than the
+ * capacity.
+ *
+ * @author Simeon Georgiev
+ */
+final class LoopMemoizer {
+	// fields
+	/**
+	 * The key of an entry: the number of a loop, and the state of the
+	 * identifiers it uses or assigns on entry.
+	 */
+	private static final class Key {
+		/**
+		 * The number of the loop.
+		 */
+		private final int loop;
+
+		/**
+		 * The value of each identifier, 0 if it is not initialized, followed
+		 * by 1 if it is initialized and 0 otherwise.
+		 */
+		private final int[] state;
+
+		/**
+		 * Creates a key.
+		 *
+		 * @param loop
+		 *            the number of the loop
+		 * @param state
+		 *            the state of its identifiers on entry
+		 */
+		private Key(int loop, int[] state) {
+			this.loop = loop;
+			this.state = state;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * this.loop + Arrays.hashCode(this.state);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return this.loop == k.loop && Arrays.equals(this.state, k.state);
+		}
+	}
+
+	/**
+	 * The entries, in least-recently-used order: the state of the identifiers
+	 * assigned by the loop on exit, for each key.
+	 */
+	private final Map<Key, int[]> cache = new LinkedHashMap<Key, int[]>(16,
+			0.75f, true);
+
+	/**
+	 * The maximum number of entries.
+	 */
+	private final int capacity;
+
+	/**
+	 * The slots of the identifiers each loop uses or assigns, indexed by the
+	 * number of the loop, null until it is first entered.
+	 */
+	private int[][] ins = new int[16][];
+
+	/**
+	 * The slots of the identifiers each loop assigns, indexed by the number of
+	 * the loop.
+	 */
+	private int[][] outs = new int[16][];
+
+	/**
+	 * The key of each loop being run after a miss, indexed by the number of
+	 * the loop. A loop cannot be entered again before it exits.
+	 */
+	private Key[] pending = new Key[16];
+
+	/**
+	 * The number of loops whose effect was restored from the cache.
+	 */
+	private int hits;
+
+	/**
+	 * The number of loops that had to be run.
+	 */
+	private int misses;
+
+	/**
+	 * The number of entries evicted.
+	 */
+	private int evictions;
+
+	// private methods
+	/**
+	 * Finds the identifiers a loop uses or assigns.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a loop node
+	 * @param loop
+	 *            the number of the loop
+	 */
+	private void findSlots(ParseTree p, int loop) {
+		assert p.currNT() == 9 : "Expecting <loop>";
+		if (loop >= this.ins.length) {
+			int size = Math.max(2 * this.ins.length, loop + 1);
+			this.ins = Arrays.copyOf(this.ins, size);
+			this.outs = Arrays.copyOf(this.outs, size);
+			this.pending = Arrays.copyOf(this.pending, size);
+		}
+		BitSet assigned = new BitSet();
+		BitSet used = new BitSet();
+		p.goDown(1); // cond
+		ParseTrees.addCondUses(p, used);
+		p.goUp();
+		p.goDown(2); // stmt seq
+		ParseTrees.addAssigned(p, assigned);
+		ParseTrees.addUses(p, used);
+		p.goUp();
+		used.or(assigned);
+		this.ins[loop] = used.stream().toArray();
+		this.outs[loop] = assigned.stream().toArray();
+	}
+
+	/**
+	 * Returns the state of some identifiers: the value of each, 0 if it is not
+	 * initialized, followed by 1 if it is initialized and 0 otherwise.
+	 *
+	 * @param slots
+	 *            the slots of the identifiers
+	 * @param frame
+	 *            the values of the identifiers, indexed by slot
+	 * @param initialized
+	 *            the slots of the identifiers that are initialized
+	 * @return the state
+	 */
+	private static int[] state(int[] slots, int[] frame, BitSet initialized) {
+		int[] state = new int[2 * slots.length];
+		for (int i = 0; i < slots.length; i++) {
+			if (initialized.get(slots[i])) {
+				state[2 * i] = frame[slots[i]];
+				state[2 * i + 1] = 1;
+			}
+		}
+		return state;
+	}
+
+	// package methods
+	/**
+	 * Creates a memoizer.
+	 *
+	 * @param capacity
+	 *            the maximum number of entries
+	 */
+	LoopMemoizer(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Restores the effect of a pure loop from the cache, if it was run before
+	 * from the same state. Otherwise the state is kept, so that the effect of
+	 * the loop can be stored once it has been run.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a loop node with a number
+	 * @param frame
+	 *            the values of the identifiers, indexed by slot
+	 * @param initialized
+	 *            the slots of the identifiers that are initialized
+	 * @return true if the effect of the loop was restored, false if the loop
+	 *         must be run and then stored
+	 */
+	boolean restore(ParseTree p, int[] frame, BitSet initialized) {
+		int loop = p.currPureLoop();
+		assert loop > 0 : "Expecting a pure loop";
+		if (loop >= this.ins.length || this.ins[loop] == null) {
+			findSlots(p, loop);
+		}
+		Key key = new Key(loop, state(this.ins[loop], frame, initialized));
+		int[] result = this.cache.get(key);
+		if (result == null) {
+			this.misses++;
+			this.pending[loop] = key;
+			return false;
+		}
+		this.hits++;
+		int[] out = this.outs[loop];
+		for (int i = 0; i < out.length; i++) {
+			if (result[2 * i + 1] != 0) {
+				frame[out[i]] = result[2 * i];
+				initialized.set(out[i]);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stores the effect of a pure loop that has just been run after a miss.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a loop node with a number
+	 * @param frame
+	 *            the values of the identifiers, indexed by slot
+	 * @param initialized
+	 *            the slots of the identifiers that are initialized
+	 */
+	void store(ParseTree p, int[] frame, BitSet initialized) {
+		int loop = p.currPureLoop();
+		assert loop > 0 : "Expecting a pure loop";
+		if (loop >= this.pending.length || this.pending[loop] == null) {
+			return; // not looked up
+		}
+		this.cache.put(this.pending[loop],
+				state(this.outs[loop], frame, initialized));
+		this.pending[loop] = null;
+		if (this.cache.size() > this.capacity) {
+			Iterator<Key> eldest = this.cache.keySet().iterator();
+			eldest.next();
+			eldest.remove();
+			this.evictions++;
+		}
+	}
+
+	/**
+	 * Returns the number of loops whose effect was restored from the cache.
+	 *
+	 * @return the number of hits
+	 */
+	int hits() {
+		return this.hits;
+	}
+
+	/**
+	 * Returns the number of pure loops that had to be run.
+	 *
+	 * @return the number of misses
+	 */
+	int misses() {
+		return this.misses;
+	}
+
+	/**
+	 * Returns the number of entries evicted to stay within the capacity.
+	 *
+	 * @return the number of evictions
+	 */
+	int evictions() {
+		return this.evictions;
+	}
+}
@@ -0,0 +1,438 @@
+package core.interpreter;
+import java.util.BitSet;
+
+/**
+ * Loop unrolling for the Core language. Only innermost while statements are
+ * unrolled, and only those whose condition compares an identifier I with a
+ * bound that does not change in the loop, and whose body steps I by an
+ * integer k in one assign statement at its top level (I = I + k, I = I - k or
+ * I = k + I) and assigns I nowhere else.
+ *
+ * If I is assigned an integer right before the loop and the bound is an
+ * integer, the number of iterations n is known, and the loop is replaced by n
+ * copies of its body. Otherwise the loop is preceded by a loop whose body is
+ * made of several copies of the body, and whose condition compares I with a
+ * bound moved by the distance I covers in the extra copies, so that it only
+ * holds when the original condition would hold before each copy. The
+ * original loop then runs the remaining iterations. If the bound is not an
+ * integer, the unrolled loop is only run if moving the bound does not wrap
+ * around.
+ *
+ * @author Simeon Georgiev
+ */
+public class LoopUnroller implements Optimizer {
+	// fields
+	/**
+	 * The default number of statements an unrolled body may have.
+	 */
+	private static final int BUDGET = 32;
+
+	/**
+	 * The largest number of copies of the body in a partially unrolled loop.
+	 */
+	private static final int FACTOR = 4;
+
+	/**
+	 * The number of statements, including nested ones, the body of an
+	 * unrolled loop may have.
+	 */
+	private final int budget;
+
+	/**
+	 * The slot of the identifier assigned an integer by the last statement
+	 * processed, or -1 if it is not such an assign statement.
+	 */
+	private int lastSlot;
+
+	/**
+	 * The integer assigned by the last statement processed.
+	 */
+	private int lastValue;
+
+	// private methods
+	/**
+	 * Unrolls the innermost while statements in a statement sequence.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void processStmtSeq(ParseTree p) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		p.goDown(1); // stmt
+		int alt = p.currAlt();
+		p.goDown(1);
+		int slot = -1;
+		if (alt == 1) { // assign
+			p.goDown(2); // exp
+			Integer val = ParseTrees.expValue(p, new Integer[p.idCount()]);
+			p.goUp();
+			if (val != null) {
+				p.goDown(1); // id
+				slot = p.currIdSlot();
+				p.goUp();
+				this.lastValue = val;
+			}
+		} else if (alt == 2) { // if
+			this.lastSlot = -1;
+			p.goDown(2); // then stmt seq
+			processStmtSeq(p);
+			p.goUp();
+			if (p.currAlt() == 2) {
+				this.lastSlot = -1;
+				p.goDown(3); // else stmt seq
+				processStmtSeq(p);
+				p.goUp();
+			}
+		}
+		boolean innermost = false;
+		if (alt == 3) { // loop
+			p.goDown(2); // stmt seq
+			innermost = !ParseTrees.hasLoop(p);
+			if (!innermost) {
+				int last = this.lastSlot;
+				this.lastSlot = -1; // body is entered again
+				processStmtSeq(p);
+				this.lastSlot = last;
+			}
+			p.goUp();
+		}
+		p.goUp();
+		p.goUp();
+
+		int depth = innermost ? unroll(p) : 0;
+		this.lastSlot = slot;
+		for (int i = 0; i < depth; i++) {
+			p.goDown(2); // past the new statements
+		}
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			processStmtSeq(p);
+			p.goUp();
+		}
+		for (int i = 0; i < depth; i++) {
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Unrolls the while statement that is the first statement of the current
+	 * sequence, if it has the right shape and fits in the budget.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @return the number of stmt seq nodes between the current node and the
+	 *         one whose first statement is the last statement that replaced
+	 *         the loop
+	 */
+	private int unroll(ParseTree p) {
+		p.goDown(1); // stmt
+		p.goDown(1); // loop
+		BitSet assigned = new BitSet();
+		p.goDown(2); // stmt seq
+		ParseTrees.addAssigned(p, assigned);
+		int size = ParseTrees.countStmts(p);
+		p.goUp();
+
+		p.goDown(1); // cond
+		int side = 0; // side of I
+		int slot = -1;
+		int c = 0;
+		BitSet bound = new BitSet();
+		Integer value = null;
+		boolean safe = false;
+		if (p.currAlt() == 1) {
+			p.goDown(1); // comp
+			p.goDown(2); // comp op
+			c = p.currAlt();
+			p.goUp();
+			for (int no = 1; no <= 3 && side == 0; no += 2) {
+				p.goDown(no); // op
+				if (p.currAlt() == 2) {
+					p.goDown(1); // id
+					if (assigned.get(p.currIdSlot())) {
+						side = no;
+						slot = p.currIdSlot();
+					}
+					p.goUp();
+				}
+				p.goUp();
+			}
+			if (side != 0) {
+				p.goDown(4 - side); // op
+				ParseTrees.addOpUses(p, bound);
+				value = ParseTrees.opValue(p, new Integer[p.idCount()]);
+				safe = ParseTrees.opSafe(p);
+				p.goUp();
+			}
+			p.goUp();
+		}
+		p.goUp();
+		p.goUp();
+		p.goUp();
+		if (side == 0 || bound.intersects(assigned) || !safe) {
+			return 0;
+		}
+		if (side == 3 && c > 2) {
+			c = c % 2 == 1 ? c + 1 : c - 1; // mirror < and >, <= and >=
+		}
+
+		p.goDown(1); // stmt
+		p.goDown(1); // loop
+		p.goDown(2); // stmt seq
+		long step = findStep(p, slot);
+		int length = seqLength(p);
+		p.goUp();
+		p.goUp();
+		p.goUp();
+		if (step == 0) {
+			return 0;
+		}
+
+		if (this.lastSlot == slot && value != null) { // trip count is known
+			long n = ClosedForms.tripCount(this.lastValue, (int) step, c,
+					value);
+			if (n > 0 && n * size <= this.budget) {
+				p.goDown(1); // stmt
+				p.goDown(1); // loop
+				appendCopies(p, (int) n - 1);
+				int body = p.detachBranch(2);
+				p.goUp();
+				p.goUp();
+				ParseTrees.splice(p, body);
+				return (int) n * length - 1;
+			}
+		}
+
+		int factor = Math.min(FACTOR, this.budget / size);
+		boolean up = c == 3 || c == 5; // < or <=
+		if (factor < 2 || !up && c != 4 && c != 6 || up != step > 0) {
+			return 0;
+		}
+		long distance = (factor - 1) * Math.abs(step);
+		long moved = 0;
+		if (value != null) {
+			moved = up ? value - distance : value + distance;
+			if (moved <= Integer.MIN_VALUE || moved > Integer.MAX_VALUE) {
+				return 0;
+			}
+		} else if (distance >= Integer.MAX_VALUE) {
+			return 0;
+		}
+
+		int guard = 0;
+		if (value == null) { // the moved bound must not wrap around
+			p.goDown(1); // stmt
+			p.goDown(1); // loop
+			guard = p.copyBranch(1);
+			p.goUp();
+			p.goUp();
+		}
+		ParseTrees.insertStmt(p, p.copyBranch(1)); // copy goes first
+		p.goDown(1); // stmt
+		p.goDown(1); // loop
+		appendCopies(p, factor - 1);
+		p.goDown(1); // cond
+		p.goDown(1); // comp
+		p.goDown(4 - side); // op
+		if (value != null) {
+			ParseTrees.setConstOp(p, (int) moved);
+		} else {
+			offsetOp(p, up ? -distance : distance);
+		}
+		p.goUp();
+		p.goUp();
+		p.goUp();
+		p.goUp();
+		p.goUp();
+
+		if (guard != 0) {
+			ParseTrees.wrapIf(p, guard, 0);
+			p.goDown(1); // stmt
+			p.goDown(1); // if
+			p.goDown(1); // cond
+			p.goDown(1); // comp
+			p.goDown(2); // comp op
+			p.setAlt(side == 1 == up ? 5 : 6); // <= or >=
+			p.goUp();
+			p.goDown(side); // op
+			ParseTrees.setConstOp(p, (int) (up ? Integer.MIN_VALUE
+					+ distance : Integer.MAX_VALUE - distance));
+			p.goUp();
+			p.goUp();
+			p.goUp();
+			p.goUp();
+			p.goUp();
+		}
+		return 1;
+	}
+
+	/**
+	 * Returns the integer k by which the top level of a loop body steps an
+	 * identifier, if the body assigns the identifier only there.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @param slot
+	 *            the slot of the identifier
+	 * @return k, or 0 if the body does not have this shape
+	 */
+	private static long findStep(ParseTree p, int slot) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		long step = 0;
+		int count = 0; // statements assigning the identifier
+		int depth = 0;
+		while (true) {
+			BitSet stmtAssigned = new BitSet();
+			p.goDown(1); // stmt
+			ParseTrees.addStmtAssigned(p, stmtAssigned);
+			if (stmtAssigned.get(slot)) {
+				count++;
+				step = p.currAlt() == 1 ? stepValue(p) : 0;
+			}
+			p.goUp();
+			if (p.currAlt() == 1) {
+				break;
+			}
+			p.goDown(2); // stmt seq
+			depth++;
+		}
+		for (int i = 0; i < depth; i++) {
+			p.goUp();
+		}
+		return count == 1 ? step : 0;
+	}
+
+	/**
+	 * Returns the integer an assign statement adds to the identifier it
+	 * assigns.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt node
+	 * @return k for I = I + k and I = k + I, -k for I = I - k, or 0 if k is
+	 *         not an integer
+	 */
+	private static long stepValue(ParseTree p) {
+		p.goDown(1); // assign
+		int form = ParseTrees.stepForm(p);
+		Integer val = null;
+		if (form != ParseTrees.NO_STEP) {
+			p.goDown(2); // exp
+			p.goDown(form == ParseTrees.ADD_TO ? 1 : 2); // e
+			Integer[] none = new Integer[p.idCount()];
+			val = p.currNT() == 14 ? ParseTrees.expValue(p, none)
+					: ParseTrees.facValue(p, none);
+			p.goUp();
+			p.goUp();
+		}
+		p.goUp();
+		if (val == null) {
+			return 0;
+		}
+		return form == ParseTrees.SUBTRACT ? -(long) val : val;
+	}
+
+	/**
+	 * Returns the number of statements at the top level of a statement
+	 * sequence.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @return the number of statements
+	 */
+	private static int seqLength(ParseTree p) {
+		int length = 1;
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			length += seqLength(p);
+			p.goUp();
+		}
+		return length;
+	}
+
+	/**
+	 * Appends copies of the body of a while statement to the body.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a loop node
+	 * @param count
+	 *            the number of copies
+	 */
+	private static void appendCopies(ParseTree p, int count) {
+		assert p.currNT() == 9 : "Expecting <loop>";
+		int[] copies = new int[count];
+		for (int i = 0; i < count; i++) { // before the body grows
+			copies[i] = p.copyBranch(2);
+		}
+		p.goDown(2); // stmt seq
+		for (int i = 0; i < count; i++) {
+			ParseTrees.appendSeq(p, copies[i]);
+		}
+		p.goUp();
+	}
+
+	/**
+	 * Replaces an operand B by (B - d), or (B + d) for a negative d.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an op node
+	 * @param delta
+	 *            the integer -d added to the operand
+	 */
+	private static void offsetOp(ParseTree p, long delta) {
+		assert p.currNT() == 16 : "Expecting <op>";
+		int alt = p.currAlt();
+		int child = p.detachBranch(1);
+		p.setAlt(3); // (exp)
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(14); // exp
+		p.setAlt(delta < 0 ? 3 : 2); // - or +
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(15); // fac
+		p.setAlt(1);
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(16); // op
+		p.setAlt(alt);
+		p.attachBranch(1, child);
+		p.goUp();
+		p.goUp();
+		p.createBranch(2);
+		p.goDown(2);
+		p.setNT(14); // exp
+		ParseTrees.setConstExp(p, (int) Math.abs(delta));
+		p.goUp();
+		p.goUp();
+	}
+
+	// public methods
+	/**
+	 * Creates an unroller with the default budget.
+	 */
+	public LoopUnroller() {
+		this(BUDGET);
+	}
+
+	/**
+	 * Creates an unroller with the given budget.
+	 *
+	 * @param budget
+	 *            the number of statements, including nested ones, the body of
+	 *            an unrolled loop may have
+	 */
+	public LoopUnroller(int budget) {
+		this.budget = budget;
+	}
+
+	@Override
+	public void optimize(ParseTree p) {
+		assert p.currNT() == 1 : "Expecting <prog>";
+		new DefiniteAssignmentAnalyzer(false).analyze(p);
+		this.lastSlot = -1;
+
+		p.goDown(2); // stmt seq
+		processStmtSeq(p);
+		p.goUp();
+	}
+}
@@ -0,0 +1,291 @@
+package core.interpreter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Loop unswitching for the Core language. An if statement in the body of a
+ * while statement whose condition D uses no identifier assigned or read in the
+ * loop takes the same branch in every iteration. The loop is replaced by
+ * "if D then L1 else L2 end;", where L1 is a copy of the loop with the if
+ * statement replaced by its then branch, and L2 a copy with the if statement
+ * replaced by its else branch, or removed. The copies are unswitched again
+ * while the budget lasts. Inner loops are processed before the loops around
+ * them, and if statements inside inner loops are left to the inner loops.
+ *
+ * D is evaluated once before the loop, even if the loop is never entered, so
+ * only conditions whose identifiers are always initialized are moved.
+ *
+ * @author Simeon Georgiev
+ */
+public class LoopUnswitcher implements Optimizer {
+	// fields
+	/**
+	 * The default number of statements the pass may add to the program.
+	 */
+	private static final int BUDGET = 64;
+
+	/**
+	 * The number of statements the pass may still add to the program.
+	 */
+	private int budget;
+
+	/**
+	 * The slots of the identifiers that are assigned or read in the loop being
+	 * processed.
+	 */
+	private BitSet assigned;
+
+	// private methods
+	/**
+	 * Unswitches the while statements in a statement sequence.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void processStmtSeq(ParseTree p) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		p.goDown(1); // stmt
+		int alt = p.currAlt();
+		p.goDown(1);
+		if (alt == 2) { // if
+			p.goDown(2); // then stmt seq
+			processStmtSeq(p);
+			p.goUp();
+			if (p.currAlt() == 2) {
+				p.goDown(3); // else stmt seq
+				processStmtSeq(p);
+				p.goUp();
+			}
+		} else if (alt == 3) { // loop
+			p.goDown(2); // stmt seq
+			processStmtSeq(p); // inner loops first
+			p.goUp();
+		}
+		p.goUp();
+		p.goUp();
+
+		if (alt == 3) {
+			unswitch(p);
+		}
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			processStmtSeq(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Unswitches the while statement that is the first statement of the
+	 * current sequence, then the copies that replace it.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 */
+	private void unswitch(ParseTree p) {
+		p.goDown(1); // stmt
+		p.goDown(1); // loop
+		this.assigned = new BitSet();
+		p.goDown(2); // stmt seq
+		ParseTrees.addAssigned(p, this.assigned);
+		int size = ParseTrees.countStmts(p) + 1; // with the loop
+		List<Integer> path = new ArrayList<Integer>();
+		boolean found = size <= this.budget && findIf(p, path, false);
+		p.goUp();
+		p.goUp();
+		p.goUp();
+		if (!found) {
+			return;
+		}
+		this.budget -= size;
+
+		int copy = p.copyBranch(1);
+		p.goDown(1); // stmt
+		p.goDown(1); // loop
+		p.goDown(2); // stmt seq
+		for (int no : path) {
+			p.goDown(no);
+		}
+		p.goDown(1); // stmt
+		p.goDown(1); // if
+		int cond = p.copyBranch(1);
+		p.goUp();
+		p.goUp();
+		for (int i = 0; i < path.size(); i++) {
+			p.goUp();
+		}
+		p.goUp();
+		p.goUp();
+		p.goUp();
+
+		ParseTrees.wrapIf(p, cond, copy);
+		p.goDown(1); // stmt
+		p.goDown(1); // if
+		for (int no = 2; no <= 3; no++) {
+			p.goDown(no); // stmt seq of L1 or L2
+			p.goDown(1); // stmt
+			p.goDown(1); // loop
+			p.goDown(2); // stmt seq
+			specialize(p, path, no);
+			p.goUp();
+			p.goUp();
+			p.goUp();
+			unswitch(p);
+			p.goUp();
+		}
+		p.goUp();
+		p.goUp();
+	}
+
+	/**
+	 * Finds the first if statement in a statement sequence whose condition
+	 * can be moved in front of the loop, without entering while statements.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @param path
+	 *            receives the branches to follow from the sequence to the
+	 *            stmt seq node whose first statement is the if statement
+	 * @param inSeq
+	 *            whether the sequence follows another statement
+	 * @return true if an if statement was found
+	 */
+	private boolean findIf(ParseTree p, List<Integer> path, boolean inSeq) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		boolean found = false;
+		boolean last = p.currAlt() == 1;
+		p.goDown(1); // stmt
+		if (p.currAlt() == 2) {
+			p.goDown(1); // if
+			BitSet uses = new BitSet();
+			p.goDown(1); // cond
+			ParseTrees.addCondUses(p, uses);
+			boolean safe = ParseTrees.condSafe(p);
+			p.goUp();
+			boolean alone = !inSeq && last && p.currAlt() == 1; // no else
+			found = safe && !uses.intersects(this.assigned) && !alone;
+			for (int no = 2; no <= p.currAlt() + 1 && !found; no++) {
+				path.add(1);
+				path.add(1);
+				path.add(no);
+				p.goDown(no); // stmt seq
+				found = findIf(p, path, false);
+				p.goUp();
+				if (!found) {
+					for (int i = 0; i < 3; i++) {
+						path.remove(path.size() - 1);
+					}
+				}
+			}
+			p.goUp();
+		}
+		p.goUp();
+
+		if (!found && p.currAlt() == 2) {
+			path.add(2);
+			p.goDown(2); // stmt seq
+			found = findIf(p, path, true);
+			p.goUp();
+			if (!found) {
+				path.remove(path.size() - 1);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Replaces the if statement at the end of a path by one of its branches.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @param path
+	 *            the branches to follow to the stmt seq node whose first
+	 *            statement is the if statement
+	 * @param branch
+	 *            2 to keep the then branch, 3 to keep the else branch, which
+	 *            may be missing
+	 */
+	private static void specialize(ParseTree p, List<Integer> path,
+			int branch) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		int depth = path.size();
+		for (int no : path) {
+			p.goDown(no);
+		}
+		if (depth > 0 && path.get(depth - 1) == 2 && removed(p, branch)) {
+			p.goUp();
+			depth--;
+			p.deleteBranch(2); // if statement was last
+			p.setAlt(1);
+		} else {
+			p.goDown(1); // stmt
+			p.goDown(1); // if
+			boolean keep = branch == 2 || p.currAlt() == 2;
+			int seq = keep ? p.detachBranch(branch) : 0;
+			p.goUp();
+			p.goUp();
+			if (keep) {
+				ParseTrees.splice(p, seq);
+			} else { // the next statement takes its place
+				int rest = p.detachBranch(2);
+				p.deleteBranch(1);
+				p.graft(rest);
+			}
+		}
+		for (int i = 0; i < depth; i++) {
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Returns whether the if statement that is the only statement of the
+	 * current sequence is removed rather than replaced by a branch.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @param branch
+	 *            the branch that replaces the if statement
+	 * @return true if the branch is a missing else branch and the sequence
+	 *         has no other statement
+	 */
+	private static boolean removed(ParseTree p, int branch) {
+		if (branch == 2 || p.currAlt() == 2) {
+			return false;
+		}
+		p.goDown(1); // stmt
+		p.goDown(1); // if
+		boolean missing = p.currAlt() == 1;
+		p.goUp();
+		p.goUp();
+		return missing;
+	}
+
+	// public methods
+	/**
+	 * Creates an unswitcher with the default budget.
+	 */
+	public LoopUnswitcher() {
+		this(BUDGET);
+	}
+
+	/**
+	 * Creates an unswitcher with the given budget.
+	 *
+	 * @param budget
+	 *            the number of statements the pass may add to the program; a
+	 *            loop is copied only if it fits in what is left
+	 */
+	public LoopUnswitcher(int budget) {
+		this.budget = budget;
+	}
+
+	@Override
+	public void optimize(ParseTree p) {
+		assert p.currNT() == 1 : "Expecting <prog>";
+		new DefiniteAssignmentAnalyzer(false).analyze(p);
+
+		p.goDown(2); // stmt seq
+		processStmtSeq(p);
+		p.goUp();
+	}
+}
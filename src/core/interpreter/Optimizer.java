@@ -0,0 +1,20 @@
+package core.interpreter;
+/**
+ * Optimizer that transforms a program given in the parse tree into an
+ * equivalent program that executes faster. The transformed program is still
+ * represented by the parse tree, so that it can be printed and executed.
+ * 
+ * @author Simeon Georgiev
+ */
+public interface Optimizer {
+
+	/**
+	 * Optimizes the program given in the parse tree.
+	 * 
+	 * @param p
+	 *            the parse tree representing the program to be optimized
+	 * @ensures The program represented by the parse tree produces the same
+	 *          output and errors as before, for every input.
+	 */
+	void optimize(ParseTree p);
+}
@@ -0,0 +1,135 @@
+package core.interpreter;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Buffers the lines written by write statements. The text "X = " of each
+ * identifier is encoded once, and each line is copied into a byte array
+ * along with the digits of the value, so writing a value allocates nothing and
+ * takes no lock. The array is written out when it is full and when output is
+ * flushed, in a single call.
+ *
+ * The bytes are those System.out.println would write: the name, " = ", the
+ * value in decimal and the line separator. As with System.out, an error
+ * writing the output is ignored, and what is written after it is dropped.
+ *
+ * @author Simeon Georgiev
+ */
+public final class OutputBuffer {
+	// fields
+	/**
+	 * The number of bytes buffered before they are written out.
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * The most bytes of a value: a sign and 10 digits.
+	 */
+	private static final int MAX_DIGITS = 11;
+
+	/**
+	 * The stream the output is written to.
+	 */
+	private final OutputStream out;
+
+	/**
+	 * The text in front of the value of each identifier, indexed by slot.
+	 */
+	private final byte[][] prefixes;
+
+	/**
+	 * The line separator.
+	 */
+	private final byte[] newline = System.lineSeparator().getBytes();
+
+	/**
+	 * The bytes not written out yet.
+	 */
+	private final byte[] buffer;
+
+	/**
+	 * The number of bytes in the buffer.
+	 */
+	private int pos;
+
+	/**
+	 * Whether writing the output failed.
+	 */
+	private boolean failed;
+
+	// public methods
+	/**
+	 * Creates a buffer for the output of a program.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @param out
+	 *            the stream the output is written to
+	 */
+	public OutputBuffer(ParseTree p, OutputStream out) {
+		this.out = out;
+		this.prefixes = new byte[p.idCount()][];
+		int longest = 0;
+		for (int slot = 0; slot < this.prefixes.length; slot++) {
+			this.prefixes[slot] = (p.idName(slot) + " = ").getBytes();
+			longest = Math.max(longest, this.prefixes[slot].length);
+		}
+		this.buffer = new byte[Math.max(BUFFER_SIZE, longest + MAX_DIGITS
+				+ this.newline.length)];
+	}
+
+	/**
+	 * Writes the line "X = v" for an identifier X and a value v.
+	 *
+	 * @param slot
+	 *            the slot of the identifier
+	 * @param val
+	 *            the value
+	 */
+	public void write(int slot, int val) {
+		byte[] prefix = this.prefixes[slot];
+		if (this.buffer.length - this.pos < prefix.length + MAX_DIGITS
+				+ this.newline.length) {
+			flush();
+		}
+		byte[] b = this.buffer;
+		int i = this.pos;
+		System.arraycopy(prefix, 0, b, i, prefix.length);
+		i += prefix.length;
+
+		long v = val; // the smallest int has no positive int
+		if (v < 0) {
+			b[i++] = '-';
+			v = -v;
+		}
+		int digits = 1;
+		for (long rest = v; rest >= 10; rest /= 10) {
+			digits++;
+		}
+		for (int j = i + digits - 1; j >= i; j--) { // last digit first
+			b[j] = (byte) ('0' + v % 10);
+			v /= 10;
+		}
+		i += digits;
+
+		for (int j = 0; j < this.newline.length; j++) {
+			b[i++] = this.newline[j];
+		}
+		this.pos = i;
+	}
+
+	/**
+	 * Writes out the bytes buffered.
+	 */
+	public void flush() {
+		if (!this.failed && this.pos > 0) {
+			try {
+				this.out.write(this.buffer, 0, this.pos);
+				this.out.flush();
+			} catch (IOException e) {
+				this.failed = true;
+			}
+		}
+		this.pos = 0;
+	}
+}
@@ -0,0 +1,211 @@
+package core.interpreter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Records what is written to stdout and stderr, in the order it is written,
+ * so that it can be sent elsewhere or written again later. The bytes are kept
+ * as frames: the stream (1 for stdout, 2 for stderr), the number of bytes as a
+ * 32-bit integer, and the bytes. Writing the frames to a stream, followed by a
+ * 0, is how the daemon and its workers pass on the output of a run. The
+ * print streams of a recorder write every byte through at once, so nothing is
+ * held back from the frames.
+ *
+ * @author Simeon Georgiev
+ */
+final class OutputRecorder {
+	// fields
+	/**
+	 * The stream of a frame written to stdout.
+	 */
+	static final int OUT = 1;
+
+	/**
+	 * The stream of a frame written to stderr.
+	 */
+	static final int ERR = 2;
+
+	/**
+	 * A stream that records what is written to it as frames of one stream.
+	 *
+	 * @author Simeon Georgiev
+	 */
+	private final class Recording extends OutputStream {
+		/**
+		 * The stream of the frames.
+		 */
+		private final int stream;
+
+		/**
+		 * The stream the bytes are also written to, or null.
+		 */
+		private final OutputStream through;
+
+		/**
+		 * Creates a recording stream.
+		 *
+		 * @param stream
+		 *            the stream of the frames
+		 * @param through
+		 *            the stream the bytes are also written to, or null
+		 */
+		private Recording(int stream, OutputStream through) {
+			this.stream = stream;
+			this.through = through;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return;
+			}
+			synchronized (OutputRecorder.this) {
+				OutputRecorder.this.frames.writeByte(this.stream);
+				OutputRecorder.this.frames.writeInt(len);
+				OutputRecorder.this.frames.write(b, off, len);
+			}
+			if (this.through != null) {
+				this.through.write(b, off, len);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (this.through != null) {
+				this.through.flush();
+			}
+		}
+	}
+
+	/**
+	 * The frames recorded.
+	 */
+	private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+	/**
+	 * Writes the frames.
+	 */
+	private final DataOutputStream frames = new DataOutputStream(this.bytes);
+
+	/**
+	 * The stdout of this recorder.
+	 */
+	private final PrintStream out;
+
+	/**
+	 * The stderr of this recorder.
+	 */
+	private final PrintStream err;
+
+	/**
+	 * The stdout and stderr before they were replaced, or null.
+	 */
+	private PrintStream[] replaced;
+
+	// package methods
+	/**
+	 * Creates a recorder.
+	 *
+	 * @param out
+	 *            the stream what is written to its stdout is also written to,
+	 *            or null to only record it
+	 * @param err
+	 *            the stream what is written to its stderr is also written to,
+	 *            or null to only record it
+	 */
+	OutputRecorder(OutputStream out, OutputStream err) {
+		this.out = new PrintStream(new Recording(OUT, out), true);
+		this.err = new PrintStream(new Recording(ERR, err), true);
+	}
+
+	/**
+	 * Makes System.out and System.err write to this recorder, until it is
+	 * uninstalled.
+	 */
+	void install() {
+		this.replaced = new PrintStream[] { System.out, System.err };
+		System.setOut(this.out);
+		System.setErr(this.err);
+	}
+
+	/**
+	 * Gives System.out and System.err back the streams they had before this
+	 * recorder was installed.
+	 */
+	void uninstall() {
+		this.out.flush();
+		this.err.flush();
+		System.setOut(this.replaced[0]);
+		System.setErr(this.replaced[1]);
+		this.replaced = null;
+	}
+
+	/**
+	 * Returns the frames recorded so far.
+	 *
+	 * @return the frames
+	 */
+	synchronized byte[] toByteArray() {
+		return this.bytes.toByteArray();
+	}
+
+	/**
+	 * Forgets the frames recorded so far.
+	 */
+	synchronized void reset() {
+		this.bytes.reset();
+	}
+
+	/**
+	 * Writes frames to System.out and System.err again, in their order.
+	 *
+	 * @param frames
+	 *            the frames
+	 */
+	static void replay(byte[] frames) {
+		int pos = 0;
+		while (pos < frames.length) {
+			int stream = frames[pos];
+			int len = ((frames[pos + 1] & 0xff) << 24)
+					| ((frames[pos + 2] & 0xff) << 16)
+					| ((frames[pos + 3] & 0xff) << 8)
+					| (frames[pos + 4] & 0xff);
+			PrintStream target = stream == OUT ? System.out : System.err;
+			target.write(frames, pos + 5, len);
+			target.flush();
+			pos += 5 + len;
+		}
+	}
+
+	/**
+	 * Copies frames from a stream, up to the 0 that ends them, to System.out
+	 * and System.err.
+	 *
+	 * @param in
+	 *            the stream
+	 * @throws IOException
+	 *             if the frames cannot be read
+	 */
+	static void copy(DataInputStream in) throws IOException {
+		byte[] buffer = new byte[1 << 16];
+		for (int stream = in.readByte(); stream != 0; stream = in.readByte()) {
+			PrintStream target = stream == OUT ? System.out : System.err;
+			for (int len = in.readInt(); len > 0;) {
+				int n = Math.min(len, buffer.length);
+				in.readFully(buffer, 0, n);
+				target.write(buffer, 0, n);
+				len -= n;
+			}
+			target.flush();
+		}
+	}
+}
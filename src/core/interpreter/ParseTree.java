@@ -33,52 +33,102 @@ public interface ParseTree {
 	void createBranch(int no);
 
 	/**
-	 * Adds an identifier declaration to the parse tree. Should be used during
-	 * parsing of a declaration sequence. Ensures there are no duplicates.
+	 * Removes the child at the specified index from the current node, together
+	 * with all of its descendants. Should be used by optimizers before the
+	 * alternative of a node is changed.
 	 * 
-	 * @param name
-	 *            the name of the identifier
-	 * @return true if an identifier was added, false if it is a duplicate
+	 * @requires 1 <= no <= 3
+	 * @param no
+	 *            the branch index
 	 */
-	boolean declId(String name);
+	void deleteBranch(int no);
 
 	/**
-	 * Sets the value of the identifier which is at the current position in the
-	 * tree. Should be used during execution to assign values to identifiers.
+	 * Removes the child at the specified index from the current node, and
+	 * returns a handle to it. The detached subtree is kept until it is grafted
+	 * onto another node.
 	 * 
-	 * @param num
-	 *            the value of the identifier
+	 * @requires 1 <= no <= 3
+	 * @param no
+	 *            the branch index
+	 * @return a handle to the detached subtree
 	 */
-	void setIdVal(int num);
+	int detachBranch(int no);
 
 	/**
-	 * Sets the value of the identifier called name. Should be used during
-	 * execution of a read statement to assign values to identifiers whose node
-	 * positions are not reachable.
+	 * Makes a detached subtree the child at the specified index of the current
+	 * node.
 	 * 
-	 * @param name
-	 *            the name of the identifier whose value is to be set
-	 * @param val
-	 *            the new value of the identifier
+	 * @requires 1 <= no <= 3, and the current node has no child at index no
+	 * @param no
+	 *            the branch index
+	 * @param handle
+	 *            the handle returned when the subtree was detached
+	 */
+	void attachBranch(int no, int handle);
+
+	/**
+	 * Replaces the current node with the root of a detached subtree. The
+	 * current node takes the non-terminal, alternative, children and value of
+	 * the root, and the root itself is discarded.
+	 * 
+	 * @requires the current node has no children
+	 * @param handle
+	 *            the handle returned when the subtree was detached
+	 */
+	void graft(int handle);
+
+	/**
+	 * Copies the child at the specified index of the current node, together
+	 * with all of its descendants, and returns a handle to the copy. The copy
+	 * is detached, and is kept until it is attached or grafted.
+	 * 
+	 * @requires 1 <= no <= 3
+	 * @param no
+	 *            the branch index
+	 * @return a handle to the detached copy
 	 */
-	void setIdVal(String name, int val);
+	int copyBranch(int no);
 
 	/**
-	 * Returns the value of the identifier called name. Should be used during
-	 * execution of a write statement to retrieve values of identifiers whose
-	 * node positions are not reachable.
+	 * Returns a view of the whole tree with its own cursor, at the root. The
+	 * view shares the nodes and identifiers of this tree, so several threads
+	 * can each walk the tree through their own view, as long as the tree is not
+	 * changed while a view is in use.
+	 * 
+	 * @return a view of the tree
+	 */
+	ParseTree view();
+
+	/**
+	 * Adds an identifier declaration to the parse tree. Should be used during
+	 * parsing of a declaration sequence. Ensures there are no duplicates. A new
+	 * identifier is assigned the next free slot.
 	 * 
 	 * @param name
-	 *            the name of the identifier whose value is sought
-	 * @return the value of the identifier, or null if the identifier is
-	 *         uninitialized
+	 *            the name of the identifier
+	 * @return true if an identifier was added, false if it is a duplicate
 	 */
-	Integer getIdVal(String name);
+	boolean declId(String name);
+
+	/**
+	 * Adds a declaration of a new identifier at the end of the declaration
+	 * sequence. Used by optimizers that introduce temporaries. The name is the
+	 * prefix followed by the smallest positive number that gives an undeclared
+	 * identifier, which is assigned the next free slot. The cursor does not
+	 * move.
+	 * 
+	 * @requires prefix consists of upper case letters
+	 * @param prefix
+	 *            the prefix of the name of the identifier
+	 * @return the name of the new identifier
+	 */
+	String declTemp(String prefix);
 
 	/**
 	 * Sets the name of the current identifier node. Should not be used during
 	 * parsing of a declaration sequence. Ensures there are no undeclared
-	 * identifiers.
+	 * identifiers, and resolves the node to the slot of the identifier.
 	 * 
 	 * @param name
 	 *            the name of the identifier
@@ -86,6 +136,57 @@ public interface ParseTree {
 	 */
 	boolean setIdName(String name);
 
+	/**
+	 * Sets whether the current identifier node has to be checked for
+	 * initialization when its value is used during execution. Identifier nodes
+	 * are checked unless marked otherwise.
+	 * 
+	 * @param checked
+	 *            true if the identifier may be uninitialized when it is used,
+	 *            false if it is known to always be initialized
+	 */
+	void setIdChecked(boolean checked);
+
+	/**
+	 * Sets whether the current loop node can be executed in closed form,
+	 * computing the values of the identifiers it assigns without stepping
+	 * through its iterations. Loop nodes are stepped through unless marked
+	 * otherwise.
+	 * 
+	 * @param closed
+	 *            true if the loop has the shape of an induction loop
+	 */
+	void setClosedForm(boolean closed);
+
+	/**
+	 * Sets the number of the current loop node, if it is a pure loop: one
+	 * that reads and writes nothing, so that its effect only depends on the
+	 * identifiers it uses and assigns. Loop nodes have number 0 unless marked
+	 * otherwise.
+	 * 
+	 * @param number
+	 *            a positive number different for each pure loop, or 0
+	 */
+	void setPureLoop(int number);
+
+	/**
+	 * Sets the superinstruction of the current stmt or cond node: a code for
+	 * the shape of the statement or condition, which the executor runs in a
+	 * single dispatch, and up to three operands, which are slots or integers.
+	 * Nodes have code 0, and are executed node by node, unless marked
+	 * otherwise.
+	 * 
+	 * @param code
+	 *            the code of the superinstruction, or 0 for none
+	 * @param a
+	 *            the first operand
+	 * @param b
+	 *            the second operand
+	 * @param c
+	 *            the third operand
+	 */
+	void setSuperinstruction(int code, int a, int b, int c);
+
 	/**
 	 * Sets the value of the current integer node.
 	 * 
@@ -94,6 +195,26 @@ public interface ParseTree {
 	 */
 	void setInt(int num);
 
+	/**
+	 * Sets the value of the current integer node to an integer of up to 64
+	 * bits.
+	 * 
+	 * @param num
+	 *            the value of the integer
+	 */
+	void setLong(long num);
+
+	/**
+	 * Sets whether the values of the current exp or comp node, and of all its
+	 * subexpressions, are known to fit in 64 bits, so that they can be
+	 * evaluated without checking for overflow. Nodes are checked unless marked
+	 * otherwise.
+	 * 
+	 * @param bounded
+	 *            true if no operation below the node can overflow
+	 */
+	void setBounded(boolean bounded);
+
 	/**
 	 * Returns the value of current non-terminal node.
 	 * 
@@ -124,12 +245,55 @@ public interface ParseTree {
 	void goUp();
 
 	/**
-	 * Returns the value of the current identifier node.
+	 * Returns the slot of the current identifier node. Slots are assigned to
+	 * identifiers in the order they are declared, from 0 to idCount() - 1, and
+	 * are used during execution to index the frame holding identifier values.
+	 * 
+	 * @return the slot of the identifier
+	 */
+	int currIdSlot();
+
+	/**
+	 * Returns whether the current identifier node has to be checked for
+	 * initialization when its value is used during execution.
+	 * 
+	 * @return true if the identifier may be uninitialized when it is used,
+	 *         false if it is known to always be initialized
+	 */
+	boolean currIdChecked();
+
+	/**
+	 * Returns whether the current loop node can be executed in closed form.
+	 * 
+	 * @return true if the loop has the shape of an induction loop
+	 */
+	boolean currClosedForm();
+
+	/**
+	 * Returns the number of the current loop node, if it is a pure loop.
+	 * 
+	 * @return the number, or 0 if the loop is not marked as pure
+	 */
+	int currPureLoop();
+
+	/**
+	 * Returns the code of the superinstruction of the current stmt or cond
+	 * node.
 	 * 
-	 * @return the value of the identifier, or null if the identifier is
-	 *         uninitialized
+	 * @return the code, or 0 if the node has no superinstruction
 	 */
-	Integer currIdVal();
+	int currSuperinstruction();
+
+	/**
+	 * Returns an operand of the superinstruction of the current stmt or cond
+	 * node.
+	 * 
+	 * @requires 1 <= no <= 3
+	 * @param no
+	 *            the operand index
+	 * @return the operand
+	 */
+	int currSuperOperand(int no);
 
 	/**
 	 * Returns the name of the current identifier node.
@@ -144,4 +308,38 @@ public interface ParseTree {
 	 * @return the value of the current integer
 	 */
 	int currInt();
+
+	/**
+	 * Returns the value of the current integer node, which may not fit in an
+	 * int if the program was parsed with wide integers.
+	 * 
+	 * @return the value of the current integer
+	 */
+	long currLong();
+
+	/**
+	 * Returns whether the current exp or comp node can be evaluated without
+	 * checking for overflow.
+	 * 
+	 * @return true if no operation below the node can overflow
+	 */
+	boolean currBounded();
+
+	/**
+	 * Returns the number of declared identifiers, which is the size of the
+	 * frame needed to execute the program.
+	 * 
+	 * @return the number of identifier slots
+	 */
+	int idCount();
+
+	/**
+	 * Returns the name of the identifier declared in the given slot.
+	 * 
+	 * @requires 0 <= slot < idCount()
+	 * @param slot
+	 *            the slot of the identifier
+	 * @return the name of the identifier
+	 */
+	String idName(int slot);
 }
@@ -0,0 +1,1374 @@
+package core.interpreter;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Helper methods shared by the optimizers and analyses. Each method works on
+ * the subtree rooted at the current node of the parse tree, and leaves the
+ * cursor where it found it.
+ *
+ * @author Simeon Georgiev
+ */
+final class ParseTrees {
+
+	/**
+	 * The text of the comparison operators, indexed by the alternative of the
+	 * comp op node.
+	 */
+	private static final String[] COMP_OPS = { null, " != ", " == ", " < ",
+			" > ", " <= ", " >= " };
+
+	/**
+	 * An assign statement that is not a step.
+	 */
+	static final int NO_STEP = 0;
+
+	/**
+	 * An assign statement X = X + e, where e is the second child of the
+	 * expression.
+	 */
+	static final int ADD = 1;
+
+	/**
+	 * An assign statement X = X - e, where e is the second child of the
+	 * expression.
+	 */
+	static final int SUBTRACT = 2;
+
+	/**
+	 * An assign statement X = e + X, where e is the factor of the expression.
+	 */
+	static final int ADD_TO = 3;
+
+	/**
+	 * No instances.
+	 */
+	private ParseTrees() {
+	}
+
+	// keys
+	/**
+	 * Returns the text of an expression. Two expressions with the same text
+	 * always evaluate to the same value in the same state.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an exp node
+	 * @return the text of the expression
+	 */
+	static String expKey(ParseTree p) {
+		StringBuilder key = new StringBuilder();
+		appendExp(p, key);
+		return key.toString();
+	}
+
+	/**
+	 * Returns the text of a factor.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a fac node
+	 * @return the text of the factor
+	 */
+	static String facKey(ParseTree p) {
+		StringBuilder key = new StringBuilder();
+		appendFac(p, key);
+		return key.toString();
+	}
+
+	/**
+	 * Returns the text of an operand.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an op node
+	 * @return the text of the operand
+	 */
+	static String opKey(ParseTree p) {
+		StringBuilder key = new StringBuilder();
+		appendOp(p, key);
+		return key.toString();
+	}
+
+	/**
+	 * Returns the text of a condition.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a cond node
+	 * @return the text of the condition
+	 */
+	static String condKey(ParseTree p) {
+		StringBuilder key = new StringBuilder();
+		appendCond(p, key);
+		return key.toString();
+	}
+
+	/**
+	 * Appends the text of a condition to key.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a cond node
+	 * @param key
+	 *            the text so far
+	 */
+	private static void appendCond(ParseTree p, StringBuilder key) {
+		assert p.currNT() == 12 : "Expecting <cond>";
+		switch (p.currAlt()) {
+		case 1:
+			p.goDown(1); // comp
+			key.append('(');
+			p.goDown(1); // op
+			appendOp(p, key);
+			p.goUp();
+			p.goDown(2); // comp op
+			key.append(COMP_OPS[p.currAlt()]);
+			p.goUp();
+			p.goDown(3); // op
+			appendOp(p, key);
+			p.goUp();
+			key.append(')');
+			p.goUp();
+			break;
+		case 2:
+			key.append('!');
+			p.goDown(1); // cond
+			appendCond(p, key);
+			p.goUp();
+			break;
+		default:
+			key.append('[');
+			p.goDown(1); // first cond
+			appendCond(p, key);
+			p.goUp();
+			key.append(p.currAlt() == 3 ? " && " : " || ");
+			p.goDown(2); // second cond
+			appendCond(p, key);
+			p.goUp();
+			key.append(']');
+			break;
+		}
+	}
+
+	/**
+	 * Appends the text of an expression to key.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an exp node
+	 * @param key
+	 *            the text so far
+	 */
+	private static void appendExp(ParseTree p, StringBuilder key) {
+		assert p.currNT() == 14 : "Expecting <exp>";
+		p.goDown(1); // fac
+		appendFac(p, key);
+		p.goUp();
+
+		if (p.currAlt() != 1) {
+			key.append(p.currAlt() == 2 ? " + " : " - ");
+			p.goDown(2); // exp
+			appendExp(p, key);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Appends the text of a factor to key.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a fac node
+	 * @param key
+	 *            the text so far
+	 */
+	private static void appendFac(ParseTree p, StringBuilder key) {
+		assert p.currNT() == 15 : "Expecting <fac>";
+		p.goDown(1); // op
+		appendOp(p, key);
+		p.goUp();
+
+		if (p.currAlt() == 2) {
+			key.append(" * ");
+			p.goDown(2); // fac
+			appendFac(p, key);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Appends the text of an operand to key.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an op node
+	 * @param key
+	 *            the text so far
+	 */
+	private static void appendOp(ParseTree p, StringBuilder key) {
+		assert p.currNT() == 16 : "Expecting <op>";
+		int alt = p.currAlt();
+		p.goDown(1);
+		switch (alt) {
+		case 1: // int
+			key.append(p.currInt());
+			break;
+		case 2: // id
+			key.append(p.currIdName());
+			break;
+		case 3: // exp
+			key.append('(');
+			appendExp(p, key);
+			key.append(')');
+			break;
+		}
+		p.goUp();
+	}
+
+	// identifiers
+	/**
+	 * Adds the slots of the identifiers assigned by the assign and read
+	 * statements in a statement sequence, including nested ones, to a set.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @param set
+	 *            the set of slots
+	 */
+	static void addAssigned(ParseTree p, BitSet set) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		p.goDown(1); // stmt
+		addStmtAssigned(p, set);
+		p.goUp();
+
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			addAssigned(p, set);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Adds the slots of the identifiers assigned by a statement, including
+	 * nested ones, to a set.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt node
+	 * @param set
+	 *            the set of slots
+	 */
+	static void addStmtAssigned(ParseTree p, BitSet set) {
+		assert p.currNT() == 6 : "Expecting <stmt>";
+		int alt = p.currAlt();
+		p.goDown(1);
+		switch (alt) {
+		case 1: // assign
+			p.goDown(1); // id
+			set.set(p.currIdSlot());
+			p.goUp();
+			break;
+		case 2: // if
+			p.goDown(2);
+			addAssigned(p, set);
+			p.goUp();
+			if (p.currAlt() == 2) {
+				p.goDown(3);
+				addAssigned(p, set);
+				p.goUp();
+			}
+			break;
+		case 3: // loop
+			p.goDown(2);
+			addAssigned(p, set);
+			p.goUp();
+			break;
+		case 4: // read
+			p.goDown(1); // id list
+			addIdList(p, set);
+			p.goUp();
+			break;
+		}
+		p.goUp();
+	}
+
+	/**
+	 * Adds the slots of the identifiers in an identifier list to a set.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an id list node
+	 * @param set
+	 *            the set of slots
+	 */
+	static void addIdList(ParseTree p, BitSet set) {
+		assert p.currNT() == 5 : "Expecting <id list>";
+		p.goDown(1); // id
+		set.set(p.currIdSlot());
+		p.goUp();
+		if (p.currAlt() == 2) {
+			p.goDown(2); // id list
+			addIdList(p, set);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Adds the slots of the identifiers used by a condition to a set.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a cond node
+	 * @param set
+	 *            the set of slots
+	 */
+	static void addCondUses(ParseTree p, BitSet set) {
+		assert p.currNT() == 12 : "Expecting <cond>";
+		p.goDown(1); // comp or cond
+		if (p.currNT() == 13) {
+			p.goDown(1); // op
+			addOpUses(p, set);
+			p.goUp();
+			p.goDown(3); // op
+			addOpUses(p, set);
+			p.goUp();
+		} else {
+			addCondUses(p, set);
+		}
+		p.goUp();
+
+		if (p.currAlt() > 2) { // && or ||
+			p.goDown(2); // second cond
+			addCondUses(p, set);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Adds the slots of the identifiers used by the statements in a statement
+	 * sequence, including nested ones, to a set.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @param set
+	 *            the set of slots
+	 */
+	static void addUses(ParseTree p, BitSet set) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		p.goDown(1); // stmt
+		addStmtUses(p, set);
+		p.goUp();
+
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			addUses(p, set);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Adds the slots of the identifiers used by a statement, including nested
+	 * ones, to a set.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt node
+	 * @param set
+	 *            the set of slots
+	 */
+	static void addStmtUses(ParseTree p, BitSet set) {
+		assert p.currNT() == 6 : "Expecting <stmt>";
+		int alt = p.currAlt();
+		p.goDown(1);
+		switch (alt) {
+		case 1: // assign
+			p.goDown(2); // exp
+			addExpUses(p, set);
+			p.goUp();
+			break;
+		case 2: // if
+			p.goDown(1); // cond
+			addCondUses(p, set);
+			p.goUp();
+			p.goDown(2);
+			addUses(p, set);
+			p.goUp();
+			if (p.currAlt() == 2) {
+				p.goDown(3);
+				addUses(p, set);
+				p.goUp();
+			}
+			break;
+		case 3: // loop
+			p.goDown(1); // cond
+			addCondUses(p, set);
+			p.goUp();
+			p.goDown(2);
+			addUses(p, set);
+			p.goUp();
+			break;
+		case 5: // write
+			p.goDown(1); // id list
+			addIdList(p, set);
+			p.goUp();
+			break;
+		}
+		p.goUp();
+	}
+
+	/**
+	 * Adds the slots of the identifiers used by an expression to a set.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an exp node
+	 * @param set
+	 *            the set of slots
+	 */
+	static void addExpUses(ParseTree p, BitSet set) {
+		assert p.currNT() == 14 : "Expecting <exp>";
+		p.goDown(1); // fac
+		addFacUses(p, set);
+		p.goUp();
+		if (p.currAlt() != 1) {
+			p.goDown(2); // exp
+			addExpUses(p, set);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Adds the slots of the identifiers used by a factor to a set.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a fac node
+	 * @param set
+	 *            the set of slots
+	 */
+	static void addFacUses(ParseTree p, BitSet set) {
+		assert p.currNT() == 15 : "Expecting <fac>";
+		p.goDown(1); // op
+		addOpUses(p, set);
+		p.goUp();
+		if (p.currAlt() == 2) {
+			p.goDown(2); // fac
+			addFacUses(p, set);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Adds the slots of the identifiers used by an operand to a set.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an op node
+	 * @param set
+	 *            the set of slots
+	 */
+	static void addOpUses(ParseTree p, BitSet set) {
+		assert p.currNT() == 16 : "Expecting <op>";
+		int alt = p.currAlt();
+		p.goDown(1);
+		if (alt == 2) { // id
+			set.set(p.currIdSlot());
+		} else if (alt == 3) { // exp
+			addExpUses(p, set);
+		}
+		p.goUp();
+	}
+
+	// safety
+	/**
+	 * Returns whether evaluating an expression can never fail, that is, every
+	 * identifier it uses is known to be initialized.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an exp node
+	 * @return true if the expression always evaluates without error
+	 */
+	static boolean expSafe(ParseTree p) {
+		assert p.currNT() == 14 : "Expecting <exp>";
+		p.goDown(1); // fac
+		boolean safe = facSafe(p);
+		p.goUp();
+
+		if (safe && p.currAlt() != 1) {
+			p.goDown(2); // exp
+			safe = expSafe(p);
+			p.goUp();
+		}
+		return safe;
+	}
+
+	/**
+	 * Returns whether evaluating a factor can never fail.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a fac node
+	 * @return true if the factor always evaluates without error
+	 */
+	static boolean facSafe(ParseTree p) {
+		assert p.currNT() == 15 : "Expecting <fac>";
+		p.goDown(1); // op
+		boolean safe = opSafe(p);
+		p.goUp();
+
+		if (safe && p.currAlt() == 2) {
+			p.goDown(2); // fac
+			safe = facSafe(p);
+			p.goUp();
+		}
+		return safe;
+	}
+
+	/**
+	 * Returns whether evaluating an operand can never fail.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an op node
+	 * @return true if the operand always evaluates without error
+	 */
+	static boolean opSafe(ParseTree p) {
+		assert p.currNT() == 16 : "Expecting <op>";
+		int alt = p.currAlt();
+		boolean safe = true;
+		p.goDown(1);
+		if (alt == 2) { // id
+			safe = !p.currIdChecked();
+		} else if (alt == 3) { // exp
+			safe = expSafe(p);
+		}
+		p.goUp();
+		return safe;
+	}
+
+	/**
+	 * Returns whether evaluating a condition can never fail.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a cond node
+	 * @return true if the condition always evaluates without error
+	 */
+	static boolean condSafe(ParseTree p) {
+		assert p.currNT() == 12 : "Expecting <cond>";
+		boolean safe;
+		p.goDown(1); // comp or cond
+		if (p.currNT() == 13) {
+			p.goDown(1); // op
+			safe = opSafe(p);
+			p.goUp();
+			p.goDown(3); // op
+			safe = safe && opSafe(p);
+			p.goUp();
+		} else {
+			safe = condSafe(p);
+		}
+		p.goUp();
+
+		if (safe && p.currAlt() > 2) { // && or ||
+			p.goDown(2); // second cond
+			safe = condSafe(p);
+			p.goUp();
+		}
+		return safe;
+	}
+
+	// values
+	/**
+	 * Evaluates an expression, given the values of some of the identifiers.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an exp node
+	 * @param known
+	 *            the values of the identifiers, indexed by slot; null for the
+	 *            identifiers whose value is not known
+	 * @return the value of the expression, or null if it uses an identifier
+	 *         whose value is not known
+	 */
+	static Integer expValue(ParseTree p, Integer[] known) {
+		assert p.currNT() == 14 : "Expecting <exp>";
+		p.goDown(1); // fac
+		Integer val = facValue(p, known);
+		p.goUp();
+
+		if (val != null && p.currAlt() != 1) {
+			p.goDown(2); // exp
+			Integer rest = expValue(p, known);
+			p.goUp();
+			if (rest == null) {
+				val = null;
+			} else {
+				val = p.currAlt() == 2 ? val + rest : val - rest;
+			}
+		}
+		return val;
+	}
+
+	/**
+	 * Evaluates a factor, given the values of some of the identifiers.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a fac node
+	 * @param known
+	 *            the values of the identifiers, indexed by slot
+	 * @return the value of the factor, or null if it is not known
+	 */
+	static Integer facValue(ParseTree p, Integer[] known) {
+		assert p.currNT() == 15 : "Expecting <fac>";
+		p.goDown(1); // op
+		Integer val = opValue(p, known);
+		p.goUp();
+
+		if (val != null && p.currAlt() == 2) {
+			p.goDown(2); // fac
+			Integer rest = facValue(p, known);
+			p.goUp();
+			val = rest == null ? null : val * rest;
+		}
+		return val;
+	}
+
+	/**
+	 * Evaluates an operand, given the values of some of the identifiers.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an op node
+	 * @param known
+	 *            the values of the identifiers, indexed by slot
+	 * @return the value of the operand, or null if it is not known
+	 */
+	static Integer opValue(ParseTree p, Integer[] known) {
+		assert p.currNT() == 16 : "Expecting <op>";
+		int alt = p.currAlt();
+		Integer val = null;
+		p.goDown(1);
+		switch (alt) {
+		case 1: // int
+			val = p.currInt();
+			break;
+		case 2: // id
+			val = known[p.currIdSlot()];
+			break;
+		case 3: // exp
+			val = expValue(p, known);
+			break;
+		}
+		p.goUp();
+		return val;
+	}
+
+	/**
+	 * Evaluates a condition, given the values of some of the identifiers.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a cond node
+	 * @param known
+	 *            the values of the identifiers, indexed by slot
+	 * @return the value of the condition, or null if it uses an identifier
+	 *         whose value is not known
+	 */
+	static Boolean condValue(ParseTree p, Integer[] known) {
+		assert p.currNT() == 12 : "Expecting <cond>";
+		Boolean val = null;
+		switch (p.currAlt()) {
+		case 1:
+			p.goDown(1); // comp
+			p.goDown(1); // op
+			Integer op1 = opValue(p, known);
+			p.goUp();
+			p.goDown(3); // op
+			Integer op2 = opValue(p, known);
+			p.goUp();
+			p.goDown(2); // comp op
+			if (op1 != null && op2 != null) {
+				val = compare(op1, p.currAlt(), op2);
+			}
+			p.goUp();
+			p.goUp();
+			break;
+		case 2:
+			p.goDown(1); // cond
+			val = condValue(p, known);
+			p.goUp();
+			if (val != null) {
+				val = !val;
+			}
+			break;
+		default:
+			p.goDown(1); // first cond
+			Boolean left = condValue(p, known);
+			p.goUp();
+			p.goDown(2); // second cond
+			Boolean right = condValue(p, known);
+			p.goUp();
+			if (left != null && right != null) {
+				val = p.currAlt() == 3 ? left && right : left || right;
+			}
+			break;
+		}
+		return val;
+	}
+
+	/**
+	 * Applies a comparison operator to two integers.
+	 *
+	 * @param op1
+	 *            the first integer
+	 * @param c
+	 *            the alternative of the comp op node
+	 * @param op2
+	 *            the second integer
+	 * @return the result of the comparison
+	 */
+	static boolean compare(int op1, int c, int op2) {
+		switch (c) {
+		case 1:
+			return op1 != op2;
+		case 2:
+			return op1 == op2;
+		case 3:
+			return op1 < op2;
+		case 4:
+			return op1 > op2;
+		case 5:
+			return op1 <= op2;
+		default:
+			return op1 >= op2;
+		}
+	}
+
+	// constants
+	/**
+	 * Returns whether an integer can be written in a Core program. Negative
+	 * integers are written as a subtraction from 0, which cannot produce the
+	 * smallest integer.
+	 *
+	 * @param val
+	 *            the integer
+	 * @return true if the integer can be written
+	 */
+	static boolean writable(int val) {
+		return val != Integer.MIN_VALUE;
+	}
+
+	/**
+	 * Returns the text of the expression that is written for an integer.
+	 *
+	 * @requires writable(val)
+	 * @param val
+	 *            the integer
+	 * @return the text of the expression
+	 */
+	static String constKey(int val) {
+		return val >= 0 ? Integer.toString(val) : "0 - " + (-val);
+	}
+
+	/**
+	 * Replaces the current operand with an integer.
+	 *
+	 * @requires writable(val)
+	 * @param p
+	 *            the parse tree, with the cursor at an op node
+	 * @param val
+	 *            the integer
+	 */
+	static void setConstOp(ParseTree p, int val) {
+		assert p.currNT() == 16 : "Expecting <op>";
+		p.deleteBranch(1);
+		p.createBranch(1);
+		p.goDown(1);
+		if (val >= 0) {
+			p.setNT(20); // int terminal
+			p.setInt(val);
+			p.goUp();
+			p.setAlt(1);
+		} else {
+			p.setNT(14); // (exp)
+			setConstExp(p, val);
+			p.goUp();
+			p.setAlt(3);
+		}
+	}
+
+	/**
+	 * Replaces the current factor with an integer.
+	 *
+	 * @requires writable(val)
+	 * @param p
+	 *            the parse tree, with the cursor at a fac node
+	 * @param val
+	 *            the integer
+	 */
+	static void setConstFac(ParseTree p, int val) {
+		assert p.currNT() == 15 : "Expecting <fac>";
+		if (p.currAlt() == 2) {
+			p.deleteBranch(2);
+		}
+		p.setAlt(1);
+		p.goDown(1); // op
+		setConstOp(p, val);
+		p.goUp();
+	}
+
+	/**
+	 * Replaces the current expression with an integer. Negative integers are
+	 * written as 0 - n.
+	 *
+	 * @requires writable(val)
+	 * @param p
+	 *            the parse tree, with the cursor at an exp node
+	 * @param val
+	 *            the integer
+	 */
+	static void setConstExp(ParseTree p, int val) {
+		assert p.currNT() == 14 : "Expecting <exp>";
+		if (p.currAlt() == 2 || p.currAlt() == 3) {
+			p.deleteBranch(2);
+		}
+		if (p.currAlt() != 0) { // not a new node
+			p.deleteBranch(1);
+		}
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(15); // fac
+		p.setAlt(1);
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(16); // op
+		p.setAlt(1);
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(20); // int terminal
+		p.setInt(val >= 0 ? val : 0);
+		p.goUp();
+		p.goUp();
+		p.goUp();
+
+		if (val >= 0) {
+			p.setAlt(1);
+		} else { // 0 - n
+			p.createBranch(2);
+			p.goDown(2);
+			p.setNT(14); // exp
+			setConstExp(p, -val);
+			p.goUp();
+			p.setAlt(3);
+		}
+	}
+
+	/**
+	 * Replaces the current condition with a comparison that is always true or
+	 * always false: (0 == 0) or (0 != 0).
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a cond node
+	 * @param val
+	 *            the value of the condition
+	 */
+	static void setConstCond(ParseTree p, boolean val) {
+		assert p.currNT() == 12 : "Expecting <cond>";
+		if (p.currAlt() > 2) {
+			p.deleteBranch(2);
+		}
+		p.deleteBranch(1);
+		p.setAlt(1);
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(13); // comp
+		p.setAlt(1);
+		for (int no = 1; no <= 3; no += 2) {
+			p.createBranch(no);
+			p.goDown(no);
+			p.setNT(16); // op
+			p.setAlt(1);
+			p.createBranch(1);
+			p.goDown(1);
+			p.setNT(20); // int terminal
+			p.setInt(0);
+			p.goUp();
+			p.goUp();
+		}
+		p.createBranch(2);
+		p.goDown(2);
+		p.setNT(17); // comp op
+		p.setAlt(val ? 2 : 1); // == or !=
+		p.goUp();
+		p.goUp();
+	}
+
+	// temporaries
+	/**
+	 * Replaces the current expression, factor or operand with an identifier.
+	 * A node with alternative 0 is a new node without children.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an exp, fac or op node
+	 * @param name
+	 *            the name of the identifier, which must be declared
+	 */
+	static void setId(ParseTree p, String name) {
+		int nt = p.currNT();
+		assert 14 <= nt && nt <= 16 : "Expecting <exp>, <fac> or <op>";
+		int alt = p.currAlt();
+		if (alt != 0) {
+			if (nt == 14 && alt != 1 || nt == 15 && alt == 2) {
+				p.deleteBranch(2);
+			}
+			p.deleteBranch(1);
+		}
+		p.setAlt(nt == 16 ? 2 : 1);
+		p.createBranch(1);
+		p.goDown(1);
+		if (nt == 16) {
+			p.setNT(18); // id terminal
+			p.setIdName(name);
+		} else { // exp has a fac, fac has an op
+			p.setNT(nt + 1);
+			setId(p, name);
+		}
+		p.goUp();
+	}
+
+	/**
+	 * Moves the current expression, factor or operand out of the tree, and
+	 * puts an identifier in its place. An operand must be an expression in
+	 * parentheses.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an exp, fac or op node
+	 * @param name
+	 *            the name of the identifier, which must be declared
+	 * @return the handle of a detached expression with the value of the node
+	 */
+	static int extractExp(ParseTree p, String name) {
+		int nt = p.currNT();
+		assert 14 <= nt && nt <= 16 : "Expecting <exp>, <fac> or <op>";
+		int alt = p.currAlt();
+		int exp;
+		if (nt == 16) {
+			assert alt == 3 : "Expecting (<exp>)";
+			exp = p.detachBranch(1);
+		} else {
+			int first = p.detachBranch(1);
+			boolean hasSecond = nt == 14 && alt != 1 || nt == 15 && alt == 2;
+			int second = hasSecond ? p.detachBranch(2) : 0;
+			p.createBranch(1);
+			p.goDown(1);
+			p.setNT(14); // exp
+			if (nt == 15) { // the factor becomes the only factor
+				p.setAlt(1);
+				p.createBranch(1);
+				p.goDown(1);
+				p.setNT(15); // fac
+			}
+			p.setAlt(alt);
+			p.attachBranch(1, first);
+			if (hasSecond) {
+				p.attachBranch(2, second);
+			}
+			if (nt == 15) {
+				p.goUp();
+			}
+			p.goUp();
+			exp = p.detachBranch(1);
+		}
+		p.setAlt(0); // no children left
+		setId(p, name);
+		return exp;
+	}
+
+	/**
+	 * Inserts an assign statement before the first statement of the current
+	 * statement sequence. The cursor stays at the sequence, whose first
+	 * statement is then the new one.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @param name
+	 *            the name of the assigned identifier, which must be declared
+	 * @param exp
+	 *            the handle of a detached expression
+	 */
+	static void insertAssign(ParseTree p, String name, int exp) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		makeRoom(p);
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(6); // stmt
+		p.setAlt(1);
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(7); // assign
+		p.setAlt(1);
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(18); // id terminal
+		p.setIdName(name);
+		p.goUp();
+		p.attachBranch(2, exp);
+		p.goUp();
+		p.goUp();
+	}
+
+	/**
+	 * Inserts an assign statement of an integer before the first statement of
+	 * the current statement sequence. The smallest integer, which cannot be
+	 * written, is assigned as the largest plus 1, which wraps around to it.
+	 * The cursor stays at the sequence, whose first statement is then the new
+	 * one.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @param name
+	 *            the name of the assigned identifier, which must be declared
+	 * @param val
+	 *            the integer
+	 */
+	static void insertConstAssign(ParseTree p, String name, int val) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		makeRoom(p);
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(6); // stmt
+		p.setAlt(1);
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(7); // assign
+		p.setAlt(1);
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(18); // id terminal
+		p.setIdName(name);
+		p.goUp();
+		p.createBranch(2);
+		p.goDown(2);
+		p.setNT(14); // exp
+		if (writable(val)) {
+			setConstExp(p, val);
+		} else { // largest + 1
+			setConstExp(p, Integer.MAX_VALUE);
+			p.createBranch(2);
+			p.goDown(2);
+			p.setNT(14); // exp
+			setConstExp(p, 1);
+			p.goUp();
+			p.setAlt(2);
+		}
+		p.goUp();
+		p.goUp();
+		p.goUp();
+	}
+
+	/**
+	 * Inserts a write statement before the first statement of the current
+	 * statement sequence. The cursor stays at the sequence, whose first
+	 * statement is then the new one.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @param names
+	 *            the names of the written identifiers, which must be declared;
+	 *            at least one
+	 */
+	static void insertWrite(ParseTree p, List<String> names) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		assert !names.isEmpty() : "Expecting an identifier";
+		makeRoom(p);
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(6); // stmt
+		p.setAlt(5);
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(11); // output
+		p.setAlt(1);
+		p.createBranch(1);
+		p.goDown(1);
+		for (int i = 0; i < names.size(); i++) {
+			p.setNT(5); // id list
+			p.setAlt(i < names.size() - 1 ? 2 : 1);
+			p.createBranch(1);
+			p.goDown(1);
+			p.setNT(18); // id terminal
+			p.setIdName(names.get(i));
+			p.goUp();
+			if (i < names.size() - 1) {
+				p.createBranch(2);
+				p.goDown(2);
+			}
+		}
+		for (int i = 0; i < names.size(); i++) {
+			p.goUp();
+		}
+		p.goUp();
+		p.goUp();
+	}
+
+	// statements
+	/**
+	 * Returns the number of statements in a statement sequence, including
+	 * nested ones.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @return the number of statements
+	 */
+	static int countStmts(ParseTree p) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		int count = 1;
+		p.goDown(1); // stmt
+		int alt = p.currAlt();
+		p.goDown(1);
+		if (alt == 2 || alt == 3) { // if or loop
+			p.goDown(2); // stmt seq
+			count += countStmts(p);
+			p.goUp();
+			if (alt == 2 && p.currAlt() == 2) {
+				p.goDown(3); // else stmt seq
+				count += countStmts(p);
+				p.goUp();
+			}
+		}
+		p.goUp();
+		p.goUp();
+
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			count += countStmts(p);
+			p.goUp();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns whether a statement sequence contains a while statement,
+	 * including nested ones.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @return true if there is a while statement
+	 */
+	static boolean hasLoop(ParseTree p) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		p.goDown(1); // stmt
+		int alt = p.currAlt();
+		boolean loop = alt == 3;
+		if (alt == 2) { // if
+			p.goDown(1);
+			p.goDown(2); // then stmt seq
+			loop = hasLoop(p);
+			p.goUp();
+			if (!loop && p.currAlt() == 2) {
+				p.goDown(3); // else stmt seq
+				loop = hasLoop(p);
+				p.goUp();
+			}
+			p.goUp();
+		}
+		p.goUp();
+
+		if (!loop && p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			loop = hasLoop(p);
+			p.goUp();
+		}
+		return loop;
+	}
+
+	/**
+	 * Appends the statements of a detached sequence after the last statement
+	 * of the current sequence.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @param handle
+	 *            the handle of the detached sequence
+	 */
+	static void appendSeq(ParseTree p, int handle) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		int depth = 0;
+		while (p.currAlt() == 2) {
+			p.goDown(2);
+			depth++;
+		}
+		p.attachBranch(2, handle);
+		p.setAlt(2);
+		for (int i = 0; i < depth; i++) {
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Replaces the first statement of the current statement sequence by the
+	 * statements of another sequence.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @param handle
+	 *            the handle of the detached sequence
+	 */
+	static void splice(ParseTree p, int handle) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		boolean hasRest = p.currAlt() == 2;
+		int rest = hasRest ? p.detachBranch(2) : 0;
+		p.deleteBranch(1);
+		p.graft(handle);
+		if (hasRest) {
+			appendSeq(p, rest);
+		}
+	}
+
+	/**
+	 * Inserts a statement before the first statement of the current statement
+	 * sequence. The cursor stays at the sequence, whose first statement is
+	 * then the new one.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @param stmt
+	 *            the handle of a detached statement
+	 */
+	static void insertStmt(ParseTree p, int stmt) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		makeRoom(p);
+		p.attachBranch(1, stmt);
+	}
+
+	/**
+	 * Moves the statements of the current statement sequence into a new
+	 * sequence below it, so that its first statement can be replaced. The
+	 * first branch is left without a statement.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 */
+	private static void makeRoom(ParseTree p) {
+		int alt = p.currAlt();
+		int first = p.detachBranch(1);
+		int rest = alt == 2 ? p.detachBranch(2) : 0;
+		p.createBranch(2);
+		p.goDown(2);
+		p.setNT(3); // stmt seq
+		p.setAlt(alt);
+		p.attachBranch(1, first);
+		if (alt == 2) {
+			p.attachBranch(2, rest);
+		}
+		p.goUp();
+		p.setAlt(2);
+	}
+
+	/**
+	 * Replaces the first statement S of the current statement sequence by the
+	 * if statement "if C then S end;", or "if C then S else E end;" if an else
+	 * statement E is given.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @param cond
+	 *            the handle of a detached condition C
+	 * @param elseStmt
+	 *            the handle of a detached statement E, or 0 for none
+	 */
+	static void wrapIf(ParseTree p, int cond, int elseStmt) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		int stmt = p.detachBranch(1);
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(6); // stmt
+		p.setAlt(2);
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(8); // if
+		p.setAlt(elseStmt == 0 ? 1 : 2);
+		p.attachBranch(1, cond);
+		for (int no = 2; no <= 3; no++) {
+			if (no == 2 || elseStmt != 0) {
+				p.createBranch(no);
+				p.goDown(no);
+				p.setNT(3); // stmt seq
+				p.setAlt(1);
+				p.attachBranch(1, no == 2 ? stmt : elseStmt);
+				p.goUp();
+			}
+		}
+		p.goUp();
+		p.goUp();
+	}
+
+	/**
+	 * Replaces an if statement with an empty then branch by an if statement
+	 * without else branch, whose condition is the negation of the condition.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an if node
+	 */
+	static void negate(ParseTree p) {
+		assert p.currNT() == 8 : "Expecting <if>";
+		int cond = p.detachBranch(1);
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(12); // cond
+		p.setAlt(2); // !
+		p.attachBranch(1, cond);
+		p.goUp();
+
+		int elseSeq = p.detachBranch(3);
+		p.deleteBranch(2);
+		p.attachBranch(2, elseSeq);
+		p.setAlt(1);
+	}
+
+	// steps
+	/**
+	 * Returns whether an assign statement adds to or subtracts from the
+	 * identifier it assigns. The expression e added or subtracted may still
+	 * use the identifier.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an assign node
+	 * @return ADD, SUBTRACT, ADD_TO or NO_STEP
+	 */
+	static int stepForm(ParseTree p) {
+		assert p.currNT() == 7 : "Expecting <assign>";
+		p.goDown(1); // id
+		int slot = p.currIdSlot();
+		p.goUp();
+
+		int form = NO_STEP;
+		p.goDown(2); // exp
+		int alt = p.currAlt();
+		if (alt != 1) {
+			p.goDown(1); // fac
+			if (facIsId(p, slot)) {
+				form = alt == 2 ? ADD : SUBTRACT;
+			}
+			p.goUp();
+		}
+		if (form == NO_STEP && alt == 2) {
+			p.goDown(2); // exp
+			if (p.currAlt() == 1) {
+				p.goDown(1); // fac
+				if (facIsId(p, slot)) {
+					form = ADD_TO;
+				}
+				p.goUp();
+			}
+			p.goUp();
+		}
+		p.goUp();
+		return form;
+	}
+
+	/**
+	 * Returns whether a factor is a single identifier.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a fac node
+	 * @param slot
+	 *            the slot of the identifier
+	 * @return true if the factor is the identifier
+	 */
+	private static boolean facIsId(ParseTree p, int slot) {
+		if (p.currAlt() != 1) {
+			return false;
+		}
+		boolean id = false;
+		p.goDown(1); // op
+		if (p.currAlt() == 2) {
+			p.goDown(1); // id
+			id = p.currIdSlot() == slot;
+			p.goUp();
+		}
+		p.goUp();
+		return id;
+	}
+}
@@ -0,0 +1,724 @@
+package core.interpreter;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.InputMismatchException;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Partial evaluator for the Core language. Specializes a program for a known
+ * prefix of its input, so that the residual program only reads the rest of
+ * the input and skips the work that only depends on the prefix.
+ *
+ * The statements of the program are taken in order. A statement that can be
+ * run to the end with the values known so far, reading only from the prefix,
+ * is run and removed; what it writes is kept as assign statements of the
+ * values written followed by write statements. Any other statement is kept:
+ * the uses of identifiers with a known value that it does not assign are
+ * replaced by the value, and the identifiers it still uses, or may assign in a
+ * nested statement, are first assigned their known value if the residual
+ * program does not hold it yet. The identifiers it assigns are then unknown.
+ * Since the residual program reads from the end of the prefix, the prefix must
+ * be read before a read statement is kept.
+ *
+ * @author Simeon Georgiev
+ */
+public class PartialEvaluator implements Optimizer {
+	// fields
+	/**
+	 * The most statements run when running one statement of the program, so
+	 * that a loop that does not terminate is kept instead.
+	 */
+	private static final int MAX_STEPS = 10000000;
+
+	/**
+	 * The most identifiers written when running one statement of the program,
+	 * so that the residual program does not grow without bound.
+	 */
+	private static final int MAX_WRITES = 10000;
+
+	/**
+	 * The known prefix of the input.
+	 */
+	private final int[] prefix;
+
+	/**
+	 * Whether both sides of && and || are always evaluated.
+	 */
+	private final boolean eager;
+
+	/**
+	 * The number of integers of the prefix read so far.
+	 */
+	private int pos;
+
+	/**
+	 * The value of each identifier, indexed by slot; null if it is not known,
+	 * or known not to be initialized.
+	 */
+	private Integer[] known;
+
+	/**
+	 * The value each identifier is known to hold in the residual program,
+	 * indexed by slot; null if it is not known.
+	 */
+	private Integer[] held;
+
+	/**
+	 * The identifiers written by the statement being run, and their values:
+	 * for each write statement run, the slot and the value of each identifier.
+	 */
+	private final List<int[]> outputs = new ArrayList<int[]>();
+
+	/**
+	 * The number of statements run for the statement being run.
+	 */
+	private int steps;
+
+	/**
+	 * The number of identifiers written by the statement being run.
+	 */
+	private int writes;
+
+	// private methods
+	/**
+	 * Runs a statement sequence with the known values.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @return true if it was run to the end, false if it needs a value that is
+	 *         not known
+	 */
+	private boolean execStmtSeq(ParseTree p) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		int depth = 0; // stmt seqs descended
+		boolean done;
+		for (;;) {
+			p.goDown(1); // stmt
+			done = execStmt(p);
+			p.goUp();
+			if (!done || p.currAlt() != 2) {
+				break;
+			}
+			p.goDown(2); // stmt seq
+			depth++;
+		}
+		for (; depth > 0; depth--) {
+			p.goUp();
+		}
+		return done;
+	}
+
+	/**
+	 * Runs a statement with the known values.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt node
+	 * @return true if it was run to the end, false if it needs a value that is
+	 *         not known or runs too long
+	 */
+	private boolean execStmt(ParseTree p) {
+		assert p.currNT() == 6 : "Expecting <stmt>";
+		this.steps++;
+		if (this.steps > MAX_STEPS) {
+			return false;
+		}
+		int alt = p.currAlt();
+		boolean done;
+		p.goDown(1);
+		switch (alt) {
+		case 1: // assign
+			done = execAssign(p);
+			break;
+		case 2: // if
+			done = execIf(p);
+			break;
+		case 3: // loop
+			done = execLoop(p);
+			break;
+		case 4: // read
+			p.goDown(1); // id list
+			done = readIdList(p);
+			p.goUp();
+			break;
+		default: // write
+			p.goDown(1); // id list
+			done = writeIdList(p);
+			p.goUp();
+			break;
+		}
+		p.goUp();
+		return done;
+	}
+
+	/**
+	 * Runs an assign statement with the known values.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an assign node
+	 * @return true if the value of the expression is known
+	 */
+	private boolean execAssign(ParseTree p) {
+		assert p.currNT() == 7 : "Expecting <assign>";
+		p.goDown(1); // id
+		int slot = p.currIdSlot();
+		p.goUp();
+		p.goDown(2); // exp
+		Integer val = ParseTrees.expValue(p, this.known);
+		p.goUp();
+		if (val == null) {
+			return false;
+		}
+		this.known[slot] = val;
+		return true;
+	}
+
+	/**
+	 * Runs an if statement with the known values.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an if node
+	 * @return true if it was run to the end
+	 */
+	private boolean execIf(ParseTree p) {
+		assert p.currNT() == 8 : "Expecting <if>";
+		p.goDown(1); // cond
+		Boolean c = condValue(p);
+		p.goUp();
+		if (c == null) {
+			return false;
+		}
+		boolean done = true;
+		if (c) {
+			p.goDown(2); // then stmt seq
+			done = execStmtSeq(p);
+			p.goUp();
+		} else if (p.currAlt() == 2) {
+			p.goDown(3); // else stmt seq
+			done = execStmtSeq(p);
+			p.goUp();
+		}
+		return done;
+	}
+
+	/**
+	 * Runs a while statement with the known values.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a loop node
+	 * @return true if it was run to the end
+	 */
+	private boolean execLoop(ParseTree p) {
+		assert p.currNT() == 9 : "Expecting <loop>";
+		for (;;) {
+			p.goDown(1); // cond
+			Boolean c = condValue(p);
+			p.goUp();
+			if (c == null) {
+				return false;
+			} else if (!c) {
+				return true;
+			}
+			p.goDown(2); // stmt seq
+			boolean done = execStmtSeq(p);
+			p.goUp();
+			if (!done) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Evaluates a condition with the known values. The second condition of &&
+	 * and || is skipped when the first decides the condition, unless
+	 * evaluation is eager.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a cond node
+	 * @return the value of the condition, or null if an identifier it
+	 *         evaluates has no known value
+	 */
+	private Boolean condValue(ParseTree p) {
+		assert p.currNT() == 12 : "Expecting <cond>";
+		int alt = p.currAlt();
+		if (alt == 1) {
+			p.goDown(1); // comp
+			p.goDown(1); // op
+			Integer op1 = ParseTrees.opValue(p, this.known);
+			p.goUp();
+			p.goDown(3); // op
+			Integer op2 = op1 == null ? null : ParseTrees.opValue(p,
+					this.known);
+			p.goUp();
+			p.goDown(2); // comp op
+			int c = p.currAlt();
+			p.goUp();
+			p.goUp();
+			return op2 == null ? null : ParseTrees.compare(op1, c, op2);
+		}
+		p.goDown(1); // cond
+		Boolean first = condValue(p);
+		p.goUp();
+		if (first == null || alt == 2) {
+			return first == null ? null : !first;
+		}
+		if (!this.eager && first == (alt == 4)) { // decided by the first
+			return first;
+		}
+		p.goDown(2); // second cond
+		Boolean second = condValue(p);
+		p.goUp();
+		if (second == null) {
+			return null;
+		}
+		return alt == 3 ? first && second : first || second;
+	}
+
+	/**
+	 * Reads a value from the prefix for each identifier in a list of
+	 * identifiers.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an id list node
+	 * @return true if the prefix had a value for each identifier
+	 */
+	private boolean readIdList(ParseTree p) {
+		assert p.currNT() == 5 : "Expecting <id list>";
+		int depth = 0; // id lists descended past the first
+		boolean done;
+		for (;;) {
+			done = this.pos < this.prefix.length;
+			if (!done) {
+				break;
+			}
+			p.goDown(1); // id
+			this.known[p.currIdSlot()] = this.prefix[this.pos];
+			p.goUp();
+			this.pos++;
+
+			if (p.currAlt() != 2) { // no more ids
+				break;
+			}
+			p.goDown(2); // id list
+			depth++;
+		}
+		for (; depth > 0; depth--) {
+			p.goUp();
+		}
+		return done;
+	}
+
+	/**
+	 * Records the value of each identifier in a list of identifiers as
+	 * written.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an id list node
+	 * @return true if the value of every identifier is known
+	 */
+	private boolean writeIdList(ParseTree p) {
+		assert p.currNT() == 5 : "Expecting <id list>";
+		List<Integer> written = new ArrayList<Integer>();
+		int depth = 0; // id lists descended past the first
+		for (;;) {
+			p.goDown(1); // id
+			written.add(p.currIdSlot());
+			p.goUp();
+
+			if (p.currAlt() != 2) { // no more ids
+				break;
+			}
+			p.goDown(2); // id list
+			depth++;
+		}
+		for (; depth > 0; depth--) {
+			p.goUp();
+		}
+
+		this.writes += written.size();
+		if (this.writes > MAX_WRITES) {
+			return false;
+		}
+		int[] output = new int[2 * written.size()];
+		for (int i = 0; i < written.size(); i++) {
+			Integer val = this.known[written.get(i)];
+			if (val == null) {
+				return false;
+			}
+			output[2 * i] = written.get(i);
+			output[2 * i + 1] = val;
+		}
+		this.outputs.add(output);
+		return true;
+	}
+
+	/**
+	 * Returns whether a statement contains a read statement, including in
+	 * nested statements.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt node
+	 * @return true if it reads
+	 */
+	private static boolean hasRead(ParseTree p) {
+		assert p.currNT() == 6 : "Expecting <stmt>";
+		int alt = p.currAlt();
+		if (alt != 2 && alt != 3) {
+			return alt == 4;
+		}
+		boolean read = false;
+		p.goDown(1); // if or loop
+		for (int no = 2; no <= 3 && !read; no++) {
+			if (no == 3 && (alt == 3 || p.currAlt() != 2)) {
+				break; // no else stmt seq
+			}
+			p.goDown(no); // stmt seq
+			int depth = 0;
+			for (;;) {
+				p.goDown(1); // stmt
+				read = hasRead(p);
+				p.goUp();
+				if (read || p.currAlt() != 2) {
+					break;
+				}
+				p.goDown(2); // stmt seq
+				depth++;
+			}
+			for (; depth > 0; depth--) {
+				p.goUp();
+			}
+			p.goUp();
+		}
+		p.goUp();
+		return read;
+	}
+
+	/**
+	 * Inserts the statements that write the outputs recorded, in front of the
+	 * first statement of the current statement sequence. Each identifier
+	 * written is first assigned its value, if the residual program does not
+	 * hold it.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @return the number of statements inserted; the cursor is left at the
+	 *         sequence that many levels down
+	 */
+	private int emitOutputs(ParseTree p) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		int count = 0;
+		for (int[] output : this.outputs) {
+			List<String> names = new ArrayList<String>();
+			for (int i = 0; i < output.length; i += 2) {
+				int slot = output[i];
+				if (!Integer.valueOf(output[i + 1]).equals(this.held[slot])) {
+					ParseTrees.insertConstAssign(p, p.idName(slot),
+							output[i + 1]);
+					p.goDown(2); // stmt seq
+					count++;
+					this.held[slot] = output[i + 1];
+				}
+				names.add(p.idName(slot));
+			}
+			ParseTrees.insertWrite(p, names);
+			p.goDown(2); // stmt seq
+			count++;
+		}
+		this.outputs.clear();
+		return count;
+	}
+
+	/**
+	 * Keeps the first statement of the current statement sequence in the
+	 * residual program. The known values it uses are folded in, and the
+	 * identifiers it needs are assigned in front of it.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @return the number of statements inserted; the cursor is left at the
+	 *         sequence that many levels down
+	 */
+	private int residualize(ParseTree p) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		p.goDown(1); // stmt
+		if (this.pos < this.prefix.length && hasRead(p)) {
+			System.err.println("The known input is not all read before the "
+					+ "program depends on the rest of its input.");
+			System.exit(0);
+		}
+		int alt = p.currAlt();
+		BitSet assigned = new BitSet();
+		ParseTrees.addStmtAssigned(p, assigned);
+		// an assign statement only assigns after evaluating its expression
+		substStmt(p, alt == 1 ? new BitSet() : assigned);
+		BitSet needed = new BitSet();
+		ParseTrees.addStmtUses(p, needed);
+		if (alt == 2 || alt == 3) { // may keep the value it has on entry
+			needed.or(assigned);
+		}
+		p.goUp();
+
+		int count = 0;
+		for (int slot = needed.nextSetBit(0); slot >= 0; slot = needed
+				.nextSetBit(slot + 1)) {
+			Integer val = this.known[slot];
+			if (val != null && !val.equals(this.held[slot])) {
+				ParseTrees.insertConstAssign(p, p.idName(slot), val);
+				p.goDown(2); // stmt seq
+				count++;
+				this.held[slot] = val;
+			}
+		}
+		for (int slot = assigned.nextSetBit(0); slot >= 0; slot = assigned
+				.nextSetBit(slot + 1)) {
+			this.known[slot] = null;
+			this.held[slot] = null;
+		}
+		return count;
+	}
+
+	/**
+	 * Replaces the uses of identifiers with a known value in a statement by
+	 * the value, except for the identifiers it assigns and values that cannot
+	 * be written.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt node
+	 * @param assigned
+	 *            the identifiers the statement assigns
+	 */
+	private void substStmt(ParseTree p, BitSet assigned) {
+		assert p.currNT() == 6 : "Expecting <stmt>";
+		int alt = p.currAlt();
+		p.goDown(1);
+		if (alt == 1) { // assign
+			p.goDown(2); // exp
+			substExp(p, assigned);
+			p.goUp();
+		} else if (alt == 2 || alt == 3) { // if or loop
+			p.goDown(1); // cond
+			substCond(p, assigned);
+			p.goUp();
+			for (int no = 2; no <= 3; no++) {
+				if (no == 3 && (alt == 3 || p.currAlt() != 2)) {
+					break; // no else stmt seq
+				}
+				p.goDown(no); // stmt seq
+				int depth = 0;
+				for (;;) {
+					p.goDown(1); // stmt
+					substStmt(p, assigned);
+					p.goUp();
+					if (p.currAlt() != 2) {
+						break;
+					}
+					p.goDown(2); // stmt seq
+					depth++;
+				}
+				for (; depth > 0; depth--) {
+					p.goUp();
+				}
+				p.goUp();
+			}
+		}
+		p.goUp();
+	}
+
+	/**
+	 * Replaces the uses of identifiers with a known value in a condition.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a cond node
+	 * @param assigned
+	 *            the identifiers whose uses are kept
+	 */
+	private void substCond(ParseTree p, BitSet assigned) {
+		assert p.currNT() == 12 : "Expecting <cond>";
+		int alt = p.currAlt();
+		p.goDown(1); // comp or cond
+		if (alt == 1) {
+			p.goDown(1); // op
+			substOp(p, assigned);
+			p.goUp();
+			p.goDown(3); // op
+			substOp(p, assigned);
+			p.goUp();
+		} else {
+			substCond(p, assigned);
+		}
+		p.goUp();
+		if (alt > 2) {
+			p.goDown(2); // second cond
+			substCond(p, assigned);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Replaces the uses of identifiers with a known value in an expression.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an exp node
+	 * @param assigned
+	 *            the identifiers whose uses are kept
+	 */
+	private void substExp(ParseTree p, BitSet assigned) {
+		assert p.currNT() == 14 : "Expecting <exp>";
+		p.goDown(1); // fac
+		substFac(p, assigned);
+		p.goUp();
+		if (p.currAlt() != 1) {
+			p.goDown(2); // exp
+			substExp(p, assigned);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Replaces the uses of identifiers with a known value in a factor.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a fac node
+	 * @param assigned
+	 *            the identifiers whose uses are kept
+	 */
+	private void substFac(ParseTree p, BitSet assigned) {
+		assert p.currNT() == 15 : "Expecting <fac>";
+		p.goDown(1); // op
+		substOp(p, assigned);
+		p.goUp();
+		if (p.currAlt() == 2) {
+			p.goDown(2); // fac
+			substFac(p, assigned);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Replaces the use of an identifier with a known value in an operand.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an op node
+	 * @param assigned
+	 *            the identifiers whose uses are kept
+	 */
+	private void substOp(ParseTree p, BitSet assigned) {
+		assert p.currNT() == 16 : "Expecting <op>";
+		int alt = p.currAlt();
+		if (alt == 1) {
+			return;
+		}
+		p.goDown(1); // id or exp
+		if (alt == 3) {
+			substExp(p, assigned);
+			p.goUp();
+			return;
+		}
+		int slot = p.currIdSlot();
+		p.goUp();
+		Integer val = this.known[slot];
+		if (val != null && !assigned.get(slot) && ParseTrees.writable(val)) {
+			ParseTrees.setConstOp(p, val);
+		}
+	}
+
+	// public methods
+	/**
+	 * Creates a partial evaluator for the input read from a file.
+	 *
+	 * @param filename
+	 *            the name of the file that holds the known prefix of the
+	 *            input
+	 * @param eager
+	 *            whether both sides of && and || are always evaluated
+	 */
+	public PartialEvaluator(String filename, boolean eager) {
+		this.eager = eager;
+		List<Integer> values = new ArrayList<Integer>();
+		try {
+			IntReader known;
+			if (BinaryIntReader.isBinary(filename)) {
+				known = new BinaryIntReader(filename);
+			} else {
+				known = new TextIntReader(filename);
+			}
+			try {
+				for (;;) { // until the end of the file
+					values.add(known.nextInt());
+				}
+			} catch (InputMismatchException e) {
+				System.err.println("Known input is not an integer.");
+				System.exit(0);
+			} catch (NoSuchElementException e) {
+				known.close();
+			}
+		} catch (FileNotFoundException e) {
+			System.err.println("Known input file not found.");
+			System.exit(0);
+		} catch (CoreExecutor.Failure e) {
+			System.err.println(
+					"Known input file is not a valid binary data file.");
+			System.exit(0);
+		}
+		this.prefix = new int[values.size()];
+		for (int i = 0; i < this.prefix.length; i++) {
+			this.prefix[i] = values.get(i);
+		}
+	}
+
+	@Override
+	public void optimize(ParseTree p) {
+		assert p.currNT() == 1 : "Expecting <prog>";
+		this.known = new Integer[p.idCount()];
+		this.held = new Integer[p.idCount()];
+		this.pos = 0;
+
+		p.goDown(2); // stmt seq
+		int depth = 0; // stmt seqs descended
+		boolean more = true;
+		while (more) { // the first statement of the sequence is next
+			more = p.currAlt() == 2;
+			Integer[] before = this.known.clone();
+			int posBefore = this.pos;
+			this.steps = 0;
+			this.writes = 0;
+			this.outputs.clear();
+			p.goDown(1); // stmt
+			boolean done = execStmt(p);
+			p.goUp();
+
+			if (!done) {
+				this.known = before;
+				this.pos = posBefore;
+				this.outputs.clear();
+				depth += residualize(p);
+				if (more) {
+					p.goDown(2); // stmt seq
+					depth++;
+				}
+				continue;
+			}
+			depth += emitOutputs(p);
+			if (more) { // next statement takes its place
+				int rest = p.detachBranch(2);
+				p.deleteBranch(1);
+				p.graft(rest);
+			} else {
+				if (depth == 0) { // the program cannot be empty
+					ParseTrees.insertConstAssign(p, p.idName(0), 0);
+					p.goDown(2); // stmt seq
+					depth++;
+				}
+				p.goUp();
+				p.deleteBranch(2);
+				p.setAlt(1);
+				depth--;
+			}
+		}
+		for (; depth > 0; depth--) {
+			p.goUp();
+		}
+		p.goUp();
+	}
+}
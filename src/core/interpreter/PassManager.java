@@ -0,0 +1,137 @@
+package core.interpreter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import core.interpreter.ControlFlowGraph.Node;
+import core.interpreter.ControlFlowGraph.Value;
+
+/**
+ * Optimizer that builds the SSA control-flow graph of a program, runs a list
+ * of passes on it in order, and lowers it back to the parse tree. The passes
+ * are named in a comma-separated list, and may be repeated:
+ *
+ * sccp - propagate constants along the branches that can be taken, and remove
+ * the others; dce - remove the assignments whose value is never used; verify -
+ * check that every use refers to the value of its identifier that reaches it;
+ * print - print the graph.
+ *
+ * The manager also provides the analyses of the graph that the passes share.
+ * An analysis is computed when first asked for, and kept until a pass changes
+ * the graph.
+ *
+ * @author Simeon Georgiev
+ */
+public class PassManager implements Optimizer {
+	// fields
+	/**
+	 * The passes, in the order they are run.
+	 */
+	private final List<SsaPass> passes = new ArrayList<SsaPass>();
+
+	/**
+	 * The values that may be uninitialized, or null if not computed.
+	 */
+	private Set<Value> undefined;
+
+	// private methods
+	/**
+	 * Returns the pass with the given name.
+	 *
+	 * @param name
+	 *            the name of the pass
+	 * @return the pass, or null if there is none with that name
+	 */
+	private static SsaPass create(String name) {
+		if (name.equals("sccp")) {
+			return new ConditionalConstantPropagator();
+		} else if (name.equals("dce")) {
+			return new DeadValueEliminator();
+		} else if (name.equals("verify")) {
+			return new SsaVerifier();
+		} else if (name.equals("print")) {
+			return new SsaPrinter();
+		}
+		return null;
+	}
+
+	/**
+	 * Adds the phi values in a sequence of nodes, including nested ones, to a
+	 * list.
+	 *
+	 * @param nodes
+	 *            the nodes
+	 * @param phis
+	 *            the list of phi values
+	 */
+	private static void addPhis(List<Node> nodes, List<Value> phis) {
+		for (Node node : nodes) {
+			addPhis(node.first, phis);
+			addPhis(node.second, phis);
+			phis.addAll(node.phis);
+		}
+	}
+
+	// public methods
+	/**
+	 * Creates a manager that runs the named passes.
+	 *
+	 * @param names
+	 *            the names of the passes, separated by commas
+	 */
+	public PassManager(String names) {
+		for (String name : names.split(",")) {
+			SsaPass pass = create(name);
+			if (pass == null) {
+				System.err.println("Unknown pass " + name);
+				System.exit(0);
+			}
+			this.passes.add(pass);
+		}
+	}
+
+	/**
+	 * Returns the values that may be uninitialized when they are used: the
+	 * values on entry, and the phi values with such an argument.
+	 *
+	 * @param g
+	 *            the graph
+	 * @return the values
+	 */
+	public Set<Value> undefinedValues(ControlFlowGraph g) {
+		if (this.undefined == null) {
+			this.undefined = new HashSet<Value>();
+			for (Value value : g.undef) {
+				this.undefined.add(value);
+			}
+			List<Value> phis = new ArrayList<Value>();
+			addPhis(g.nodes, phis);
+			boolean changed = true;
+			while (changed) { // until no phi value is added
+				changed = false;
+				for (Value phi : phis) {
+					if ((this.undefined.contains(phi.args[0])
+							|| this.undefined.contains(phi.args[1]))
+							&& this.undefined.add(phi)) {
+						changed = true;
+					}
+				}
+			}
+		}
+		return this.undefined;
+	}
+
+	@Override
+	public void optimize(ParseTree p) {
+		assert p.currNT() == 1 : "Expecting <prog>";
+		ControlFlowGraph g = new SsaBuilder().build(p);
+		this.undefined = null;
+		for (SsaPass pass : this.passes) {
+			if (pass.run(g, this)) {
+				this.undefined = null; // recompute when asked for
+			}
+		}
+		new SsaLowerer().lower(g, p);
+	}
+}
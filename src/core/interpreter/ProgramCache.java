@@ -0,0 +1,146 @@
+package core.interpreter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps compiled programs: the parse tree of a program after it has been
+ * parsed, optimized and analyzed, together with what was written to stdout
+ * and stderr while it was, such as the printed program. An entry is keyed by
+ * a hash of the source file and the options it was compiled with, so a source
+ * file that changes is compiled again. Entries are kept in
+ * least-recently-used order, and the least recently used one is evicted when
+ * there are more than the capacity.
+ *
+ * @author Simeon Georgiev
+ */
+final class ProgramCache {
+	// fields
+	/**
+	 * A compiled program.
+	 *
+	 * @author Simeon Georgiev
+	 */
+	static final class Entry {
+		/**
+		 * The parse tree, ready for execution.
+		 */
+		private final ParseTree tree;
+
+		/**
+		 * The frames written to stdout and stderr while it was compiled.
+		 */
+		private final byte[] prelude;
+
+		/**
+		 * Creates an entry.
+		 *
+		 * @param tree
+		 *            the parse tree, ready for execution
+		 * @param prelude
+		 *            the frames written while it was compiled
+		 */
+		Entry(ParseTree tree, byte[] prelude) {
+			this.tree = tree;
+			this.prelude = prelude;
+		}
+
+		/**
+		 * Writes again what was written while the program was compiled, and
+		 * returns a view of its parse tree.
+		 *
+		 * @return a view of the parse tree with its cursor at the root
+		 */
+		ParseTree replay() {
+			OutputRecorder.replay(this.prelude);
+			return this.tree.view();
+		}
+	}
+
+	/**
+	 * The entries, in least-recently-used order.
+	 */
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(
+			16, 0.75f, true);
+
+	/**
+	 * The maximum number of entries.
+	 */
+	private final int capacity;
+
+	// package methods
+	/**
+	 * Creates a cache.
+	 *
+	 * @param capacity
+	 *            the maximum number of entries
+	 */
+	ProgramCache(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the key of a program: a SHA-256 hash of its source file and the
+	 * options it is compiled with.
+	 *
+	 * @param source
+	 *            the name of the source file
+	 * @param options
+	 *            the options
+	 * @return the key, or null if the source file cannot be read
+	 */
+	static String key(String source, List<String> options) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(Files.readAllBytes(Paths.get(source)));
+			for (String option : options) {
+				digest.update((byte) 0); // keep the options apart
+				digest.update(option.getBytes("UTF-8"));
+			}
+			StringBuilder key = new StringBuilder();
+			for (byte b : digest.digest()) {
+				key.append(String.format("%02x", b));
+			}
+			return key.toString();
+		} catch (IOException e) {
+			return null; // let the parser report it
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // every JVM has SHA-256
+		}
+	}
+
+	/**
+	 * Returns the compiled program with a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the entry, or null if there is none
+	 */
+	Entry get(String key) {
+		return this.entries.get(key);
+	}
+
+	/**
+	 * Keeps a compiled program, evicting the least recently used one if there
+	 * are more than the capacity.
+	 *
+	 * @param key
+	 *            the key
+	 * @param entry
+	 *            the compiled program
+	 */
+	void put(String key, Entry entry) {
+		this.entries.put(key, entry);
+		if (this.entries.size() > this.capacity) {
+			Iterator<String> eldest = this.entries.keySet().iterator();
+			eldest.next();
+			eldest.remove();
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package core.interpreter;
+/**
+ * Pure-loop analysis for the Core language. Numbers the while statements that
+ * contain no read or write statement, including in nested statements. Such a
+ * loop only changes the identifiers it assigns, and what it leaves in them
+ * only depends on the identifiers it uses and assigns on entry, so the
+ * executor can memoize its effect.
+ *
+ * @author Simeon Georgiev
+ */
+public class PureLoopAnalyzer implements Analyzer {
+	// fields
+	/**
+	 * The number of pure loops found so far.
+	 */
+	private int count;
+
+	// private methods
+	/**
+	 * Numbers the pure loops in a statement sequence.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @return true if the sequence contains a read or write statement
+	 */
+	private boolean analyzeStmtSeq(ParseTree p) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		p.goDown(1); // stmt
+		int alt = p.currAlt();
+		boolean io = alt == 4 || alt == 5; // read or write
+		p.goDown(1);
+		if (alt == 2) { // if
+			p.goDown(2); // then stmt seq
+			io = analyzeStmtSeq(p);
+			p.goUp();
+			if (p.currAlt() == 2) {
+				p.goDown(3); // else stmt seq
+				io = analyzeStmtSeq(p) || io;
+				p.goUp();
+			}
+		} else if (alt == 3) { // loop
+			p.goDown(2); // stmt seq
+			io = analyzeStmtSeq(p);
+			p.goUp();
+			if (!io) {
+				this.count++;
+				p.setPureLoop(this.count);
+			}
+		}
+		p.goUp();
+		p.goUp();
+
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			io = analyzeStmtSeq(p) || io;
+			p.goUp();
+		}
+		return io;
+	}
+
+	// public methods
+	@Override
+	public void analyze(ParseTree p) {
+		assert p.currNT() == 1 : "Expecting <prog>";
+		this.count = 0;
+		p.goDown(2); // stmt seq
+		analyzeStmtSeq(p);
+		p.goUp();
+	}
+}
@@ -0,0 +1,806 @@
+package core.interpreter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Value-range analysis for the Core language, used when integers are wide.
+ * Computes an interval of the values every identifier may hold at every point
+ * of the program, by abstract interpretation: assignments evaluate their
+ * expression on intervals, conditions narrow the intervals of the identifiers
+ * they compare along the branch they lead to, and while statements are
+ * iterated until their intervals stop growing, widening the bounds that still
+ * grow to infinity after a few iterations, then narrowing them once. The
+ * state after a while statement is kept for each state before it, so that a
+ * loop nested in another is not iterated again for a state it has seen.
+ *
+ * An exp or comp node whose operands and intermediate results all have finite
+ * bounds, strictly inside the range of a long, cannot overflow, and is marked
+ * in the parse tree so that the executor evaluates it without checking.
+ *
+ * @author Simeon Georgiev
+ */
+public class RangeAnalyzer implements Analyzer {
+	// fields
+	/**
+	 * The lower bound of an interval that is not bounded below.
+	 */
+	private static final long NEG_INF = Long.MIN_VALUE;
+
+	/**
+	 * The upper bound of an interval that is not bounded above.
+	 */
+	private static final long POS_INF = Long.MAX_VALUE;
+
+	/**
+	 * The number of iterations over a loop body after which the bounds that
+	 * still grow are widened to infinity.
+	 */
+	private static final int WIDEN_AFTER = 2;
+
+	/**
+	 * The key of the state after a while statement: the number of the
+	 * statement, and the state before it.
+	 */
+	private static final class Key {
+		/**
+		 * The number of the while statement.
+		 */
+		private final int loop;
+
+		/**
+		 * The state before the statement.
+		 */
+		private final long[] state;
+
+		/**
+		 * Creates a key.
+		 *
+		 * @param loop
+		 *            the number of the while statement
+		 * @param state
+		 *            the state before it
+		 */
+		private Key(int loop, long[] state) {
+			this.loop = loop;
+			this.state = state;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * this.loop + Arrays.hashCode(this.state);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return this.loop == k.loop && Arrays.equals(this.state, k.state);
+		}
+	}
+
+	/**
+	 * For each if and while statement, numbered in the order they appear in
+	 * the program: the number of if and while statements nested in it, and
+	 * for an if statement, the number of those in its then branch.
+	 */
+	private final List<int[]> nested = new ArrayList<int[]>();
+
+	/**
+	 * The number of the next if or while statement to be analyzed.
+	 */
+	private int statement;
+
+	/**
+	 * The state after each while statement analyzed without marking nodes,
+	 * for each state before it.
+	 */
+	private final Map<Key, long[]> exits = new HashMap<Key, long[]>();
+
+	/**
+	 * Whether exp and comp nodes are marked in the tree. False while the
+	 * analysis iterates over a loop body to find the intervals at the loop
+	 * header, and while a condition narrows intervals.
+	 */
+	private boolean record;
+
+	/**
+	 * Whether every operand and intermediate result evaluated since the
+	 * enclosing exp or comp node was entered has finite bounds.
+	 */
+	private boolean safe;
+
+	// private methods
+	/**
+	 * Returns the interval of all values.
+	 *
+	 * @return the interval
+	 */
+	private static long[] top() {
+		return new long[] { NEG_INF, POS_INF };
+	}
+
+	/**
+	 * Returns whether an interval has finite bounds.
+	 *
+	 * @param a
+	 *            the interval
+	 * @return true if neither bound is infinite
+	 */
+	private static boolean finite(long[] a) {
+		return a[0] != NEG_INF && a[1] != POS_INF;
+	}
+
+	/**
+	 * Returns the interval of the sums of two intervals.
+	 *
+	 * @param a
+	 *            the first interval
+	 * @param b
+	 *            the second interval
+	 * @return the interval, which is infinite if a bound overflows
+	 */
+	private static long[] add(long[] a, long[] b) {
+		if (!finite(a) || !finite(b)) {
+			return top();
+		}
+		try {
+			return new long[] { Math.addExact(a[0], b[0]),
+					Math.addExact(a[1], b[1]) };
+		} catch (ArithmeticException e) {
+			return top();
+		}
+	}
+
+	/**
+	 * Returns the interval of the differences of two intervals.
+	 *
+	 * @param a
+	 *            the first interval
+	 * @param b
+	 *            the second interval
+	 * @return the interval, which is infinite if a bound overflows
+	 */
+	private static long[] subtract(long[] a, long[] b) {
+		if (!finite(a) || !finite(b)) {
+			return top();
+		}
+		try {
+			return new long[] { Math.subtractExact(a[0], b[1]),
+					Math.subtractExact(a[1], b[0]) };
+		} catch (ArithmeticException e) {
+			return top();
+		}
+	}
+
+	/**
+	 * Returns the interval of the products of two intervals.
+	 *
+	 * @param a
+	 *            the first interval
+	 * @param b
+	 *            the second interval
+	 * @return the interval, which is infinite if a bound overflows
+	 */
+	private static long[] multiply(long[] a, long[] b) {
+		if (!finite(a) || !finite(b)) {
+			return top();
+		}
+		try {
+			long p1 = Math.multiplyExact(a[0], b[0]);
+			long p2 = Math.multiplyExact(a[0], b[1]);
+			long p3 = Math.multiplyExact(a[1], b[0]);
+			long p4 = Math.multiplyExact(a[1], b[1]);
+			return new long[] { Math.min(Math.min(p1, p2), Math.min(p3, p4)),
+					Math.max(Math.max(p1, p2), Math.max(p3, p4)) };
+		} catch (ArithmeticException e) {
+			return top();
+		}
+	}
+
+	/**
+	 * Returns the join of two states: for every identifier, the smallest
+	 * interval containing its intervals in both. A state holds the lower and
+	 * upper bound of the identifier in slot i at indices 2i and 2i + 1, and is
+	 * null at a point that cannot be reached.
+	 *
+	 * @param s
+	 *            a state
+	 * @param t
+	 *            a state
+	 * @return the join
+	 */
+	private static long[] join(long[] s, long[] t) {
+		if (s == null || t == null) {
+			return s == null ? t : s;
+		}
+		long[] result = new long[s.length];
+		for (int i = 0; i < s.length; i += 2) {
+			result[i] = Math.min(s[i], t[i]);
+			result[i + 1] = Math.max(s[i + 1], t[i + 1]);
+		}
+		return result;
+	}
+
+	/**
+	 * Widens a state: every bound that grows in the next state is set to
+	 * infinity.
+	 *
+	 * @param s
+	 *            the state
+	 * @param t
+	 *            the next state
+	 * @return the widened state
+	 */
+	private static long[] widen(long[] s, long[] t) {
+		long[] result = s.clone();
+		for (int i = 0; i < s.length; i += 2) {
+			if (t[i] < s[i]) {
+				result[i] = NEG_INF;
+			}
+			if (t[i + 1] > s[i + 1]) {
+				result[i + 1] = POS_INF;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns whether every interval of a state contains the interval of the
+	 * same identifier in another state.
+	 *
+	 * @param s
+	 *            the containing state
+	 * @param t
+	 *            the contained state
+	 * @return true if s contains t
+	 */
+	private static boolean contains(long[] s, long[] t) {
+		if (t == null) {
+			return true;
+		} else if (s == null) {
+			return false;
+		}
+		for (int i = 0; i < s.length; i += 2) {
+			if (t[i] < s[i] || t[i + 1] > s[i + 1]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Numbers the if and while statements of a statement sequence in the
+	 * order they appear, and records how many are nested in each.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @return the number of if and while statements in the sequence
+	 */
+	private int numberStmtSeq(ParseTree p) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		int count = 0;
+		p.goDown(1); // stmt
+		int alt = p.currAlt();
+		if (alt == 2 || alt == 3) { // if or loop
+			int[] counts = new int[2];
+			this.nested.add(counts);
+			p.goDown(1);
+			p.goDown(2); // then or body stmt seq
+			counts[1] = numberStmtSeq(p);
+			p.goUp();
+			counts[0] = counts[1];
+			if (alt == 2 && p.currAlt() == 2) {
+				p.goDown(3); // else stmt seq
+				counts[0] += numberStmtSeq(p);
+				p.goUp();
+			}
+			p.goUp();
+			count = 1 + counts[0];
+		}
+		p.goUp();
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			count += numberStmtSeq(p);
+			p.goUp();
+		}
+		return count;
+	}
+
+	/**
+	 * Analyzes a statement sequence.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @param state
+	 *            the state before the sequence
+	 * @return the state after the sequence
+	 */
+	private long[] analyzeStmtSeq(ParseTree p, long[] state) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		p.goDown(1); // stmt
+		state = analyzeStmt(p, state);
+		p.goUp();
+		if (p.currAlt() == 2 && state != null) {
+			p.goDown(2); // stmt seq
+			state = analyzeStmtSeq(p, state);
+			p.goUp();
+		}
+		return state;
+	}
+
+	/**
+	 * Analyzes a statement.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @param state
+	 *            the state before the statement
+	 * @return the state after the statement
+	 */
+	private long[] analyzeStmt(ParseTree p, long[] state) {
+		assert p.currNT() == 6 : "Expecting <stmt>";
+		int alt = p.currAlt();
+		p.goDown(1);
+		if (alt == 1) { // assign
+			p.goDown(2); // exp
+			long[] val = evalExp(p, state);
+			p.goUp();
+			p.goDown(1); // id
+			int slot = p.currIdSlot();
+			p.goUp();
+			state = state.clone();
+			state[2 * slot] = val[0];
+			state[2 * slot + 1] = val[1];
+		} else if (alt == 2) {
+			state = analyzeIf(p, state);
+		} else if (alt == 3) {
+			state = analyzeLoop(p, state);
+		} else if (alt == 4) {
+			state = state.clone();
+			p.goDown(1); // id list
+			readIdList(p, state);
+			p.goUp();
+		}
+		p.goUp();
+		return state;
+	}
+
+	/**
+	 * Sets the interval of every identifier in a list of identifiers read to
+	 * the interval of all values.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @param state
+	 *            the state, changed in place
+	 */
+	private void readIdList(ParseTree p, long[] state) {
+		assert p.currNT() == 5 : "Expecting <id list>";
+		p.goDown(1); // id
+		int slot = p.currIdSlot();
+		p.goUp();
+		state[2 * slot] = NEG_INF;
+		state[2 * slot + 1] = POS_INF;
+		if (p.currAlt() == 2) {
+			p.goDown(2); // id list
+			readIdList(p, state);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Analyzes an if statement.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @param state
+	 *            the state before the statement
+	 * @return the state after the statement
+	 */
+	private long[] analyzeIf(ParseTree p, long[] state) {
+		assert p.currNT() == 8 : "Expecting <if>";
+		int index = this.statement++;
+		int[] counts = this.nested.get(index);
+		p.goDown(1); // cond
+		if (this.record) {
+			markCond(p, state);
+		}
+		long[] then = narrowCond(p, state, true);
+		long[] otherwise = narrowCond(p, state, false);
+		p.goUp();
+		if (then != null) {
+			p.goDown(2); // then stmt seq
+			then = analyzeStmtSeq(p, then);
+			p.goUp();
+		}
+		if (p.currAlt() == 2 && otherwise != null) {
+			this.statement = index + 1 + counts[1]; // even if then is skipped
+			p.goDown(3); // else stmt seq
+			otherwise = analyzeStmtSeq(p, otherwise);
+			p.goUp();
+		}
+		this.statement = index + 1 + counts[0];
+		return join(then, otherwise);
+	}
+
+	/**
+	 * Analyzes a while statement. The body is analyzed without marking nodes
+	 * until the intervals at the loop header stop growing, then once more
+	 * with the final intervals. The state after a statement analyzed without
+	 * marking nodes is kept, and used when it is analyzed again from the same
+	 * state.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @param state
+	 *            the state before the statement
+	 * @return the state after the statement
+	 */
+	private long[] analyzeLoop(ParseTree p, long[] state) {
+		assert p.currNT() == 9 : "Expecting <loop>";
+		int index = this.statement++;
+		int end = index + 1 + this.nested.get(index)[0];
+		boolean recording = this.record;
+		Key key = new Key(index, state);
+		if (!recording && this.exits.containsKey(key)) {
+			this.statement = end;
+			return this.exits.get(key);
+		}
+		this.record = false;
+		long[] header = state;
+		long[] next = null;
+		int iterations = 0;
+		boolean stable = false;
+		while (!stable) { // until the header contains the next state
+			next = join(state, iterate(p, header, index));
+			stable = contains(header, next);
+			if (!stable) {
+				iterations++;
+				header = iterations > WIDEN_AFTER ? widen(header, next) : next;
+			}
+		}
+		header = next; // narrow once: the state the last iteration led to
+		this.record = recording;
+
+		p.goDown(1); // cond
+		if (this.record) {
+			markCond(p, header);
+		}
+		long[] body = narrowCond(p, header, true);
+		long[] exit = narrowCond(p, header, false);
+		p.goUp();
+		if (this.record && body != null) {
+			this.statement = index + 1;
+			p.goDown(2); // stmt seq
+			analyzeStmtSeq(p, body);
+			p.goUp();
+		}
+		if (!this.record) {
+			this.exits.put(key, exit);
+		}
+		this.statement = end;
+		return exit;
+	}
+
+	/**
+	 * Analyzes one iteration of a while statement.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a loop node
+	 * @param header
+	 *            the state at the loop header
+	 * @param loop
+	 *            the number of the while statement
+	 * @return the state at the end of the body, or null if it is not entered
+	 */
+	private long[] iterate(ParseTree p, long[] header, int loop) {
+		p.goDown(1); // cond
+		long[] body = narrowCond(p, header, true);
+		p.goUp();
+		if (body != null) {
+			this.statement = loop + 1;
+			p.goDown(2); // stmt seq
+			body = analyzeStmtSeq(p, body);
+			p.goUp();
+		}
+		return body;
+	}
+
+	/**
+	 * Marks the comp and exp nodes of a condition, all of which are evaluated.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @param state
+	 *            the state before the condition
+	 */
+	private void markCond(ParseTree p, long[] state) {
+		assert p.currNT() == 12 : "Expecting <cond>";
+		int alt = p.currAlt();
+		p.goDown(1);
+		if (alt == 1) { // comp
+			boolean outer = this.safe;
+			this.safe = true;
+			p.goDown(1); // op
+			evalOp(p, state);
+			p.goUp();
+			p.goDown(3); // op
+			evalOp(p, state);
+			p.goUp();
+			p.setBounded(this.safe);
+			this.safe = outer;
+		} else {
+			markCond(p, state);
+		}
+		p.goUp();
+		if (alt > 2) {
+			p.goDown(2); // second cond
+			markCond(p, state);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Narrows a state to the values for which a condition has a given value.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @param state
+	 *            the state before the condition
+	 * @param value
+	 *            the value of the condition
+	 * @return the narrowed state, or null if the condition never has the value
+	 */
+	private long[] narrowCond(ParseTree p, long[] state, boolean value) {
+		assert p.currNT() == 12 : "Expecting <cond>";
+		boolean recording = this.record;
+		this.record = false;
+		long[] result;
+		int alt = p.currAlt();
+		if (alt == 1) {
+			p.goDown(1); // comp
+			result = narrowComp(p, state, value);
+			p.goUp();
+		} else if (alt == 2) {
+			p.goDown(1); // cond
+			result = narrowCond(p, state, !value);
+			p.goUp();
+		} else if ((alt == 3) == value) { // both true, or both false
+			p.goDown(1); // first cond
+			result = narrowCond(p, state, value);
+			p.goUp();
+			if (result != null) {
+				p.goDown(2); // second cond
+				result = narrowCond(p, result, value);
+				p.goUp();
+			}
+		} else { // either true, or either false
+			p.goDown(1); // first cond
+			result = narrowCond(p, state, value);
+			p.goUp();
+			p.goDown(2); // second cond
+			result = join(result, narrowCond(p, state, value));
+			p.goUp();
+		}
+		this.record = recording;
+		return result;
+	}
+
+	/**
+	 * Narrows a state to the values for which a comparison has a given value.
+	 * The interval of an identifier compared to an operand with finite bounds
+	 * is narrowed.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @param state
+	 *            the state before the comparison
+	 * @param value
+	 *            the value of the comparison
+	 * @return the narrowed state, or null if the comparison never has the
+	 *         value
+	 */
+	private long[] narrowComp(ParseTree p, long[] state, boolean value) {
+		assert p.currNT() == 13 : "Expecting <comp>";
+		p.goDown(1); // op
+		int left = idSlot(p);
+		long[] l = evalOp(p, state);
+		p.goUp();
+		p.goDown(2); // comp op
+		int op = p.currAlt();
+		p.goUp();
+		p.goDown(3); // op
+		int right = idSlot(p);
+		long[] r = evalOp(p, state);
+		p.goUp();
+
+		if (!value) {
+			int[] negated = { 0, 2, 1, 6, 5, 4, 3 }; // != ==, < >=, > <=
+			op = negated[op];
+		}
+		long[] result = state.clone();
+		boolean reached = true;
+		if (left >= 0) {
+			reached = narrow(result, left, op, r);
+		}
+		if (right >= 0 && reached) {
+			int[] mirrored = { 0, 1, 2, 4, 3, 6, 5 }; // < >, <= >=
+			reached = narrow(result, right, mirrored[op], l);
+		}
+		return reached ? result : null;
+	}
+
+	/**
+	 * Returns the slot of the identifier of an op node.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an op node
+	 * @return the slot, or -1 if the operand is not an identifier
+	 */
+	private static int idSlot(ParseTree p) {
+		assert p.currNT() == 16 : "Expecting <op>";
+		if (p.currAlt() != 2) {
+			return -1;
+		}
+		p.goDown(1); // id
+		int slot = p.currIdSlot();
+		p.goUp();
+		return slot;
+	}
+
+	/**
+	 * Narrows the interval of an identifier to the values that compare to an
+	 * interval as given.
+	 *
+	 * @param state
+	 *            the state, changed in place
+	 * @param slot
+	 *            the slot of the identifier
+	 * @param op
+	 *            the comparison operator, numbered as the alternatives of
+	 *            comp op
+	 * @param other
+	 *            the interval compared to
+	 * @return false if no value of the identifier compares as given
+	 */
+	private static boolean narrow(long[] state, int slot, int op,
+			long[] other) {
+		if (!finite(other)) {
+			return true;
+		}
+		long lo = state[2 * slot];
+		long hi = state[2 * slot + 1];
+		switch (op) {
+		case 1: // !=
+			if (other[0] == other[1] && lo == other[0]) {
+				lo++;
+			} else if (other[0] == other[1] && hi == other[0]) {
+				hi--;
+			}
+			break;
+		case 2: // ==
+			lo = Math.max(lo, other[0]);
+			hi = Math.min(hi, other[1]);
+			break;
+		case 3: // <
+			hi = Math.min(hi, other[1] - 1);
+			break;
+		case 4: // >
+			lo = Math.max(lo, other[0] + 1);
+			break;
+		case 5: // <=
+			hi = Math.min(hi, other[1]);
+			break;
+		case 6: // >=
+			lo = Math.max(lo, other[0]);
+			break;
+		}
+		state[2 * slot] = lo;
+		state[2 * slot + 1] = hi;
+		return lo <= hi;
+	}
+
+	/**
+	 * Evaluates an expression on intervals, and marks it if it cannot
+	 * overflow.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @param state
+	 *            the state
+	 * @return the interval of the values of the expression
+	 */
+	private long[] evalExp(ParseTree p, long[] state) {
+		assert p.currNT() == 14 : "Expecting <exp>";
+		boolean outer = this.safe;
+		this.safe = true;
+		p.goDown(1); // fac
+		long[] val = evalFac(p, state);
+		p.goUp();
+		if (p.currAlt() > 1) { // + or -
+			p.goDown(2); // exp
+			long[] rest = evalExp(p, state);
+			p.goUp();
+			val = p.currAlt() == 2 ? add(val, rest) : subtract(val, rest);
+			this.safe = this.safe && finite(val);
+		}
+		if (this.record) {
+			p.setBounded(this.safe);
+		}
+		this.safe = outer && this.safe;
+		return val;
+	}
+
+	/**
+	 * Evaluates a factor on intervals.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @param state
+	 *            the state
+	 * @return the interval of the values of the factor
+	 */
+	private long[] evalFac(ParseTree p, long[] state) {
+		assert p.currNT() == 15 : "Expecting <fac>";
+		p.goDown(1); // op
+		long[] val = evalOp(p, state);
+		p.goUp();
+		if (p.currAlt() == 2) { // *
+			p.goDown(2); // fac
+			val = multiply(val, evalFac(p, state));
+			p.goUp();
+			this.safe = this.safe && finite(val);
+		}
+		return val;
+	}
+
+	/**
+	 * Evaluates an operand on intervals.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @param state
+	 *            the state
+	 * @return the interval of the values of the operand
+	 */
+	private long[] evalOp(ParseTree p, long[] state) {
+		assert p.currNT() == 16 : "Expecting <op>";
+		long[] val;
+		p.goDown(1);
+		if (p.currNT() == 20) { // int
+			val = new long[] { p.currLong(), p.currLong() };
+		} else if (p.currNT() == 18) { // id
+			int slot = p.currIdSlot();
+			val = Arrays.copyOfRange(state, 2 * slot, 2 * slot + 2);
+		} else { // (exp)
+			val = evalExp(p, state);
+		}
+		p.goUp();
+		this.safe = this.safe && finite(val);
+		return val;
+	}
+
+	// public methods
+	@Override
+	public void analyze(ParseTree p) {
+		assert p.currNT() == 1 : "Expecting <prog>";
+		// identifiers are used only once assigned, so their initial value
+		// does not matter
+		long[] state = new long[2 * p.idCount()];
+		this.nested.clear();
+		this.exits.clear();
+		p.goDown(2); // stmt seq
+		numberStmtSeq(p);
+		p.goUp();
+		this.statement = 0;
+		this.record = true;
+		p.goDown(2); // stmt seq
+		analyzeStmtSeq(p, state);
+		p.goUp();
+	}
+}
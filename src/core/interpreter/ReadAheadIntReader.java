@@ -0,0 +1,184 @@
+package core.interpreter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reads the integers of another reader ahead, on a background thread, so that
+ * reading and decoding the data file overlap with execution. The integers are
+ * passed through a ring buffer with one producer and one consumer: each side
+ * only writes its own index, with an ordered store, so neither takes a lock.
+ * A read statement only waits when the ring is empty, and the background
+ * thread only when it is full, which bounds how far it reads ahead.
+ *
+ * The exception that ends the input of the other reader is passed on once
+ * every integer before it has been read, so the same errors are reported at
+ * the same read statement.
+ *
+ * @author Simeon Georgiev
+ */
+public class ReadAheadIntReader implements IntReader {
+	// fields
+	/**
+	 * The number of times a side checks the other side's index again before
+	 * it yields. With a single processor, the other side cannot run while this
+	 * one spins, so it yields at once.
+	 */
+	private static final int SPINS = Runtime.getRuntime()
+			.availableProcessors() > 1 ? 100 : 0;
+
+	/**
+	 * The number of times a side yields before it parks.
+	 */
+	private static final int YIELDS = 100;
+
+	/**
+	 * How long a side parks while it waits, in nanoseconds.
+	 */
+	private static final long PARK_NANOS = 50000;
+
+	/**
+	 * The reader read ahead.
+	 */
+	private final IntReader source;
+
+	/**
+	 * The ring buffer, whose length is a power of 2.
+	 */
+	private final int[] ring;
+
+	/**
+	 * The number of integers taken from the ring, written by the consumer
+	 * only.
+	 */
+	private final AtomicLong head = new AtomicLong();
+
+	/**
+	 * The number of integers put in the ring, written by the producer only.
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * The number of integers taken, as seen by the consumer.
+	 */
+	private long taken;
+
+	/**
+	 * The number of integers put, as last read by the consumer.
+	 */
+	private long available;
+
+	/**
+	 * The exception that ended the input of the source, set by the producer
+	 * after its last integer was put in the ring; null until then.
+	 */
+	private volatile RuntimeException end;
+
+	/**
+	 * Whether the reader was closed, so that the producer stops.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * The background thread.
+	 */
+	private final Thread producer;
+
+	// private methods
+	/**
+	 * Waits a little longer the more times a side has waited.
+	 *
+	 * @param spins
+	 *            the number of times the side has waited so far
+	 */
+	private static void backOff(int spins) {
+		if (spins >= SPINS + YIELDS) {
+			LockSupport.parkNanos(PARK_NANOS);
+		} else if (spins >= SPINS) {
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * Reads the integers of the source into the ring until its input ends, or
+	 * the reader is closed. Runs on the background thread.
+	 */
+	private void produce() {
+		int mask = this.ring.length - 1;
+		long put = 0;
+		long free = 0; // put may go up to here without checking head
+		try {
+			while (!this.closed) {
+				int val = this.source.nextInt();
+				int spins = 0;
+				while (put == free) { // full as last seen
+					free = this.head.get() + this.ring.length;
+					if (put < free) {
+						break;
+					} else if (this.closed) {
+						return;
+					}
+					backOff(spins++);
+				}
+				this.ring[(int) put & mask] = val;
+				put++;
+				this.tail.lazySet(put); // publishes the integer
+			}
+		} catch (RuntimeException e) { // end of the input, or not an integer
+			this.end = e;
+		} finally {
+			this.source.close();
+		}
+	}
+
+	// public methods
+	/**
+	 * Starts reading the integers of another reader ahead.
+	 *
+	 * @param source
+	 *            the reader read ahead, which is closed when its input ends or
+	 *            this reader is closed
+	 * @param size
+	 *            the most integers read ahead, rounded up to a power of 2 of
+	 *            at most 2^30
+	 */
+	public ReadAheadIntReader(IntReader source, int size) {
+		assert size > 0 : "Expecting a positive size";
+		this.source = source;
+		int length = Integer.highestOneBit(Math.min(Math.max(size, 2),
+				1 << 30) - 1) << 1;
+		this.ring = new int[length];
+		this.producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				produce();
+			}
+		}, "read-ahead");
+		this.producer.setDaemon(true); // never keeps the program running
+		this.producer.start();
+	}
+
+	@Override
+	public int nextInt() {
+		int spins = 0;
+		while (this.taken == this.available) { // empty as last seen
+			RuntimeException e = this.end; // read before the last tail
+			this.available = this.tail.get();
+			if (this.taken < this.available) {
+				break;
+			} else if (e != null) {
+				throw e;
+			}
+			backOff(spins++);
+		}
+		int val = this.ring[(int) this.taken & (this.ring.length - 1)];
+		this.taken++;
+		this.head.lazySet(this.taken); // frees the slot
+		return val;
+	}
+
+	@Override
+	public void close() {
+		this.closed = true;
+		LockSupport.unpark(this.producer);
+	}
+}
@@ -0,0 +1,206 @@
+package core.interpreter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs many executions of Core programs at once on a fixed pool of threads,
+ * in time slices, so that a program with a loop that runs for long, or never
+ * ends, cannot keep a thread from the others. Each execution is a CoreExecutor
+ * that runs until its time slice ends at the back edge of a loop, and then
+ * yields its thread and waits to run again; its state stays on its own
+ * continuation stack, so no thread is held while it waits.
+ *
+ * The threads take the execution that has run the fewest time slices next,
+ * and of those the one submitted first, so a short program submitted while
+ * long ones are running is run before them and ends after a few slices, and
+ * the long ones take turns. An execution ends when its program is over, fails,
+ * passes the limits of its executor, or is cancelled.
+ *
+ * @author Simeon Georgiev
+ */
+final class Scheduler {
+	// fields
+	/**
+	 * An execution submitted to the scheduler.
+	 *
+	 * @author Simeon Georgiev
+	 */
+	final class Task implements Runnable, Comparable<Task> {
+		/**
+		 * The view of the parse tree the execution walks.
+		 */
+		private final ParseTree tree;
+
+		/**
+		 * The executor of the execution.
+		 */
+		private final CoreExecutor executor;
+
+		/**
+		 * The buffer the write statements write to.
+		 */
+		private final OutputBuffer output;
+
+		/**
+		 * The order in which the execution was submitted.
+		 */
+		private final long sequence;
+
+		/**
+		 * The number of time slices the execution has run.
+		 */
+		private int slices;
+
+		/**
+		 * The error the execution failed with, or null.
+		 */
+		private String error;
+
+		/**
+		 * What the execution threw that is not an error of the program, or
+		 * null.
+		 */
+		private Throwable crash;
+
+		/**
+		 * Counted down when the execution ends.
+		 */
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		/**
+		 * Creates a task.
+		 *
+		 * @param tree
+		 *            the view of the parse tree the execution walks
+		 * @param executor
+		 *            the executor of the execution
+		 * @param output
+		 *            the buffer the write statements write to
+		 * @param sequence
+		 *            the order in which the execution was submitted
+		 */
+		private Task(ParseTree tree, CoreExecutor executor,
+				OutputBuffer output, long sequence) {
+			this.tree = tree;
+			this.executor = executor;
+			this.output = output;
+			this.sequence = sequence;
+		}
+
+		/**
+		 * Runs a time slice of the execution, and puts it back in the queue if
+		 * it yields.
+		 */
+		@Override
+		public void run() {
+			try {
+				if (this.slices == 0) {
+					this.executor.start(this.tree, this.output);
+				}
+				this.slices++;
+				if (!this.executor.proceed(this.tree, Scheduler.this.slice)) {
+					Scheduler.this.pool.execute(this); // wait for another turn
+					return;
+				}
+			} catch (CoreExecutor.Failure e) {
+				this.error = e.getMessage();
+			} catch (Throwable e) {
+				this.crash = e;
+			}
+			this.done.countDown();
+		}
+
+		@Override
+		public int compareTo(Task other) {
+			if (this.slices != other.slices) {
+				return this.slices < other.slices ? -1 : 1;
+			}
+			return this.sequence < other.sequence ? -1
+					: this.sequence > other.sequence ? 1 : 0;
+		}
+
+		/**
+		 * Cancels the execution, which fails with "Execution cancelled." at
+		 * the back edge of a loop or when it next gets a turn.
+		 */
+		void cancel() {
+			this.executor.cancel();
+		}
+
+		/**
+		 * Waits for the execution to end. Its output has then been flushed.
+		 *
+		 * @return the error the execution failed with, or null if it did not
+		 *         fail
+		 * @throws InterruptedException
+		 *             if interrupted while waiting
+		 */
+		String await() throws InterruptedException {
+			this.done.await();
+			if (this.crash != null) {
+				throw new RuntimeException(this.crash); // not a Core error
+			}
+			return this.error;
+		}
+	}
+
+	/**
+	 * The threads, which take the tasks in the order they compare in.
+	 */
+	private final ThreadPoolExecutor pool;
+
+	/**
+	 * The length of a time slice in nanoseconds.
+	 */
+	private final long slice;
+
+	/**
+	 * The number of tasks submitted.
+	 */
+	private final AtomicLong submitted = new AtomicLong();
+
+	// package methods
+	/**
+	 * Creates a scheduler and its threads.
+	 *
+	 * @param threads
+	 *            the number of threads
+	 * @param sliceMillis
+	 *            the length of a time slice in milliseconds
+	 */
+	Scheduler(int threads, long sliceMillis) {
+		this.pool = new ThreadPoolExecutor(threads, threads, 0,
+				TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>());
+		this.slice = sliceMillis * 1000000;
+	}
+
+	/**
+	 * Submits an execution, which is started on one of the threads when it
+	 * comes first in the queue.
+	 *
+	 * @param p
+	 *            a view of the parse tree used by this execution only
+	 * @param executor
+	 *            the executor of the execution, not started, with its limits
+	 *            set
+	 * @param output
+	 *            the buffer the write statements write to
+	 * @return the task of the execution
+	 */
+	Task submit(ParseTree p, CoreExecutor executor, OutputBuffer output) {
+		Task task = new Task(p, executor, output,
+				this.submitted.getAndIncrement());
+		this.pool.execute(task);
+		return task;
+	}
+
+	/**
+	 * Stops the threads. The executions that have not ended never do.
+	 */
+	void shutdown() {
+		this.pool.shutdownNow();
+	}
+}
@@ -0,0 +1,425 @@
+package core.interpreter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a list of jobs, each a Core program and a data file, on several worker
+ * processes. Each worker is a ShardWorker in its own JVM, which keeps the
+ * programs it has parsed, and takes jobs and returns results through its
+ * stdin and stdout. A worker takes the next job as soon as it is done with
+ * its last one, so a worker with short jobs takes more of them. A worker that
+ * exits is started again for its next job, and a job whose worker dies before
+ * returning its result is run once more on a new worker.
+ *
+ * The results are written in the order of the jobs, as with -batch: the line
+ * "==> SOURCE DATA <==", the messages of the parser and analyzer on stderr,
+ * the output of the program, and the error it failed with on stderr. Then the
+ * number of jobs and restarts of each worker is written to stderr.
+ *
+ * @author Simeon Georgiev
+ */
+public final class ShardCoordinator {
+	// fields
+	/**
+	 * The number of jobs started ahead of the one being written, for each
+	 * worker.
+	 */
+	private static final int AHEAD = 4;
+
+	/**
+	 * A job: a source file and a data file.
+	 *
+	 * @author Simeon Georgiev
+	 */
+	private static final class Job {
+		/**
+		 * The name of the source file.
+		 */
+		private final String source;
+
+		/**
+		 * The name of the data file.
+		 */
+		private final String data;
+
+		/**
+		 * Creates a job.
+		 *
+		 * @param source
+		 *            the name of the source file
+		 * @param data
+		 *            the name of the data file
+		 */
+		private Job(String source, String data) {
+			this.source = source;
+			this.data = data;
+		}
+	}
+
+	/**
+	 * The result of a job.
+	 *
+	 * @author Simeon Georgiev
+	 */
+	private static final class Result {
+		/**
+		 * The messages written to stderr by the parser and analyzer.
+		 */
+		private byte[] messages = new byte[0];
+
+		/**
+		 * The bytes written by the write statements.
+		 */
+		private byte[] output = new byte[0];
+
+		/**
+		 * The error the program failed with, or null if it did not fail.
+		 */
+		private String error;
+	}
+
+	/**
+	 * A worker process.
+	 *
+	 * @author Simeon Georgiev
+	 */
+	private static final class Worker {
+		/**
+		 * The number of the worker, from 1.
+		 */
+		private final int number;
+
+		/**
+		 * The process, or null if it is not running.
+		 */
+		private Process process;
+
+		/**
+		 * The stream the jobs are written to.
+		 */
+		private DataOutputStream to;
+
+		/**
+		 * The stream the results are read from.
+		 */
+		private DataInputStream from;
+
+		/**
+		 * The number of jobs the worker returned a result for.
+		 */
+		private int jobs;
+
+		/**
+		 * The number of times the process was started again.
+		 */
+		private int restarts;
+
+		/**
+		 * Creates a worker that is not running.
+		 *
+		 * @param number
+		 *            the number of the worker
+		 */
+		private Worker(int number) {
+			this.number = number;
+		}
+	}
+
+	/**
+	 * The command that starts a worker process.
+	 */
+	private final List<String> command = new ArrayList<String>();
+
+	/**
+	 * The workers that are not running a job.
+	 */
+	private final BlockingQueue<Worker> idle;
+
+	/**
+	 * All the workers.
+	 */
+	private final List<Worker> workers = new ArrayList<Worker>();
+
+	// private methods
+	/**
+	 * Creates a coordinator.
+	 *
+	 * @param count
+	 *            the number of workers
+	 * @param eager
+	 *            whether both sides of && and || are always evaluated
+	 */
+	private ShardCoordinator(int count, boolean eager) {
+		this.command.add(System.getProperty("java.home") + File.separator
+				+ "bin" + File.separator + "java");
+		if (ShardCoordinator.class.desiredAssertionStatus()) {
+			this.command.add("-ea");
+		}
+		this.command.add("-cp");
+		this.command.add(System.getProperty("java.class.path"));
+		this.command.add(ShardWorker.class.getName());
+		if (eager) {
+			this.command.add("-eager");
+		}
+		this.idle = new ArrayBlockingQueue<Worker>(count);
+		for (int k = 1; k <= count; k++) {
+			Worker worker = new Worker(k);
+			this.workers.add(worker);
+			this.idle.add(worker);
+		}
+	}
+
+	/**
+	 * Starts the process of a worker.
+	 *
+	 * @param worker
+	 *            the worker, not running
+	 * @throws IOException
+	 *             if the process cannot be started
+	 */
+	private void start(Worker worker) throws IOException {
+		ProcessBuilder builder = new ProcessBuilder(this.command);
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		worker.process = builder.start();
+		worker.to = new DataOutputStream(new BufferedOutputStream(
+				worker.process.getOutputStream()));
+		worker.from = new DataInputStream(new BufferedInputStream(
+				worker.process.getInputStream()));
+	}
+
+	/**
+	 * Stops the process of a worker, by closing its stdin, and waits for it to
+	 * exit.
+	 *
+	 * @param worker
+	 *            the worker, running
+	 */
+	private static void stop(Worker worker) {
+		try {
+			worker.to.close(); // no more jobs
+		} catch (IOException e) {
+			// it has already exited
+		}
+		try {
+			worker.process.waitFor();
+		} catch (InterruptedException e) {
+			worker.process.destroy();
+		}
+		worker.process = null;
+	}
+
+	/**
+	 * Runs a job on a worker. If the worker dies before returning the result,
+	 * it is started again and the job is run once more.
+	 *
+	 * @param worker
+	 *            the worker
+	 * @param job
+	 *            the job
+	 * @return the result of the job
+	 */
+	private Result run(Worker worker, Job job) {
+		for (int attempt = 1;; attempt++) {
+			try {
+				if (worker.process == null) {
+					if (worker.jobs > 0 || attempt > 1) {
+						worker.restarts++;
+					}
+					start(worker);
+				}
+				worker.to.writeUTF(job.source);
+				worker.to.writeUTF(job.data);
+				worker.to.flush();
+
+				Result result = new Result();
+				result.messages = new byte[worker.from.readInt()];
+				worker.from.readFully(result.messages);
+				result.output = new byte[worker.from.readInt()];
+				worker.from.readFully(result.output);
+				if (worker.from.readBoolean()) {
+					result.error = worker.from.readUTF();
+				}
+				if (worker.from.readBoolean()) { // the process is exiting
+					stop(worker);
+				}
+				worker.jobs++;
+				return result;
+			} catch (IOException e) { // the process died
+				if (worker.process != null) {
+					worker.process.destroy();
+					stop(worker);
+				}
+				if (attempt == 2) {
+					Result result = new Result();
+					result.error = "Worker crashed.";
+					return result;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the result of a job.
+	 *
+	 * @param job
+	 *            the job
+	 * @param result
+	 *            the result of the job
+	 */
+	private static void write(Job job, Result result) {
+		System.out.println("==> " + job.source + " " + job.data + " <==");
+		System.out.flush(); // keep the messages after the line
+		System.err.write(result.messages, 0, result.messages.length);
+		System.err.flush();
+		System.out.write(result.output, 0, result.output.length);
+		System.out.flush(); // keep output ahead of the error
+		if (result.error != null) {
+			System.err.println(result.error);
+		}
+	}
+
+	/**
+	 * Runs the jobs and writes their results in order.
+	 *
+	 * @param jobs
+	 *            the jobs
+	 */
+	private void runAll(final List<Job> jobs) {
+		ExecutorService pool = Executors.newFixedThreadPool(this.workers
+				.size());
+		Queue<Future<Result>> running = new ArrayDeque<Future<Result>>();
+		int started = 0;
+		try {
+			for (int i = 0; i < jobs.size(); i++) {
+				while (started < jobs.size()
+						&& started < i + AHEAD * this.workers.size()) {
+					final Job job = jobs.get(started);
+					running.add(pool.submit(new Callable<Result>() {
+						@Override
+						public Result call() throws InterruptedException {
+							Worker worker = ShardCoordinator.this.idle.take();
+							try {
+								return run(worker, job);
+							} finally {
+								ShardCoordinator.this.idle.add(worker);
+							}
+						}
+					}));
+					started++;
+				}
+				write(jobs.get(i), running.remove().get());
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+			for (Worker worker : this.workers) {
+				if (worker.process != null) {
+					stop(worker);
+				}
+			}
+		}
+		for (Worker worker : this.workers) {
+			System.err.println("Worker " + worker.number + ": " + worker.jobs
+					+ " jobs, " + worker.restarts + " restarts");
+		}
+	}
+
+	/**
+	 * Reads the jobs from a file with a source file and a data file on each
+	 * line, separated by whitespace.
+	 *
+	 * @param filename
+	 *            the name of the file
+	 * @return the jobs
+	 */
+	private static List<Job> readJobs(String filename) {
+		List<Job> jobs = new ArrayList<Job>();
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(
+					filename));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] names = line.trim().split("\\s+");
+					if (names.length == 2) {
+						jobs.add(new Job(names[0], names[1]));
+					} else if (!names[0].isEmpty()) {
+						System.err.println("Expecting a source file and a data "
+								+ "file in " + line);
+						System.exit(0);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (FileNotFoundException e) {
+			System.err.println("Job file not found.");
+			System.exit(0);
+		} catch (IOException e) {
+			System.err.println("Error reading from file.");
+			System.exit(0);
+		}
+		return jobs;
+	}
+
+	// public methods
+	/**
+	 * Runs the jobs in a file on worker processes.
+	 *
+	 * @param args
+	 *            zero or more options, followed by the name of a file with a
+	 *            source file and a data file on each line. The options are:
+	 *            -workers=N - run N worker processes (by default one per
+	 *            processor); -eager - evaluate both sides of && and ||.
+	 */
+	public static void main(String[] args) {
+		int count = Runtime.getRuntime().availableProcessors();
+		boolean eager = false;
+		int i = 0;
+		while (i < args.length && args[i].startsWith("-")) { // options
+			if (args[i].startsWith("-workers=")) {
+				try {
+					count = Integer.parseInt(args[i].substring("-workers="
+							.length()));
+				} catch (NumberFormatException e) {
+					count = 0;
+				}
+				if (count <= 0) {
+					System.err.println("Expecting a positive number of workers"
+							+ " in " + args[i]);
+					System.exit(0);
+				}
+			} else if (args[i].equals("-eager")) {
+				eager = true;
+			} else {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(0);
+			}
+			i++;
+		}
+		assert args.length - i == 1 : "The coordinator takes one parameter.";
+
+		new ShardCoordinator(count, eager).runAll(readJobs(args[i]));
+	}
+}
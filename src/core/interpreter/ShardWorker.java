@@ -0,0 +1,242 @@
+package core.interpreter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Worker process of the ShardCoordinator. It reads jobs from stdin, each the
+ * name of a source file and the name of a data file, runs each job and writes
+ * its result to stdout. A program is parsed and analyzed by the first job that
+ * needs it, and its parse tree is kept for the jobs after.
+ *
+ * A result is the messages written to stderr while the program was parsed
+ * and analyzed, the output of the program, and the error it failed with. What
+ * is written to stderr is captured rather than written out, so that it can be
+ * sent with the result. The parser ends the process when it finds an error;
+ * the result is then sent as the process exits, and marked as the last one.
+ *
+ * @author Simeon Georgiev
+ */
+public final class ShardWorker {
+	// fields
+	/**
+	 * A parsed program.
+	 *
+	 * @author Simeon Georgiev
+	 */
+	private static final class Program {
+		/**
+		 * The parse tree, analyzed for execution.
+		 */
+		private final ParseTree tree;
+
+		/**
+		 * The messages written to stderr while the program was parsed and
+		 * analyzed.
+		 */
+		private final byte[] messages;
+
+		/**
+		 * Creates a parsed program.
+		 *
+		 * @param tree
+		 *            the parse tree
+		 * @param messages
+		 *            the messages written while it was parsed and analyzed
+		 */
+		private Program(ParseTree tree, byte[] messages) {
+			this.tree = tree;
+			this.messages = messages;
+		}
+	}
+
+	/**
+	 * The stream the results are written to.
+	 */
+	private final DataOutputStream out;
+
+	/**
+	 * Whether both sides of && and || are always evaluated.
+	 */
+	private final boolean eager;
+
+	/**
+	 * The parsed programs, by the name of their source file.
+	 */
+	private final Map<String, Program> programs =
+			new HashMap<String, Program>();
+
+	/**
+	 * What has been written to stderr since it was last reset.
+	 */
+	private final ByteArrayOutputStream captured = new ByteArrayOutputStream();
+
+	/**
+	 * The messages of the program of the job being run, null while it is
+	 * being parsed.
+	 */
+	private byte[] messages;
+
+	/**
+	 * The output of the job being run.
+	 */
+	private ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+	/**
+	 * Whether a job is being run and its result has not been sent.
+	 */
+	private boolean pending;
+
+	// private methods
+	/**
+	 * Creates a worker.
+	 *
+	 * @param out
+	 *            the stream the results are written to
+	 * @param eager
+	 *            whether both sides of && and || are always evaluated
+	 */
+	private ShardWorker(DataOutputStream out, boolean eager) {
+		this.out = out;
+		this.eager = eager;
+	}
+
+	/**
+	 * Parses and analyzes a program.
+	 *
+	 * @param source
+	 *            the name of the source file
+	 * @return the parsed program
+	 */
+	private Program load(String source) {
+		ParseTree p = new CoreParseTree();
+		new CoreParser(source).parse(p); // ends the process on an error
+		new DefiniteAssignmentAnalyzer().analyze(p); // mark checked ids
+		new SuperinstructionSelector().analyze(p); // fuse common shapes
+		return new Program(p, this.captured.toByteArray());
+	}
+
+	/**
+	 * Runs a job.
+	 *
+	 * @param source
+	 *            the name of the source file
+	 * @param data
+	 *            the name of the data file
+	 * @throws IOException
+	 *             if the result cannot be sent
+	 */
+	private void run(String source, String data) throws IOException {
+		this.pending = true;
+		this.captured.reset();
+		this.messages = null;
+		this.output = new ByteArrayOutputStream();
+
+		Program program = this.programs.get(source);
+		if (program == null) {
+			program = load(source);
+			this.programs.put(source, program);
+		}
+		this.messages = program.messages;
+		this.captured.reset();
+
+		String error = null;
+		ParseTree view = program.tree.view(); // a failure leaves the cursor
+		try {
+			IntReader input = CoreExecutor.open(data, 0);
+			new CoreExecutor(input, this.eager, null).execute(view,
+					new OutputBuffer(view, this.output));
+		} catch (FileNotFoundException e) {
+			error = "Input file not found.";
+		} catch (CoreExecutor.Failure e) {
+			error = e.getMessage();
+		}
+		send(error, false);
+	}
+
+	/**
+	 * Sends the result of the job being run.
+	 *
+	 * @param error
+	 *            the error the program failed with, or null
+	 * @param last
+	 *            whether the process is exiting
+	 * @throws IOException
+	 *             if the result cannot be sent
+	 */
+	private void send(String error, boolean last) throws IOException {
+		ByteArrayOutputStream messages = new ByteArrayOutputStream();
+		if (this.messages != null) {
+			messages.write(this.messages);
+		}
+		this.captured.writeTo(messages); // written while the job ran
+		byte[] bytes = messages.toByteArray();
+		this.out.writeInt(bytes.length);
+		this.out.write(bytes);
+		bytes = this.output.toByteArray();
+		this.out.writeInt(bytes.length);
+		this.out.write(bytes);
+		this.out.writeBoolean(error != null);
+		if (error != null) {
+			this.out.writeUTF(error);
+		}
+		this.out.writeBoolean(last);
+		this.out.flush();
+		this.pending = false;
+	}
+
+	// public methods
+	/**
+	 * Runs the jobs read from stdin until it is closed.
+	 *
+	 * @param args
+	 *            -eager to evaluate both sides of && and ||, or nothing
+	 */
+	public static void main(String[] args) {
+		final ShardWorker worker = new ShardWorker(new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(
+						FileDescriptor.out))), args.length > 0
+				&& args[0].equals("-eager"));
+		PrintStream capture = new PrintStream(worker.captured, true);
+		System.setErr(capture);
+		System.setOut(capture); // keep stdout for the results
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				if (worker.pending) { // the job ended the process
+					try {
+						worker.send(null, true);
+					} catch (IOException e) {
+						// the coordinator is gone
+					}
+				}
+			}
+		});
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				System.in));
+		try {
+			for (;;) {
+				String source;
+				try {
+					source = in.readUTF();
+				} catch (EOFException e) {
+					break; // no more jobs
+				}
+				worker.run(source, in.readUTF());
+			}
+		} catch (IOException e) {
+			// the coordinator is gone
+		}
+	}
+}
@@ -0,0 +1,323 @@
+package core.interpreter;
+import java.util.BitSet;
+import java.util.List;
+
+import core.interpreter.ControlFlowGraph.Cond;
+import core.interpreter.ControlFlowGraph.Expr;
+import core.interpreter.ControlFlowGraph.Node;
+import core.interpreter.ControlFlowGraph.Stmt;
+import core.interpreter.ControlFlowGraph.Value;
+
+/**
+ * Builds the SSA control-flow graph of a Core program from its parse tree.
+ * Since the program is structured, the phi values are placed without
+ * dominance frontiers: after an if statement, for every identifier whose value
+ * differs at the end of the two branches, and at the condition of a while
+ * statement, for every identifier assigned or read in the body.
+ *
+ * @author Simeon Georgiev
+ */
+public class SsaBuilder {
+	// fields
+	/**
+	 * The graph being built.
+	 */
+	private ControlFlowGraph g;
+
+	/**
+	 * The value of each identifier at the current point, indexed by slot.
+	 */
+	private Value[] current;
+
+	// private methods
+	/**
+	 * Adds the statements of a statement sequence to a sequence of nodes.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt seq node
+	 * @param nodes
+	 *            the nodes
+	 */
+	private void buildStmtSeq(ParseTree p, List<Node> nodes) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		boolean more = true;
+		int depth = 0;
+		while (more) {
+			p.goDown(1); // stmt
+			buildStmt(p, nodes);
+			p.goUp();
+			more = p.currAlt() == 2;
+			if (more) {
+				p.goDown(2); // stmt seq
+				depth++;
+			}
+		}
+		for (int i = 0; i < depth; i++) {
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Adds a statement to a sequence of nodes.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a stmt node
+	 * @param nodes
+	 *            the nodes
+	 */
+	private void buildStmt(ParseTree p, List<Node> nodes) {
+		assert p.currNT() == 6 : "Expecting <stmt>";
+		int alt = p.currAlt();
+		p.goDown(1);
+		if (alt == 2) {
+			nodes.add(buildIf(p));
+		} else if (alt == 3) {
+			nodes.add(buildLoop(p));
+		} else {
+			Stmt stmt = new Stmt(alt);
+			if (alt == 1) { // assign
+				p.goDown(2); // exp
+				Expr exp = buildExp(p);
+				p.goUp();
+				p.goDown(1); // id
+				int slot = p.currIdSlot();
+				p.goUp();
+				Value value = this.g.newValue(Value.ASSIGN, slot);
+				value.exp = exp;
+				stmt.values.add(value);
+				this.current[slot] = value;
+			} else { // read or write
+				p.goDown(1); // id list
+				buildIdList(p, stmt);
+				p.goUp();
+			}
+			if (nodes.isEmpty()
+					|| nodes.get(nodes.size() - 1).kind != Node.BLOCK) {
+				nodes.add(new Node(Node.BLOCK));
+			}
+			nodes.get(nodes.size() - 1).stmts.add(stmt);
+		}
+		p.goUp();
+	}
+
+	/**
+	 * Adds the identifiers of an id list to a read or write statement. A read
+	 * defines new values, one at a time, and a write uses the current values.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an id list node
+	 * @param stmt
+	 *            the read or write statement
+	 */
+	private void buildIdList(ParseTree p, Stmt stmt) {
+		assert p.currNT() == 5 : "Expecting <id list>";
+		p.goDown(1); // id
+		int slot = p.currIdSlot();
+		p.goUp();
+		if (stmt.kind == Stmt.READ) {
+			this.current[slot] = this.g.newValue(Value.READ, slot);
+		}
+		stmt.values.add(this.current[slot]);
+		if (p.currAlt() == 2) {
+			p.goDown(2); // id list
+			buildIdList(p, stmt);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Creates the node of an if statement, with phi values for the
+	 * identifiers whose values differ after the two branches.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an if node
+	 * @return the node
+	 */
+	private Node buildIf(ParseTree p) {
+		assert p.currNT() == 8 : "Expecting <if>";
+		Node node = new Node(Node.IF);
+		p.goDown(1); // cond
+		node.cond = buildCond(p);
+		p.goUp();
+		Value[] before = this.current.clone();
+		p.goDown(2); // then stmt seq
+		buildStmtSeq(p, node.first);
+		p.goUp();
+		Value[] after = this.current;
+		this.current = before;
+		if (p.currAlt() == 2) {
+			this.current = before.clone();
+			p.goDown(3); // else stmt seq
+			buildStmtSeq(p, node.second);
+			p.goUp();
+		}
+		for (int i = 0; i < after.length; i++) {
+			if (after[i] != this.current[i]) {
+				Value phi = this.g.newValue(Value.PHI, i);
+				phi.args[0] = after[i];
+				phi.args[1] = this.current[i];
+				node.phis.add(phi);
+				this.current[i] = phi;
+			}
+		}
+		return node;
+	}
+
+	/**
+	 * Creates the node of a while statement, with phi values for the
+	 * identifiers assigned or read in the body.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a loop node
+	 * @return the node
+	 */
+	private Node buildLoop(ParseTree p) {
+		assert p.currNT() == 9 : "Expecting <loop>";
+		Node node = new Node(Node.LOOP);
+		BitSet assigned = new BitSet();
+		p.goDown(2); // stmt seq
+		ParseTrees.addAssigned(p, assigned);
+		p.goUp();
+		for (int i = assigned.nextSetBit(0); i >= 0; i = assigned
+				.nextSetBit(i + 1)) {
+			Value phi = this.g.newValue(Value.PHI, i);
+			phi.args[0] = this.current[i];
+			node.phis.add(phi);
+			this.current[i] = phi;
+		}
+		p.goDown(1); // cond
+		node.cond = buildCond(p);
+		p.goUp();
+		Value[] header = this.current.clone();
+		p.goDown(2); // stmt seq
+		buildStmtSeq(p, node.first);
+		p.goUp();
+		for (Value phi : node.phis) {
+			phi.args[1] = this.current[phi.var]; // back edge
+		}
+		this.current = header;
+		return node;
+	}
+
+	/**
+	 * Creates a condition.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a cond node
+	 * @return the condition
+	 */
+	private Cond buildCond(ParseTree p) {
+		assert p.currNT() == 12 : "Expecting <cond>";
+		Cond cond = new Cond();
+		cond.kind = p.currAlt();
+		p.goDown(1);
+		if (cond.kind == Cond.COMP) {
+			p.goDown(1); // op
+			cond.left = buildOp(p);
+			p.goUp();
+			p.goDown(2); // comp op
+			cond.op = p.currAlt();
+			p.goUp();
+			p.goDown(3); // op
+			cond.right = buildOp(p);
+			p.goUp();
+		} else {
+			cond.first = buildCond(p);
+		}
+		p.goUp();
+		if (cond.kind > Cond.NOT) {
+			p.goDown(2); // second cond
+			cond.second = buildCond(p);
+			p.goUp();
+		}
+		return cond;
+	}
+
+	/**
+	 * Creates the expression of an exp node.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an exp node
+	 * @return the expression
+	 */
+	private Expr buildExp(ParseTree p) {
+		assert p.currNT() == 14 : "Expecting <exp>";
+		p.goDown(1); // fac
+		Expr left = buildFac(p);
+		p.goUp();
+		if (p.currAlt() == 1) {
+			return left;
+		}
+		p.goDown(2); // exp
+		Expr right = buildExp(p);
+		p.goUp();
+		return Expr.binary(p.currAlt() == 2 ? Expr.PLUS : Expr.MINUS, left,
+				right);
+	}
+
+	/**
+	 * Creates the expression of a fac node.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a fac node
+	 * @return the expression
+	 */
+	private Expr buildFac(ParseTree p) {
+		assert p.currNT() == 15 : "Expecting <fac>";
+		p.goDown(1); // op
+		Expr left = buildOp(p);
+		p.goUp();
+		if (p.currAlt() == 1) {
+			return left;
+		}
+		p.goDown(2); // fac
+		Expr right = buildFac(p);
+		p.goUp();
+		return Expr.binary(Expr.TIMES, left, right);
+	}
+
+	/**
+	 * Creates the expression of an op node.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an op node
+	 * @return the expression
+	 */
+	private Expr buildOp(ParseTree p) {
+		assert p.currNT() == 16 : "Expecting <op>";
+		int alt = p.currAlt();
+		p.goDown(1);
+		Expr e;
+		if (alt == 1) { // int
+			e = Expr.constant(p.currInt());
+		} else if (alt == 2) { // id
+			e = Expr.use(this.current[p.currIdSlot()]);
+		} else { // (exp)
+			e = buildExp(p);
+		}
+		p.goUp();
+		return e;
+	}
+
+	// public methods
+	/**
+	 * Builds the graph of a program.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at the prog node
+	 * @return the graph
+	 */
+	public ControlFlowGraph build(ParseTree p) {
+		assert p.currNT() == 1 : "Expecting <prog>";
+		String[] names = new String[p.idCount()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = p.idName(i);
+		}
+		this.g = new ControlFlowGraph(names);
+		this.current = this.g.undef.clone();
+		p.goDown(2); // stmt seq
+		buildStmtSeq(p, this.g.nodes);
+		p.goUp();
+		return this.g;
+	}
+}
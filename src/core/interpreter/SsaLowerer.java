@@ -0,0 +1,382 @@
+package core.interpreter;
+import java.util.List;
+
+import core.interpreter.ControlFlowGraph.Cond;
+import core.interpreter.ControlFlowGraph.Expr;
+import core.interpreter.ControlFlowGraph.Node;
+import core.interpreter.ControlFlowGraph.Stmt;
+import core.interpreter.ControlFlowGraph.Value;
+
+/**
+ * Lowers the SSA control-flow graph of a Core program back to its parse tree,
+ * replacing the statement sequence of the program. Every value is written as
+ * the identifier it is a value of, and the phi values are dropped, which is
+ * correct because the values of an identifier never overlap. Parentheses are
+ * added where the right associativity of the grammar requires them.
+ *
+ * An if statement whose then branch was emptied gets the negation of its
+ * condition and the else branch as then branch. The passes never empty both
+ * branches of an if statement, the body of a while statement or the program.
+ *
+ * @author Simeon Georgiev
+ */
+public class SsaLowerer {
+	// fields
+	/**
+	 * The graph being lowered.
+	 */
+	private ControlFlowGraph g;
+
+	// private methods
+	/**
+	 * Returns the number of statements in a sequence of nodes, not counting
+	 * nested ones.
+	 *
+	 * @param nodes
+	 *            the nodes
+	 * @return the number of statements
+	 */
+	private static int countStmts(List<Node> nodes) {
+		int count = 0;
+		for (Node node : nodes) {
+			count += node.kind == Node.BLOCK ? node.stmts.size() : 1;
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the statements of a sequence of nodes.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a new stmt seq node
+	 * @param nodes
+	 *            the nodes, with at least one statement
+	 */
+	private void lowerStmtSeq(ParseTree p, List<Node> nodes) {
+		int left = countStmts(nodes);
+		assert left > 0 : "Expecting a statement";
+		int depth = 0;
+		for (Node node : nodes) {
+			int n = node.kind == Node.BLOCK ? node.stmts.size() : 1;
+			for (int i = 0; i < n; i++) {
+				left--;
+				p.setNT(3); // stmt seq
+				p.setAlt(left > 0 ? 2 : 1);
+				p.createBranch(1);
+				p.goDown(1);
+				p.setNT(6); // stmt
+				if (node.kind == Node.IF) {
+					lowerIf(p, node);
+				} else if (node.kind == Node.LOOP) {
+					lowerLoop(p, node);
+				} else {
+					lowerStmt(p, node.stmts.get(i));
+				}
+				p.goUp();
+				if (left > 0) {
+					p.createBranch(2);
+					p.goDown(2); // stmt seq
+					depth++;
+				}
+			}
+		}
+		for (int i = 0; i < depth; i++) {
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Writes an assign, read or write statement.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a new stmt node
+	 * @param stmt
+	 *            the statement
+	 */
+	private void lowerStmt(ParseTree p, Stmt stmt) {
+		p.setAlt(stmt.kind);
+		p.createBranch(1);
+		p.goDown(1);
+		if (stmt.kind == Stmt.ASSIGN) {
+			Value value = stmt.values.get(0);
+			p.setNT(7); // assign
+			p.setAlt(1);
+			p.createBranch(1);
+			p.goDown(1);
+			p.setNT(18); // id terminal
+			p.setIdName(this.g.names[value.var]);
+			p.goUp();
+			p.createBranch(2);
+			p.goDown(2);
+			p.setNT(14); // exp
+			lowerExp(p, value.exp);
+			p.goUp();
+		} else {
+			p.setNT(stmt.kind == Stmt.READ ? 10 : 11); // input or output
+			p.setAlt(1);
+			p.createBranch(1);
+			p.goDown(1); // id list
+			lowerIdList(p, stmt.values, 0);
+			p.goUp();
+		}
+		p.goUp();
+	}
+
+	/**
+	 * Writes the identifiers of a list of values, starting at an index.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a new id list node
+	 * @param values
+	 *            the values
+	 * @param index
+	 *            the index of the first value to write
+	 */
+	private void lowerIdList(ParseTree p, List<Value> values, int index) {
+		boolean more = index + 1 < values.size();
+		p.setNT(5); // id list
+		p.setAlt(more ? 2 : 1);
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(18); // id terminal
+		p.setIdName(this.g.names[values.get(index).var]);
+		p.goUp();
+		if (more) {
+			p.createBranch(2);
+			p.goDown(2);
+			lowerIdList(p, values, index + 1);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Writes an if statement.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a new stmt node
+	 * @param node
+	 *            the if node
+	 */
+	private void lowerIf(ParseTree p, Node node) {
+		p.setAlt(2);
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(8); // if
+		List<Node> first = node.first;
+		List<Node> second = node.second;
+		boolean negated = countStmts(first) == 0;
+		if (negated) { // if !C then E end
+			first = second;
+			second = node.first;
+		}
+		boolean hasElse = countStmts(second) > 0;
+		p.setAlt(hasElse ? 2 : 1);
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(12); // cond
+		if (negated) {
+			p.setAlt(2); // !
+			p.createBranch(1);
+			p.goDown(1);
+			p.setNT(12); // cond
+			lowerCond(p, node.cond);
+			p.goUp();
+		} else {
+			lowerCond(p, node.cond);
+		}
+		p.goUp();
+		p.createBranch(2);
+		p.goDown(2); // then stmt seq
+		lowerStmtSeq(p, first);
+		p.goUp();
+		if (hasElse) {
+			p.createBranch(3);
+			p.goDown(3); // else stmt seq
+			lowerStmtSeq(p, second);
+			p.goUp();
+		}
+		p.goUp();
+	}
+
+	/**
+	 * Writes a while statement.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a new stmt node
+	 * @param node
+	 *            the loop node
+	 */
+	private void lowerLoop(ParseTree p, Node node) {
+		p.setAlt(3);
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(9); // loop
+		p.setAlt(1);
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(12); // cond
+		lowerCond(p, node.cond);
+		p.goUp();
+		p.createBranch(2);
+		p.goDown(2); // stmt seq
+		lowerStmtSeq(p, node.first);
+		p.goUp();
+		p.goUp();
+	}
+
+	/**
+	 * Writes a condition.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a new cond node
+	 * @param cond
+	 *            the condition
+	 */
+	private void lowerCond(ParseTree p, Cond cond) {
+		p.setAlt(cond.kind);
+		p.createBranch(1);
+		p.goDown(1);
+		if (cond.kind == Cond.COMP) {
+			p.setNT(13); // comp
+			p.setAlt(1);
+			p.createBranch(1);
+			p.goDown(1);
+			p.setNT(16); // op
+			lowerOp(p, cond.left);
+			p.goUp();
+			p.createBranch(2);
+			p.goDown(2);
+			p.setNT(17); // comp op
+			p.setAlt(cond.op);
+			p.goUp();
+			p.createBranch(3);
+			p.goDown(3);
+			p.setNT(16); // op
+			lowerOp(p, cond.right);
+			p.goUp();
+		} else {
+			p.setNT(12); // cond
+			lowerCond(p, cond.first);
+		}
+		p.goUp();
+		if (cond.kind > Cond.NOT) {
+			p.createBranch(2);
+			p.goDown(2);
+			p.setNT(12); // second cond
+			lowerCond(p, cond.second);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Writes an expression as an exp node.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a new exp node
+	 * @param e
+	 *            the expression
+	 */
+	private void lowerExp(ParseTree p, Expr e) {
+		if (e.kind == Expr.CONST && e.val < 0) {
+			ParseTrees.setConstExp(p, e.val); // 0 - n
+			return;
+		}
+		boolean sum = e.kind == Expr.PLUS || e.kind == Expr.MINUS;
+		p.setAlt(sum ? e.kind : 1); // + is 2, - is 3
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(15); // fac
+		lowerFac(p, sum ? e.left : e);
+		p.goUp();
+		if (sum) {
+			p.createBranch(2);
+			p.goDown(2);
+			p.setNT(14); // exp
+			lowerExp(p, e.right);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Writes an expression as a fac node. A sum or difference is put in
+	 * parentheses.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a new fac node
+	 * @param e
+	 *            the expression
+	 */
+	private void lowerFac(ParseTree p, Expr e) {
+		boolean product = e.kind == Expr.TIMES;
+		p.setAlt(product ? 2 : 1);
+		p.createBranch(1);
+		p.goDown(1);
+		p.setNT(16); // op
+		lowerOp(p, product ? e.left : e);
+		p.goUp();
+		if (product) {
+			p.createBranch(2);
+			p.goDown(2);
+			p.setNT(15); // fac
+			lowerFac(p, e.right);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Writes an expression as an op node. Anything but an integer or an
+	 * identifier is put in parentheses, and so is a negative integer.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a new op node
+	 * @param e
+	 *            the expression
+	 */
+	private void lowerOp(ParseTree p, Expr e) {
+		if (e.kind == Expr.CONST && e.val >= 0) {
+			p.setAlt(1);
+			p.createBranch(1);
+			p.goDown(1);
+			p.setNT(20); // int terminal
+			p.setInt(e.val);
+			p.goUp();
+		} else if (e.kind == Expr.USE) {
+			p.setAlt(2);
+			p.createBranch(1);
+			p.goDown(1);
+			p.setNT(18); // id terminal
+			p.setIdName(this.g.names[e.value.var]);
+			p.goUp();
+		} else { // (exp)
+			p.setAlt(3);
+			p.createBranch(1);
+			p.goDown(1);
+			p.setNT(14); // exp
+			if (e.kind == Expr.CONST) {
+				ParseTrees.setConstExp(p, e.val); // 0 - n
+			} else {
+				lowerExp(p, e);
+			}
+			p.goUp();
+		}
+	}
+
+	// public methods
+	/**
+	 * Replaces the statements of a program by the statements of its graph.
+	 *
+	 * @param g
+	 *            the graph
+	 * @param p
+	 *            the parse tree, with the cursor at the prog node
+	 */
+	public void lower(ControlFlowGraph g, ParseTree p) {
+		assert p.currNT() == 1 : "Expecting <prog>";
+		this.g = g;
+		p.deleteBranch(2);
+		p.createBranch(2);
+		p.goDown(2); // stmt seq
+		lowerStmtSeq(p, g.nodes);
+		p.goUp();
+	}
+}
@@ -0,0 +1,22 @@
+package core.interpreter;
+/**
+ * Pass that analyzes or transforms a program given in the SSA control-flow
+ * graph. The passes are run by a PassManager, in the order asked for.
+ * 
+ * @author Simeon Georgiev
+ */
+public interface SsaPass {
+
+	/**
+	 * Runs the pass on the program given in the graph.
+	 * 
+	 * @param g
+	 *            the graph representing the program
+	 * @param pm
+	 *            the pass manager, which provides the analyses of the graph
+	 * @return true if the graph was changed, false otherwise
+	 * @ensures The program represented by the graph produces the same output
+	 *          and errors as before, for every input.
+	 */
+	boolean run(ControlFlowGraph g, PassManager pm);
+}
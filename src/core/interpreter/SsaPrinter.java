@@ -0,0 +1,195 @@
+package core.interpreter;
+import java.util.List;
+
+import core.interpreter.ControlFlowGraph.Cond;
+import core.interpreter.ControlFlowGraph.Expr;
+import core.interpreter.ControlFlowGraph.Node;
+import core.interpreter.ControlFlowGraph.Stmt;
+import core.interpreter.ControlFlowGraph.Value;
+
+/**
+ * Prints the SSA control-flow graph in the syntax of Core, with every value
+ * named by its identifier and number, such as X.2. The phi values of an if
+ * statement are printed after it, and those of a while statement before it.
+ *
+ * @author Simeon Georgiev
+ */
+public class SsaPrinter implements SsaPass {
+	// fields
+	/**
+	 * The graph being printed.
+	 */
+	private ControlFlowGraph g;
+
+	/**
+	 * Number of spaces to print in front of each statement.
+	 */
+	private int space;
+
+	// private methods
+	/**
+	 * Prints a line, indented.
+	 *
+	 * @param line
+	 *            the text of the line
+	 */
+	private void printLine(String line) {
+		for (int i = 0; i < this.space; i++) {
+			System.out.print(" ");
+		}
+		System.out.println(line);
+	}
+
+	/**
+	 * Prints a sequence of nodes.
+	 *
+	 * @param nodes
+	 *            the nodes
+	 */
+	private void printNodes(List<Node> nodes) {
+		for (Node node : nodes) {
+			if (node.kind == Node.BLOCK) {
+				for (Stmt stmt : node.stmts) {
+					printStmt(stmt);
+				}
+			} else if (node.kind == Node.IF) {
+				printLine("if " + condText(node.cond) + " then");
+				this.space += 4;
+				printNodes(node.first);
+				this.space -= 4;
+				if (!node.second.isEmpty()) {
+					printLine("else");
+					this.space += 4;
+					printNodes(node.second);
+					this.space -= 4;
+				}
+				printLine("end;");
+				printPhis(node);
+			} else {
+				printPhis(node);
+				printLine("while " + condText(node.cond) + " loop");
+				this.space += 4;
+				printNodes(node.first);
+				this.space -= 4;
+				printLine("end;");
+			}
+		}
+	}
+
+	/**
+	 * Prints an assign, read or write statement.
+	 *
+	 * @param stmt
+	 *            the statement
+	 */
+	private void printStmt(Stmt stmt) {
+		if (stmt.kind == Stmt.ASSIGN) {
+			Value value = stmt.values.get(0);
+			printLine(this.g.valueName(value) + " = " + expText(value.exp)
+					+ ";");
+		} else {
+			StringBuilder line = new StringBuilder(
+					stmt.kind == Stmt.READ ? "read " : "write ");
+			for (int i = 0; i < stmt.values.size(); i++) {
+				line.append(i > 0 ? ", " : "");
+				line.append(this.g.valueName(stmt.values.get(i)));
+			}
+			printLine(line + ";");
+		}
+	}
+
+	/**
+	 * Prints the phi values of an if or while statement.
+	 *
+	 * @param node
+	 *            the if or loop node
+	 */
+	private void printPhis(Node node) {
+		for (Value phi : node.phis) {
+			printLine(this.g.valueName(phi) + " = phi("
+					+ this.g.valueName(phi.args[0]) + ", "
+					+ this.g.valueName(phi.args[1]) + ");");
+		}
+	}
+
+	/**
+	 * Returns the text of a condition.
+	 *
+	 * @param cond
+	 *            the condition
+	 * @return the text
+	 */
+	private String condText(Cond cond) {
+		switch (cond.kind) {
+		case Cond.COMP:
+			String[] ops = { "!=", "==", "<", ">", "<=", ">=" };
+			return "(" + opText(cond.left) + " " + ops[cond.op - 1] + " "
+					+ opText(cond.right) + ")";
+		case Cond.NOT:
+			return "!" + condText(cond.first);
+		default:
+			return "[" + condText(cond.first)
+					+ (cond.kind == Cond.AND ? " && " : " || ")
+					+ condText(cond.second) + "]";
+		}
+	}
+
+	/**
+	 * Returns the text of an expression as an exp.
+	 *
+	 * @param e
+	 *            the expression
+	 * @return the text
+	 */
+	private String expText(Expr e) {
+		if (e.kind == Expr.CONST && e.val < 0) {
+			return "0 - " + -e.val;
+		} else if (e.kind == Expr.PLUS || e.kind == Expr.MINUS) {
+			return facText(e.left) + (e.kind == Expr.PLUS ? " + " : " - ")
+					+ expText(e.right);
+		}
+		return facText(e);
+	}
+
+	/**
+	 * Returns the text of an expression as a fac, in parentheses if it is a
+	 * sum or difference.
+	 *
+	 * @param e
+	 *            the expression
+	 * @return the text
+	 */
+	private String facText(Expr e) {
+		if (e.kind == Expr.TIMES) {
+			return opText(e.left) + " * " + facText(e.right);
+		}
+		return opText(e);
+	}
+
+	/**
+	 * Returns the text of an expression as an op, in parentheses if it is not
+	 * a non-negative integer or a value.
+	 *
+	 * @param e
+	 *            the expression
+	 * @return the text
+	 */
+	private String opText(Expr e) {
+		if (e.kind == Expr.CONST) {
+			return e.val >= 0 ? Integer.toString(e.val) : "(0 - " + -e.val
+					+ ")";
+		} else if (e.kind == Expr.USE) {
+			return this.g.valueName(e.value);
+		}
+		return "(" + expText(e) + ")";
+	}
+
+	// public methods
+	@Override
+	public boolean run(ControlFlowGraph g, PassManager pm) {
+		this.g = g;
+		this.space = 0;
+		printNodes(g.nodes);
+		return false;
+	}
+}
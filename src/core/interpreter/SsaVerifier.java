@@ -0,0 +1,194 @@
+package core.interpreter;
+import java.util.BitSet;
+import java.util.List;
+
+import core.interpreter.ControlFlowGraph.Cond;
+import core.interpreter.ControlFlowGraph.Expr;
+import core.interpreter.ControlFlowGraph.Node;
+import core.interpreter.ControlFlowGraph.Stmt;
+import core.interpreter.ControlFlowGraph.Value;
+
+/**
+ * Checks that the SSA control-flow graph is well formed: every use refers to
+ * the value of its identifier that reaches it, and every phi value to the
+ * values that reach the ends of the branches, or the loop entry and the end of
+ * the body. This is also what the lowering to a parse tree relies on. An
+ * identifier whose values differ at a join without a phi value has no value
+ * after it. The pass reports the first violation and stops the program.
+ *
+ * @author Simeon Georgiev
+ */
+public class SsaVerifier implements SsaPass {
+	// fields
+	/**
+	 * The graph being checked.
+	 */
+	private ControlFlowGraph g;
+
+	/**
+	 * The value of each identifier that reaches the current point, indexed by
+	 * slot; null where the values differ.
+	 */
+	private Value[] current;
+
+	// private methods
+	/**
+	 * Reports a violation and stops the program.
+	 *
+	 * @param message
+	 *            the description of the violation
+	 */
+	private static void fail(String message) {
+		System.err.println("Invalid SSA graph: " + message);
+		System.exit(0);
+	}
+
+	/**
+	 * Checks that a value is the value of its identifier that reaches the
+	 * current point.
+	 *
+	 * @param value
+	 *            the value used
+	 */
+	private void checkUse(Value value) {
+		if (this.current[value.var] != value) {
+			fail("use of " + this.g.valueName(value) + " is not reached by it");
+		}
+	}
+
+	/**
+	 * Checks a sequence of nodes.
+	 *
+	 * @param nodes
+	 *            the nodes
+	 */
+	private void checkNodes(List<Node> nodes) {
+		for (Node node : nodes) {
+			if (node.kind == Node.BLOCK) {
+				for (Stmt stmt : node.stmts) {
+					for (Value value : stmt.values) {
+						if (stmt.kind == Stmt.WRITE) {
+							checkUse(value);
+						} else {
+							if (stmt.kind == Stmt.ASSIGN) {
+								checkExp(value.exp);
+							}
+							this.current[value.var] = value;
+						}
+					}
+				}
+			} else if (node.kind == Node.IF) {
+				checkCond(node.cond);
+				Value[] before = this.current.clone();
+				checkNodes(node.first);
+				Value[] after = this.current;
+				this.current = before;
+				checkNodes(node.second);
+				Value[] other = this.current.clone();
+				for (int i = 0; i < after.length; i++) {
+					if (after[i] != other[i]) {
+						this.current[i] = null;
+					}
+				}
+				for (Value phi : node.phis) {
+					if (phi.args[0] != after[phi.var]
+							|| phi.args[1] != other[phi.var]) {
+						fail("arguments of " + this.g.valueName(phi)
+								+ " do not reach the join");
+					}
+					this.current[phi.var] = phi;
+				}
+			} else {
+				BitSet assigned = new BitSet();
+				addAssigned(node.first, assigned);
+				Value[] entry = this.current.clone();
+				for (int i = assigned.nextSetBit(0); i >= 0; i = assigned
+						.nextSetBit(i + 1)) {
+					this.current[i] = null;
+				}
+				for (Value phi : node.phis) {
+					if (phi.args[0] != entry[phi.var]) {
+						fail("first argument of " + this.g.valueName(phi)
+								+ " does not enter the loop");
+					}
+					this.current[phi.var] = phi;
+				}
+				checkCond(node.cond);
+				Value[] header = this.current.clone();
+				checkNodes(node.first);
+				for (Value phi : node.phis) {
+					if (phi.args[1] != this.current[phi.var]) {
+						fail("second argument of " + this.g.valueName(phi)
+								+ " does not reach the end of the body");
+					}
+				}
+				this.current = header;
+			}
+		}
+	}
+
+	/**
+	 * Adds the slots of the identifiers assigned or read in a sequence of
+	 * nodes, including nested ones, to a set.
+	 *
+	 * @param nodes
+	 *            the nodes
+	 * @param set
+	 *            the set of slots
+	 */
+	private static void addAssigned(List<Node> nodes, BitSet set) {
+		for (Node node : nodes) {
+			for (Stmt stmt : node.stmts) {
+				if (stmt.kind != Stmt.WRITE) {
+					for (Value value : stmt.values) {
+						set.set(value.var);
+					}
+				}
+			}
+			addAssigned(node.first, set);
+			addAssigned(node.second, set);
+		}
+	}
+
+	/**
+	 * Checks the uses of a condition.
+	 *
+	 * @param cond
+	 *            the condition
+	 */
+	private void checkCond(Cond cond) {
+		if (cond.kind == Cond.COMP) {
+			checkExp(cond.left);
+			checkExp(cond.right);
+		} else {
+			checkCond(cond.first);
+			if (cond.second != null) {
+				checkCond(cond.second);
+			}
+		}
+	}
+
+	/**
+	 * Checks the uses of an expression.
+	 *
+	 * @param e
+	 *            the expression
+	 */
+	private void checkExp(Expr e) {
+		if (e.kind == Expr.USE) {
+			checkUse(e.value);
+		} else if (e.kind != Expr.CONST) {
+			checkExp(e.left);
+			checkExp(e.right);
+		}
+	}
+
+	// public methods
+	@Override
+	public boolean run(ControlFlowGraph g, PassManager pm) {
+		this.g = g;
+		this.current = g.undef.clone();
+		checkNodes(g.nodes);
+		return false;
+	}
+}
@@ -0,0 +1,289 @@
+package core.interpreter;
+/**
+ * Selects superinstructions for the Core executor. The statements and
+ * conditions of the most common shapes are marked in the parse tree with a
+ * code and their operands, so that the executor runs each of them in a single
+ * dispatch instead of descending to every node below it. The shapes are those
+ * that ran most often when profiling the test programs: assignments of an
+ * operand, of the sum, difference or product of two operands, and comparisons
+ * of an identifier with an integer or another identifier. "Variable +=
+ * constant" is the sum of an identifier and an integer.
+ *
+ * An operand is an identifier or an integer, and an identifier is only
+ * accepted if the definite-assignment analysis found it always initialized,
+ * since superinstructions do not check identifiers. The analysis must
+ * therefore run first.
+ *
+ * @author Simeon Georgiev
+ */
+public class SuperinstructionSelector implements Analyzer {
+	// fields
+	/**
+	 * X = K: operands X and K.
+	 */
+	static final int SET_CONST = 1;
+
+	/**
+	 * X = Y: operands X and Y.
+	 */
+	static final int SET_VAR = 2;
+
+	/**
+	 * X = Y + K, X = K + Y or X = Y - K (with -K): operands X, Y and K.
+	 */
+	static final int ADD_CONST = 3;
+
+	/**
+	 * X = Y + Z: operands X, Y and Z.
+	 */
+	static final int ADD_VAR = 4;
+
+	/**
+	 * X = Y - Z: operands X, Y and Z.
+	 */
+	static final int SUB_VAR = 5;
+
+	/**
+	 * X = Y * K or X = K * Y: operands X, Y and K.
+	 */
+	static final int MUL_CONST = 6;
+
+	/**
+	 * X = Y * Z: operands X, Y and Z.
+	 */
+	static final int MUL_VAR = 7;
+
+	/**
+	 * (X op K) or (K op X) with the operator mirrored: code CMP_CONST + op - 1,
+	 * where op is the alternative of the comp op, and operands X and K.
+	 */
+	static final int CMP_CONST = 8;
+
+	/**
+	 * (X op Y): code CMP_VAR + op - 1, and operands X and Y.
+	 */
+	static final int CMP_VAR = 14;
+
+	/**
+	 * The kind of the last operand read: 0 if it is neither an integer nor an
+	 * identifier always initialized, 1 for an identifier, 2 for an integer.
+	 */
+	private int kind;
+
+	/**
+	 * The slot or the value of the last operand read.
+	 */
+	private int value;
+
+	// private methods
+	/**
+	 * Marks the statements and conditions in a statement sequence.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void selectStmtSeq(ParseTree p) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		p.goDown(1); // stmt
+		selectStmt(p);
+		p.goUp();
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			selectStmtSeq(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Marks a statement, or the statements and conditions nested in it.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void selectStmt(ParseTree p) {
+		assert p.currNT() == 6 : "Expecting <stmt>";
+		int alt = p.currAlt();
+		if (alt == 1) {
+			p.goDown(1); // assign
+			int[] instruction = selectAssign(p);
+			p.goUp();
+			p.setSuperinstruction(instruction[0], instruction[1],
+					instruction[2], instruction[3]);
+		} else if (alt == 2 || alt == 3) {
+			p.goDown(1); // if or loop
+			p.goDown(1); // cond
+			selectCond(p);
+			p.goUp();
+			p.goDown(2); // stmt seq
+			selectStmtSeq(p);
+			p.goUp();
+			if (alt == 2 && p.currAlt() == 2) {
+				p.goDown(3); // else stmt seq
+				selectStmtSeq(p);
+				p.goUp();
+			}
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Selects the superinstruction of an assign statement whose expression has
+	 * one or two operands.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an assign node
+	 * @return the code of the superinstruction, 0 if there is none, followed
+	 *         by its three operands
+	 */
+	private int[] selectAssign(ParseTree p) {
+		assert p.currNT() == 7 : "Expecting <assign>";
+		p.goDown(1); // id
+		int x = p.currIdSlot();
+		p.goUp();
+
+		p.goDown(2); // exp
+		int expAlt = p.currAlt();
+		p.goDown(1); // fac
+		int facAlt = p.currAlt();
+		p.goDown(1); // op
+		operand(p);
+		p.goUp();
+		int kindA = this.kind;
+		int a = this.value;
+		int kindB = 0;
+		int b = 0;
+		if (facAlt == 2) { // op * fac
+			p.goDown(2); // fac
+			simpleFac(p);
+			p.goUp();
+			kindB = this.kind;
+			b = this.value;
+		}
+		p.goUp();
+		if (expAlt > 1 && facAlt == 1) { // fac + exp or fac - exp
+			p.goDown(2); // exp
+			if (p.currAlt() == 1) {
+				p.goDown(1); // fac
+				simpleFac(p);
+				p.goUp();
+				kindB = this.kind;
+				b = this.value;
+			}
+			p.goUp();
+		}
+		p.goUp();
+
+		int code = 0;
+		if (expAlt == 1 && facAlt == 1) {
+			code = kindA == 2 ? SET_CONST : kindA == 1 ? SET_VAR : 0;
+		} else if (kindA == 0 || kindB == 0 || (expAlt > 1 && facAlt > 1)) {
+			code = 0;
+		} else if (kindA == 1 && kindB == 1) { // two identifiers
+			code = facAlt == 2 ? MUL_VAR : expAlt == 2 ? ADD_VAR : SUB_VAR;
+		} else if (kindA == 1 && kindB == 2) { // identifier and integer
+			code = facAlt == 2 ? MUL_CONST : ADD_CONST;
+			b = expAlt == 3 ? -b : b; // wraps around like the subtraction
+		} else if (kindA == 2 && kindB == 1 && expAlt != 3) {
+			code = facAlt == 2 ? MUL_CONST : ADD_CONST;
+			int k = a;
+			a = b;
+			b = k;
+		}
+		return new int[] { code, x, a, b };
+	}
+
+	/**
+	 * Marks a condition that is a comparison of an identifier with an
+	 * integer or another identifier, or the conditions nested in it.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a cond node
+	 */
+	private void selectCond(ParseTree p) {
+		assert p.currNT() == 12 : "Expecting <cond>";
+		int alt = p.currAlt();
+		if (alt == 1) {
+			p.goDown(1); // comp
+			p.goDown(1); // op
+			operand(p);
+			p.goUp();
+			int kindA = this.kind;
+			int a = this.value;
+			p.goDown(2); // comp op
+			int op = p.currAlt();
+			p.goUp();
+			p.goDown(3); // op
+			operand(p);
+			p.goUp();
+			p.goUp();
+			if (kindA == 1 && this.kind == 1) {
+				p.setSuperinstruction(CMP_VAR + op - 1, a, this.value, 0);
+			} else if (kindA == 1 && this.kind == 2) {
+				p.setSuperinstruction(CMP_CONST + op - 1, a, this.value, 0);
+			} else if (kindA == 2 && this.kind == 1) {
+				int[] mirrored = { 0, 1, 2, 4, 3, 6, 5 }; // < >, <= >=
+				p.setSuperinstruction(CMP_CONST + mirrored[op] - 1,
+						this.value, a, 0);
+			}
+		} else {
+			p.goDown(1); // cond
+			selectCond(p);
+			p.goUp();
+		}
+		if (alt > 2) {
+			p.goDown(2); // second cond
+			selectCond(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Reads the operand of a factor into kind and value, if the factor is a
+	 * single operand. Otherwise kind is set to 0.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at a fac node
+	 */
+	private void simpleFac(ParseTree p) {
+		assert p.currNT() == 15 : "Expecting <fac>";
+		this.kind = 0;
+		if (p.currAlt() == 1) {
+			p.goDown(1); // op
+			operand(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Reads an operand into kind and value.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an op node
+	 */
+	private void operand(ParseTree p) {
+		assert p.currNT() == 16 : "Expecting <op>";
+		int alt = p.currAlt();
+		this.kind = 0;
+		if (alt == 3) { // (exp)
+			return;
+		}
+		p.goDown(1);
+		if (alt == 1) { // int
+			this.kind = 2;
+			this.value = p.currInt();
+		} else if (!p.currIdChecked()) { // always initialized
+			this.kind = 1;
+			this.value = p.currIdSlot();
+		}
+		p.goUp();
+	}
+
+	// public methods
+	@Override
+	public void analyze(ParseTree p) {
+		assert p.currNT() == 1 : "Expecting <prog>";
+		p.goDown(2); // stmt seq
+		selectStmtSeq(p);
+		p.goUp();
+	}
+}
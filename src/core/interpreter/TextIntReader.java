@@ -0,0 +1,150 @@
+package core.interpreter;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads integers written as text, separated by whitespace. The bytes of the
+ * file are read into a buffer, and each integer is parsed from the buffer
+ * directly, so reading an integer allocates nothing.
+ *
+ * An integer is an optional + or - sign followed by ASCII digits, and must
+ * fit in an int. Whitespace is the ASCII characters Java considers whitespace.
+ * Unlike java.util.Scanner, which this replaces, grouping separators such as
+ * 1,000 and digits of other scripts are not integers, so that the input does
+ * not depend on the locale. As with Scanner, an error reading the file is
+ * taken as the end of the input.
+ *
+ * @author Simeon Georgiev
+ */
+public class TextIntReader implements IntReader {
+	// fields
+	/**
+	 * The number of bytes read from the file at a time.
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * The data file.
+	 */
+	private final InputStream in;
+
+	/**
+	 * The bytes read from the file.
+	 */
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	/**
+	 * The index of the next byte in the buffer.
+	 */
+	private int pos;
+
+	/**
+	 * The number of bytes in the buffer.
+	 */
+	private int limit;
+
+	/**
+	 * Whether the end of the file was reached.
+	 */
+	private boolean end;
+
+	// private methods
+	/**
+	 * Returns the next byte without consuming it, reading more of the file
+	 * when the buffer is used up.
+	 *
+	 * @return the byte, from 0 to 255, or -1 at the end of the file
+	 */
+	private int peek() {
+		if (this.pos == this.limit) {
+			if (this.end) {
+				return -1;
+			}
+			int n;
+			try {
+				n = this.in.read(this.buffer);
+			} catch (IOException e) {
+				n = -1;
+			}
+			this.pos = 0;
+			this.limit = Math.max(n, 0);
+			if (n <= 0) { // a full buffer is never asked for 0 bytes
+				this.end = true;
+				return -1;
+			}
+		}
+		return this.buffer[this.pos] & 0xFF;
+	}
+
+	/**
+	 * Returns whether a byte is whitespace.
+	 *
+	 * @param c
+	 *            the byte
+	 * @return true for space, tab, line feed, vertical tab, form feed,
+	 *         carriage return and the separators 28 to 31
+	 */
+	private static boolean isSpace(int c) {
+		return c == ' ' || (9 <= c && c <= 13) || (28 <= c && c <= 31);
+	}
+
+	// public methods
+	/**
+	 * Opens a data file.
+	 *
+	 * @param filename
+	 *            the name of the data file
+	 * @throws FileNotFoundException
+	 *             if the file cannot be opened
+	 */
+	public TextIntReader(String filename) throws FileNotFoundException {
+		this.in = new FileInputStream(filename);
+	}
+
+	@Override
+	public int nextInt() {
+		int c = peek();
+		while (isSpace(c)) {
+			this.pos++;
+			c = peek();
+		}
+		if (c < 0) {
+			throw new NoSuchElementException();
+		}
+
+		boolean negative = c == '-';
+		if (c == '-' || c == '+') {
+			this.pos++;
+			c = peek();
+		}
+		long val = 0;
+		boolean valid = c >= 0 && !isSpace(c); // at least one digit
+		while (c >= 0 && !isSpace(c)) { // rest of the token
+			if (c < '0' || c > '9') {
+				valid = false;
+			} else if (valid) {
+				val = 10 * val + (c - '0');
+				valid = val <= 1L + Integer.MAX_VALUE;
+			}
+			this.pos++;
+			c = peek();
+		}
+		if (!valid || (!negative && val > Integer.MAX_VALUE)) {
+			throw new InputMismatchException();
+		}
+		return (int) (negative ? -val : val);
+	}
+
+	@Override
+	public void close() {
+		try {
+			this.in.close();
+		} catch (IOException e) {
+			// nothing left to read
+		}
+	}
+}
@@ -47,7 +47,7 @@ public class Tokenizer implements Lexer {
 	 * Map of index to value, containing the values of integer tokens in the
 	 * program.
 	 */
-	private Map<Integer, Integer> intValues = new HashMap<Integer, Integer>();
+	private Map<Integer, Long> intValues = new HashMap<Integer, Long>();
 
 	/**
 	 * Map of index to name, containing the names of identifier tokens in the
@@ -197,8 +197,10 @@ public class Tokenizer implements Lexer {
 	 *          first character after current token.
 	 * @throws IOException
 	 *             if an IO error occurs
+	 * @throws ParseException
+	 *             if the integer does not fit in 64 bits
 	 */
-	private void getIntToken() throws IOException {
+	private void getIntToken() throws IOException, ParseException {
 		Pattern intChar = Pattern.compile("\\d"); // for digits
 
 		int ch = this.in.read(); // first char
@@ -212,8 +214,13 @@ public class Tokenizer implements Lexer {
 		// after ensuring each character is a digit, no need to match buffer
 
 		// put integer in map
-		this.intValues.put(this.numTokens,
-				Integer.parseInt(this.buffer.toString()));
+		try {
+			this.intValues.put(this.numTokens,
+					Long.parseLong(this.buffer.toString()));
+		} catch (NumberFormatException e) { // more than 64 bits
+			throw new ParseException("Integer too large: " + this.buffer,
+					this.numTokens);
+		}
 		this.tokens.add(31); // 31 for integers
 		this.tokenNames.add(this.buffer.toString()); // add string
 		this.buffer = new StringBuffer("");
@@ -408,6 +415,12 @@ public class Tokenizer implements Lexer {
 
 	@Override
 	public int intVal() {
+		long val = this.longVal();
+		return val <= Integer.MAX_VALUE ? (int) val : -1;
+	}
+
+	@Override
+	public long longVal() {
 		// if current token is integer token
 		if (this.tokens.get(this.index) == 31) { // 31 is the token # for ints
 			return this.intValues.get(this.index);
@@ -22,7 +22,7 @@ public final class TokenizerTestDriver {
 		while (t.getToken() != 33) { // 33 for EOF
 			System.out.println(t.getToken());
 			/*if (t.getToken() == 31) {
-				System.out.println("int: " + t.intVal());
+				System.out.println("int: " + t.longVal());
 			}
 			if (t.getToken() == 32) {
 				System.out.println("id: " + t.idName());
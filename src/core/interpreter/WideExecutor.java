@@ -0,0 +1,702 @@
+package core.interpreter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.math.BigInteger;
+import java.util.BitSet;
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+
+/**
+ * Executor for the Core language with wide integers: arithmetic never wraps
+ * around. Values are held in longs, and an operation that overflows is
+ * evaluated again on BigIntegers; a value that does not fit in a long is kept
+ * as a BigInteger until a value that fits is assigned to its identifier.
+ *
+ * The exp and comp nodes marked by the value-range analysis cannot overflow,
+ * and are evaluated on longs without any check. The other nodes are evaluated
+ * on longs with overflow checks first.
+ *
+ * @author Simeon Georgiev
+ */
+public class WideExecutor implements Executor {
+	// fields
+	/**
+	 * Scanner used to read the input file, or null if it is a binary data
+	 * file.
+	 */
+	private Scanner scan;
+
+	/**
+	 * Reader used to read the input file if it is a binary data file.
+	 */
+	private IntReader binary;
+
+	/**
+	 * The values of the identifiers in the program that fit in a long, indexed
+	 * by slot.
+	 */
+	private long[] frame;
+
+	/**
+	 * The values of the identifiers in the program that do not fit in a long,
+	 * indexed by slot, or null for those that fit.
+	 */
+	private BigInteger[] big;
+
+	/**
+	 * The slots of the identifiers that have been assigned a value.
+	 */
+	private BitSet initialized;
+
+	/**
+	 * Whether an exact evaluation met an operand or a result that does not
+	 * fit in a long.
+	 */
+	private boolean overflowed;
+
+	/**
+	 * Whether both sides of && and || are always evaluated.
+	 */
+	private boolean eager;
+
+	// private methods
+	/**
+	 * Assigns a value to an identifier, as a long if it fits in one.
+	 *
+	 * @param slot
+	 *            the slot of the identifier
+	 * @param val
+	 *            the value
+	 */
+	private void store(int slot, BigInteger val) {
+		if (val.bitLength() < 64) {
+			this.frame[slot] = val.longValue();
+			this.big[slot] = null;
+		} else {
+			this.big[slot] = val;
+		}
+		this.initialized.set(slot);
+	}
+
+	/**
+	 * Adds two longs, setting overflowed if the sum does not fit in a long.
+	 *
+	 * @param a
+	 *            the first long
+	 * @param b
+	 *            the second long
+	 * @return the sum, wrapped around on overflow
+	 */
+	private long add(long a, long b) {
+		long r = a + b;
+		this.overflowed |= ((a ^ r) & (b ^ r)) < 0; // sign flipped
+		return r;
+	}
+
+	/**
+	 * Subtracts two longs, setting overflowed if the difference does not fit
+	 * in a long.
+	 *
+	 * @param a
+	 *            the first long
+	 * @param b
+	 *            the second long
+	 * @return the difference, wrapped around on overflow
+	 */
+	private long subtract(long a, long b) {
+		long r = a - b;
+		this.overflowed |= ((a ^ b) & (a ^ r)) < 0; // sign flipped
+		return r;
+	}
+
+	/**
+	 * Multiplies two longs, setting overflowed if the product does not fit in
+	 * a long.
+	 *
+	 * @param a
+	 *            the first long
+	 * @param b
+	 *            the second long
+	 * @return the product, wrapped around on overflow
+	 */
+	private long multiply(long a, long b) {
+		long r = a * b;
+		if ((Math.abs(a) | Math.abs(b)) >>> 31 != 0) { // may not fit
+			this.overflowed |= (b != 0 && r / b != a)
+					|| (a == Long.MIN_VALUE && b == -1);
+		}
+		return r;
+	}
+
+	/**
+	 * Returns the slot of an identifier whose value is used, after checking
+	 * that it is initialized if needed.
+	 *
+	 * @param p
+	 *            the parse tree, with the cursor at an id node
+	 * @return the slot of the identifier
+	 */
+	private int useId(ParseTree p) {
+		int slot = p.currIdSlot();
+		if (p.currIdChecked() && !this.initialized.get(slot)) {
+			try {
+				throw new RuntimeException("Uninitialized variable "
+						+ p.idName(slot));
+			} catch (RuntimeException e) {
+				System.err.println(e.getMessage());
+				System.exit(0);
+			}
+		}
+		return slot;
+	}
+
+	/**
+	 * Executes a statement sequence.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void execStmtSeq(ParseTree p) {
+		assert p.currNT() == 3 : "Expecting <stmt seq>";
+		p.goDown(1); // stmt
+		execStmt(p);
+		p.goUp();
+		if (p.currAlt() == 2) {
+			p.goDown(2); // stmt seq
+			execStmtSeq(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Executes a statement.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void execStmt(ParseTree p) {
+		assert p.currNT() == 6 : "Expecting <stmt>";
+		int alt = p.currAlt();
+		p.goDown(1);
+		switch (alt) { // determine alternative
+		case 1:
+			execAssign(p);
+			break;
+		case 2:
+			execIf(p);
+			break;
+		case 3:
+			execLoop(p);
+			break;
+		case 4:
+			p.goDown(1); // id list
+			readIdList(p);
+			p.goUp();
+			break;
+		case 5:
+			p.goDown(1); // id list
+			writeIdList(p);
+			p.goUp();
+			break;
+		}
+		p.goUp();
+	}
+
+	/**
+	 * Executes an assign statement.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void execAssign(ParseTree p) {
+		assert p.currNT() == 7 : "Expecting <assign>";
+		p.goDown(1); // id
+		int slot = p.currIdSlot();
+		p.goUp();
+
+		p.goDown(2); // exp
+		if (p.currBounded()) {
+			this.frame[slot] = evalExp(p);
+			this.big[slot] = null;
+			this.initialized.set(slot);
+		} else {
+			this.overflowed = false;
+			long val = evalExpExact(p);
+			if (this.overflowed) { // evaluate again
+				store(slot, evalExpBig(p));
+			} else {
+				this.frame[slot] = val;
+				this.big[slot] = null;
+				this.initialized.set(slot);
+			}
+		}
+		p.goUp();
+	}
+
+	/**
+	 * Executes a if statement.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void execIf(ParseTree p) {
+		assert p.currNT() == 8 : "Expecting <if>";
+		p.goDown(1); // cond
+		boolean cond = evalCond(p);
+		p.goUp();
+
+		if (cond) {
+			p.goDown(2); // stmt seq
+			execStmtSeq(p);
+			p.goUp();
+		} else if (p.currAlt() == 2) { // else clause
+			p.goDown(3); // stmt seq
+			execStmtSeq(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Executes a while statement.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void execLoop(ParseTree p) {
+		assert p.currNT() == 9 : "Expecting <loop>";
+		p.goDown(1); // cond
+		boolean cond = evalCond(p);
+		p.goUp();
+
+		while (cond) {
+			p.goDown(2); // stmt seq
+			execStmtSeq(p);
+			p.goUp();
+
+			p.goDown(1); // cond
+			cond = evalCond(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Reads a value for each identifier in a list of identifiers.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void readIdList(ParseTree p) {
+		assert p.currNT() == 5 : "Expecting <id list>";
+		p.goDown(1); // id
+		int slot = p.currIdSlot();
+		p.goUp();
+
+		try {
+			store(slot, this.scan != null ? this.scan.nextBigInteger()
+					: BigInteger.valueOf(this.binary.nextInt())); // get value
+		} catch (InputMismatchException e) {
+			System.err.println("Input is not an integer.");
+			System.exit(0);
+		} catch (NoSuchElementException e) {
+			System.err.println("Input is empty.");
+			System.exit(0);
+		}
+
+		if (p.currAlt() == 2) { // more ids
+			p.goDown(2); // id list
+			readIdList(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Writes the value of each identifier in a list of identifiers.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 */
+	private void writeIdList(ParseTree p) {
+		assert p.currNT() == 5 : "Expecting <id list>";
+		p.goDown(1); // id
+		int slot = useId(p);
+		p.goUp();
+
+		if (this.big[slot] != null) {
+			System.out.println(p.idName(slot) + " = " + this.big[slot]);
+		} else {
+			System.out.println(p.idName(slot) + " = " + this.frame[slot]);
+		}
+
+		if (p.currAlt() == 2) { // more ids
+			p.goDown(2); // id list
+			writeIdList(p);
+			p.goUp();
+		}
+	}
+
+	/**
+	 * Evaluates a condition. The second condition of && is only evaluated if
+	 * the first is true, and that of || if the first is false, unless
+	 * evaluation is eager.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @return true if the condition is true, false otherwise
+	 */
+	private boolean evalCond(ParseTree p) {
+		assert p.currNT() == 12 : "Expecting <cond>";
+		int alt = p.currAlt();
+		p.goDown(1);
+		boolean cond = alt == 1 ? evalComp(p) : evalCond(p);
+		p.goUp();
+		if (alt == 2) {
+			cond = !cond;
+		} else if (alt > 2 && (cond == (alt == 3) || this.eager)) {
+			p.goDown(2); // second cond
+			boolean second = evalCond(p);
+			p.goUp();
+			cond = alt == 3 ? cond && second : cond || second;
+		}
+		return cond;
+	}
+
+	/**
+	 * Evaluates a comparison between two operands.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @return true if the comparison evaluates to true, false otherwise
+	 */
+	private boolean evalComp(ParseTree p) {
+		assert p.currNT() == 13 : "Expecting <comp>";
+		int sign;
+		if (p.currBounded()) {
+			p.goDown(1); // op
+			long op1 = evalOp(p);
+			p.goUp();
+			p.goDown(3); // op
+			long op2 = evalOp(p);
+			p.goUp();
+			sign = Long.compare(op1, op2);
+		} else {
+			this.overflowed = false;
+			p.goDown(1); // op
+			long op1 = evalOpExact(p);
+			p.goUp();
+			p.goDown(3); // op
+			long op2 = evalOpExact(p);
+			p.goUp();
+			sign = Long.compare(op1, op2);
+			if (this.overflowed) { // evaluate again
+				p.goDown(1); // op
+				BigInteger big1 = evalOpBig(p);
+				p.goUp();
+				p.goDown(3); // op
+				BigInteger big2 = evalOpBig(p);
+				p.goUp();
+				sign = big1.compareTo(big2);
+			}
+		}
+
+		p.goDown(2); // comp op
+		int c = p.currAlt();
+		p.goUp();
+		switch (c) { // determine operation
+		case 1:
+			return sign != 0;
+		case 2:
+			return sign == 0;
+		case 3:
+			return sign < 0;
+		case 4:
+			return sign > 0;
+		case 5:
+			return sign <= 0;
+		default:
+			return sign >= 0;
+		}
+	}
+
+	/**
+	 * Evaluates an expression that cannot overflow.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @return the value of the expression
+	 */
+	private long evalExp(ParseTree p) {
+		assert p.currNT() == 14 : "Expecting <exp>";
+		p.goDown(1); // fac
+		long exp = evalFac(p);
+		p.goUp();
+
+		if (p.currAlt() == 2) { // +
+			p.goDown(2); // exp
+			exp = exp + evalExp(p);
+			p.goUp();
+		} else if (p.currAlt() == 3) { // -
+			p.goDown(2); // exp
+			exp = exp - evalExp(p);
+			p.goUp();
+		}
+		return exp;
+	}
+
+	/**
+	 * Evaluates a factor that cannot overflow.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @return the value of the factor
+	 */
+	private long evalFac(ParseTree p) {
+		assert p.currNT() == 15 : "Expecting <fac>";
+		p.goDown(1); // op
+		long fop = evalOp(p);
+		p.goUp();
+
+		if (p.currAlt() == 2) {
+			p.goDown(2); // fac
+			fop = fop * evalFac(p);
+			p.goUp();
+		}
+		return fop;
+	}
+
+	/**
+	 * Evaluates an operand that cannot overflow.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @return the value of the operand
+	 */
+	private long evalOp(ParseTree p) {
+		assert p.currNT() == 16 : "Expecting <op>";
+		long op;
+		p.goDown(1);
+		switch (p.currNT()) {
+		case 20: // int
+			op = p.currLong();
+			break;
+		case 18: // id
+			op = this.frame[useId(p)];
+			break;
+		default: // exp
+			op = evalExp(p);
+			break;
+		}
+		p.goUp();
+		return op;
+	}
+
+	/**
+	 * Evaluates an expression on longs, checking for overflow.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @return the value of the expression, which is meaningless if
+	 *         overflowed is set
+	 */
+	private long evalExpExact(ParseTree p) {
+		assert p.currNT() == 14 : "Expecting <exp>";
+		if (p.currBounded()) {
+			return evalExp(p);
+		}
+		p.goDown(1); // fac
+		long exp = evalFacExact(p);
+		p.goUp();
+
+		if (p.currAlt() == 2) { // +
+			p.goDown(2); // exp
+			exp = add(exp, evalExpExact(p));
+			p.goUp();
+		} else if (p.currAlt() == 3) { // -
+			p.goDown(2); // exp
+			exp = subtract(exp, evalExpExact(p));
+			p.goUp();
+		}
+		return exp;
+	}
+
+	/**
+	 * Evaluates a factor on longs, checking for overflow.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @return the value of the factor, which is meaningless if overflowed is
+	 *         set
+	 */
+	private long evalFacExact(ParseTree p) {
+		assert p.currNT() == 15 : "Expecting <fac>";
+		p.goDown(1); // op
+		long fop = evalOpExact(p);
+		p.goUp();
+
+		if (p.currAlt() == 2) {
+			p.goDown(2); // fac
+			fop = multiply(fop, evalFacExact(p));
+			p.goUp();
+		}
+		return fop;
+	}
+
+	/**
+	 * Evaluates an operand on longs, checking for overflow.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @return the value of the operand, which is meaningless if overflowed
+	 *         is set
+	 */
+	private long evalOpExact(ParseTree p) {
+		assert p.currNT() == 16 : "Expecting <op>";
+		long op;
+		p.goDown(1);
+		switch (p.currNT()) {
+		case 20: // int
+			op = p.currLong();
+			break;
+		case 18: // id
+			int slot = useId(p);
+			this.overflowed |= this.big[slot] != null;
+			op = this.frame[slot];
+			break;
+		default: // exp
+			op = evalExpExact(p);
+			break;
+		}
+		p.goUp();
+		return op;
+	}
+
+	/**
+	 * Evaluates an expression on BigIntegers.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @return the value of the expression
+	 */
+	private BigInteger evalExpBig(ParseTree p) {
+		assert p.currNT() == 14 : "Expecting <exp>";
+		p.goDown(1); // fac
+		BigInteger exp = evalFacBig(p);
+		p.goUp();
+
+		if (p.currAlt() == 2) { // +
+			p.goDown(2); // exp
+			exp = exp.add(evalExpBig(p));
+			p.goUp();
+		} else if (p.currAlt() == 3) { // -
+			p.goDown(2); // exp
+			exp = exp.subtract(evalExpBig(p));
+			p.goUp();
+		}
+		return exp;
+	}
+
+	/**
+	 * Evaluates a factor on BigIntegers.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @return the value of the factor
+	 */
+	private BigInteger evalFacBig(ParseTree p) {
+		assert p.currNT() == 15 : "Expecting <fac>";
+		p.goDown(1); // op
+		BigInteger fop = evalOpBig(p);
+		p.goUp();
+
+		if (p.currAlt() == 2) {
+			p.goDown(2); // fac
+			fop = fop.multiply(evalFacBig(p));
+			p.goUp();
+		}
+		return fop;
+	}
+
+	/**
+	 * Evaluates an operand on BigIntegers.
+	 *
+	 * @param p
+	 *            the parse tree that represents the program
+	 * @return the value of the operand
+	 */
+	private BigInteger evalOpBig(ParseTree p) {
+		assert p.currNT() == 16 : "Expecting <op>";
+		BigInteger op;
+		p.goDown(1);
+		switch (p.currNT()) {
+		case 20: // int
+			op = BigInteger.valueOf(p.currLong());
+			break;
+		case 18: // id
+			int slot = useId(p);
+			op = this.big[slot] != null ? this.big[slot] : BigInteger
+					.valueOf(this.frame[slot]);
+			break;
+		default: // exp
+			op = evalExpBig(p);
+			break;
+		}
+		p.goUp();
+		return op;
+	}
+
+	// public methods
+	/**
+	 * Initializes the file and scanner fields. Conditions are evaluated with
+	 * short-circuit.
+	 *
+	 * @param filename
+	 *            the name of the file the Core program reads from.
+	 */
+	public WideExecutor(String filename) {
+		this(filename, false);
+	}
+
+	/**
+	 * Initializes the file and scanner fields.
+	 *
+	 * @param filename
+	 *            the name of the file the Core program reads from.
+	 * @param eager
+	 *            whether both sides of && and || are always evaluated
+	 */
+	public WideExecutor(String filename, boolean eager) {
+		this.eager = eager;
+		try { // open scanner, or reader for a binary data file
+			if (BinaryIntReader.isBinary(filename)) {
+				this.binary = new BinaryIntReader(filename);
+			} else {
+				this.scan = new Scanner(new File(filename));
+			}
+		} catch (FileNotFoundException e) {
+			System.err.println("Input file not found.");
+			System.exit(0);
+		} catch (CoreExecutor.Failure e) {
+			System.err.println(e.getMessage());
+			System.exit(0);
+		}
+	}
+
+	@Override
+	public void execute(ParseTree p) {
+		assert p.currNT() == 1 : "Expecting <prog>";
+		this.frame = new long[p.idCount()];
+		this.big = new BigInteger[p.idCount()];
+		this.initialized = new BitSet(p.idCount());
+
+		p.goDown(2); // stmt seq
+		execStmtSeq(p);
+		p.goUp();
+
+		if (this.scan != null) {
+			this.scan.close(); // close scanner after done using it
+		}
+		if (this.binary != null) {
+			this.binary.close();
+		}
+	}
+}